@@ -0,0 +1,36 @@
+package onethreeseven.gpsstoptrack;
+
+import android.util.Log;
+
+/**
+ * Sends the core classes' logging (see {@link TrackerLog}) to android.util.Log.
+ */
+class AndroidLogSink implements TrackerLog.Sink {
+
+    @Override
+    public boolean isLoggable(String tag, int level) {
+        return Log.isLoggable(tag, level);
+    }
+
+    @Override
+    public void log(int level, String tag, String msg, Throwable tr) {
+        switch (level){
+            case TrackerLog.VERBOSE:
+                Log.v(tag, msg, tr);
+                break;
+            case TrackerLog.DEBUG:
+                Log.d(tag, msg, tr);
+                break;
+            case TrackerLog.INFO:
+                Log.i(tag, msg, tr);
+                break;
+            case TrackerLog.WARN:
+                Log.w(tag, msg, tr);
+                break;
+            default:
+                Log.e(tag, msg, tr);
+                break;
+        }
+    }
+
+}
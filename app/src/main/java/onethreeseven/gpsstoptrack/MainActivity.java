@@ -4,18 +4,19 @@ import android.Manifest;
 import android.animation.ValueAnimator;
 import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
-import android.location.Location;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.LocalBroadcastManager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.content.res.AppCompatResources;
 import android.util.Log;
@@ -48,18 +49,25 @@ public class MainActivity extends AppCompatActivity {
         }
     };
 
-    private BroadcastReceiver newLocationReceiver = new BroadcastReceiver() {
+    private final UiBridge.Receiver locationReceiver = new UiBridge.Receiver() {
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void onUpdate(UiBridge.Update update) {
             if(userFeedbackLog != null){
-                String locationKey = getString(R.string.key_location);
-                Location location = intent.getParcelableExtra(locationKey);
-                if(location == null){return;}
-                userFeedbackLog.logLocationChanged(location);
+                userFeedbackLog.logLocationChanged(update);
             }
         }
     };
 
+    private BroadcastReceiver trailRecoveredReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.i(MainActivity.class.getSimpleName(), "Broadcast of interrupted trail received");
+            Bundle bundle = intent.getExtras();
+            if(bundle == null){return;}
+            offerToResumeTrail(bundle);
+        }
+    };
+
     private static final int PERMISSIONS_REQUEST_CODE = 137;
     private static final String[] manifestPermissions = new String[]{
             Manifest.permission.ACCESS_FINE_LOCATION,
@@ -72,7 +80,16 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        userFeedbackLog = new UserFeedbackLog((TextView) findViewById(R.id.statusText));
+        TextView statusText = (TextView) findViewById(R.id.statusText);
+        userFeedbackLog = new UserFeedbackLog(statusText);
+        //long press the status to see how the tracker is performing
+        statusText.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                showMetrics();
+                return true;
+            }
+        });
         //acquire permission for fine location tracking
         acquirePermissions();
         //if they are already granted, do the setup
@@ -97,8 +114,10 @@ public class MainActivity extends AppCompatActivity {
         //register receiver
         localBroadcastManager.registerReceiver(movementChangedReceiver,
                 new IntentFilter(getString(R.string.receiver_activity_toggle_should_change)));
-        localBroadcastManager.registerReceiver(newLocationReceiver,
-                new IntentFilter(getString(R.string.receiver_new_location)));
+        localBroadcastManager.registerReceiver(trailRecoveredReceiver,
+                new IntentFilter(getString(R.string.receiver_trail_recovered)));
+        //only get location updates while the activity is visible
+        UiBridge.getInstance().setReceiver(locationReceiver);
     }
 
     @Override
@@ -107,7 +126,8 @@ public class MainActivity extends AppCompatActivity {
         super.onStop();
         LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(this);
         localBroadcastManager.unregisterReceiver(movementChangedReceiver);
-        localBroadcastManager.unregisterReceiver(newLocationReceiver);
+        localBroadcastManager.unregisterReceiver(trailRecoveredReceiver);
+        UiBridge.getInstance().setReceiver(null);
     }
 
     @Override
@@ -124,6 +144,8 @@ public class MainActivity extends AppCompatActivity {
         setupMovementToggle(bundle);
         setupRecordingIntervalSpinner(bundle);
         this.userFeedbackLog.logReady();
+        //ask the user about any interrupted trail before they can start recording
+        checkForInterruptedTrail();
     }
 
     private void setupRecordingIntervalSpinner(Bundle bundle){
@@ -275,6 +297,44 @@ public class MainActivity extends AppCompatActivity {
         spinner.setEnabled(false);
     }
 
+    private void offerToResumeTrail(final Bundle recoveredState){
+        long fixCount = recoveredState.getLong(getString(R.string.key_recovered_fix_count));
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.resume_trail_title))
+                .setMessage(getString(R.string.resume_trail_message, fixCount))
+                .setCancelable(false)
+                .setPositiveButton(getString(R.string.resume_trail_resume), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        resumeRecording(recoveredState);
+                    }
+                })
+                .setNegativeButton(getString(R.string.resume_trail_discard), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        changeResumeTrail(false);
+                    }
+                })
+                .show();
+    }
+
+    private void showMetrics(){
+        //the service runs in this process, so its metrics can be read live
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.metrics_title))
+                .setMessage(Metrics.isEnabled() ? Metrics.snapshot() : getString(R.string.metrics_disabled))
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
+    }
+
+    private void resumeRecording(Bundle recoveredState){
+        //show the state the interrupted session was in
+        setupMovementToggle(recoveredState);
+        setupRecordingIntervalSpinner(recoveredState);
+        changeResumeTrail(true);
+        startRecording();
+    }
+
     private void endRecording(){
         stopService(new Intent(this, RecordingService.class));
         recordBtnAnim.cancel();
@@ -333,6 +393,18 @@ public class MainActivity extends AppCompatActivity {
         startService(changeIntervalIntent);
     }
 
+    private void checkForInterruptedTrail(){
+        Intent recoverTrailIntent = new Intent(this, RecordingService.class);
+        recoverTrailIntent.putExtra(getString(R.string.key_recover_trail), true);
+        startService(recoverTrailIntent);
+    }
+
+    private void changeResumeTrail(boolean resumeTrail){
+        Intent resumeTrailIntent = new Intent(this, RecordingService.class);
+        resumeTrailIntent.putExtra(getString(R.string.key_resume_trail), resumeTrail);
+        startService(resumeTrailIntent);
+    }
+
     private void changeIsRecording(boolean isRecording){
         userFeedbackLog.logRecordingChanged(isRecording);
         Intent changeIntervalIntent = new Intent(this, RecordingService.class);
@@ -9,9 +9,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.drawable.Drawable;
-import android.location.Location;
 import android.location.LocationManager;
 import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.IBinder;
@@ -23,6 +23,8 @@ import android.util.Log;
 import android.widget.RemoteViews;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * Service that tracks location while it is recording
@@ -37,10 +39,10 @@ public class RecordingService extends Service {
         public void onReceive(Context context, Intent intent) {
             if(trackerState == null){return;}
             //toggle whatever the tracker state is
-            handleIsStoppedChanged(!trackerState.isStopped());
+            trackerState.toggleIsStopped();
 
             Intent toggleMovementIntent = new Intent(getString(R.string.receiver_activity_toggle_should_change));
-            toggleMovementIntent.putExtras(trackerState.getBundle());
+            toggleMovementIntent.putExtras(trackerState.toBundle());
             LocalBroadcastManager.getInstance(context).sendBroadcast(toggleMovementIntent);
             //RecordingService.this.sendBroadcast(toggleMovementIntent);
         }
@@ -50,6 +52,15 @@ public class RecordingService extends Service {
     private TrackerState trackerState = null;
     private GpsTracker gpsTracker = null;
     private TrailWriter trailWriter = null;
+    //an interrupted trail the user has been asked about and whether they want to resume it
+    private RecoveredTrail recoveredTrail = null;
+    private boolean resumeRecoveredTrail = false;
+    //scores stop detectors against the user's annotation while recording (null if stop detection is off)
+    private StopDetectionConsumer stopDetection = null;
+    //the current recording's location consumers (null while not recording)
+    private RecordingSession session = null;
+    //the current recording's recent locations (null until the first recording)
+    private FixHistory fixHistory = null;
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
@@ -62,24 +73,107 @@ public class RecordingService extends Service {
         //parse parameters passed in as extras
         Bundle extras = intent.getExtras();
         if(extras != null){
+            handleRecoverTrail(extras);
+            handleResumeTrailChanged(extras);
             handleIsRecordingChanged(extras);
             handleIsStoppedChanged(extras);
             handleRecordingIntervalChanged(extras);
+            handleTrailFormatChanged(extras);
+            handleStopDetectionChanged(extras);
+            handleSelectionMethodChanged(extras);
+            handleSmoothingChanged(extras);
+            handleSimplificationChanged(extras);
+            handleMetricsChanged(extras);
+            handleRotationChanged(extras);
         }
         return START_NOT_STICKY;
     }
 
     private void init(){
+        TrackerLog.setSink(new AndroidLogSink());
         trackerState = new TrackerState(this);
+        trackerState.addListener(new TrackerState.Listener() {
+            @Override
+            public void onStateChanged(TrackerState.Snapshot previous, TrackerState.Snapshot current) {
+                if(previous.isStopped() != current.isStopped()){
+                    onIsStoppedChanged(current);
+                }
+            }
+        });
         LocationManager lm = (LocationManager) this.getSystemService(Context.LOCATION_SERVICE);
         gpsTracker = new GpsTracker(lm);
+        //log each change in how locations are requested, with the battery level, to measure their effect
+        gpsTracker.addSamplingListener(new SamplingListener() {
+            @Override
+            public void onSamplingChanged(SamplingEvent event) {
+                Log.i(RecordingService.class.getSimpleName(), "Sampling " + event +
+                        ", battery " + getBatteryPercent() + "%");
+            }
+        });
         //listen for changes in state from the custom notification
         registerReceiver(movementChangedReceiver,
                 new IntentFilter(getString(R.string.receiver_movement_changed)));
         trailWriter = new TrailWriter(Environment.getExternalStorageDirectory());
+        //keep the trails spatially indexed, so they can be searched by area without reading them all
+        trailWriter.setIndexTrails(true);
+        Metrics.setEnabled(trackerState.isMetricsEnabled());
         initialised = true;
     }
 
+    /**
+     * Look for a trail left behind by a recording that was killed and offer to resume it.
+     * The trail is left as it is (neither resumed nor sealed) until the user answers, see
+     * {@link #handleResumeTrailChanged(boolean)}.
+     */
+    private void recoverInterruptedTrail(){
+        //the trail being recorded is not interrupted
+        if(trackerState.isRecording()){return;}
+        //ask again about a trail the user has not answered for yet (e.g. the activity was recreated)
+        if(recoveredTrail == null){
+            recoveredTrail = TrailRecovery.recover(trailWriter.getTrailsDir());
+        }
+        if(recoveredTrail == null){return;}
+        Log.i(RecordingService.class.getSimpleName(),
+                "Found interrupted trail " + recoveredTrail.getFile().getName());
+        //pass the recovered state to the activity so it can ask the user
+        Intent trailRecoveredIntent = new Intent(getString(R.string.receiver_trail_recovered));
+        trailRecoveredIntent.putExtra(getString(R.string.key_recovered_fix_count), recoveredTrail.getFixCount());
+        trailRecoveredIntent.putExtra(getString(R.string.key_is_stopped), recoveredTrail.isStopped());
+        trailRecoveredIntent.putExtra(getString(R.string.key_recording_interval), recoveredTrail.getRecordingInterval());
+        LocalBroadcastManager.getInstance(this).sendBroadcast(trailRecoveredIntent);
+    }
+
+    private void handleRecoverTrail(Bundle extras){
+        String recoverTrailKey = getString(R.string.key_recover_trail);
+        //the activity is asking whether there is an interrupted trail to resume
+        if(extras.getBoolean(recoverTrailKey, false)){
+            recoverInterruptedTrail();
+        }
+    }
+
+    private void handleResumeTrailChanged(boolean shouldResume){
+        if(recoveredTrail == null){return;}
+        if(shouldResume){
+            resumeRecoveredTrail = true;
+            //carry on with the state the interrupted session was in
+            handleIsStoppedChanged(recoveredTrail.isStopped());
+            handleRecordingIntervalChanged(recoveredTrail.getRecordingInterval());
+            //the resumed trail stays a journal, the user's trail format is left for their next recording
+        }else{
+            TrailRecovery.seal(recoveredTrail);
+            recoveredTrail = null;
+        }
+    }
+
+    private void handleResumeTrailChanged(Bundle extras){
+        String resumeTrailKey = getString(R.string.key_resume_trail);
+        //resume (or discard) the interrupted trail
+        if(extras.containsKey(resumeTrailKey)){
+            boolean shouldResume = extras.getBoolean(resumeTrailKey);
+            handleResumeTrailChanged(shouldResume);
+        }
+    }
+
     private void handleIsRecordingChanged(boolean shouldStartRecording){
         boolean isCurrentlyRecording = trackerState.isRecording();
         if(shouldStartRecording != isCurrentlyRecording){
@@ -103,10 +197,14 @@ public class RecordingService extends Service {
 
     private void handleIsStoppedChanged(boolean isStopped){
         trackerState.setIsStopped(isStopped);
+    }
+
+    private void onIsStoppedChanged(TrackerState.Snapshot state){
+        gpsTracker.setStopped(state.isStopped());
         Log.i(RecordingService.class.getSimpleName(),
-                "Changed to " + (isStopped ? "stopped" : "moving"));
+                "Changed to " + (state.isStopped() ? "stopped" : "moving") + " (state v" + state.getVersion() + ")");
         //update the notification if movement state is changed
-        if(trackerState.isRecording()){
+        if(state.isRecording()){
             updateNotification();
         }
     }
@@ -135,11 +233,118 @@ public class RecordingService extends Service {
                 "Recording interval set to " + recordingInterval);
     }
 
+    private void handleTrailFormatChanged(Bundle extras){
+        String trailFormatKey = getString(R.string.key_trail_format);
+        //change the format new trails are written in (takes effect on the next recording)
+        if(extras.containsKey(trailFormatKey)){
+            TrailFormat trailFormat = TrailFormat.valueOf(extras.getString(trailFormatKey));
+            handleTrailFormatChanged(trailFormat);
+        }
+    }
+
+    private void handleTrailFormatChanged(TrailFormat trailFormat){
+        trackerState.setTrailFormat(trailFormat);
+        Log.i(RecordingService.class.getSimpleName(),
+                "Trail format set to " + trailFormat);
+    }
+
+    private void handleStopDetectionChanged(Bundle extras){
+        String stopDetectionKey = getString(R.string.key_stop_detection);
+        //turn stop detection on/off (takes effect on the next recording)
+        if(extras.containsKey(stopDetectionKey)){
+            boolean stopDetectionEnabled = extras.getBoolean(stopDetectionKey);
+            handleStopDetectionChanged(stopDetectionEnabled);
+        }
+    }
+
+    private void handleStopDetectionChanged(boolean stopDetectionEnabled){
+        trackerState.setStopDetectionEnabled(stopDetectionEnabled);
+        Log.i(RecordingService.class.getSimpleName(),
+                "Stop detection " + (stopDetectionEnabled ? "enabled" : "disabled"));
+    }
+
+    private void handleSelectionMethodChanged(Bundle extras){
+        String selectionMethodKey = getString(R.string.key_selection_method);
+        //change how the fix recorded each interval is selected (takes effect on the next recording)
+        if(extras.containsKey(selectionMethodKey)){
+            SelectionMethod selectionMethod = SelectionMethod.valueOf(extras.getString(selectionMethodKey));
+            handleSelectionMethodChanged(selectionMethod);
+        }
+    }
+
+    private void handleSelectionMethodChanged(SelectionMethod selectionMethod){
+        trackerState.setSelectionMethod(selectionMethod);
+        Log.i(RecordingService.class.getSimpleName(),
+                "Selection method set to " + selectionMethod);
+    }
+
+    private void handleSmoothingChanged(Bundle extras){
+        String smoothingKey = getString(R.string.key_smoothing);
+        //turn smoothing of the recorded fixes on/off (takes effect on the next recording)
+        if(extras.containsKey(smoothingKey)){
+            boolean smoothingEnabled = extras.getBoolean(smoothingKey);
+            handleSmoothingChanged(smoothingEnabled);
+        }
+    }
+
+    private void handleSmoothingChanged(boolean smoothingEnabled){
+        trackerState.setSmoothingEnabled(smoothingEnabled);
+        Log.i(RecordingService.class.getSimpleName(),
+                "Smoothing " + (smoothingEnabled ? "enabled" : "disabled"));
+    }
+
+    private void handleSimplificationChanged(Bundle extras){
+        String simplificationKey = getString(R.string.key_simplification);
+        //change how far trails are simplified (takes effect on the next recording)
+        if(extras.containsKey(simplificationKey)){
+            float maxErrorMeters = extras.getFloat(simplificationKey);
+            handleSimplificationChanged(maxErrorMeters);
+        }
+    }
+
+    private void handleSimplificationChanged(float maxErrorMeters){
+        trackerState.setSimplification(maxErrorMeters);
+        Log.i(RecordingService.class.getSimpleName(), maxErrorMeters > 0 ?
+                "Simplifying trails to " + maxErrorMeters + "m" : "Not simplifying trails");
+    }
+
+    private void handleMetricsChanged(Bundle extras){
+        String metricsKey = getString(R.string.key_metrics);
+        //turn collecting metrics on/off (takes effect straight away)
+        if(extras.containsKey(metricsKey)){
+            boolean metricsEnabled = extras.getBoolean(metricsKey);
+            handleMetricsChanged(metricsEnabled);
+        }
+    }
+
+    private void handleMetricsChanged(boolean metricsEnabled){
+        trackerState.setMetricsEnabled(metricsEnabled);
+        Metrics.setEnabled(metricsEnabled);
+        Log.i(RecordingService.class.getSimpleName(),
+                "Metrics " + (metricsEnabled ? "enabled" : "disabled"));
+    }
+
+    private void handleRotationChanged(Bundle extras){
+        String rotationKey = getString(R.string.key_rotation);
+        //turn splitting long sessions into chunks on/off (takes effect on the next recording)
+        if(extras.containsKey(rotationKey)){
+            boolean rotationEnabled = extras.getBoolean(rotationKey);
+            handleRotationChanged(rotationEnabled);
+        }
+    }
+
+    private void handleRotationChanged(boolean rotationEnabled){
+        trackerState.setRotationEnabled(rotationEnabled);
+        Log.i(RecordingService.class.getSimpleName(),
+                "Rotation " + (rotationEnabled ? "enabled" : "disabled"));
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
         unregisterReceiver(movementChangedReceiver);
-        stopRecording();
+        //only if still recording, stopping again would dump the metrics over the recording's
+        handleIsRecordingChanged(false);
     }
 
     @Nullable
@@ -180,7 +385,7 @@ public class RecordingService extends Service {
         Intent notificationIntent = new Intent(this, MainActivity.class);
         notificationIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         //pass back the current tracker state (so we can restore correctly to the activity)
-        notificationIntent.putExtras(trackerState.getBundle());
+        notificationIntent.putExtras(trackerState.toBundle());
 
         PendingIntent pendingIntent = PendingIntent.getActivity(
                 this, LOCATION_FOREGROUND_SERVICE, notificationIntent, PendingIntent.FLAG_UPDATE_CURRENT);
@@ -204,25 +409,72 @@ public class RecordingService extends Service {
     private void startRecording(){
         Log.i(RecordingService.class.getSimpleName(), "Recording service started");
         startForeground(LOCATION_FOREGROUND_SERVICE, makeStatusBarNotification());
-        //make a new file to write the trail to
-        trailWriter.newTrailFile();
-        //add a consumer to write each new location
-        final String newLocationFoundAction = getString(R.string.receiver_new_location);
-        final String locationKey = getString(R.string.key_location);
-        final LocalBroadcastManager localBroadcastManager = LocalBroadcastManager.getInstance(this);
-
-        gpsTracker.addLocationConsumer(new LocationConsumer() {
+        //each recording's metrics start from zero
+        Metrics.reset();
+        trailWriter.setSimplification(trackerState.getSimplification());
+        //multi-day sessions can be split into chunks that are easier to copy off and read
+        if(trackerState.isRotationEnabled()){
+            trailWriter.setRotation(TrailWriter.DEFAULT_MAX_CHUNK_BYTES, TrailWriter.DEFAULT_MAX_CHUNK_MILLIS, 0);
+        }else{
+            trailWriter.setRotation(0, 0, 0);
+        }
+        if(recoveredTrail != null && resumeRecoveredTrail){
+            //carry on writing the interrupted trail
+            trailWriter.resumeTrailFile(recoveredTrail);
+            recoveredTrail = null;
+            resumeRecoveredTrail = false;
+        }else{
+            //make a new file to write the trail to (an interrupted trail the user
+            //has not answered for yet is left alone)
+            trailWriter.newTrailFile(trackerState.getTrailFormat(), trackerState.getRecordingInterval());
+        }
+        session = new RecordingSession(gpsTracker);
+        //pass the recording's locations to the activity (it only wakes the gui up once a frame)
+        UiBridge uiBridge = UiBridge.getInstance();
+        uiBridge.reset();
+        //its totals need every location, and it never holds the tracker up for long
+        session.subscribe(uiBridge);
+        //add a consumer to keep the recent locations, so they can be looked back over
+        fixHistory = FixHistory.forInterval(trackerState.getRecordingInterval() * 1000L,
+                FixHistory.DEFAULT_MAX_AGE_MILLIS);
+        final FixHistory history = fixHistory;
+        session.subscribe(new LocationConsumer() {
             @Override
-            public void consume(Location location) {
-                //broadcast the new location back to the main activity (to update the gui)
-                Intent newLocationFoundIntent = new Intent(newLocationFoundAction);
-                newLocationFoundIntent.putExtra(locationKey, location);
-                localBroadcastManager.sendBroadcast(newLocationFoundIntent);
-                //write the new location to the trail file
-                trailWriter.write(location, trackerState.isStopped());
+            public void consume(Fix fix) {
+                history.append(fix, trackerState.isStopped());
             }
         });
-        gpsTracker.startTracking(trackerState.getRecordingInterval() * 1000L);
+        //add a consumer to write each new location to the trail file
+        if(trackerState.isStopDetectionEnabled()){
+            stopDetection = new StopDetectionConsumer(trackerState, trailWriter,
+                    new SlidingWindowStopDetector(), new SpeedStopDetector());
+            session.subscribe(stopDetection);
+        }else{
+            stopDetection = null;
+            session.subscribe(new LocationConsumer() {
+                @Override
+                public void consume(Fix fix) {
+                    trailWriter.write(fix, trackerState.isStopped());
+                }
+            });
+        }
+        gpsTracker.setSelectionStrategy(trackerState.getSelectionMethod().newStrategy());
+        gpsTracker.setSmoother(trackerState.isSmoothingEnabled() ? new KalmanSmoother() : null);
+        gpsTracker.startTracking(trackerState.getRecordingInterval() * 1000L, trackerState.isStopped());
+    }
+
+    /**
+     * @return The battery level (percent), or -1 if unknown.
+     */
+    private int getBatteryPercent(){
+        //battery changes are sticky, so this returns the latest without registering anything
+        Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if(batteryStatus == null){
+            return -1;
+        }
+        int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return (level < 0 || scale <= 0) ? -1 : level * 100 / scale;
     }
 
     private void stopRecording(){
@@ -230,12 +482,37 @@ public class RecordingService extends Service {
 
         //end recording from gps tracker
         gpsTracker.stopTracking();
+        //let the session's consumers finish the locations sent to them, then drop them
+        if(session != null){
+            session.close();
+            session = null;
+        }
+        if(fixHistory != null){
+            Log.i(RecordingService.class.getSimpleName(), "Recent locations: " + fixHistory);
+        }
+        if(stopDetection != null){
+            Log.i(RecordingService.class.getSimpleName(), "Stop detection results:\n" + stopDetection.summary());
+        }
         //write the trail file
-        File trailFile = trailWriter.closeTrailFile();
-        //make file discoverable by android
-        Intent intent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-        intent.setData(Uri.fromFile(trailFile));
-        this.getApplicationContext().sendBroadcast(intent);
+        trailWriter.closeTrailFile();
+        List<File> sessionFiles = trailWriter.getSessionFiles();
+        //keep the recording's metrics next to its trail
+        if(Metrics.isEnabled() && trailWriter.getSessionName() != null){
+            File metricsFile = new File(trailWriter.getTrailsDir(), trailWriter.getSessionName() + ".metrics");
+            try {
+                Metrics.dump(metricsFile);
+                sessionFiles.add(metricsFile);
+                Log.i(RecordingService.class.getSimpleName(), "Metrics:\n" + Metrics.snapshot());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        //make the session's files discoverable by android
+        for (File sessionFile : sessionFiles) {
+            Intent intent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
+            intent.setData(Uri.fromFile(sessionFile));
+            this.getApplicationContext().sendBroadcast(intent);
+        }
 
         //stop this service
         stopForeground(true);
@@ -0,0 +1,105 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Writes each fix to the trail together with the movement state predicted by a stop detector,
+ * and scores every detector against the user's annotation as the fixes come in.
+ * The first detector's prediction is the one written to the trail, all of them are scored
+ * (stopped is the positive class) so their precision/recall can be read at any time.
+ * Fixes are consumed on the consumer's own thread (see {@link FixBus}), the scores are only
+ * approximate while fixes are still coming in.
+ */
+class StopDetectionConsumer implements LocationConsumer {
+
+    private final TrackerState trackerState;
+    private final TrailWriter trailWriter;
+    private final StopDetector[] detectors;
+
+    //confusion matrix per detector
+    private final long[] truePositives;
+    private final long[] falsePositives;
+    private final long[] trueNegatives;
+    private final long[] falseNegatives;
+
+    /**
+     * @param trackerState Supplies the user's (ground truth) movement state.
+     * @param trailWriter The trail to write fixes to.
+     * @param detectors At least one detector, the first one's predictions go in the trail.
+     */
+    StopDetectionConsumer(TrackerState trackerState, TrailWriter trailWriter, StopDetector... detectors){
+        if(detectors.length == 0){
+            throw new IllegalArgumentException("At least one stop detector is needed");
+        }
+        this.trackerState = trackerState;
+        this.trailWriter = trailWriter;
+        this.detectors = detectors;
+        this.truePositives = new long[detectors.length];
+        this.falsePositives = new long[detectors.length];
+        this.trueNegatives = new long[detectors.length];
+        this.falseNegatives = new long[detectors.length];
+    }
+
+    @Override
+    public void consume(Fix fix) {
+        boolean isStopped = trackerState.isStopped();
+        boolean writtenPrediction = false;
+        for (int i = 0; i < detectors.length; i++) {
+            boolean predictedStopped = detectors[i].onFix(fix);
+            if(i == 0){
+                writtenPrediction = predictedStopped;
+            }
+            if(predictedStopped){
+                if(isStopped){ truePositives[i]++; }else{ falsePositives[i]++; }
+            }else{
+                if(isStopped){ falseNegatives[i]++; }else{ trueNegatives[i]++; }
+            }
+        }
+        trailWriter.write(fix, isStopped,
+                writtenPrediction ? TrailEncoder.PREDICTED_STOPPED : TrailEncoder.PREDICTED_MOVING);
+    }
+
+    int getDetectorCount(){
+        return detectors.length;
+    }
+
+    StopDetector getDetector(int i){
+        return detectors[i];
+    }
+
+    /**
+     * @return Fraction of predicted stops that were annotated stops (NaN if nothing predicted stopped yet).
+     */
+    double getPrecision(int detector){
+        return (double) truePositives[detector] / (truePositives[detector] + falsePositives[detector]);
+    }
+
+    /**
+     * @return Fraction of annotated stops that were predicted stops (NaN if no annotated stops yet).
+     */
+    double getRecall(int detector){
+        return (double) truePositives[detector] / (truePositives[detector] + falseNegatives[detector]);
+    }
+
+    /**
+     * @return Fraction of fixes where the prediction matched the annotation.
+     */
+    double getAccuracy(int detector){
+        long correct = truePositives[detector] + trueNegatives[detector];
+        return (double) correct / (correct + falsePositives[detector] + falseNegatives[detector]);
+    }
+
+    /**
+     * @return One line per detector with its precision/recall/accuracy so far.
+     */
+    String summary(){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < detectors.length; i++) {
+            sb.append(detectors[i].getName())
+                    .append(": precision=").append(getPrecision(i))
+                    .append(" recall=").append(getRecall(i))
+                    .append(" accuracy=").append(getAccuracy(i))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+}
@@ -4,78 +4,405 @@ package onethreeseven.gpsstoptrack;
 import android.content.Context;
 import android.os.Bundle;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * The application (tracker) state.
- * I.e Whether the tracker is recording, whether the user is stopped or moving, and the recording
- * interval in second. The state is stored by wrapping a bundle.
+ * I.e Whether the tracker is recording, whether the user is stopped or moving, the recording
+ * interval in second, the format trails are written in, whether stop detection runs, how
+ * the fix recorded each interval is selected, whether it is smoothed, how far trails
+ * may be simplified, whether {@link Metrics} are collected and whether long sessions are rotated into chunks.
+ * The state is an immutable {@link Snapshot}, replaced as a whole on every change, so it can be read
+ * from any thread (e.g. by location consumers for every fix, see {@link FixBus}) with a single volatile read.
+ * Changes are atomic (made to a copy that is compare-and-set in), each one makes a new version and is
+ * passed to the {@link Listener}s.
+ * The state is only converted to/from a bundle where it goes in or out of an intent.
  */
 class TrackerState {
 
-    private final String IS_RECORDING;
-    private static final boolean DEFAULT_IS_RECORDING = false;
+    /**
+     * Told about each change to the state.
+     */
+    interface Listener {
 
-    private final String IS_STOPPED;
+        /**
+         * Called on the thread that made the change. Changes made on different threads at once
+         * may be told out of order, the snapshots' versions say which came first.
+         */
+        void onStateChanged(Snapshot previous, Snapshot current);
+
+    }
+
+    private static final boolean DEFAULT_IS_RECORDING = false;
     private static final boolean DEFAULT_IS_STOPPED = false;
+    private static final int DEFAULT_RECORDING_INTERVAL = 1;
+    private static final TrailFormat DEFAULT_TRAIL_FORMAT = TrailFormat.CSV;
+    private static final boolean DEFAULT_STOP_DETECTION = false;
+    private static final SelectionMethod DEFAULT_SELECTION_METHOD = SelectionMethod.ACCURACY_WEIGHTED;
+    private static final boolean DEFAULT_SMOOTHING = false;
+    private static final float DEFAULT_SIMPLIFICATION = 0;
+    private static final boolean DEFAULT_METRICS = true;
+    private static final boolean DEFAULT_ROTATION = false;
 
+    //bundle keys
+    private final String IS_RECORDING;
+    private final String IS_STOPPED;
     private final String RECORDING_INTERVAL;
-    private static final int DEFAULT_RECORDING_INTERVAL = 1;
+    private final String TRAIL_FORMAT;
+    private final String STOP_DETECTION;
+    private final String SELECTION_METHOD;
+    private final String SMOOTHING;
+    private final String SIMPLIFICATION;
+    private final String METRICS;
+    private final String ROTATION;
 
-    private final Bundle bundle;
+    private final AtomicReference<Snapshot> state = new AtomicReference<>(defaults());
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
 
     TrackerState(Context context){
-        this.bundle = new Bundle();
         this.IS_RECORDING = context.getString(R.string.key_is_recording);
         this.IS_STOPPED = context.getString(R.string.key_is_stopped);
         this.RECORDING_INTERVAL = context.getString(R.string.key_recording_interval);
-        setIsRecording(DEFAULT_IS_RECORDING);
-        setIsStopped(DEFAULT_IS_STOPPED);
-        setRecordingInterval(DEFAULT_RECORDING_INTERVAL);
+        this.TRAIL_FORMAT = context.getString(R.string.key_trail_format);
+        this.STOP_DETECTION = context.getString(R.string.key_stop_detection);
+        this.SELECTION_METHOD = context.getString(R.string.key_selection_method);
+        this.SMOOTHING = context.getString(R.string.key_smoothing);
+        this.SIMPLIFICATION = context.getString(R.string.key_simplification);
+        this.METRICS = context.getString(R.string.key_metrics);
+        this.ROTATION = context.getString(R.string.key_rotation);
     }
 
-    public TrackerState(Context context, Bundle otherBundle){
-        this(context);
-        setFrom(otherBundle);
+    void addListener(Listener listener){
+        listeners.add(listener);
     }
 
-    private void setFrom(Bundle otherBundle){
-        if(otherBundle == null){return;}
-        if(otherBundle.containsKey(IS_RECORDING)){
-            this.bundle.putBoolean(IS_RECORDING, otherBundle.getBoolean(IS_RECORDING));
-        }
-        if(otherBundle.containsKey(IS_STOPPED)){
-            this.bundle.putBoolean(IS_STOPPED, otherBundle.getBoolean(IS_STOPPED));
-        }
-        if(otherBundle.containsKey(RECORDING_INTERVAL)){
-            this.bundle.putInt(RECORDING_INTERVAL, otherBundle.getInt(RECORDING_INTERVAL));
-        }
+    /**
+     * @return The current state as a new bundle, e.g. for the extras of an intent.
+     */
+    Bundle toBundle(){
+        Snapshot current = state.get();
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(IS_RECORDING, current.isRecording());
+        bundle.putBoolean(IS_STOPPED, current.isStopped());
+        bundle.putInt(RECORDING_INTERVAL, current.getRecordingInterval());
+        bundle.putString(TRAIL_FORMAT, current.getTrailFormat().name());
+        bundle.putBoolean(STOP_DETECTION, current.isStopDetectionEnabled());
+        bundle.putString(SELECTION_METHOD, current.getSelectionMethod().name());
+        bundle.putBoolean(SMOOTHING, current.isSmoothingEnabled());
+        bundle.putFloat(SIMPLIFICATION, current.getSimplification());
+        bundle.putBoolean(METRICS, current.isMetricsEnabled());
+        bundle.putBoolean(ROTATION, current.isRotationEnabled());
+        return bundle;
     }
 
-    void setIsRecording(boolean isRecording){
-        this.bundle.putBoolean(IS_RECORDING, isRecording);
+    void setIsRecording(final boolean isRecording){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.isRecording = isRecording;
+            }
+        });
     }
 
     boolean isRecording(){
-        return this.bundle.getBoolean(IS_RECORDING, DEFAULT_IS_RECORDING);
+        return state.get().isRecording();
     }
 
     boolean isStopped(){
-        return this.bundle.getBoolean(IS_STOPPED, DEFAULT_IS_STOPPED);
+        return state.get().isStopped();
+    }
+
+    void setIsStopped(final boolean isStopped){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.isStopped = isStopped;
+            }
+        });
     }
 
-    void setIsStopped(boolean isStopped){
-        this.bundle.putBoolean(IS_STOPPED, isStopped);
+    /**
+     * Switch between stopped and moving.
+     * @return Whether the user is now stopped.
+     */
+    boolean toggleIsStopped(){
+        return update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.isStopped = !next.isStopped;
+            }
+        }).isStopped();
     }
 
     int getRecordingInterval(){
-        return this.bundle.getInt(RECORDING_INTERVAL, DEFAULT_RECORDING_INTERVAL);
+        return state.get().getRecordingInterval();
+    }
+
+    void setRecordingInterval(final int seconds){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.recordingInterval = seconds;
+            }
+        });
+    }
+
+    TrailFormat getTrailFormat(){
+        return state.get().getTrailFormat();
+    }
+
+    void setTrailFormat(final TrailFormat format){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.trailFormat = format;
+            }
+        });
+    }
+
+    boolean isStopDetectionEnabled(){
+        return state.get().isStopDetectionEnabled();
+    }
+
+    void setStopDetectionEnabled(final boolean stopDetectionEnabled){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.stopDetectionEnabled = stopDetectionEnabled;
+            }
+        });
+    }
+
+    SelectionMethod getSelectionMethod(){
+        return state.get().getSelectionMethod();
+    }
+
+    void setSelectionMethod(final SelectionMethod method){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.selectionMethod = method;
+            }
+        });
+    }
+
+    boolean isSmoothingEnabled(){
+        return state.get().isSmoothingEnabled();
+    }
+
+    void setSmoothingEnabled(final boolean smoothingEnabled){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.smoothingEnabled = smoothingEnabled;
+            }
+        });
+    }
+
+    /**
+     * @return Max error (meters) trails are simplified to, 0 if they are not.
+     */
+    float getSimplification(){
+        return state.get().getSimplification();
+    }
+
+    void setSimplification(final float maxErrorMeters){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.simplification = maxErrorMeters;
+            }
+        });
+    }
+
+    boolean isMetricsEnabled(){
+        return state.get().isMetricsEnabled();
+    }
+
+    void setMetricsEnabled(final boolean metricsEnabled){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.metricsEnabled = metricsEnabled;
+            }
+        });
     }
 
-    void setRecordingInterval(int seconds){
-        this.bundle.putInt(RECORDING_INTERVAL, seconds);
+    /**
+     * @return Whether long sessions are split into chunk files listed in a manifest (see TrailManifest),
+     * rather than written to a single trail file.
+     */
+    boolean isRotationEnabled(){
+        return state.get().isRotationEnabled();
     }
 
-    public Bundle getBundle(){
-        return this.bundle;
+    void setRotationEnabled(final boolean rotationEnabled){
+        update(new Change() {
+            @Override
+            public void apply(Snapshot next) {
+                next.rotationEnabled = rotationEnabled;
+            }
+        });
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private static Snapshot defaults(){
+        Snapshot defaults = new Snapshot();
+        defaults.isRecording = DEFAULT_IS_RECORDING;
+        defaults.isStopped = DEFAULT_IS_STOPPED;
+        defaults.recordingInterval = DEFAULT_RECORDING_INTERVAL;
+        defaults.trailFormat = DEFAULT_TRAIL_FORMAT;
+        defaults.stopDetectionEnabled = DEFAULT_STOP_DETECTION;
+        defaults.selectionMethod = DEFAULT_SELECTION_METHOD;
+        defaults.smoothingEnabled = DEFAULT_SMOOTHING;
+        defaults.simplification = DEFAULT_SIMPLIFICATION;
+        defaults.metricsEnabled = DEFAULT_METRICS;
+        defaults.rotationEnabled = DEFAULT_ROTATION;
+        return defaults;
+    }
+
+    /**
+     * A change to the state, made to a copy of the current snapshot.
+     */
+    private interface Change {
+
+        /**
+         * May be called more than once (if another thread changes the state at the same time),
+         * so it should only set fields of the copy.
+         */
+        void apply(Snapshot next);
+
+    }
+
+    /**
+     * Atomically replace the state with a changed copy of it (retrying if another thread changed it
+     * in the meantime) and tell the listeners. Nothing happens if the change leaves the state as it is.
+     * @return The state after the change.
+     */
+    private Snapshot update(Change change){
+        Snapshot current;
+        Snapshot next;
+        do{
+            current = state.get();
+            next = current.copy();
+            change.apply(next);
+            if(next.hasSameValues(current)){
+                return current;
+            }
+            next.version = current.version + 1;
+        }while (!state.compareAndSet(current, next));
+        for (Listener listener : listeners) {
+            listener.onStateChanged(current, next);
+        }
+        return next;
+    }
+
+    /**
+     * The whole state at one point in time, see {@link TrackerState}.
+     * Each change makes a new snapshot with a higher version.
+     */
+    static final class Snapshot {
+
+        //only set on a copy in update(), never once the snapshot is published
+        private long version;
+        private boolean isRecording;
+        private boolean isStopped;
+        private int recordingInterval;
+        private TrailFormat trailFormat;
+        private boolean stopDetectionEnabled;
+        private SelectionMethod selectionMethod;
+        private boolean smoothingEnabled;
+        private float simplification;
+        private boolean metricsEnabled;
+        private boolean rotationEnabled;
+
+        long getVersion(){
+            return version;
+        }
+
+        boolean isRecording(){
+            return isRecording;
+        }
+
+        boolean isStopped(){
+            return isStopped;
+        }
+
+        /**
+         * @return The recording interval (seconds).
+         */
+        int getRecordingInterval(){
+            return recordingInterval;
+        }
+
+        TrailFormat getTrailFormat(){
+            return trailFormat;
+        }
+
+        boolean isStopDetectionEnabled(){
+            return stopDetectionEnabled;
+        }
+
+        SelectionMethod getSelectionMethod(){
+            return selectionMethod;
+        }
+
+        boolean isSmoothingEnabled(){
+            return smoothingEnabled;
+        }
+
+        float getSimplification(){
+            return simplification;
+        }
+
+        boolean isMetricsEnabled(){
+            return metricsEnabled;
+        }
+
+        boolean isRotationEnabled(){
+            return rotationEnabled;
+        }
+
+        private Snapshot copy(){
+            Snapshot copy = new Snapshot();
+            copy.version = version;
+            copy.isRecording = isRecording;
+            copy.isStopped = isStopped;
+            copy.recordingInterval = recordingInterval;
+            copy.trailFormat = trailFormat;
+            copy.stopDetectionEnabled = stopDetectionEnabled;
+            copy.selectionMethod = selectionMethod;
+            copy.smoothingEnabled = smoothingEnabled;
+            copy.simplification = simplification;
+            copy.metricsEnabled = metricsEnabled;
+            copy.rotationEnabled = rotationEnabled;
+            return copy;
+        }
+
+        /**
+         * @return Whether the two hold the same state (whatever their versions).
+         */
+        private boolean hasSameValues(Snapshot other){
+            return isRecording == other.isRecording && isStopped == other.isStopped &&
+                    recordingInterval == other.recordingInterval && trailFormat == other.trailFormat &&
+                    stopDetectionEnabled == other.stopDetectionEnabled && selectionMethod == other.selectionMethod &&
+                    smoothingEnabled == other.smoothingEnabled && simplification == other.simplification &&
+                    metricsEnabled == other.metricsEnabled && rotationEnabled == other.rotationEnabled;
+        }
+
+        @Override
+        public String toString() {
+            return "v" + version + "[recording=" + isRecording + ", stopped=" + isStopped +
+                    ", interval=" + recordingInterval + "s, format=" + trailFormat +
+                    ", stopDetection=" + stopDetectionEnabled + ", selection=" + selectionMethod +
+                    ", smoothing=" + smoothingEnabled + ", simplification=" + simplification +
+                    "m, metrics=" + metricsEnabled + ", rotation=" + rotationEnabled + "]";
+        }
+
     }
 
 }
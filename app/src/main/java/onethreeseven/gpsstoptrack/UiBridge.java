@@ -0,0 +1,171 @@
+package onethreeseven.gpsstoptrack;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Passes recorded locations from the recording service to the activity.
+ * Instead of a broadcast per fix, the bridge keeps the latest fix and running totals for the
+ * recording (fix count, mean accuracy, distance) and hands them to the registered {@link Receiver}
+ * on the main thread, at most once a display frame however fast fixes arrive.
+ * While no receiver is registered (e.g. the activity is stopped) only the totals are kept up to date,
+ * nothing is posted to the main thread.
+ */
+class UiBridge implements LocationConsumer {
+
+    /**
+     * Minimum time between updates to the receiver (one frame at 60fps).
+     */
+    static final long FRAME_MILLIS = 16;
+
+    private static UiBridge instance = null;
+
+    /**
+     * What the activity is shown, only ever read on the main thread.
+     */
+    static class Update {
+
+        private final Fix fix = new Fix();
+        private long fixCount = 0;
+        private double accuracySum = 0;
+        private double distanceMeters = 0;
+
+        /**
+         * @return The latest fix.
+         */
+        Fix getFix(){
+            return fix;
+        }
+
+        long getFixCount(){
+            return fixCount;
+        }
+
+        /**
+         * @return Mean accuracy (meters) of the fixes recorded so far, NaN if there are none.
+         */
+        double getMeanAccuracy(){
+            return fixCount == 0 ? Double.NaN : accuracySum / fixCount;
+        }
+
+        /**
+         * @return Distance (meters) travelled between the fixes recorded so far.
+         */
+        double getDistanceMeters(){
+            return distanceMeters;
+        }
+
+    }
+
+    interface Receiver {
+        /**
+         * Called on the main thread, the update is reused so should not be kept.
+         */
+        void onUpdate(Update update);
+    }
+
+    private final Handler mainHandler;
+    private final Runnable deliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    //guarded by this, written from the consumer thread
+    private final Update latest = new Update();
+    private Receiver receiver = null;
+    private boolean deliveryPending = false;
+    private long lastDeliveryMillis = -FRAME_MILLIS;
+
+    //only touched on the main thread
+    private final Update delivered = new Update();
+
+    /**
+     * @return The bridge shared by the service and the activity.
+     */
+    static synchronized UiBridge getInstance(){
+        if(instance == null){
+            instance = new UiBridge(new Handler(Looper.getMainLooper()));
+        }
+        return instance;
+    }
+
+    UiBridge(Handler mainHandler){
+        this.mainHandler = mainHandler;
+    }
+
+    /**
+     * Start the totals again (for a new recording).
+     */
+    synchronized void reset(){
+        latest.fixCount = 0;
+        latest.accuracySum = 0;
+        latest.distanceMeters = 0;
+    }
+
+    /**
+     * Register the receiver to update (main thread), or null to stop updates.
+     * A new receiver is sent the current state straight away.
+     */
+    void setReceiver(Receiver receiver){
+        boolean post;
+        synchronized (this){
+            this.receiver = receiver;
+            if(receiver == null){
+                mainHandler.removeCallbacks(deliverRunnable);
+                deliveryPending = false;
+                return;
+            }
+            post = latest.fixCount > 0 && !deliveryPending;
+            deliveryPending |= post;
+        }
+        if(post){
+            mainHandler.post(deliverRunnable);
+        }
+    }
+
+    @Override
+    public void consume(Fix fix) {
+        long delay;
+        synchronized (this){
+            if(latest.fixCount > 0){
+                latest.distanceMeters += Geo.distanceMeters(
+                        latest.fix.getLat(), latest.fix.getLon(), fix.getLat(), fix.getLon());
+            }
+            latest.fix.set(fix);
+            latest.fixCount++;
+            latest.accuracySum += fix.getAccuracy();
+            //nobody to show it to, or an update is already on its way and will pick this fix up
+            if(receiver == null || deliveryPending){
+                return;
+            }
+            deliveryPending = true;
+            delay = Math.max(0, lastDeliveryMillis + FRAME_MILLIS - SystemClock.uptimeMillis());
+        }
+        mainHandler.postDelayed(deliverRunnable, delay);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void deliver(){
+        Receiver receiver;
+        synchronized (this){
+            deliveryPending = false;
+            receiver = this.receiver;
+            if(receiver == null){
+                return;
+            }
+            delivered.fix.set(latest.fix);
+            delivered.fixCount = latest.fixCount;
+            delivered.accuracySum = latest.accuracySum;
+            delivered.distanceMeters = latest.distanceMeters;
+            lastDeliveryMillis = SystemClock.uptimeMillis();
+        }
+        receiver.onUpdate(delivered);
+    }
+
+}
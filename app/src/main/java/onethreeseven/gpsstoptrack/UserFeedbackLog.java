@@ -1,7 +1,6 @@
 package onethreeseven.gpsstoptrack;
 
 
-import android.location.Location;
 import android.widget.TextView;
 
 import java.text.DateFormat;
@@ -36,8 +35,11 @@ class UserFeedbackLog {
         log("Recording interval set to " + recordingInterval + "s");
     }
 
-    void logLocationChanged(Location loc){
-        log("Got location, accuracy: " + loc.getAccuracy() + "m");
+    void logLocationChanged(UiBridge.Update update){
+        log("Got location, accuracy: " + update.getFix().getAccuracy() + "m" +
+                " (" + update.getFixCount() + " locations, mean accuracy: " +
+                Math.round(update.getMeanAccuracy()) + "m, " +
+                Math.round(update.getDistanceMeters()) + "m travelled)");
     }
 
     void logPermissionsRequired(){
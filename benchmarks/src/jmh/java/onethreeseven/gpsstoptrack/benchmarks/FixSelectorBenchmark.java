@@ -0,0 +1,54 @@
+package onethreeseven.gpsstoptrack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.FixSelector;
+import onethreeseven.gpsstoptrack.SelectionMethod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The selection FixTracker does for every location it receives, with each {@link SelectionMethod},
+ * one op is one incoming fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FixSelectorBenchmark {
+
+    @Param({"1", "5", "10"})
+    public int gpsHz;
+
+    //millis, the app's recording interval is at least a second
+    @Param({"1000", "5000"})
+    public long reportingInterval;
+
+    @Param({"ACCURACY_WEIGHTED", "RECENCY_WEIGHTED", "KALMAN", "PROVIDER_AWARE"})
+    public SelectionMethod method;
+
+    private FixStream stream;
+    private FixSelector selector;
+    private final Fix fix = new Fix();
+
+    @Setup
+    public void setUp(){
+        stream = new FixStream(gpsHz, 137);
+        selector = new FixSelector();
+        selector.setStrategy(method.newStrategy());
+        selector.setReportingInterval(reportingInterval);
+    }
+
+    @Benchmark
+    public Fix select(){
+        return selector.onFix(stream.next(fix));
+    }
+
+}
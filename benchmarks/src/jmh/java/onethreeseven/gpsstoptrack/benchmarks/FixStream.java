@@ -0,0 +1,109 @@
+package onethreeseven.gpsstoptrack.benchmarks;
+
+import java.util.Random;
+
+import onethreeseven.gpsstoptrack.Fix;
+
+/**
+ * A pregenerated, endlessly repeating stream of fixes resembling what the location callback receives:
+ * GPS fixes at "gpsHz" (with jitter and occasional outages) interleaved with a NETWORK fix about once
+ * a second, from a user alternating between walking and stopping.
+ * Replaying it copies primitives into a caller's {@link Fix}, so the stream itself allocates nothing.
+ */
+final class FixStream {
+
+    private static final int SIZE = 1 << 16;
+    private static final double WALKING_METERS_PER_SECOND = 1.4;
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final double[] lats = new double[SIZE];
+    private final double[] lons = new double[SIZE];
+    private final long[] times = new long[SIZE];
+    private final float[] accuracies = new float[SIZE];
+    private final Fix.Provider[] providers = new Fix.Provider[SIZE];
+    private final boolean[] isStopped = new boolean[SIZE];
+    //time covered by one pass of the stream, added to the times on each repeat so they keep increasing
+    private final long span;
+
+    private int next = 0;
+    private long timeOffset = 0;
+    private boolean lastIsStopped = false;
+
+    /**
+     * @param gpsHz GPS fixes per second (network fixes come about once a second regardless).
+     * @param seed Seed of the random stream, so runs are repeatable.
+     */
+    FixStream(int gpsHz, long seed){
+        Random random = new Random(seed);
+        long gpsPeriod = 1000L / gpsHz;
+        double lat = -37.8136;
+        double lon = 144.9631;
+        double heading = 0;
+        boolean stopped = true;
+        long stateLeft = 60000L;
+        long time = 1480000000000L;
+        long nextNetworkTime = time;
+        long outageLeft = 0;
+
+        for (int i = 0; i < SIZE; i++) {
+            boolean network = time + gpsPeriod > nextNetworkTime;
+            long step = network ? Math.max(1, nextNetworkTime - time) : gpsPeriod + random.nextInt((int) (gpsPeriod / 5) + 1);
+            time += step;
+            stateLeft -= step;
+            if(stateLeft <= 0){
+                stopped = !stopped;
+                stateLeft = (stopped ? 30000L : 60000L) + (long) (random.nextDouble() * 300000L);
+                heading = random.nextDouble() * 2 * Math.PI;
+            }
+            if(!stopped){
+                double meters = WALKING_METERS_PER_SECOND * step / 1000.0;
+                lat += Math.sin(heading) * meters / METERS_PER_DEGREE;
+                lon += Math.cos(heading) * meters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            }
+            float accuracy;
+            if(network){
+                providers[i] = Fix.Provider.NETWORK;
+                accuracy = 20 + random.nextFloat() * 60;
+                nextNetworkTime = time + 800 + random.nextInt(400);
+            }else{
+                providers[i] = Fix.Provider.GPS;
+                //occasional outages (tunnels, indoors) where GPS accuracy is poor for a while
+                if(outageLeft <= 0 && random.nextInt(2000) == 0){
+                    outageLeft = 10000L + random.nextInt(50000);
+                }
+                outageLeft -= step;
+                accuracy = outageLeft > 0 ? 30 + random.nextFloat() * 100 : 3 + (float) Math.abs(random.nextGaussian()) * 8;
+            }
+            double noise = accuracy / METERS_PER_DEGREE / 2;
+            lats[i] = lat + random.nextGaussian() * noise;
+            lons[i] = lon + random.nextGaussian() * noise;
+            times[i] = time;
+            accuracies[i] = accuracy;
+            isStopped[i] = stopped;
+        }
+        this.span = time - times[0] + gpsPeriod;
+    }
+
+    /**
+     * Copy the next fix of the stream into the given one.
+     * @return The given fix.
+     */
+    Fix next(Fix fix){
+        int i = next;
+        fix.set(lats[i], lons[i], times[i] + timeOffset, accuracies[i], providers[i]);
+        lastIsStopped = isStopped[i];
+        if(++next == SIZE){
+            next = 0;
+            timeOffset += span;
+        }
+        return fix;
+    }
+
+    /**
+     * @return Whether the user was stopped at the fix last returned by {@link #next(Fix)}.
+     */
+    boolean isStopped(){
+        return lastIsStopped;
+    }
+
+}
@@ -0,0 +1,70 @@
+package onethreeseven.gpsstoptrack.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Just the encoding the writer thread does per fix (no queue, no file), one op is one fix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrailEncoderBenchmark {
+
+    @Param({"CSV", "BINARY", "JOURNAL"})
+    public TrailFormat format;
+
+    private TrailEncoder encoder;
+    private FixStream stream;
+    private final Fix fix = new Fix();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        //a new encoder each iteration, the binary encoder's block index grows with the trail
+        encoder = format.newEncoder(new NullOutputStream(), 1);
+        stream = new FixStream(1, 137);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        encoder.close();
+    }
+
+    @Benchmark
+    public void encode() throws IOException {
+        stream.next(fix);
+        encoder.write(fix.getLat(), fix.getLon(), fix.getTime(), stream.isStopped(), TrailEncoder.NO_PREDICTION,
+                Double.NaN, Double.NaN);
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+        }
+
+    }
+
+}
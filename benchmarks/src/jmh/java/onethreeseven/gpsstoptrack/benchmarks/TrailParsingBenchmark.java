@@ -0,0 +1,124 @@
+package onethreeseven.gpsstoptrack.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import onethreeseven.gpsstoptrack.BinaryTrailEncoder;
+import onethreeseven.gpsstoptrack.BinaryTrailReader;
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.JournalTrailEncoder;
+import onethreeseven.gpsstoptrack.JournalTrailReader;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFormat;
+import onethreeseven.gpsstoptrack.evaluator.Trail;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading a whole trail file back, per format, one op is one fix read.
+ * CSV trails are read the way the evaluator reads them, binary and journal trails with their readers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrailParsingBenchmark {
+
+    //about a day of fixes at a 1 second recording interval
+    private static final int TRAIL_FIXES = 86400;
+
+    @Param({"CSV", "BINARY", "JOURNAL"})
+    public TrailFormat format;
+
+    private File trailFile;
+    private final double[] lats = new double[BinaryTrailEncoder.DEFAULT_BLOCK_CAPACITY];
+    private final double[] lons = new double[BinaryTrailEncoder.DEFAULT_BLOCK_CAPACITY];
+    private final long[] times = new long[BinaryTrailEncoder.DEFAULT_BLOCK_CAPACITY];
+    private final boolean[] isStopped = new boolean[BinaryTrailEncoder.DEFAULT_BLOCK_CAPACITY];
+    private final byte[] predicted = new byte[BinaryTrailEncoder.DEFAULT_BLOCK_CAPACITY];
+
+    @Setup
+    public void setUp() throws IOException {
+        trailFile = File.createTempFile("trail_", "." + format.getFileExtension());
+        FixStream stream = new FixStream(1, 137);
+        Fix fix = new Fix();
+        TrailEncoder encoder = format.newEncoder(new FileOutputStream(trailFile), 1);
+        try{
+            for (int i = 0; i < TRAIL_FIXES; i++) {
+                stream.next(fix);
+                encoder.write(fix.getLat(), fix.getLon(), fix.getTime(), stream.isStopped(),
+                        TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+            }
+        }finally {
+            encoder.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        trailFile.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRAIL_FIXES)
+    public void parse(Blackhole blackhole) throws IOException {
+        switch (format){
+            case CSV:
+                parseCsv(blackhole);
+                break;
+            case BINARY:
+                parseBinary(blackhole);
+                break;
+            case JOURNAL:
+                parseJournal(blackhole);
+                break;
+        }
+    }
+
+    //private methods
+
+    private void parseCsv(Blackhole blackhole) throws IOException {
+        Trail trail = Trail.load(trailFile);
+        blackhole.consume(trail.getTime(trail.size() - 1));
+    }
+
+    private void parseBinary(Blackhole blackhole) throws IOException {
+        BinaryTrailReader reader = new BinaryTrailReader(trailFile);
+        try{
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                int count = reader.readBlock(block, lats, lons, times, isStopped, predicted);
+                blackhole.consume(times[count - 1]);
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    private void parseJournal(Blackhole blackhole) throws IOException {
+        JournalTrailReader reader = new JournalTrailReader(trailFile);
+        try{
+            byte type;
+            while ((type = reader.next()) != 0){
+                if(type == JournalTrailEncoder.TYPE_FIX){
+                    blackhole.consume(reader.getLat());
+                    blackhole.consume(reader.getLon());
+                    blackhole.consume(reader.getTime());
+                }
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+}
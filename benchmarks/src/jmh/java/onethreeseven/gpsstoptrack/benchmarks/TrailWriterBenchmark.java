@@ -0,0 +1,77 @@
+package onethreeseven.gpsstoptrack.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.SegmentedTrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFormat;
+import onethreeseven.gpsstoptrack.TrailWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * {@link TrailWriter#write(Fix, boolean)} per trail format, one op is one fix written to a trail file.
+ * The benchmark waits whenever the queue is half full, so it measures the throughput the writer thread
+ * can sustain (encoding, group commits and the file writes) rather than how fast fixes can be dropped.
+ * The allocation profile only covers the calling thread, FixPathAllocationTest covers the writer thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrailWriterBenchmark {
+
+    private static final int QUEUE_CAPACITY = 4096;
+
+    @Param({"CSV", "BINARY", "JOURNAL", "SEGMENTED"})
+    public TrailFormat format;
+
+    @Param({"false"})
+    public boolean fsync;
+
+    private File baseDir;
+    private TrailWriter writer;
+    private FixStream stream;
+    private final Fix fix = new Fix();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        baseDir = Files.createTempDirectory("trail-writer-benchmark").toFile();
+        writer = new TrailWriter(baseDir, QUEUE_CAPACITY, TrailWriter.DEFAULT_COMMIT_EVERY_FIXES,
+                TrailWriter.DEFAULT_COMMIT_INTERVAL_MILLIS, fsync);
+        writer.newTrailFile(format, 1);
+        stream = new FixStream(1, 137);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown(){
+        File trail = writer.closeTrailFile();
+        if(writer.getDroppedFixes() > 0){
+            throw new IllegalStateException("Dropped " + writer.getDroppedFixes() + " fixes");
+        }
+        trail.delete();
+        SegmentedTrailEncoder.segmentsFileOf(trail).delete();
+        writer.getTrailsDir().delete();
+        baseDir.delete();
+    }
+
+    @Benchmark
+    public void write(){
+        while (writer.getQueueDepth() >= QUEUE_CAPACITY / 2){
+            Thread.yield();
+        }
+        writer.write(stream.next(fix), stream.isStopped());
+    }
+
+}
@@ -0,0 +1,23 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Prefers the most accurate fix, weighting the accuracy (meters, bigger is worse) with how far away
+ * from the recording interval the fix is: a fix received exactly an interval after the last reported
+ * fix counts its accuracy as is, one received half an interval early (or late) counts it 1.5x.
+ */
+public class AccuracyWeightedStrategy extends ScoringSelectionStrategy {
+
+    @Override
+    protected double score(Fix fix, long now, Fix lastReported, long reportingInterval) {
+        double timeDelta = fix.getTime() - lastReported.getTime();
+        //how far the fix is from being an interval after the last one, as a fraction of the interval
+        double offset = Math.abs(1 - timeDelta / reportingInterval);
+        return fix.getAccuracy() * (1 + offset);
+    }
+
+    @Override
+    public String getName() {
+        return "accuracy";
+    }
+
+}
@@ -0,0 +1,212 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Picks the {@link SamplingPlan} location updates are requested with, from the user's stopped/moving
+ * annotation, the recent speed and the recent GPS accuracy:
+ * <ul>
+ *     <li>STATIONARY (annotated stopped, or slower than {@link #STATIONARY_SPEED} for {@link #STATIONARY_AFTER_MILLIS}):
+ *     network only (GPS if network is unavailable) at the recording interval or {@link #STATIONARY_MIN_TIME_MILLIS}, whichever is longer.</li>
+ *     <li>MOVING: GPS at 0.5x the recording interval.</li>
+ *     <li>FAST (faster than {@link #FAST_SPEED}): GPS at 0.25x the recording interval.</li>
+ * </ul>
+ * While moving, network is only added when GPS accuracy is poor (or unknown).
+ * The distance filter stays at 0 so fixes keep coming while the user stands still, but while STATIONARY only every
+ * {@link #STATIONARY_MIN_TIME_MILLIS} at most, so at shorter recording intervals some intervals get no fix.
+ * Speed-driven changes need the current plan to have been in place for {@link #MIN_PLAN_MILLIS},
+ * so noisy speeds don't re-request updates over and over. Annotation and provider changes apply straight away.
+ * How long a plan has been in place and how long the user has been slow go by the caller's clock ("now"),
+ * fix times are only used for the speed (the time between two fixes), as a fix's time can be off the clock.
+ * Nothing is allocated per fix, only when the plan changes.
+ */
+public class AdaptiveSampler {
+
+    public static final double STATIONARY_SPEED = 0.3;
+    //once stationary, only moving again above this (sparse network fixes are noisy)
+    public static final double STATIONARY_EXIT_SPEED = 0.6;
+    public static final long STATIONARY_AFTER_MILLIS = 2 * 60 * 1000L;
+    public static final long STATIONARY_MIN_TIME_MILLIS = 30 * 1000L;
+    public static final double FAST_SPEED = 4.0;
+    //once fast, stay fast until below this (so speeds around FAST_SPEED don't flip the plan)
+    public static final double FAST_EXIT_SPEED = 3.0;
+    public static final float POOR_ACCURACY_METERS = 30;
+    public static final long MIN_PLAN_MILLIS = 20 * 1000L;
+    //speed is measured over at least this long, between consecutive fixes it is mostly noise
+    static final long SPEED_BASELINE_MILLIS = 20 * 1000L;
+    static final double SMOOTHING = 0.5;
+
+    private final long reportingInterval;
+    private boolean isStopped;
+    private boolean networkAvailable = true;
+
+    //speed over the baseline from the anchor fix
+    private boolean hasAnchor = false;
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorTime;
+    private float anchorAccuracy;
+    private double smoothedSpeed = Double.NaN;
+    private long slowSince = -1;
+    private double smoothedGpsAccuracy = Double.NaN;
+
+    private SamplingPlan plan;
+    private long planStartTime;
+    private long planFixCount = 0;
+
+    /**
+     * @param reportingInterval The recording interval (millis).
+     * @param isStopped Whether the user is currently annotated as stopped.
+     */
+    public AdaptiveSampler(long reportingInterval, boolean isStopped){
+        this.reportingInterval = reportingInterval;
+        this.isStopped = isStopped;
+    }
+
+    /**
+     * @param now Current time (millis since epoch).
+     * @return The event for the first plan (it has no previous plan).
+     */
+    public SamplingEvent start(long now){
+        plan = decide(now);
+        planStartTime = now;
+        planFixCount = 0;
+        return new SamplingEvent(now, null, plan, 0, 0);
+    }
+
+    public SamplingPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * Update the speed and accuracy with an incoming fix.
+     * @param now Current time (millis since epoch).
+     * @return The event if the plan changed, otherwise null.
+     */
+    public SamplingEvent onFix(Fix fix, long now){
+        planFixCount++;
+        long time = fix.getTime();
+        if(fix.getProvider() == Fix.Provider.GPS){
+            smoothedGpsAccuracy = Double.isNaN(smoothedGpsAccuracy) ? fix.getAccuracy() :
+                    SMOOTHING * fix.getAccuracy() + (1 - SMOOTHING) * smoothedGpsAccuracy;
+        }
+        if(!hasAnchor || time < anchorTime){
+            setAnchor(fix);
+        }else if(time - anchorTime >= SPEED_BASELINE_MILLIS){
+            //only count movement beyond what the two fixes' accuracy can explain
+            double meters = Geo.distanceMeters(anchorLat, anchorLon, fix.getLat(), fix.getLon());
+            meters = Math.max(0, meters - Math.hypot(anchorAccuracy, fix.getAccuracy()));
+            double speed = meters * 1000.0 / (time - anchorTime);
+            smoothedSpeed = Double.isNaN(smoothedSpeed) ? speed : SMOOTHING * speed + (1 - SMOOTHING) * smoothedSpeed;
+            boolean stationary = plan != null && plan.getMode() == SamplingPlan.Mode.STATIONARY;
+            if(smoothedSpeed >= (stationary ? STATIONARY_EXIT_SPEED : STATIONARY_SPEED)){
+                slowSince = -1;
+            }else if(slowSince < 0){
+                slowSince = now;
+            }
+            setAnchor(fix);
+        }
+        if(now - planStartTime < MIN_PLAN_MILLIS){
+            return null;
+        }
+        return changePlan(now);
+    }
+
+    /**
+     * The user annotated themselves as stopped or moving.
+     * @return The event if the plan changed, otherwise null.
+     */
+    public SamplingEvent setStopped(boolean isStopped, long now){
+        this.isStopped = isStopped;
+        //forget the speed measured under the old annotation's plan, it may have been sparse
+        slowSince = -1;
+        return changePlan(now);
+    }
+
+    /**
+     * The network provider was enabled/disabled.
+     * @return The event if the plan changed, otherwise null.
+     */
+    public SamplingEvent setNetworkAvailable(boolean networkAvailable, long now){
+        this.networkAvailable = networkAvailable;
+        return changePlan(now);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void setAnchor(Fix fix){
+        hasAnchor = true;
+        anchorLat = fix.getLat();
+        anchorLon = fix.getLon();
+        anchorTime = fix.getTime();
+        anchorAccuracy = fix.getAccuracy();
+    }
+
+    private SamplingEvent changePlan(long now){
+        if(plan == null){
+            return null;
+        }
+        SamplingPlan newPlan = decide(now);
+        if(newPlan == null){
+            return null;
+        }
+        SamplingEvent event = new SamplingEvent(now, plan, newPlan, planFixCount, now - planStartTime);
+        plan = newPlan;
+        planStartTime = now;
+        planFixCount = 0;
+        return event;
+    }
+
+    /**
+     * @return The plan for the current state, or null if that is the current plan
+     * (so no plan is allocated while nothing changes).
+     */
+    private SamplingPlan decide(long now){
+        SamplingPlan.Mode mode;
+        if(isStopped || (slowSince >= 0 && now - slowSince >= STATIONARY_AFTER_MILLIS)){
+            mode = SamplingPlan.Mode.STATIONARY;
+        }else if(Double.isNaN(smoothedSpeed)){
+            mode = SamplingPlan.Mode.DEFAULT;
+        }else if(smoothedSpeed >= FAST_SPEED ||
+                (plan != null && plan.getMode() == SamplingPlan.Mode.FAST && smoothedSpeed >= FAST_EXIT_SPEED)){
+            mode = SamplingPlan.Mode.FAST;
+        }else{
+            mode = SamplingPlan.Mode.MOVING;
+        }
+
+        boolean useGps;
+        boolean useNetwork;
+        long minTime;
+        //once network has been added, keep it until accuracy is clearly good again
+        boolean poorAccuracy = Double.isNaN(smoothedGpsAccuracy) || smoothedGpsAccuracy > POOR_ACCURACY_METERS ||
+                (plan != null && plan.usesNetwork() && smoothedGpsAccuracy > POOR_ACCURACY_METERS * 2 / 3);
+        switch (mode){
+            case STATIONARY:
+                useGps = !networkAvailable;
+                useNetwork = networkAvailable;
+                minTime = Math.max(reportingInterval, STATIONARY_MIN_TIME_MILLIS);
+                break;
+            case MOVING:
+                useGps = true;
+                useNetwork = networkAvailable && poorAccuracy;
+                minTime = reportingInterval / 2;
+                break;
+            case FAST:
+                useGps = true;
+                useNetwork = networkAvailable && poorAccuracy;
+                minTime = reportingInterval / 4;
+                break;
+            default:
+                useGps = true;
+                useNetwork = networkAvailable;
+                minTime = (long) (reportingInterval * 0.3);
+                break;
+        }
+        if(plan != null && plan.getMode() == mode && plan.usesGps() == useGps &&
+                plan.usesNetwork() == useNetwork && plan.getMinTime() == minTime){
+            return null;
+        }
+        return new SamplingPlan(mode, useGps, useNetwork, minTime, 0);
+    }
+
+}
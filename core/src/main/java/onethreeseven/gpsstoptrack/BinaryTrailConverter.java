@@ -0,0 +1,118 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Converts binary, journal and segmented trail files (see {@link BinaryTrailEncoder},
+ * {@link JournalTrailEncoder} and {@link SegmentedTrailEncoder}) back into the CSV trail format so
+ * existing tooling can keep reading them.
+ * Can be run off-device: {@code BinaryTrailConverter trail_123.bin [trail_456.jnl trail_789.sgt ...]}
+ * which writes trail_123.txt next to each input.
+ */
+public class BinaryTrailConverter {
+
+    private BinaryTrailConverter(){}
+
+    public static void toCsv(File trail, File csvTrail) throws IOException {
+        if(trail.getName().endsWith("." + TrailFormat.JOURNAL.getFileExtension())){
+            journalToCsv(trail, csvTrail);
+        }else if(trail.getName().endsWith("." + TrailFormat.SEGMENTED.getFileExtension())){
+            segmentedToCsv(trail, csvTrail);
+        }else{
+            binaryToCsv(trail, csvTrail);
+        }
+    }
+
+    private static void binaryToCsv(File binaryTrail, File csvTrail) throws IOException {
+        BinaryTrailReader reader = new BinaryTrailReader(binaryTrail);
+        try{
+            int capacity = reader.getBlockCapacity();
+            double[] lats = new double[capacity];
+            double[] lons = new double[capacity];
+            long[] times = new long[capacity];
+            boolean[] isStopped = new boolean[capacity];
+            byte[] predicted = new byte[capacity];
+            double[] smoothedLats = new double[capacity];
+            double[] smoothedLons = new double[capacity];
+
+            TrailEncoder csv = TrailFormat.CSV.newEncoder(new FileOutputStream(csvTrail), 0);
+            try{
+                for (int block = 0; block < reader.getBlockCount(); block++) {
+                    int count = reader.readBlock(block, lats, lons, times, isStopped, predicted,
+                            smoothedLats, smoothedLons);
+                    for (int i = 0; i < count; i++) {
+                        csv.write(lats[i], lons[i], times[i], isStopped[i], predicted[i],
+                                smoothedLats[i], smoothedLons[i]);
+                    }
+                }
+            }finally {
+                csv.close();
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static void journalToCsv(File journalTrail, File csvTrail) throws IOException {
+        JournalTrailReader reader = new JournalTrailReader(journalTrail);
+        try{
+            TrailEncoder csv = TrailFormat.CSV.newEncoder(new FileOutputStream(csvTrail), 0);
+            try{
+                byte type;
+                while ((type = reader.next()) != 0){
+                    if(type == JournalTrailEncoder.TYPE_FIX){
+                        csv.write(reader.getLat(), reader.getLon(), reader.getTime(),
+                                reader.isStopped(), reader.getPredicted(),
+                                reader.getSmoothedLat(), reader.getSmoothedLon());
+                    }
+                }
+            }finally {
+                csv.close();
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static void segmentedToCsv(File segmentedTrail, File csvTrail) throws IOException {
+        SegmentedTrailReader reader = new SegmentedTrailReader(segmentedTrail);
+        try{
+            TrailEncoder csv = TrailFormat.CSV.newEncoder(new FileOutputStream(csvTrail), 0);
+            try{
+                while (reader.next()){
+                    csv.write(reader.getLat(), reader.getLon(), reader.getTime(),
+                            reader.isStopped(), reader.getPredicted(),
+                            reader.getSmoothedLat(), reader.getSmoothedLon());
+                }
+            }finally {
+                csv.close();
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0){
+            System.err.println("Usage: BinaryTrailConverter <trail.bin|trail.jnl|trail.sgt> [...]");
+            System.exit(1);
+        }
+        String csvExt = "." + TrailFormat.CSV.getFileExtension();
+        for (String arg : args) {
+            File in = new File(arg);
+            String name = in.getName();
+            if(name.endsWith(csvExt)){
+                System.err.println("Already CSV, skipping " + arg);
+                continue;
+            }
+            int extIdx = name.lastIndexOf('.');
+            String baseName = extIdx > 0 ? name.substring(0, extIdx) : name;
+            File out = new File(in.getAbsoluteFile().getParentFile(), baseName + csvExt);
+            toCsv(in, out);
+            System.out.println("Wrote " + out.getPath());
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes trail entries in a compact columnar binary format.
+ * Entries are buffered into blocks, each block is written column by column with the
+ * time and coordinates delta encoded as (zig-zag) varints and the movement state packed as bits.
+ * The footer holds an index of the blocks so a reader can seek straight to a time range.
+ *
+ * <pre>
+ * header:  "GPST", version (byte), block capacity (int)
+ * block:   entry count (varint)
+ *          times:  first time (varint), then deltas (zig-zag varint)
+ *          lats:   first lat*1e7 (zig-zag varint), then deltas (zig-zag varint)
+ *          lons:   first lon*1e7 (zig-zag varint), then deltas (zig-zag varint)
+ *          states: ceil(count/8) bytes, bit i set when entry i was stopped
+ *          predicted: 0 (byte) if no entry has a predicted state, otherwise 1 (byte) followed by
+ *                  ceil(count/8) bytes with bit i set when entry i has a prediction and
+ *                  ceil(count/8) bytes with bit i set when entry i was predicted stopped
+ *          smoothed: 0 (byte) if no entry has a smoothed position, otherwise 1 (byte) followed by
+ *                  ceil(count/8) bytes with bit i set when entry i has a smoothed position, then
+ *                  for each of those entries its smoothed lat*1e7 and lon*1e7 minus its lat*1e7 and
+ *                  lon*1e7 (zig-zag varints, small as smoothing only moves a fix by meters)
+ * footer:  per block: offset (long), count (int), first time (long), last time (long)
+ * trailer: footer offset (long), block count (int), "GPSE"
+ * </pre>
+ * All fixed width fields are big-endian. Use {@link BinaryTrailReader} to read the file back.
+ * <p>
+ * {@link #flush()} writes out a partially filled block, so everything flushed is in the stream and a
+ * file that was never closed (no footer) can still be read, see {@link BinaryTrailReader}.
+ * Blocks only fill up between flushes, so flushing every few entries costs some compression.
+ */
+public class BinaryTrailEncoder implements TrailEncoder {
+
+    static final int HEADER_MAGIC = 0x47505354; //"GPST"
+    static final int TRAILER_MAGIC = 0x47505345; //"GPSE"
+    static final byte VERSION = 3;
+    //version 1 blocks have no predicted column
+    static final byte VERSION_WITHOUT_PREDICTIONS = 1;
+    //version 2 blocks have no smoothed column
+    static final byte VERSION_WITHOUT_SMOOTHED = 2;
+    static final int HEADER_SIZE = 9;
+    static final int INDEX_ENTRY_SIZE = 28;
+    static final int TRAILER_SIZE = 16;
+    public static final int DEFAULT_BLOCK_CAPACITY = 1024;
+    static final double COORD_SCALE = 1e7;
+
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final OutputStream out;
+    private final int blockCapacity;
+
+    //the current (unwritten) block
+    private final long[] times;
+    private final int[] lats;
+    private final int[] lons;
+    private final byte[] states;
+    private final byte[] hasPredictions;
+    private final byte[] predictions;
+    private boolean blockHasPredictions = false;
+    private final byte[] hasSmoothed;
+    private final long[] smoothedLatOffsets;
+    private final long[] smoothedLonOffsets;
+    private boolean blockHasSmoothed = false;
+    private int blockSize = 0;
+
+    //scratch buffer a block is encoded into before being written
+    private final byte[] scratch;
+    private long position = 0;
+
+    //block index, written as the footer
+    //room for a few days of 1s fixes before it has to grow
+    private long[] blockOffsets = new long[256];
+    private int[] blockCounts = new int[256];
+    private long[] blockFirstTimes = new long[256];
+    private long[] blockLastTimes = new long[256];
+    private int nBlocks = 0;
+
+    public BinaryTrailEncoder(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_CAPACITY);
+    }
+
+    public BinaryTrailEncoder(OutputStream out, int blockCapacity) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.blockCapacity = blockCapacity;
+        this.times = new long[blockCapacity];
+        this.lats = new int[blockCapacity];
+        this.lons = new int[blockCapacity];
+        this.states = new byte[(blockCapacity + 7) / 8];
+        this.hasPredictions = new byte[states.length];
+        this.predictions = new byte[states.length];
+        this.hasSmoothed = new byte[states.length];
+        this.smoothedLatOffsets = new long[blockCapacity];
+        this.smoothedLonOffsets = new long[blockCapacity];
+        this.scratch = new byte[Math.max(TRAILER_SIZE,
+                MAX_VARINT_BYTES * (1 + 5 * blockCapacity) + 2 + 4 * states.length)];
+        writeHeader();
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        times[blockSize] = time;
+        lats[blockSize] = (int) Math.round(lat * COORD_SCALE);
+        lons[blockSize] = (int) Math.round(lon * COORD_SCALE);
+        byte bit = (byte) (1 << (blockSize & 7));
+        if(isStopped){
+            states[blockSize >> 3] |= bit;
+        }
+        if(predicted != NO_PREDICTION){
+            blockHasPredictions = true;
+            hasPredictions[blockSize >> 3] |= bit;
+            if(predicted == PREDICTED_STOPPED){
+                predictions[blockSize >> 3] |= bit;
+            }
+        }
+        if(!Double.isNaN(smoothedLat) && !Double.isNaN(smoothedLon)){
+            blockHasSmoothed = true;
+            hasSmoothed[blockSize >> 3] |= bit;
+            smoothedLatOffsets[blockSize] = (long) (int) Math.round(smoothedLat * COORD_SCALE) - lats[blockSize];
+            smoothedLonOffsets[blockSize] = (long) (int) Math.round(smoothedLon * COORD_SCALE) - lons[blockSize];
+        }
+        blockSize++;
+        if(blockSize == blockCapacity){
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the entries of a partially filled block (as a block of its own), then flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(blockSize > 0){
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            if(blockSize > 0){
+                writeBlock();
+            }
+            writeFooter();
+        }finally {
+            out.close();
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void writeHeader() throws IOException {
+        int pos = putInt(scratch, 0, HEADER_MAGIC);
+        scratch[pos++] = VERSION;
+        pos = putInt(scratch, pos, blockCapacity);
+        writeScratch(pos);
+    }
+
+    private void writeBlock() throws IOException {
+        if(nBlocks == blockOffsets.length){
+            int newLength = nBlocks * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, newLength);
+            blockCounts = Arrays.copyOf(blockCounts, newLength);
+            blockFirstTimes = Arrays.copyOf(blockFirstTimes, newLength);
+            blockLastTimes = Arrays.copyOf(blockLastTimes, newLength);
+        }
+        blockOffsets[nBlocks] = position;
+        blockCounts[nBlocks] = blockSize;
+        blockFirstTimes[nBlocks] = times[0];
+        blockLastTimes[nBlocks] = times[blockSize - 1];
+        nBlocks++;
+
+        int pos = putVarint(scratch, 0, blockSize);
+        pos = putVarint(scratch, pos, times[0]);
+        for (int i = 1; i < blockSize; i++) {
+            pos = putVarint(scratch, pos, zigZag(times[i] - times[i - 1]));
+        }
+        pos = putDeltaColumn(lats, pos);
+        pos = putDeltaColumn(lons, pos);
+        int stateBytes = (blockSize + 7) / 8;
+        System.arraycopy(states, 0, scratch, pos, stateBytes);
+        pos += stateBytes;
+        scratch[pos++] = (byte) (blockHasPredictions ? 1 : 0);
+        if(blockHasPredictions){
+            System.arraycopy(hasPredictions, 0, scratch, pos, stateBytes);
+            pos += stateBytes;
+            System.arraycopy(predictions, 0, scratch, pos, stateBytes);
+            pos += stateBytes;
+        }
+        scratch[pos++] = (byte) (blockHasSmoothed ? 1 : 0);
+        if(blockHasSmoothed){
+            System.arraycopy(hasSmoothed, 0, scratch, pos, stateBytes);
+            pos += stateBytes;
+            for (int i = 0; i < blockSize; i++) {
+                if((hasSmoothed[i >> 3] & (1 << (i & 7))) != 0){
+                    pos = putVarint(scratch, pos, zigZag(smoothedLatOffsets[i]));
+                    pos = putVarint(scratch, pos, zigZag(smoothedLonOffsets[i]));
+                }
+            }
+        }
+        writeScratch(pos);
+
+        Arrays.fill(states, (byte) 0);
+        Arrays.fill(hasPredictions, (byte) 0);
+        Arrays.fill(predictions, (byte) 0);
+        Arrays.fill(hasSmoothed, (byte) 0);
+        blockHasPredictions = false;
+        blockHasSmoothed = false;
+        blockSize = 0;
+    }
+
+    private int putDeltaColumn(int[] column, int pos){
+        pos = putVarint(scratch, pos, zigZag(column[0]));
+        for (int i = 1; i < blockSize; i++) {
+            pos = putVarint(scratch, pos, zigZag((long) column[i] - column[i - 1]));
+        }
+        return pos;
+    }
+
+    private void writeFooter() throws IOException {
+        long footerOffset = position;
+        for (int i = 0; i < nBlocks; i++) {
+            int pos = putLong(scratch, 0, blockOffsets[i]);
+            pos = putInt(scratch, pos, blockCounts[i]);
+            pos = putLong(scratch, pos, blockFirstTimes[i]);
+            pos = putLong(scratch, pos, blockLastTimes[i]);
+            writeScratch(pos);
+        }
+        int pos = putLong(scratch, 0, footerOffset);
+        pos = putInt(scratch, pos, nBlocks);
+        pos = putInt(scratch, pos, TRAILER_MAGIC);
+        writeScratch(pos);
+    }
+
+    private void writeScratch(int length) throws IOException {
+        out.write(scratch, 0, length);
+        position += length;
+    }
+
+    private static long zigZag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int putVarint(byte[] buf, int pos, long value){
+        while((value & ~0x7FL) != 0){
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int putInt(byte[] buf, int pos, int value){
+        buf[pos++] = (byte) (value >>> 24);
+        buf[pos++] = (byte) (value >>> 16);
+        buf[pos++] = (byte) (value >>> 8);
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int putLong(byte[] buf, int pos, long value){
+        pos = putInt(buf, pos, (int) (value >>> 32));
+        return putInt(buf, pos, (int) value);
+    }
+
+}
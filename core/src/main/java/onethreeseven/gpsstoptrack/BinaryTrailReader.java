@@ -0,0 +1,331 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Reads trail files written by {@link BinaryTrailEncoder}.
+ * The block index is loaded when the file is opened, blocks are then decoded on request
+ * into caller supplied arrays (of at least {@link #getBlockCapacity()} length).
+ * <p>
+ * If the file has no footer (the encoder was never closed, e.g. the process died) the index is rebuilt
+ * by scanning the blocks from the start, up to the last one written in full.
+ */
+public class BinaryTrailReader implements Closeable {
+
+    private final RandomAccessFile raf;
+    private final byte version;
+    private final int blockCapacity;
+    private final long footerOffset;
+
+    private final long[] blockOffsets;
+    private final int[] blockCounts;
+    private final long[] blockFirstTimes;
+    private final long[] blockLastTimes;
+
+    private final boolean hasFooter;
+
+    private byte[] buf = new byte[0];
+    private int bufPos;
+    //set when scanning runs out of bytes (or finds what can't be a block)
+    private boolean truncated;
+
+    public BinaryTrailReader(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        try{
+            if(raf.readInt() != BinaryTrailEncoder.HEADER_MAGIC){
+                throw new IOException("Not a binary trail file: " + file);
+            }
+            this.version = raf.readByte();
+            if(version != BinaryTrailEncoder.VERSION && version != BinaryTrailEncoder.VERSION_WITHOUT_SMOOTHED &&
+                    version != BinaryTrailEncoder.VERSION_WITHOUT_PREDICTIONS){
+                throw new IOException("Unsupported binary trail version " + version + ": " + file);
+            }
+            this.blockCapacity = raf.readInt();
+
+            long length = raf.length();
+            long footerOffset = -1;
+            int nBlocks = 0;
+            if(length >= BinaryTrailEncoder.HEADER_SIZE + BinaryTrailEncoder.TRAILER_SIZE){
+                raf.seek(length - BinaryTrailEncoder.TRAILER_SIZE);
+                footerOffset = raf.readLong();
+                nBlocks = raf.readInt();
+                boolean magic = raf.readInt() == BinaryTrailEncoder.TRAILER_MAGIC;
+                if(!magic || nBlocks < 0 || footerOffset < BinaryTrailEncoder.HEADER_SIZE || footerOffset +
+                        (long) nBlocks * BinaryTrailEncoder.INDEX_ENTRY_SIZE + BinaryTrailEncoder.TRAILER_SIZE != length){
+                    footerOffset = -1;
+                }
+            }
+            this.hasFooter = footerOffset >= 0;
+            if(hasFooter){
+                this.footerOffset = footerOffset;
+                this.blockOffsets = new long[nBlocks];
+                this.blockCounts = new int[nBlocks];
+                this.blockFirstTimes = new long[nBlocks];
+                this.blockLastTimes = new long[nBlocks];
+                raf.seek(footerOffset);
+                for (int i = 0; i < nBlocks; i++) {
+                    blockOffsets[i] = raf.readLong();
+                    blockCounts[i] = raf.readInt();
+                    blockFirstTimes[i] = raf.readLong();
+                    blockLastTimes[i] = raf.readLong();
+                }
+            }else{
+                if(length - BinaryTrailEncoder.HEADER_SIZE > Integer.MAX_VALUE){
+                    throw new IOException("Binary trail file has no footer and is too big to scan: " + file);
+                }
+                nBlocks = 0;
+                int bodyLength = (int) (length - BinaryTrailEncoder.HEADER_SIZE);
+                buf = new byte[bodyLength];
+                raf.seek(BinaryTrailEncoder.HEADER_SIZE);
+                raf.readFully(buf);
+                long[] offsets = new long[16];
+                int[] counts = new int[16];
+                long[] firstTimes = new long[16];
+                long[] lastTimes = new long[16];
+                bufPos = 0;
+                int end = 0;
+                while (bufPos < bodyLength){
+                    if(nBlocks == offsets.length){
+                        offsets = Arrays.copyOf(offsets, nBlocks * 2);
+                        counts = Arrays.copyOf(counts, nBlocks * 2);
+                        firstTimes = Arrays.copyOf(firstTimes, nBlocks * 2);
+                        lastTimes = Arrays.copyOf(lastTimes, nBlocks * 2);
+                    }
+                    offsets[nBlocks] = BinaryTrailEncoder.HEADER_SIZE + bufPos;
+                    counts[nBlocks] = scanBlock(bodyLength, firstTimes, lastTimes, nBlocks);
+                    if(truncated){
+                        break;
+                    }
+                    nBlocks++;
+                    end = bufPos;
+                }
+                buf = new byte[0];
+                this.footerOffset = BinaryTrailEncoder.HEADER_SIZE + end;
+                this.blockOffsets = Arrays.copyOf(offsets, nBlocks);
+                this.blockCounts = Arrays.copyOf(counts, nBlocks);
+                this.blockFirstTimes = Arrays.copyOf(firstTimes, nBlocks);
+                this.blockLastTimes = Arrays.copyOf(lastTimes, nBlocks);
+            }
+        }catch (IOException e){
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return False if the file was never closed, so its block index was rebuilt by scanning the blocks.
+     */
+    public boolean hasFooter(){
+        return hasFooter;
+    }
+
+    public int getBlockCapacity(){
+        return blockCapacity;
+    }
+
+    public int getBlockCount(){
+        return blockOffsets.length;
+    }
+
+    public int getBlockSize(int block){
+        return blockCounts[block];
+    }
+
+    public long getBlockFirstTime(int block){
+        return blockFirstTimes[block];
+    }
+
+    public long getBlockLastTime(int block){
+        return blockLastTimes[block];
+    }
+
+    /**
+     * Decode a block into the given columns, without the smoothed positions.
+     * @param predicted Filled with the predicted movement states, see {@link TrailEncoder#NO_PREDICTION}.
+     * @return The number of entries decoded.
+     */
+    public int readBlock(int block, double[] lats, double[] lons, long[] times, boolean[] isStopped, byte[] predicted)
+            throws IOException {
+        return readBlock(block, lats, lons, times, isStopped, predicted, null, null);
+    }
+
+    /**
+     * Decode a block into the given columns.
+     * @param predicted Filled with the predicted movement states, see {@link TrailEncoder#NO_PREDICTION}.
+     * @param smoothedLats Filled with the smoothed latitudes (NaN for entries that were not smoothed),
+     *                     or null to skip them.
+     * @param smoothedLons As smoothedLats, for the longitudes.
+     * @return The number of entries decoded.
+     */
+    public int readBlock(int block, double[] lats, double[] lons, long[] times, boolean[] isStopped, byte[] predicted,
+                         double[] smoothedLats, double[] smoothedLons) throws IOException {
+        long start = blockOffsets[block];
+        long end = (block + 1 < blockOffsets.length) ? blockOffsets[block + 1] : footerOffset;
+        int length = (int) (end - start);
+        if(buf.length < length){
+            buf = new byte[length];
+        }
+        raf.seek(start);
+        raf.readFully(buf, 0, length);
+        bufPos = 0;
+
+        int count = (int) readVarint();
+        times[0] = readVarint();
+        for (int i = 1; i < count; i++) {
+            times[i] = times[i - 1] + unZigZag(readVarint());
+        }
+        readDeltaColumn(lats, count);
+        readDeltaColumn(lons, count);
+        int stateBytes = (count + 7) / 8;
+        for (int i = 0; i < count; i++) {
+            isStopped[i] = (buf[bufPos + (i >> 3)] & (1 << (i & 7))) != 0;
+        }
+        bufPos += stateBytes;
+        boolean hasPredictions = version != BinaryTrailEncoder.VERSION_WITHOUT_PREDICTIONS && buf[bufPos++] != 0;
+        for (int i = 0; i < count; i++) {
+            if(hasPredictions && (buf[bufPos + (i >> 3)] & (1 << (i & 7))) != 0){
+                boolean predictedStopped = (buf[bufPos + stateBytes + (i >> 3)] & (1 << (i & 7))) != 0;
+                predicted[i] = predictedStopped ? TrailEncoder.PREDICTED_STOPPED : TrailEncoder.PREDICTED_MOVING;
+            }else{
+                predicted[i] = TrailEncoder.NO_PREDICTION;
+            }
+        }
+        if(smoothedLats == null){
+            return count;
+        }
+        if(hasPredictions){
+            bufPos += 2 * stateBytes;
+        }
+        boolean hasSmoothed = version == BinaryTrailEncoder.VERSION && buf[bufPos++] != 0;
+        int smoothedBitsPos = bufPos;
+        bufPos += hasSmoothed ? stateBytes : 0;
+        for (int i = 0; i < count; i++) {
+            if(hasSmoothed && (buf[smoothedBitsPos + (i >> 3)] & (1 << (i & 7))) != 0){
+                //offsets are from the fixed point coordinates, which the decoded ones round back to exactly
+                long latOffset = unZigZag(readVarint());
+                long lonOffset = unZigZag(readVarint());
+                smoothedLats[i] = (Math.round(lats[i] * BinaryTrailEncoder.COORD_SCALE) + latOffset) /
+                        BinaryTrailEncoder.COORD_SCALE;
+                smoothedLons[i] = (Math.round(lons[i] * BinaryTrailEncoder.COORD_SCALE) + lonOffset) /
+                        BinaryTrailEncoder.COORD_SCALE;
+            }else{
+                smoothedLats[i] = Double.NaN;
+                smoothedLons[i] = Double.NaN;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Skip over the block starting at bufPos, noting its first and last times.
+     * @return The number of entries in the block, sets "truncated" if the block isn't all there.
+     */
+    private int scanBlock(int limit, long[] firstTimes, long[] lastTimes, int block){
+        long count = scanVarint(limit);
+        if(truncated || count <= 0 || count > blockCapacity){
+            //a block never has 0 entries, e.g. zeros left in the file by a crash
+            truncated = true;
+            return 0;
+        }
+        long time = scanVarint(limit);
+        firstTimes[block] = time;
+        for (int i = 1; i < count; i++) {
+            time += unZigZag(scanVarint(limit));
+        }
+        lastTimes[block] = time;
+        //the lat and lon columns
+        for (int i = 0; i < 2 * count; i++) {
+            scanVarint(limit);
+        }
+        int stateBytes = (int) ((count + 7) / 8);
+        bufPos += stateBytes;
+        if(version != BinaryTrailEncoder.VERSION_WITHOUT_PREDICTIONS && scanFlag(limit)){
+            bufPos += 2 * stateBytes;
+        }
+        if(version == BinaryTrailEncoder.VERSION && scanFlag(limit)){
+            int smoothedBitsPos = bufPos;
+            bufPos += stateBytes;
+            if(bufPos > limit){
+                truncated = true;
+                return 0;
+            }
+            for (int i = 0; i < count; i++) {
+                if((buf[smoothedBitsPos + (i >> 3)] & (1 << (i & 7))) != 0){
+                    scanVarint(limit);
+                    scanVarint(limit);
+                }
+            }
+        }
+        if(bufPos > limit){
+            truncated = true;
+        }
+        return (int) count;
+    }
+
+    /**
+     * A varint that may run past the limit (or be too long to be one), see {@link #scanBlock}.
+     */
+    private long scanVarint(int limit){
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if(truncated || bufPos >= limit){
+                truncated = true;
+                return 0;
+            }
+            byte b = buf[bufPos++];
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        truncated = true;
+        return 0;
+    }
+
+    private boolean scanFlag(int limit){
+        if(truncated || bufPos >= limit || (buf[bufPos] != 0 && buf[bufPos] != 1)){
+            truncated = true;
+            return false;
+        }
+        return buf[bufPos++] != 0;
+    }
+
+    private void readDeltaColumn(double[] column, int count){
+        long fixed = unZigZag(readVarint());
+        column[0] = fixed / BinaryTrailEncoder.COORD_SCALE;
+        for (int i = 1; i < count; i++) {
+            fixed += unZigZag(readVarint());
+            column[i] = fixed / BinaryTrailEncoder.COORD_SCALE;
+        }
+    }
+
+    private long readVarint(){
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do{
+            b = buf[bufPos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unZigZag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,21 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Where the tracker gets the current time from.
+ * {@link #SYSTEM} on a device, a {@link VirtualClock} when fixes are replayed (see {@link FixReplayer}).
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * @return The current time (millis since the epoch).
+     */
+    long currentTimeMillis();
+
+}
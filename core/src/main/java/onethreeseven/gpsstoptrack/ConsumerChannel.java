@@ -0,0 +1,261 @@
+package onethreeseven.gpsstoptrack;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers fixes to one {@link LocationConsumer} on its own thread, through a bounded queue,
+ * so a slow consumer only ever holds up itself (see {@link FixBus}).
+ * The queue is a ring of preallocated fixes that published fixes are copied into, so neither
+ * side allocates anything. What happens when the ring is full depends on the {@link OverflowPolicy}.
+ * <p>
+ * Exactly one thread may publish. The consumer copies a fix out of its slot and then claims the
+ * slot by advancing "head" with a CAS. The publisher can also advance "head" (to drop the oldest
+ * fix), and only overwrites a slot once "head" has moved past it. So if the consumer's CAS
+ * succeeds its copy was not torn, and if it fails the copy is discarded and it tries again.
+ * <p>
+ * Lag is measured from publishing a fix to handing it to the consumer.
+ */
+public class ConsumerChannel {
+
+    private static final String TAG = ConsumerChannel.class.getSimpleName();
+
+    public static final int DEFAULT_CAPACITY = 64;
+    //how long a blocked publisher waits between checks for room
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final LocationConsumer consumer;
+    private final OverflowPolicy policy;
+    private final int mask;
+    private final Fix[] slots;
+    private final long[] publishNanos;
+    private final Thread thread;
+
+    //next slot the consumer takes, advanced by the consumer and (when dropping) the publisher
+    private final AtomicLong head = new AtomicLong();
+    //next slot the publisher fills, only written by the publisher
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean open = true;
+
+    //only written by the publishing thread, read from anywhere
+    private volatile long published = 0;
+    private volatile long dropped = 0;
+    private volatile long blocked = 0;
+    //only written by the consumer thread, read from anywhere
+    private volatile long delivered = 0;
+    private volatile long coalesced = 0;
+    private volatile long totalLagNanos = 0;
+    private volatile long maxLagNanos = 0;
+    private volatile long lastLagNanos = 0;
+
+    /**
+     * Starts the consumer's thread.
+     * @param capacity Maximum number of fixes queued for the consumer, rounded up to a power of two.
+     */
+    ConsumerChannel(LocationConsumer consumer, OverflowPolicy policy, int capacity){
+        this.consumer = consumer;
+        this.policy = policy;
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new Fix[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Fix();
+        }
+        this.publishNanos = new long[size];
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliverLoop();
+            }
+        }, "FixBus-" + consumer.getClass().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public LocationConsumer getConsumer(){
+        return consumer;
+    }
+
+    public OverflowPolicy getPolicy(){
+        return policy;
+    }
+
+    public int capacity(){
+        return mask + 1;
+    }
+
+    /**
+     * @return Number of fixes waiting for the consumer.
+     */
+    public int getQueueDepth(){
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public long getPublished(){
+        return published;
+    }
+
+    public long getDelivered(){
+        return delivered;
+    }
+
+    /**
+     * @return Number of fixes dropped because the queue was full (DROP_OLDEST and COALESCE).
+     */
+    public long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * @return Number of fixes skipped by the consumer because a newer one was queued (COALESCE).
+     */
+    public long getCoalesced(){
+        return coalesced;
+    }
+
+    /**
+     * @return Number of times the publisher had to wait for room (BLOCK).
+     */
+    public long getBlocked(){
+        return blocked;
+    }
+
+    /**
+     * @return Mean time from publishing a fix to delivering it (nanos), NaN if none were delivered.
+     */
+    public double getMeanLagNanos(){
+        long n = delivered;
+        return n == 0 ? Double.NaN : (double) totalLagNanos / n;
+    }
+
+    public long getMaxLagNanos(){
+        return maxLagNanos;
+    }
+
+    public long getLastLagNanos(){
+        return lastLagNanos;
+    }
+
+    @Override
+    public String toString() {
+        return consumer.getClass().getName() + "[" + policy + " depth=" + getQueueDepth() + "/" + capacity() +
+                " published=" + published + " delivered=" + delivered + " dropped=" + dropped +
+                " coalesced=" + coalesced + " blocked=" + blocked +
+                " lag(us) mean=" + (long) (getMeanLagNanos() / 1000) + " max=" + maxLagNanos / 1000 + "]";
+    }
+
+    /**
+     * Queue a copy of the fix for the consumer (publishing thread only).
+     * @return False if the channel was closed (while blocked) and the fix was not queued.
+     */
+    boolean publish(Fix fix){
+        long t = tail.get();
+        boolean waited = false;
+        while (t - head.get() > mask){
+            if(policy == OverflowPolicy.BLOCK){
+                if(!open){
+                    return false;
+                }
+                if(!waited){
+                    waited = true;
+                    blocked++;
+                }
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+            }else{
+                //make room by dropping the oldest, unless the consumer takes it first
+                long h = head.get();
+                if(t - h > mask && head.compareAndSet(h, h + 1)){
+                    dropped++;
+                }
+            }
+        }
+        int i = (int) (t & mask);
+        slots[i].set(fix);
+        publishNanos[i] = System.nanoTime();
+        //publish the fix to the consumer
+        tail.lazySet(t + 1);
+        published++;
+        LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * Stop the consumer's thread once it has delivered everything already queued, and wait for it.
+     */
+    void close(){
+        open = false;
+        LockSupport.unpark(thread);
+        if(Thread.currentThread() == thread){
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        TrackerLog.i(TAG, "Closed " + this);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void deliverLoop(){
+        Fix fix = new Fix();
+        while (true){
+            //read before draining so nothing queued before close is missed
+            boolean keepDelivering = open;
+            while (take(fix)){
+                try{
+                    consumer.consume(fix);
+                }catch (RuntimeException e){
+                    TrackerLog.w(TAG, "Consumer " + consumer.getClass().getName() + " failed", e);
+                }
+            }
+            if(!keepDelivering){
+                return;
+            }
+            //the consumer may have used up our unpark (e.g. waiting on a lock in consume()), so look before parking
+            if(open && tail.get() <= head.get()){
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Copy the next fix to deliver into the given one (consumer thread only).
+     * @return False if there is nothing queued.
+     */
+    private boolean take(Fix fix){
+        while (true){
+            long h = head.get();
+            long t = tail.get();
+            if(h >= t){
+                return false;
+            }
+            if(policy == OverflowPolicy.COALESCE && t - h > 1){
+                //skip to the newest fix
+                if(head.compareAndSet(h, t - 1)){
+                    coalesced += t - 1 - h;
+                }
+                continue;
+            }
+            int i = (int) (h & mask);
+            fix.set(slots[i]);
+            long lag = System.nanoTime() - publishNanos[i];
+            if(head.compareAndSet(h, h + 1)){
+                delivered++;
+                totalLagNanos += lag;
+                lastLagNanos = lag;
+                if(lag > maxLagNanos){
+                    maxLagNanos = lag;
+                }
+                return true;
+            }
+            //the publisher dropped the fix while it was being copied
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Writes each trail entry as a "lat,lon,time,Stopped|Moving" line, with a fifth
+ * "Stopped|Moving" column when the entry has a predicted movement state and sixth and seventh
+ * "smoothedLat,smoothedLon" columns when it has a smoothed position (the fifth column is left
+ * empty if there is a smoothed position but no prediction).
+ * The line is the same as formatting with "%f,%f,%d,%s", but it is encoded by hand into a reused
+ * buffer so writing an entry does not allocate anything.
+ * The movement state column can be left out (the later columns move up one) for formats that store
+ * it elsewhere, see {@link SegmentedTrailEncoder}.
+ */
+public class CsvTrailEncoder implements TrailEncoder {
+
+    private static final String entryFmt = "%f,%f,%d";
+    private static final String smoothedFmt = ",%f,%f";
+    private static final byte[] STOPPED = ascii("Stopped");
+    private static final byte[] MOVING = ascii("Moving");
+    private static final byte[] NEW_LINE = ascii(System.getProperty("line.separator", "\n"));
+    private static final int COORD_DECIMALS = 6;
+    private static final long COORD_SCALE = 1000000L;
+    //scaled coordinates this close to halfway are formatted rather than encoded by hand
+    private static final double HALFWAY_TOLERANCE = 1e-6;
+    //bigger coordinates (and NaN/Infinity) are formatted, far past any real lat/lon
+    private static final double MAX_ENCODED_COORD = 1000;
+
+    private final OutputStream out;
+    private final boolean writeMovementState;
+    private final byte[] line = new byte[160];
+    //scratch space for writing out digits in reverse
+    private final byte[] digits = new byte[20];
+
+    public CsvTrailEncoder(OutputStream out){
+        this(out, true);
+    }
+
+    /**
+     * @param writeMovementState False to leave out the "Stopped|Moving" column (the 4th).
+     */
+    public CsvTrailEncoder(OutputStream out, boolean writeMovementState){
+        this.out = new BufferedOutputStream(out);
+        this.writeMovementState = writeMovementState;
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        boolean smoothed = !Double.isNaN(smoothedLat) && !Double.isNaN(smoothedLon);
+        if(!isEncodable(lat) || !isEncodable(lon) ||
+                (smoothed && (!isEncodable(smoothedLat) || !isEncodable(smoothedLon)))){
+            writeFormatted(lat, lon, time, isStopped, predicted, smoothed, smoothedLat, smoothedLon);
+            return;
+        }
+        int pos = putCoordinate(lat, 0);
+        line[pos++] = ',';
+        pos = putCoordinate(lon, pos);
+        line[pos++] = ',';
+        pos = putLong(time, pos);
+        if(writeMovementState){
+            line[pos++] = ',';
+            pos = put(isStopped ? STOPPED : MOVING, pos);
+        }
+        if(predicted != NO_PREDICTION){
+            line[pos++] = ',';
+            pos = put(predicted == PREDICTED_STOPPED ? STOPPED : MOVING, pos);
+        }else if(smoothed){
+            line[pos++] = ',';
+        }
+        if(smoothed){
+            line[pos++] = ',';
+            pos = putCoordinate(smoothedLat, pos);
+            line[pos++] = ',';
+            pos = putCoordinate(smoothedLon, pos);
+        }
+        pos = put(NEW_LINE, pos);
+        out.write(line, 0, pos);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Puts the coordinate with 6 decimal places, rounding half-up like %f does.
+     * Only values within a rounding error of halfway (about 1 in 500000) allocate.
+     */
+    private int putCoordinate(double value, int pos){
+        //%f keeps the sign of negative zero and of negative values that round to zero
+        if(value < 0 || Double.doubleToRawLongBits(value) == Long.MIN_VALUE){
+            line[pos++] = '-';
+            value = -value;
+        }
+        double scaledValue = value * COORD_SCALE;
+        double scaledFraction = scaledValue - Math.floor(scaledValue);
+        if(Math.abs(scaledFraction - 0.5) < HALFWAY_TOLERANCE){
+            //%f rounds the shortest decimal representation of the value half-up, which the product can't
+            //tell apart from the doubles either side of halfway at the 7th decimal place, so let it decide
+            return put(ascii(String.format(Locale.ENGLISH, "%f", value)), pos);
+        }
+        long scaled = Math.round(scaledValue);
+        pos = putLong(scaled / COORD_SCALE, pos);
+        line[pos++] = '.';
+        long fraction = scaled % COORD_SCALE;
+        for (int i = pos + COORD_DECIMALS - 1; i >= pos; i--) {
+            line[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return pos + COORD_DECIMALS;
+    }
+
+    private int putLong(long value, int pos){
+        if(value == Long.MIN_VALUE){
+            return put(ascii(Long.toString(value)), pos);
+        }
+        if(value < 0){
+            line[pos++] = '-';
+            value = -value;
+        }
+        int nDigits = 0;
+        do{
+            digits[nDigits++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }while (value != 0);
+        while (nDigits > 0){
+            line[pos++] = digits[--nDigits];
+        }
+        return pos;
+    }
+
+    private int put(byte[] bytes, int pos){
+        System.arraycopy(bytes, 0, line, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    private static boolean isEncodable(double value){
+        //false for NaN
+        return Math.abs(value) < MAX_ENCODED_COORD;
+    }
+
+    /**
+     * Fallback for values the hand encoding does not cover (NaN/Infinity and huge values).
+     */
+    private void writeFormatted(double lat, double lon, long time, boolean isStopped, byte predicted,
+                                boolean smoothed, double smoothedLat, double smoothedLon) throws IOException {
+        String entry = String.format(
+                Locale.ENGLISH,
+                entryFmt,
+                lat,
+                lon,
+                time);
+        out.write(ascii(entry));
+        if(writeMovementState){
+            out.write(',');
+            out.write(isStopped ? STOPPED : MOVING);
+        }
+        if(predicted != NO_PREDICTION){
+            out.write(',');
+            out.write(predicted == PREDICTED_STOPPED ? STOPPED : MOVING);
+        }else if(smoothed){
+            out.write(',');
+        }
+        if(smoothed){
+            out.write(ascii(String.format(Locale.ENGLISH, smoothedFmt, smoothedLat, smoothedLon)));
+        }
+        out.write(NEW_LINE);
+    }
+
+    private static byte[] ascii(String str){
+        byte[] bytes = new byte[str.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) str.charAt(i);
+        }
+        return bytes;
+    }
+
+}
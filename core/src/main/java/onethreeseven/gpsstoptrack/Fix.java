@@ -0,0 +1,103 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * A location fix (lat,lon,time,accuracy,provider) stored as primitive fields.
+ * Fixes are mutable and owned by whoever created them (e.g. FixTracker keeps a few
+ * and reuses them for every location), so a consumer that wants to keep a fix after it has been
+ * handed one must copy it using {@link #set(Fix)}.
+ * A fix may also carry a smoothed position (see {@link KalmanSmoother}) alongside its raw one.
+ */
+public class Fix {
+
+    public enum Provider {
+        GPS,
+        NETWORK,
+        OTHER
+    }
+
+    private double lat;
+    private double lon;
+    private long time;
+    private float accuracy;
+    private Provider provider = Provider.OTHER;
+    private double smoothedLat = Double.NaN;
+    private double smoothedLon = Double.NaN;
+
+    /**
+     * Set the raw position, clearing any smoothed position.
+     */
+    public Fix set(double lat, double lon, long time, float accuracy, Provider provider){
+        this.lat = lat;
+        this.lon = lon;
+        this.time = time;
+        this.accuracy = accuracy;
+        this.provider = provider;
+        this.smoothedLat = Double.NaN;
+        this.smoothedLon = Double.NaN;
+        return this;
+    }
+
+    public Fix set(Fix other){
+        set(other.lat, other.lon, other.time, other.accuracy, other.provider);
+        return setSmoothed(other.smoothedLat, other.smoothedLon);
+    }
+
+    public Fix setSmoothed(double smoothedLat, double smoothedLon){
+        this.smoothedLat = smoothedLat;
+        this.smoothedLon = smoothedLon;
+        return this;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    /**
+     * @return UTC time of this fix (millis since epoch).
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return Estimated horizontal accuracy (meters, bigger is worse).
+     */
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return Whether this fix has a smoothed position.
+     */
+    public boolean isSmoothed(){
+        return !Double.isNaN(smoothedLat);
+    }
+
+    /**
+     * @return Smoothed latitude, or NaN if the fix was not smoothed.
+     */
+    public double getSmoothedLat() {
+        return smoothedLat;
+    }
+
+    /**
+     * @return Smoothed longitude, or NaN if the fix was not smoothed.
+     */
+    public double getSmoothedLon() {
+        return smoothedLon;
+    }
+
+    @Override
+    public String toString() {
+        return "Fix[" + provider + " " + lat + "," + lon + " acc=" + accuracy + " t=" + time + "]";
+    }
+
+}
@@ -0,0 +1,94 @@
+package onethreeseven.gpsstoptrack;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fans fixes out to any number of {@link LocationConsumer}s, each on its own thread behind its
+ * own bounded queue (see {@link ConsumerChannel}), so a slow consumer (file I/O, broadcasts) holds
+ * up neither the other consumers nor the thread publishing the fixes.
+ * The registered channels are a copy-on-write array swapped in with a CAS, so publishing reads
+ * one reference and iterates a plain array: no locks and no allocation per fix.
+ * Subscribing and unsubscribing may happen on any thread, fixes must be published from one thread.
+ */
+public class FixBus {
+
+    private static final ConsumerChannel[] NO_CHANNELS = new ConsumerChannel[0];
+
+    private final AtomicReference<ConsumerChannel[]> channels = new AtomicReference<>(NO_CHANNELS);
+
+    /**
+     * Start delivering fixes to the consumer.
+     * @param policy What to do when the consumer falls "capacity" fixes behind.
+     * @param capacity Maximum number of fixes queued for the consumer.
+     * @return The handle to unsubscribe with, which also has the consumer's queue depth and lag.
+     */
+    public Subscription subscribe(LocationConsumer consumer, OverflowPolicy policy, int capacity){
+        ConsumerChannel channel = new ConsumerChannel(consumer, policy, capacity);
+        while (true){
+            ConsumerChannel[] current = channels.get();
+            ConsumerChannel[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = channel;
+            if(channels.compareAndSet(current, updated)){
+                return new Subscription(this, channel);
+            }
+        }
+    }
+
+    /**
+     * Stop delivering fixes to a consumer, once it has been given the fixes already queued for it,
+     * see {@link Subscription#unsubscribe()}.
+     * @return False if the channel was not subscribed.
+     */
+    boolean unsubscribe(ConsumerChannel channel){
+        while (true){
+            ConsumerChannel[] current = channels.get();
+            int idx = indexOf(current, channel);
+            if(idx < 0){
+                return false;
+            }
+            ConsumerChannel[] updated = current.length == 1 ? NO_CHANNELS : new ConsumerChannel[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, idx);
+            System.arraycopy(current, idx + 1, updated, idx, current.length - idx - 1);
+            if(channels.compareAndSet(current, updated)){
+                channel.close();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Queue a copy of the fix for every consumer (publishing thread only).
+     */
+    public void publish(Fix fix){
+        ConsumerChannel[] current = channels.get();
+        for (int i = 0; i < current.length; i++) {
+            current[i].publish(fix);
+        }
+    }
+
+    /**
+     * @return A snapshot of the subscribed channels, e.g. to report their metrics.
+     */
+    public ConsumerChannel[] getChannels(){
+        return channels.get().clone();
+    }
+
+    public int size(){
+        return channels.get().length;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private static int indexOf(ConsumerChannel[] channels, ConsumerChannel channel){
+        for (int i = 0; i < channels.length; i++) {
+            if(channels[i] == channel){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
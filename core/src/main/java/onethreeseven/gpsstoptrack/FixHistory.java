@@ -0,0 +1,236 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * The most recent fixes of a recording (at most "capacity" of them, no older than "max age"),
+ * so the gui and detectors can look back over them without rereading the trail file.
+ * Fixes are stored column-wise in a ring of primitive arrays, so appending is O(1) and allocates nothing.
+ * As fixes are appended in time order, finding a time range is a binary search: O(log n).
+ * <p>
+ * Each fix also stores the distance, stopped time and moving time accumulated since the history
+ * was cleared, so distance/time/speed over any range of fixes is the difference of two entries: O(1).
+ * The time between two fixes counts as stopped if the user was stopped at the first of them.
+ * <p>
+ * Fixes are indexed from 0 (the oldest held) to size() - 1 (the newest).
+ * Methods are synchronized, so it may be appended to on one thread and queried on others; hold the
+ * history's lock to look up several indices that must refer to the same fixes.
+ */
+public class FixHistory {
+
+    public static final long DEFAULT_MAX_AGE_MILLIS = 8 * 60 * 60 * 1000L;
+
+    private final int mask;
+    private final long maxAgeMillis;
+    private final long[] times;
+    private final double[] lats;
+    private final double[] lons;
+    private final float[] accuracies;
+    private final boolean[] stopped;
+    private final double[] cumDistances;
+    private final long[] cumStoppedMillis;
+    private final long[] cumMovingMillis;
+
+    //sequence number of the oldest fix held and of the next fix appended
+    private long head = 0;
+    private long tail = 0;
+
+    /**
+     * @param capacity Maximum number of fixes held, rounded up to a power of two.
+     * @param maxAgeMillis Fixes this much older than the newest one are dropped.
+     */
+    public FixHistory(int capacity, long maxAgeMillis){
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.maxAgeMillis = maxAgeMillis;
+        this.times = new long[size];
+        this.lats = new double[size];
+        this.lons = new double[size];
+        this.accuracies = new float[size];
+        this.stopped = new boolean[size];
+        this.cumDistances = new double[size];
+        this.cumStoppedMillis = new long[size];
+        this.cumMovingMillis = new long[size];
+    }
+
+    /**
+     * @return A history big enough to hold maxAgeMillis of fixes recorded every intervalMillis.
+     */
+    public static FixHistory forInterval(long intervalMillis, long maxAgeMillis){
+        long capacity = maxAgeMillis / Math.max(1, intervalMillis) + 1;
+        return new FixHistory((int) Math.min(capacity, 1 << 20), maxAgeMillis);
+    }
+
+    public synchronized void clear(){
+        head = 0;
+        tail = 0;
+    }
+
+    public boolean append(Fix fix, boolean isStopped){
+        return append(fix.getLat(), fix.getLon(), fix.getTime(), fix.getAccuracy(), isStopped);
+    }
+
+    /**
+     * Add the newest fix, dropping the oldest ones if full or too old.
+     * @return False if the fix is older than the newest one held and was not added.
+     */
+    public synchronized boolean append(double lat, double lon, long time, float accuracy, boolean isStopped){
+        double cumDistance = 0;
+        long cumStopped = 0;
+        long cumMoving = 0;
+        if(tail > head){
+            int prev = (int) ((tail - 1) & mask);
+            long elapsed = time - times[prev];
+            if(elapsed < 0){
+                return false;
+            }
+            cumDistance = cumDistances[prev] + Geo.distanceMeters(lats[prev], lons[prev], lat, lon);
+            cumStopped = cumStoppedMillis[prev] + (stopped[prev] ? elapsed : 0);
+            cumMoving = cumMovingMillis[prev] + (stopped[prev] ? 0 : elapsed);
+        }
+        //make room
+        while (tail - head > mask || (tail > head && time - times[(int) (head & mask)] > maxAgeMillis)){
+            head++;
+        }
+        int i = (int) (tail & mask);
+        times[i] = time;
+        lats[i] = lat;
+        lons[i] = lon;
+        accuracies[i] = accuracy;
+        stopped[i] = isStopped;
+        cumDistances[i] = cumDistance;
+        cumStoppedMillis[i] = cumStopped;
+        cumMovingMillis[i] = cumMoving;
+        tail++;
+        return true;
+    }
+
+    public synchronized int size(){
+        return (int) (tail - head);
+    }
+
+    public int capacity(){
+        return mask + 1;
+    }
+
+    public long getMaxAgeMillis(){
+        return maxAgeMillis;
+    }
+
+    public synchronized long getTime(int idx){
+        return times[slot(idx)];
+    }
+
+    public synchronized double getLat(int idx){
+        return lats[slot(idx)];
+    }
+
+    public synchronized double getLon(int idx){
+        return lons[slot(idx)];
+    }
+
+    public synchronized float getAccuracy(int idx){
+        return accuracies[slot(idx)];
+    }
+
+    public synchronized boolean isStopped(int idx){
+        return stopped[slot(idx)];
+    }
+
+    /**
+     * @return Index of the first fix at or after the time, size() if there is none.
+     */
+    public synchronized int indexAtOrAfter(long time){
+        int lo = 0;
+        int hi = size();
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(times[(int) ((head + mid) & mask)] < time){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return Index of the last fix at or before the time, -1 if there is none.
+     */
+    public synchronized int indexAtOrBefore(long time){
+        return indexAtOrAfter(time == Long.MAX_VALUE ? time : time + 1) - 1;
+    }
+
+    /**
+     * @return Distance (meters) travelled from fix "from" to fix "to" (indices, inclusive).
+     */
+    public synchronized double getDistanceMeters(int from, int to){
+        return cumDistances[slot(to)] - cumDistances[slot(from)];
+    }
+
+    /**
+     * @return Time (millis) spent stopped from fix "from" to fix "to" (indices, inclusive).
+     */
+    public synchronized long getStoppedMillis(int from, int to){
+        return cumStoppedMillis[slot(to)] - cumStoppedMillis[slot(from)];
+    }
+
+    /**
+     * @return Time (millis) spent moving from fix "from" to fix "to" (indices, inclusive).
+     */
+    public synchronized long getMovingMillis(int from, int to){
+        return cumMovingMillis[slot(to)] - cumMovingMillis[slot(from)];
+    }
+
+    /**
+     * @return Average speed (m/s) from fix "from" to fix "to" (indices, inclusive), NaN if no time passed.
+     */
+    public synchronized double getAverageSpeed(int from, int to){
+        long millis = times[slot(to)] - times[slot(from)];
+        return millis <= 0 ? Double.NaN : getDistanceMeters(from, to) * 1000 / millis;
+    }
+
+    /**
+     * @return Distance (meters) travelled over the whole history.
+     */
+    public synchronized double getDistanceMeters(){
+        return size() < 2 ? 0 : getDistanceMeters(0, size() - 1);
+    }
+
+    /**
+     * @return Time (millis) spent stopped over the whole history.
+     */
+    public synchronized long getStoppedMillis(){
+        return size() < 2 ? 0 : getStoppedMillis(0, size() - 1);
+    }
+
+    /**
+     * @return Time (millis) spent moving over the whole history.
+     */
+    public synchronized long getMovingMillis(){
+        return size() < 2 ? 0 : getMovingMillis(0, size() - 1);
+    }
+
+    /**
+     * @return Average speed (m/s) over the whole history, NaN if no time has passed.
+     */
+    public synchronized double getAverageSpeed(){
+        return size() < 2 ? Double.NaN : getAverageSpeed(0, size() - 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return size() + " fixes, " + Math.round(getDistanceMeters()) + "m, stopped " + getStoppedMillis() / 1000 +
+                "s, moving " + getMovingMillis() / 1000 + "s, average speed " + getAverageSpeed() + "m/s";
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private int slot(int idx){
+        if(idx < 0 || idx >= tail - head){
+            throw new IndexOutOfBoundsException("Index " + idx + " of " + (tail - head) + " fixes");
+        }
+        return (int) ((head + idx) & mask);
+    }
+
+}
@@ -0,0 +1,95 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays fixes (from a recorded trail, see {@link TrailFixSource}, or made up, see {@link SyntheticFixSource})
+ * into the tracker as if they had just been received, moving a {@link VirtualClock} to the time of each one.
+ * So the whole pipeline (fix selection, consumers, trail writing) can run off-device, and does the same
+ * thing every time for the same fixes.
+ * By default fixes are replayed as fast as possible (hours of fixes in well under a second),
+ * or they can be paced to real time (or a multiple of it) using {@link #setSpeed(double)}.
+ * One fix object is reused for the whole replay, so the target must copy a fix to keep it.
+ */
+public class FixReplayer {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    private final VirtualClock clock;
+    private volatile double speed = AS_FAST_AS_POSSIBLE;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param clock The clock the tracker uses, it is moved to the time of each fix just before it is replayed.
+     */
+    public FixReplayer(VirtualClock clock){
+        this.clock = clock;
+    }
+
+    /**
+     * @param speed How many times faster than real time fixes are replayed, e.g. 1 for real time,
+     *              or {@link #AS_FAST_AS_POSSIBLE}.
+     */
+    public void setSpeed(double speed){
+        this.speed = speed;
+    }
+
+    /**
+     * Replay every fix of the source to the target, on the calling thread.
+     * Stops early if {@link #stop()} is called or the thread is interrupted. The source is not closed.
+     * @param target Gets each fix, e.g. {@link FixTracker#onFix(Fix)}.
+     * @return Number of fixes replayed.
+     */
+    public long replay(FixSource source, LocationConsumer target) throws IOException {
+        stopped = false;
+        Fix fix = new Fix();
+        long replayed = 0;
+        long firstFixTime = 0;
+        long startNanos = System.nanoTime();
+        while (!stopped && source.next(fix)){
+            if(replayed == 0){
+                firstFixTime = fix.getTime();
+            }
+            double speed = this.speed;
+            if(speed > 0){
+                long dueNanos = (long) (TimeUnit.MILLISECONDS.toNanos(fix.getTime() - firstFixTime) / speed);
+                if(!waitUntil(startNanos + dueNanos)){
+                    break;
+                }
+            }
+            clock.set(fix.getTime());
+            target.consume(fix);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Stop the replay in progress (from another thread).
+     */
+    public void stop(){
+        stopped = true;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * @return False if stopped or interrupted while waiting.
+     */
+    private boolean waitUntil(long nanos){
+        long wait;
+        while (!stopped && (wait = nanos - System.nanoTime()) > 0){
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !stopped;
+    }
+
+}
@@ -0,0 +1,81 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Picks which fix to report each recording interval.
+ * The best of the fixes received since the last report (according to the {@link SelectionStrategy})
+ * is kept, and reported once a fix arrives at least "reportingInterval" millis after the previous report,
+ * so reports keep the same cadence whichever fix of the interval a strategy picks.
+ * Fixes are copied into a couple of preallocated ones, so nothing is allocated per fix.
+ */
+public class FixSelector {
+
+    private final Fix lastProcessedFix = new Fix();
+    private final Fix curBestFix = new Fix();
+    private boolean hasLastProcessedFix = false;
+    private boolean hasCurBestFix = false;
+    private long reportingInterval = 1000L;
+    //time of the fix that triggered the last report, the current interval starts there
+    private long intervalStart;
+    private SelectionStrategy strategy = new AccuracyWeightedStrategy();
+
+    /**
+     * @param reportingInterval The required amount of time between reported fixes (millis).
+     */
+    public void setReportingInterval(long reportingInterval) {
+        this.reportingInterval = reportingInterval;
+    }
+
+    public long getReportingInterval() {
+        return reportingInterval;
+    }
+
+    /**
+     * @param strategy How the fix to report is picked (starts afresh).
+     */
+    public void setStrategy(SelectionStrategy strategy) {
+        this.strategy = strategy;
+        reset();
+    }
+
+    public SelectionStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Forget the fixes seen so far (e.g. when tracking stops).
+     */
+    public void reset(){
+        this.hasLastProcessedFix = false;
+        this.hasCurBestFix = false;
+        this.strategy.reset();
+    }
+
+    /**
+     * Handle a new fix, the fix is copied so the caller may reuse it afterwards.
+     * @param fix The newly received fix.
+     * @return The fix to report (only valid until the next call), or null if the interval has not elapsed yet.
+     */
+    public Fix onFix(Fix fix){
+        if(!hasLastProcessedFix){
+            this.lastProcessedFix.set(fix);
+            this.hasLastProcessedFix = true;
+            this.intervalStart = fix.getTime();
+        }
+        if(!hasCurBestFix){
+            this.curBestFix.set(fix);
+            this.hasCurBestFix = true;
+        }
+        strategy.offer(this.curBestFix, fix, this.lastProcessedFix, reportingInterval);
+        //check whether the recording interval has elapsed
+        long timeDelta = fix.getTime() - this.intervalStart;
+        if(timeDelta >= reportingInterval){
+            this.lastProcessedFix.set(curBestFix);
+            this.intervalStart = fix.getTime();
+            //the next interval's fixes are picked from afresh
+            this.hasCurBestFix = false;
+            return this.curBestFix;
+        }
+        return null;
+    }
+
+}
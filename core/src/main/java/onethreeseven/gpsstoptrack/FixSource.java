@@ -0,0 +1,17 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of fixes to replay, see {@link FixReplayer}.
+ */
+public interface FixSource extends Closeable {
+
+    /**
+     * Set the fix to the next one, in time order.
+     * @return False if there are no more fixes.
+     */
+    boolean next(Fix fix) throws IOException;
+
+}
@@ -0,0 +1,218 @@
+package onethreeseven.gpsstoptrack;
+
+import java.util.ArrayList;
+
+/**
+ * The tracking logic, in plain java: picks the fix reported each interval from the fixes received
+ * (see {@link FixSelector}), optionally smooths it and sends it to the subscribed consumers, while
+ * adapting how often locations are requested to the user's movement (see {@link AdaptiveSampler}).
+ * Fixes are passed in using {@link #onFix(Fix)}, e.g. by a {@link FixReplayer} or, on a device, by
+ * GpsTracker, which also requests the locations by overriding {@link #requestLocationUpdates(SamplingPlan)}.
+ */
+public class FixTracker {
+
+    private static final String TAG = FixTracker.class.getSimpleName();
+
+    //indexed by Fix.Provider ordinal
+    private static final Metrics.Counter[] FIXES_RECEIVED = {
+            Metrics.counter("fixes.received.gps"),
+            Metrics.counter("fixes.received.network"),
+            Metrics.counter("fixes.received.other")};
+    //each interval one fix is reported, the rest are discarded
+    private static final Metrics.Counter FIXES_REPORTED = Metrics.counter("fixes.reported");
+    private static final Metrics.Counter FIXES_DISCARDED = Metrics.counter("fixes.discarded");
+
+    private final Clock clock;
+    //each consumer gets the reported fixes on its own thread
+    private final FixBus fixBus = new FixBus();
+
+    private final FixSelector fixSelector = new FixSelector();
+    //null when the reported fixes are not smoothed
+    private KalmanSmoother smoother = null;
+    private final ArrayList<SamplingListener> samplingListeners = new ArrayList<>();
+    //null while not tracking
+    private AdaptiveSampler sampler = null;
+    //checked once per session, isLoggable may allocate
+    private boolean logFixes = false;
+
+    public FixTracker(){
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * @param clock Where the tracker gets the time from, e.g. the replayer's {@link VirtualClock}.
+     */
+    public FixTracker(Clock clock){
+        this.clock = clock;
+    }
+
+    /**
+     * Start tracking using the given recording interval.
+     * How often locations are requested (and from which providers) adapts to the user's movement,
+     * see {@link AdaptiveSampler}. Each time the requests change the sampling listeners are told.
+     * It is not guaranteed we can poll as fast as requested so don't worry about specifying too small a time.
+     * The one thing that is guaranteed though is that if the "reportingInterval" amount of time has
+     * elapsed between the last recording and the current one then the location is sent to the listeners.
+     * @param reportingInterval the required amount of time between reporting a location (millis)
+     * @param isStopped whether the user is currently stopped
+     */
+    public void startTracking(long reportingInterval, boolean isStopped) {
+        this.fixSelector.setReportingInterval(reportingInterval);
+        this.logFixes = TrackerLog.isLoggable(TAG, TrackerLog.VERBOSE);
+        this.sampler = new AdaptiveSampler(reportingInterval, isStopped);
+        applySampling(sampler.start(clock.currentTimeMillis()));
+    }
+
+    /**
+     * @param strategy How the fix reported each interval is picked, see {@link SelectionMethod}.
+     */
+    public void setSelectionStrategy(SelectionStrategy strategy){
+        this.fixSelector.setStrategy(strategy);
+        TrackerLog.i(TAG, "Selecting fixes by " + strategy.getName());
+    }
+
+    /**
+     * @param smoother Smooths each reported fix before it is sent to the consumers (which get both the raw
+     *                 and the smoothed position, see {@link Fix#getSmoothedLat()}), or null to not smooth.
+     */
+    public void setSmoother(KalmanSmoother smoother){
+        this.smoother = smoother;
+        TrackerLog.i(TAG, smoother == null ? "Not smoothing fixes" : "Smoothing fixes by " + smoother.getName());
+    }
+
+    /**
+     * The user changed between stopped and moving, which may change how often locations are requested.
+     */
+    public void setStopped(boolean isStopped){
+        if(sampler != null){
+            applySampling(sampler.setStopped(isStopped, clock.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * The network provider became (un)available, which may change which providers locations are requested from.
+     */
+    public void setNetworkAvailable(boolean networkAvailable){
+        if(sampler != null){
+            applySampling(sampler.setNetworkAvailable(networkAvailable, clock.currentTimeMillis()));
+        }
+    }
+
+    public void stopTracking(){
+        this.fixSelector.reset();
+        if(smoother != null){
+            smoother.reset();
+        }
+        this.sampler = null;
+        removeLocationUpdates();
+    }
+
+    /**
+     * Handle a new fix, the fix is copied so the caller may reuse it afterwards.
+     * @param fix The newly received fix.
+     */
+    public void onFix(Fix fix){
+        if(logFixes){
+            TrackerLog.v(TAG, fix.toString());
+        }
+        FIXES_RECEIVED[fix.getProvider().ordinal()].inc();
+        if(sampler != null){
+            applySampling(sampler.onFix(fix, clock.currentTimeMillis()));
+        }
+        Fix bestFix = fixSelector.onFix(fix);
+        if(bestFix != null){
+            FIXES_REPORTED.inc();
+            processLocation(bestFix);
+        }else{
+            FIXES_DISCARDED.inc();
+        }
+    }
+
+    /**
+     * Subscribes a location consumer that will be updated once the tracker has been started.
+     * Locations will be sent to the consumer if there is a valid location and the specified
+     * amount of time has elapsed since the last location update (see {@link #startTracking(long, boolean)}).
+     * The consumer is called on its own thread, and no location is lost if it falls behind
+     * (the tracker waits for it instead), see {@link #subscribe(LocationConsumer, OverflowPolicy, int)}.
+     * Consumers stay subscribed (across tracking sessions) until they are unsubscribed,
+     * see {@link RecordingSession}.
+     * @param locationConsumer The location consumer to add.
+     * @return The handle to unsubscribe the consumer with.
+     */
+    public Subscription subscribe(LocationConsumer locationConsumer){
+        return subscribe(locationConsumer, OverflowPolicy.BLOCK, ConsumerChannel.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Subscribes a location consumer that is called on its own thread, with up to "capacity" locations
+     * queued for it.
+     * @param policy What happens to new locations while the consumer's queue is full.
+     * @return The handle to unsubscribe the consumer with.
+     */
+    public Subscription subscribe(LocationConsumer locationConsumer, OverflowPolicy policy, int capacity){
+        return this.fixBus.subscribe(locationConsumer, policy, capacity);
+    }
+
+    /**
+     * @return Number of subscribed consumers.
+     */
+    public int getConsumerCount(){
+        return this.fixBus.size();
+    }
+
+    /**
+     * @return The consumers' channels, e.g. to log their lag and queue depth.
+     */
+    public ConsumerChannel[] getConsumerChannels(){
+        return this.fixBus.getChannels();
+    }
+
+    /**
+     * Adds a listener told every time location updates are re-requested, e.g. to measure
+     * the fix rate (and battery drain) of each {@link SamplingPlan}.
+     */
+    public void addSamplingListener(SamplingListener samplingListener){
+        this.samplingListeners.add(samplingListener);
+    }
+
+    /**
+     * (Re-)request locations according to the plan, replacing the previous requests.
+     * Does nothing by default, for when fixes are passed in without being requested (e.g. replayed).
+     */
+    protected void requestLocationUpdates(SamplingPlan plan){
+
+    }
+
+    /**
+     * Stop the location requests, does nothing by default.
+     */
+    protected void removeLocationUpdates(){
+
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Re-request location updates for a new sampling plan.
+     * @param event The plan change, or null if the plan did not change.
+     */
+    private void applySampling(SamplingEvent event){
+        if(event == null){
+            return;
+        }
+        requestLocationUpdates(event.getPlan());
+        for (int i = 0; i < samplingListeners.size(); i++) {
+            samplingListeners.get(i).onSamplingChanged(event);
+        }
+    }
+
+    private void processLocation(Fix fix){
+        if(smoother != null){
+            smoother.smooth(fix);
+        }
+        fixBus.publish(fix);
+    }
+
+}
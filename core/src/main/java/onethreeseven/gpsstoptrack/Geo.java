@@ -0,0 +1,39 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Geographic helper functions (WGS84 lat/lon in degrees, distances in meters).
+ */
+public final class Geo {
+
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private Geo(){}
+
+    /**
+     * Great circle (haversine) distance between two points.
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2){
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLon = Math.sin(dLon / 2);
+        double a = sinLat * sinLat +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Meters per degree of longitude at the given latitude (for local flat-earth projections).
+     */
+    public static double metersPerDegreeLon(double lat){
+        return Math.toRadians(1) * EARTH_RADIUS_METERS * Math.cos(Math.toRadians(lat));
+    }
+
+    /**
+     * Meters per degree of latitude (for local flat-earth projections).
+     */
+    public static double metersPerDegreeLat(){
+        return Math.toRadians(1) * EARTH_RADIUS_METERS;
+    }
+
+}
@@ -0,0 +1,177 @@
+package onethreeseven.gpsstoptrack;
+
+import java.util.Arrays;
+
+/**
+ * Maps lat/lon to positions along a Hilbert curve over a 2^31 x 2^31 grid (about 2cm x 1cm cells),
+ * so points near each other mostly have keys near each other, see {@link TrailIndex}.
+ * Every aligned square of the grid (a quadtree cell) covers one contiguous range of keys,
+ * which is what lets a rectangle be turned into a handful of key ranges.
+ */
+public final class HilbertCurve {
+
+    public static final int ORDER = 31;
+    public static final long GRID_SIZE = 1L << ORDER;
+
+    private HilbertCurve(){}
+
+    public static long key(double lat, double lon){
+        return key(toX(lon), toY(lat));
+    }
+
+    /**
+     * @return The key of the grid cell (x,y), in [0, 4^ORDER).
+     */
+    public static long key(long x, long y){
+        long key = 0;
+        for (long s = GRID_SIZE >>> 1; s > 0; s >>>= 1) {
+            long rx = (x & s) != 0 ? 1 : 0;
+            long ry = (y & s) != 0 ? 1 : 0;
+            key += s * s * ((3 * rx) ^ ry);
+            //rotate the quadrant so the curve continues into the next one
+            if(ry == 0){
+                if(rx == 1){
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return The latitude of the centre of the key's grid cell.
+     */
+    public static double lat(long key){
+        return (cellY(key) + 0.5) * 180.0 / GRID_SIZE - 90;
+    }
+
+    /**
+     * @return The longitude of the centre of the key's grid cell.
+     */
+    public static double lon(long key){
+        return (cellX(key) + 0.5) * 360.0 / GRID_SIZE - 180;
+    }
+
+    public static long toX(double lon){
+        return clamp((long) Math.floor((lon + 180) / 360 * GRID_SIZE));
+    }
+
+    public static long toY(double lat){
+        return clamp((long) Math.floor((lat + 90) / 180 * GRID_SIZE));
+    }
+
+    /**
+     * The key ranges covering the grid rectangle [x0,x1] x [y0,y1] (inclusive).
+     * The rectangle is split down the quadtree until the cells on its edge are about 1/8 of its size,
+     * so the ranges also cover some keys just outside it, which the caller has to filter out.
+     * @return Sorted, non-overlapping ranges as pairs of start (inclusive) and end (exclusive) keys.
+     */
+    public static long[] ranges(long x0, long y0, long x1, long y1){
+        long extent = Math.max(x1 - x0, y1 - y0) + 1;
+        int minLevel = Math.max(0, 63 - Long.numberOfLeadingZeros(extent) - 3);
+        RangeList cells = new RangeList();
+        addRanges(0, 0, ORDER, x0, y0, x1, y1, minLevel, cells);
+        //the cells are disjoint, so sorting their starts and ends separately keeps them paired
+        long[] starts = Arrays.copyOf(cells.starts, cells.size);
+        long[] ends = Arrays.copyOf(cells.ends, cells.size);
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        //merge ranges that touch
+        long[] ranges = new long[2 * cells.size];
+        int n = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if(n > 0 && starts[i] == ranges[n - 1]){
+                ranges[n - 1] = ends[i];
+            }else{
+                ranges[n++] = starts[i];
+                ranges[n++] = ends[i];
+            }
+        }
+        return Arrays.copyOf(ranges, n);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private static long clamp(long v){
+        return Math.max(0, Math.min(GRID_SIZE - 1, v));
+    }
+
+    private static long cellX(long key){
+        return cell(key, true);
+    }
+
+    private static long cellY(long key){
+        return cell(key, false);
+    }
+
+    private static long cell(long key, boolean wantX){
+        long x = 0;
+        long y = 0;
+        long t = key;
+        for (long s = 1; s < GRID_SIZE; s <<= 1) {
+            long rx = 1 & (t >>> 1);
+            long ry = 1 & (t ^ rx);
+            if(ry == 0){
+                if(rx == 1){
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long tmp = x;
+                x = y;
+                y = tmp;
+            }
+            x += s * rx;
+            y += s * ry;
+            t >>>= 2;
+        }
+        return wantX ? x : y;
+    }
+
+    /**
+     * Add the ranges of the cell at (cx,cy) of size 2^level that overlap the rectangle.
+     */
+    private static void addRanges(long cx, long cy, int level, long x0, long y0, long x1, long y1,
+                                  int minLevel, RangeList cells){
+        long size = 1L << level;
+        if(cx > x1 || cy > y1 || cx + size - 1 < x0 || cy + size - 1 < y0){
+            return;
+        }
+        boolean inside = cx >= x0 && cy >= y0 && cx + size - 1 <= x1 && cy + size - 1 <= y1;
+        if(inside || level <= minLevel){
+            long nKeys = size * size;
+            long start = key(cx, cy) & ~(nKeys - 1);
+            cells.add(start, start + nKeys);
+            return;
+        }
+        long half = size >>> 1;
+        addRanges(cx, cy, level - 1, x0, y0, x1, y1, minLevel, cells);
+        addRanges(cx + half, cy, level - 1, x0, y0, x1, y1, minLevel, cells);
+        addRanges(cx, cy + half, level - 1, x0, y0, x1, y1, minLevel, cells);
+        addRanges(cx + half, cy + half, level - 1, x0, y0, x1, y1, minLevel, cells);
+    }
+
+    private static final class RangeList {
+
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private int size = 0;
+
+        private void add(long start, long end){
+            if(size == starts.length){
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+    }
+
+}
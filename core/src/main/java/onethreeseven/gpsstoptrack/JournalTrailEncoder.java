@@ -0,0 +1,164 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Writes trail entries as a crash-safe journal of checksummed records.
+ * Every record ends with a CRC32 of its type and payload, so after a crash the file can be
+ * truncated back to the last intact record (see {@link TrailRecovery}). Checkpoints of the
+ * movement state and recording interval are written with the first entry, whenever the movement
+ * state changes and every {@link #CHECKPOINT_EVERY_FIXES} entries. A closed journal ends with
+ * an END record, a journal without one was interrupted.
+ *
+ * <pre>
+ * header:     "GPSJ", version (byte), recording interval (int, seconds), crc (int)
+ * fix:        1, lat (double), lon (double), time (long), state (byte), crc (int)
+ * smoothed:   4, lat (double), lon (double), time (long), state (byte),
+ *             smoothed lat (double), smoothed lon (double), crc (int)
+ * checkpoint: 2, time (long), stopped (byte), recording interval (int), fix count (long), crc (int)
+ * end:        3, fix count (long), crc (int)
+ * </pre>
+ * The fix state byte has bit 0 set when stopped, bit 1 set when there is a predicted state and
+ * bit 2 set when the predicted state is stopped. Smoothed fix records are only written for fixes with
+ * a smoothed position (see {@link KalmanSmoother}), so journals without smoothing are unchanged.
+ * All fields are big-endian. Use {@link JournalTrailReader} to read the file back.
+ */
+public class JournalTrailEncoder implements TrailEncoder {
+
+    static final int MAGIC = 0x4750534A; //"GPSJ"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 13;
+
+    public static final byte TYPE_FIX = 1;
+    public static final byte TYPE_CHECKPOINT = 2;
+    public static final byte TYPE_END = 3;
+    public static final byte TYPE_SMOOTHED_FIX = 4;
+    static final int FIX_RECORD_SIZE = 30;
+    static final int SMOOTHED_FIX_RECORD_SIZE = 46;
+    static final int CHECKPOINT_RECORD_SIZE = 26;
+    static final int END_RECORD_SIZE = 13;
+
+    static final int STATE_STOPPED = 1;
+    static final int STATE_HAS_PREDICTION = 2;
+    static final int STATE_PREDICTED_STOPPED = 4;
+
+    static final int CHECKPOINT_EVERY_FIXES = 60;
+
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+    private final byte[] record = new byte[SMOOTHED_FIX_RECORD_SIZE];
+    private final int recordingInterval;
+
+    private long fixCount;
+    private boolean lastIsStopped = false;
+
+    /**
+     * Start a new journal.
+     * @param recordingInterval The recording interval (seconds) stored in the header and checkpoints.
+     */
+    public JournalTrailEncoder(OutputStream out, int recordingInterval) throws IOException {
+        this(out, recordingInterval, 0);
+        int pos = putInt(record, 0, MAGIC);
+        record[pos++] = VERSION;
+        pos = putInt(record, pos, recordingInterval);
+        writeRecord(pos);
+    }
+
+    /**
+     * Continue a journal that was interrupted (and has been truncated to its last valid record).
+     * @param out A stream appending to the journal.
+     * @param fixCount The number of fixes already in the journal.
+     */
+    public JournalTrailEncoder(OutputStream out, int recordingInterval, long fixCount){
+        this.out = new BufferedOutputStream(out);
+        this.recordingInterval = recordingInterval;
+        this.fixCount = fixCount;
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        boolean smoothed = !Double.isNaN(smoothedLat) && !Double.isNaN(smoothedLon);
+        int pos = 0;
+        record[pos++] = smoothed ? TYPE_SMOOTHED_FIX : TYPE_FIX;
+        pos = putLong(record, pos, Double.doubleToLongBits(lat));
+        pos = putLong(record, pos, Double.doubleToLongBits(lon));
+        pos = putLong(record, pos, time);
+        int state = isStopped ? STATE_STOPPED : 0;
+        if(predicted != NO_PREDICTION){
+            state |= STATE_HAS_PREDICTION;
+            if(predicted == PREDICTED_STOPPED){
+                state |= STATE_PREDICTED_STOPPED;
+            }
+        }
+        record[pos++] = (byte) state;
+        if(smoothed){
+            pos = putLong(record, pos, Double.doubleToLongBits(smoothedLat));
+            pos = putLong(record, pos, Double.doubleToLongBits(smoothedLon));
+        }
+        writeRecord(pos);
+        fixCount++;
+        if(fixCount == 1 || isStopped != lastIsStopped || fixCount % CHECKPOINT_EVERY_FIXES == 0){
+            writeCheckpoint(time, isStopped);
+        }
+        lastIsStopped = isStopped;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            int pos = 0;
+            record[pos++] = TYPE_END;
+            pos = putLong(record, pos, fixCount);
+            writeRecord(pos);
+        }finally {
+            out.close();
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void writeCheckpoint(long time, boolean isStopped) throws IOException {
+        int pos = 0;
+        record[pos++] = TYPE_CHECKPOINT;
+        pos = putLong(record, pos, time);
+        record[pos++] = (byte) (isStopped ? 1 : 0);
+        pos = putInt(record, pos, recordingInterval);
+        pos = putLong(record, pos, fixCount);
+        writeRecord(pos);
+    }
+
+    /**
+     * Appends the crc of the first "length" bytes of the record and writes it.
+     */
+    private void writeRecord(int length) throws IOException {
+        crc.reset();
+        crc.update(record, 0, length);
+        length = putInt(record, length, (int) crc.getValue());
+        out.write(record, 0, length);
+    }
+
+    static int putInt(byte[] buf, int pos, int value){
+        buf[pos++] = (byte) (value >>> 24);
+        buf[pos++] = (byte) (value >>> 16);
+        buf[pos++] = (byte) (value >>> 8);
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    static int putLong(byte[] buf, int pos, long value){
+        pos = putInt(buf, pos, (int) (value >>> 32));
+        return putInt(buf, pos, (int) value);
+    }
+
+}
@@ -0,0 +1,226 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads journal trail files written by {@link JournalTrailEncoder}, one record at a time.
+ * Reading stops at the end of the file or at the first truncated/corrupt record, whichever
+ * comes first, so only intact records are ever returned.
+ */
+public class JournalTrailReader implements Closeable {
+
+    private final InputStream in;
+    private final CRC32 crc = new CRC32();
+    private final byte[] record = new byte[JournalTrailEncoder.SMOOTHED_FIX_RECORD_SIZE];
+    private final int recordingInterval;
+    private long validLength;
+
+    private double lat;
+    private double lon;
+    private long time;
+    private boolean isStopped;
+    private byte predicted;
+    private double smoothedLat;
+    private double smoothedLon;
+    private int checkpointInterval;
+    private long fixCount;
+
+    public JournalTrailReader(File file) throws IOException {
+        this.in = new BufferedInputStream(new FileInputStream(file));
+        try{
+            if(!readRecord(JournalTrailEncoder.HEADER_SIZE) || getInt(0) != JournalTrailEncoder.MAGIC){
+                throw new IOException("Not a journal trail file: " + file);
+            }
+            if(record[4] != JournalTrailEncoder.VERSION){
+                throw new IOException("Unsupported journal trail version " + record[4] + ": " + file);
+            }
+            this.recordingInterval = getInt(5);
+        }catch (IOException e){
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The recording interval (seconds) the journal was started with.
+     */
+    public int getRecordingInterval(){
+        return recordingInterval;
+    }
+
+    /**
+     * Move to the next record.
+     * @return The type of record ({@link JournalTrailEncoder#TYPE_FIX} etc), or 0 if there are no
+     * more intact records. Smoothed fix records are returned as TYPE_FIX too (with their
+     * smoothed position, see {@link #getSmoothedLat()}).
+     */
+    public byte next() throws IOException {
+        in.mark(1);
+        int type = in.read();
+        in.reset();
+        switch (type){
+            case JournalTrailEncoder.TYPE_FIX:
+                if(!readRecord(JournalTrailEncoder.FIX_RECORD_SIZE)){return 0;}
+                readFix();
+                smoothedLat = Double.NaN;
+                smoothedLon = Double.NaN;
+                break;
+            case JournalTrailEncoder.TYPE_SMOOTHED_FIX:
+                if(!readRecord(JournalTrailEncoder.SMOOTHED_FIX_RECORD_SIZE)){return 0;}
+                readFix();
+                smoothedLat = Double.longBitsToDouble(getLong(26));
+                smoothedLon = Double.longBitsToDouble(getLong(34));
+                return JournalTrailEncoder.TYPE_FIX;
+            case JournalTrailEncoder.TYPE_CHECKPOINT:
+                if(!readRecord(JournalTrailEncoder.CHECKPOINT_RECORD_SIZE)){return 0;}
+                time = getLong(1);
+                isStopped = record[9] != 0;
+                checkpointInterval = getInt(10);
+                fixCount = getLong(14);
+                break;
+            case JournalTrailEncoder.TYPE_END:
+                if(!readRecord(JournalTrailEncoder.END_RECORD_SIZE)){return 0;}
+                fixCount = getLong(1);
+                break;
+            default:
+                return 0;
+        }
+        return (byte) type;
+    }
+
+    /**
+     * @return Length of the file up to the end of the last intact record read.
+     */
+    public long getValidLength(){
+        return validLength;
+    }
+
+    /**
+     * @return Latitude of the current fix record.
+     */
+    public double getLat(){
+        return lat;
+    }
+
+    /**
+     * @return Longitude of the current fix record.
+     */
+    public double getLon(){
+        return lon;
+    }
+
+    /**
+     * @return Time of the current fix or checkpoint record.
+     */
+    public long getTime(){
+        return time;
+    }
+
+    /**
+     * @return Movement state of the current fix or checkpoint record.
+     */
+    public boolean isStopped(){
+        return isStopped;
+    }
+
+    /**
+     * @return Predicted movement state of the current fix record, see {@link TrailEncoder#NO_PREDICTION}.
+     */
+    public byte getPredicted(){
+        return predicted;
+    }
+
+    /**
+     * @return Smoothed latitude of the current fix record, NaN if it was not smoothed.
+     */
+    public double getSmoothedLat(){
+        return smoothedLat;
+    }
+
+    /**
+     * @return Smoothed longitude of the current fix record, NaN if it was not smoothed.
+     */
+    public double getSmoothedLon(){
+        return smoothedLon;
+    }
+
+    /**
+     * @return Recording interval (seconds) of the current checkpoint record.
+     */
+    public int getCheckpointInterval(){
+        return checkpointInterval;
+    }
+
+    /**
+     * @return Number of fixes written before the current checkpoint or end record.
+     */
+    public long getFixCount(){
+        return fixCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Reads the fields shared by fix and smoothed fix records.
+     */
+    private void readFix(){
+        lat = Double.longBitsToDouble(getLong(1));
+        lon = Double.longBitsToDouble(getLong(9));
+        time = getLong(17);
+        int state = record[25];
+        isStopped = (state & JournalTrailEncoder.STATE_STOPPED) != 0;
+        if((state & JournalTrailEncoder.STATE_HAS_PREDICTION) == 0){
+            predicted = TrailEncoder.NO_PREDICTION;
+        }else if((state & JournalTrailEncoder.STATE_PREDICTED_STOPPED) != 0){
+            predicted = TrailEncoder.PREDICTED_STOPPED;
+        }else{
+            predicted = TrailEncoder.PREDICTED_MOVING;
+        }
+    }
+
+    /**
+     * Reads a whole record and checks its crc.
+     * @return False if the record is truncated or corrupt.
+     */
+    private boolean readRecord(int size) throws IOException {
+        int read = 0;
+        while (read < size){
+            int n = in.read(record, read, size - read);
+            if(n < 0){
+                return false;
+            }
+            read += n;
+        }
+        int payloadSize = size - 4;
+        crc.reset();
+        crc.update(record, 0, payloadSize);
+        if((int) crc.getValue() != getInt(payloadSize)){
+            return false;
+        }
+        validLength += size;
+        return true;
+    }
+
+    private int getInt(int pos){
+        return ((record[pos] & 0xFF) << 24) | ((record[pos + 1] & 0xFF) << 16) |
+                ((record[pos + 2] & 0xFF) << 8) | (record[pos + 3] & 0xFF);
+    }
+
+    private long getLong(int pos){
+        return ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,79 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Reports a Kalman filtered position rather than any one received fix.
+ * Every fix updates an estimate of the position (in meters, projected around the first fix) that
+ * assumes the user wanders randomly, i.e. the estimate's variance grows by "processNoise" each second.
+ * Each fix is weighted by its accuracy, so inaccurate (e.g. NETWORK) fixes barely move the estimate.
+ * The reported fix is the estimate at the newest fix's time, with the estimate's standard deviation
+ * as its accuracy.
+ */
+public class KalmanSelectionStrategy implements SelectionStrategy {
+
+    public static final double DEFAULT_PROCESS_NOISE = 2.0;
+    //fixes claiming to be more accurate than this are not trusted any further
+    private static final double MIN_ACCURACY_METERS = 1;
+
+    private final double processNoise;
+
+    private boolean hasEstimate = false;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+    private double x;
+    private double y;
+    private double variance;
+    private long time;
+
+    public KalmanSelectionStrategy(){
+        this(DEFAULT_PROCESS_NOISE);
+    }
+
+    /**
+     * @param processNoise How much the position variance grows per second (meters^2/second).
+     */
+    public KalmanSelectionStrategy(double processNoise){
+        this.processNoise = processNoise;
+    }
+
+    @Override
+    public void offer(Fix best, Fix candidate, Fix lastReported, long reportingInterval) {
+        double accuracy = Math.max(MIN_ACCURACY_METERS, candidate.getAccuracy());
+        double measurementVariance = accuracy * accuracy;
+        if(!hasEstimate){
+            originLat = candidate.getLat();
+            originLon = candidate.getLon();
+            metersPerDegreeLon = Geo.metersPerDegreeLon(originLat);
+            x = 0;
+            y = 0;
+            variance = measurementVariance;
+            time = candidate.getTime();
+            hasEstimate = true;
+        }else{
+            //predict: the user may have moved since the last fix
+            long elapsed = candidate.getTime() - time;
+            if(elapsed > 0){
+                variance += processNoise * elapsed / 1000.0;
+                time = candidate.getTime();
+            }
+            //update: move towards the fix in proportion to how much it is trusted
+            double gain = variance / (variance + measurementVariance);
+            x += gain * ((candidate.getLon() - originLon) * metersPerDegreeLon - x);
+            y += gain * ((candidate.getLat() - originLat) * Geo.metersPerDegreeLat() - y);
+            variance *= 1 - gain;
+        }
+        best.set(originLat + y / Geo.metersPerDegreeLat(), originLon + x / metersPerDegreeLon,
+                time, (float) Math.sqrt(variance), candidate.getProvider());
+    }
+
+    @Override
+    public void reset() {
+        hasEstimate = false;
+    }
+
+    @Override
+    public String getName() {
+        return "kalman(" + processNoise + "m2/s)";
+    }
+
+}
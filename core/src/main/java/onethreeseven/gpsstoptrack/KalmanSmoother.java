@@ -0,0 +1,148 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Smooths the reported fixes with a constant-velocity Kalman filter, see {@link #smooth(Fix)}.
+ * Positions are filtered in meters, projected around the first fix, with each axis's
+ * position and velocity filtered separately. The user's acceleration is modelled as white noise
+ * ("accelerationNoise") and each fix is weighted by its accuracy, so inaccurate (e.g. NETWORK)
+ * fixes barely move the estimate.
+ * Both axes see the same noise, so they share one covariance matrix, and the whole filter is a
+ * handful of doubles: nothing is allocated per fix.
+ * The filter starts afresh after a gap longer than "maxGapMillis" (or if time goes backwards),
+ * rather than extrapolating a stale velocity.
+ */
+public class KalmanSmoother {
+
+    public static final double DEFAULT_ACCELERATION_NOISE = 1.0;
+    public static final long DEFAULT_MAX_GAP_MILLIS = 5 * 60 * 1000L;
+    //a new estimate's speed is unknown, this allows for up to about 10m/s
+    static final double INITIAL_SPEED_VARIANCE = 25;
+    //fixes claiming to be more accurate than this are not trusted any further
+    private static final double MIN_ACCURACY_METERS = 1;
+
+    private final double accelerationNoise;
+    private final long maxGapMillis;
+
+    private boolean hasEstimate = false;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+    private long time;
+    //east (x) and north (y) position (meters) and velocity (meters/second)
+    private double x;
+    private double vx;
+    private double y;
+    private double vy;
+    //covariance of [position, velocity], the same for both axes
+    private double pp;
+    private double pv;
+    private double vv;
+
+    public KalmanSmoother(){
+        this(DEFAULT_ACCELERATION_NOISE, DEFAULT_MAX_GAP_MILLIS);
+    }
+
+    /**
+     * @param accelerationNoise Spectral density of the user's acceleration (meters^2/second^3),
+     *                          bigger follows turns and speed changes quicker but smooths less.
+     * @param maxGapMillis Start afresh when fixes are further apart than this.
+     */
+    public KalmanSmoother(double accelerationNoise, long maxGapMillis){
+        this.accelerationNoise = accelerationNoise;
+        this.maxGapMillis = maxGapMillis;
+    }
+
+    /**
+     * Update the filter with the fix and store the smoothed position in it, see {@link Fix#setSmoothed(double, double)}.
+     * @param fix The fix to smooth, fixes must be given in time order.
+     */
+    public void smooth(Fix fix){
+        double accuracy = Math.max(MIN_ACCURACY_METERS, fix.getAccuracy());
+        double measurementVariance = accuracy * accuracy;
+        long elapsed = fix.getTime() - time;
+        if(!hasEstimate || elapsed < 0 || elapsed > maxGapMillis){
+            start(fix, measurementVariance);
+        }else{
+            predict(elapsed / 1000.0);
+            update((fix.getLon() - originLon) * metersPerDegreeLon,
+                    (fix.getLat() - originLat) * Geo.metersPerDegreeLat(), measurementVariance);
+            time = fix.getTime();
+        }
+        fix.setSmoothed(originLat + y / Geo.metersPerDegreeLat(), originLon + x / metersPerDegreeLon);
+    }
+
+    /**
+     * @return Standard deviation of the smoothed position (meters), NaN before the first fix.
+     */
+    public double getAccuracy(){
+        return hasEstimate ? Math.sqrt(pp) : Double.NaN;
+    }
+
+    /**
+     * @return Estimated speed (meters/second), NaN before the first fix.
+     */
+    public double getSpeed(){
+        return hasEstimate ? Math.hypot(vx, vy) : Double.NaN;
+    }
+
+    /**
+     * Forget the estimate (e.g. when tracking stops).
+     */
+    public void reset(){
+        hasEstimate = false;
+    }
+
+    public String getName(){
+        return "kalman(" + accelerationNoise + "m2/s3)";
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void start(Fix fix, double measurementVariance){
+        originLat = fix.getLat();
+        originLon = fix.getLon();
+        metersPerDegreeLon = Geo.metersPerDegreeLon(originLat);
+        time = fix.getTime();
+        x = 0;
+        y = 0;
+        vx = 0;
+        vy = 0;
+        pp = measurementVariance;
+        pv = 0;
+        vv = INITIAL_SPEED_VARIANCE;
+        hasEstimate = true;
+    }
+
+    /**
+     * Move the estimate "dt" seconds on at the current velocity, growing its uncertainty.
+     */
+    private void predict(double dt){
+        x += vx * dt;
+        y += vy * dt;
+        double q = accelerationNoise;
+        pp += dt * (2 * pv + dt * vv) + q * dt * dt * dt / 3;
+        pv += dt * vv + q * dt * dt / 2;
+        vv += q * dt;
+    }
+
+    /**
+     * Correct the estimate towards the measured position in proportion to how much it is trusted.
+     */
+    private void update(double measuredX, double measuredY, double measurementVariance){
+        double s = pp + measurementVariance;
+        double positionGain = pp / s;
+        double velocityGain = pv / s;
+        double innovationX = measuredX - x;
+        double innovationY = measuredY - y;
+        x += positionGain * innovationX;
+        y += positionGain * innovationY;
+        vx += velocityGain * innovationX;
+        vy += velocityGain * innovationY;
+        vv -= velocityGain * pv;
+        pv -= positionGain * pv;
+        pp -= positionGain * pp;
+    }
+
+}
@@ -0,0 +1,13 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Consumes {@link Fix}es.
+ * The fix passed in is reused by the tracker once {@link #consume(Fix)} returns,
+ * so copy it if it needs to be kept.
+ * @author luke
+ */
+public interface LocationConsumer {
+
+    void consume(Fix fix);
+
+}
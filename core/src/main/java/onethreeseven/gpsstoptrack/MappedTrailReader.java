@@ -0,0 +1,355 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads CSV trails (lat,lon,time,Stopped|Moving[,predicted[,smoothedLat,smoothedLon]], see
+ * {@link CsvTrailEncoder}) straight out of the memory-mapped file.
+ * A {@link Cursor} parses one line at a time in place, byte by byte, into primitive fields, so scanning
+ * a trail creates no per-line objects and runs at about the speed the file can be read.
+ * The file is mapped a window at a time, so trails bigger than 2GB can be read too.
+ * <p>
+ * For parallel consumers, {@link #split(int)} cuts the file into ranges on line boundaries and
+ * {@link #cursor(long, long)} reads just one of them. The reader can be shared between threads,
+ * each cursor can not.
+ * Lines that don't parse (e.g. the last line of a trail cut off by a crash) are skipped.
+ */
+public class MappedTrailReader implements Closeable {
+
+    //how much of the file a cursor maps at once
+    static final int DEFAULT_WINDOW_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_DECIMAL_DIGITS = 17;
+    private static final double[] POWERS_OF_TEN = new double[MAX_DECIMAL_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int windowBytes;
+
+    public MappedTrailReader(File trail) throws IOException {
+        this(trail, DEFAULT_WINDOW_BYTES);
+    }
+
+    MappedTrailReader(File trail, int windowBytes) throws IOException {
+        this.file = new RandomAccessFile(trail, "r");
+        this.channel = file.getChannel();
+        this.size = channel.size();
+        this.windowBytes = windowBytes;
+    }
+
+    /**
+     * @return The size of the file (bytes).
+     */
+    public long size(){
+        return size;
+    }
+
+    /**
+     * Cut the file into about equal ranges that start and end on line boundaries.
+     * @return parts + 1 offsets, range i is [offsets[i], offsets[i + 1]), some ranges may be empty.
+     */
+    public long[] split(int parts) throws IOException {
+        long[] offsets = new long[parts + 1];
+        for (int i = 1; i < parts; i++) {
+            offsets[i] = Math.max(offsets[i - 1], lineStartAtOrAfter(size * i / parts));
+        }
+        offsets[parts] = size;
+        return offsets;
+    }
+
+    /**
+     * @return A cursor over the whole file.
+     */
+    public Cursor cursor(){
+        return new Cursor(0, size);
+    }
+
+    /**
+     * @param start Offset of the first line to read, see {@link #split(int)}.
+     * @param end Offset the range ends at (exclusive).
+     * @return A cursor over the lines starting in [start, end).
+     */
+    public Cursor cursor(long start, long end){
+        return new Cursor(start, Math.min(end, size));
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * @return The offset of the first line starting at or after the offset, or the file size if none does.
+     */
+    private long lineStartAtOrAfter(long offset) throws IOException {
+        if(offset == 0){
+            return 0;
+        }
+        //a line starts after the new line before it
+        long pos = offset - 1;
+        while (pos < size){
+            int length = (int) Math.min(windowBytes, size - pos);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+            for (int i = 0; i < length; i++) {
+                if(window.get(i) == '\n'){
+                    return pos + i + 1;
+                }
+            }
+            pos += length;
+        }
+        return size;
+    }
+
+    /**
+     * Moves through the lines of a range of the file, see {@link #next()}.
+     */
+    public final class Cursor {
+
+        private final long end;
+        private MappedByteBuffer window;
+        //offset of the window in the file
+        private long windowStart;
+        //position of the next line in the window
+        private int pos = 0;
+
+        private long lineStart = -1;
+        private double lat;
+        private double lon;
+        private long time;
+        private boolean isStopped;
+        private byte predicted;
+        private double smoothedLat;
+        private double smoothedLon;
+
+        //parse state for the current line
+        private int cursor;
+        private boolean malformed;
+
+        private Cursor(long start, long end){
+            this.windowStart = start;
+            this.end = end;
+        }
+
+        /**
+         * Move to the next line that parses.
+         * @return False if there are no more lines in the range.
+         */
+        public boolean next() throws IOException {
+            while (true){
+                long offset = windowStart + pos;
+                if(offset >= end){
+                    return false;
+                }
+                if(window == null || pos >= window.limit()){
+                    map(offset);
+                }
+                int limit = window.limit();
+                int lineEnd = pos;
+                while (lineEnd < limit && window.get(lineEnd) != '\n'){
+                    lineEnd++;
+                }
+                if(lineEnd == limit && windowStart + limit < size){
+                    if(pos > 0){
+                        //the line carries on past the window, map again from its start
+                        map(offset);
+                        continue;
+                    }
+                    //a line longer than a whole window can't be a trail entry, skip what there is of it
+                    pos = limit;
+                    continue;
+                }
+                int start = pos;
+                pos = lineEnd + 1;
+                if(parse(windowStart + start, start, lineEnd)){
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return Offset in the file of the current line.
+         */
+        public long getLineStart(){
+            return lineStart;
+        }
+
+        public double getLat(){
+            return lat;
+        }
+
+        public double getLon(){
+            return lon;
+        }
+
+        public long getTime(){
+            return time;
+        }
+
+        public boolean isStopped(){
+            return isStopped;
+        }
+
+        /**
+         * @return The predicted movement state, e.g. {@link TrailEncoder#PREDICTED_STOPPED}.
+         */
+        public byte getPredicted(){
+            return predicted;
+        }
+
+        /**
+         * @return The smoothed latitude, NaN if the line has no smoothed position.
+         */
+        public double getSmoothedLat(){
+            return smoothedLat;
+        }
+
+        /**
+         * @return The smoothed longitude, NaN if the line has no smoothed position.
+         */
+        public double getSmoothedLon(){
+            return smoothedLon;
+        }
+
+        /////////////////////
+        //private methods
+        /////////////////////
+
+        private void map(long offset) throws IOException {
+            int length = (int) Math.min(windowBytes, size - offset);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            windowStart = offset;
+            pos = 0;
+        }
+
+        private boolean parse(long offset, int start, int end){
+            if(end > start && window.get(end - 1) == '\r'){
+                end--;
+            }
+            cursor = start;
+            malformed = false;
+            double lat = parseDecimal(end);
+            double lon = parseDecimal(end);
+            long time = parseLong(end);
+            if(malformed || cursor >= end){
+                return false;
+            }
+            byte state = window.get(cursor);
+            if(state != 'S' && state != 'M'){
+                return false;
+            }
+            skipColumn(end);
+            byte predicted = TrailEncoder.NO_PREDICTION;
+            if(cursor < end && window.get(cursor) != ','){
+                predicted = window.get(cursor) == 'S' ? TrailEncoder.PREDICTED_STOPPED : TrailEncoder.PREDICTED_MOVING;
+            }
+            skipColumn(end);
+            double smoothedLat = Double.NaN;
+            double smoothedLon = Double.NaN;
+            if(cursor < end){
+                double sLat = parseDecimal(end);
+                double sLon = parseDecimal(end);
+                if(!malformed){
+                    smoothedLat = sLat;
+                    smoothedLon = sLon;
+                }
+            }
+            this.lineStart = offset;
+            this.lat = lat;
+            this.lon = lon;
+            this.time = time;
+            this.isStopped = state == 'S';
+            this.predicted = predicted;
+            this.smoothedLat = smoothedLat;
+            this.smoothedLon = smoothedLon;
+            return true;
+        }
+
+        private void skipColumn(int end){
+            while (cursor < end && window.get(cursor++) != ','){
+                //skip
+            }
+        }
+
+        /**
+         * Parses [-]digits[.digits] followed by a comma, as written by %f.
+         */
+        private double parseDecimal(int end){
+            boolean negative = cursor < end && window.get(cursor) == '-';
+            if(negative){
+                cursor++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = 0;
+            boolean inFraction = false;
+            while (cursor < end){
+                byte b = window.get(cursor++);
+                if(b == ','){
+                    break;
+                }
+                if(b == '.' && !inFraction){
+                    inFraction = true;
+                }else if(b >= '0' && b <= '9' && digits < MAX_DECIMAL_DIGITS){
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if(inFraction){
+                        fractionDigits++;
+                    }
+                }else{
+                    malformed = true;
+                    return 0;
+                }
+            }
+            if(digits == 0){
+                malformed = true;
+                return 0;
+            }
+            //both are exact doubles so the division is correctly rounded, same as Double.parseDouble
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        private long parseLong(int end){
+            boolean negative = cursor < end && window.get(cursor) == '-';
+            if(negative){
+                cursor++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (cursor < end){
+                byte b = window.get(cursor++);
+                if(b == ','){
+                    break;
+                }
+                if(b < '0' || b > '9' || digits == 18){
+                    malformed = true;
+                    return 0;
+                }
+                value = value * 10 + (b - '0');
+                digits++;
+            }
+            if(digits == 0){
+                malformed = true;
+            }
+            return negative ? -value : value;
+        }
+
+    }
+
+}
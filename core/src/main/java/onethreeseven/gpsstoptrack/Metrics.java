@@ -0,0 +1,273 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A process-wide registry of named counters and histograms for the hot paths (fix selection, trail writing).
+ * Recording is lock-free and allocates nothing: counters are AtomicLongs and histograms are
+ * log-linear (HDR style) buckets in an AtomicLongArray. Hot paths look their metrics up once and keep them.
+ * Metrics start disabled until turned on with {@link #setEnabled(boolean)} (the app does so unless the user turns
+ * them off). While disabled recording a value is a single volatile read, so callers only need to check
+ * {@link #isEnabled()} themselves to skip work done just for a metric (e.g. reading the clock).
+ * Read the values using {@link #snapshot()} or write them to a file using {@link #dump(File)}.
+ */
+public final class Metrics {
+
+    private static volatile boolean enabled = false;
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics(){}
+
+    public static void setEnabled(boolean enable){
+        enabled = enable;
+    }
+
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * @return The counter with the name, made if there isn't one yet.
+     */
+    public static Counter counter(String name){
+        Counter counter = counters.get(name);
+        if(counter == null){
+            Counter made = new Counter(name);
+            counter = counters.putIfAbsent(name, made);
+            if(counter == null){
+                counter = made;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return The histogram with the name, made if there isn't one yet.
+     */
+    public static Histogram histogram(String name){
+        Histogram histogram = histograms.get(name);
+        if(histogram == null){
+            Histogram made = new Histogram(name);
+            histogram = histograms.putIfAbsent(name, made);
+            if(histogram == null){
+                histogram = made;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Zero every metric, e.g. at the start of a recording.
+     */
+    public static void reset(){
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return Every metric, one per line and sorted by name.
+     */
+    public static String snapshot(){
+        List<String> lines = new ArrayList<>();
+        for (Counter counter : counters.values()) {
+            lines.add(counter.toString());
+        }
+        for (Histogram histogram : histograms.values()) {
+            lines.add(histogram.toString());
+        }
+        Collections.sort(lines);
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write a {@link #snapshot()} to the file.
+     */
+    public static void dump(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try{
+            out.write(snapshot());
+        }finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A count of events, e.g. fixes received.
+     */
+    public static final class Counter {
+
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(String name){
+            this.name = name;
+        }
+
+        public void inc(){
+            if(enabled){
+                value.incrementAndGet();
+            }
+        }
+
+        public void add(long n){
+            if(enabled){
+                value.addAndGet(n);
+            }
+        }
+
+        public long get(){
+            return value.get();
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        void reset(){
+            value.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + value.get();
+        }
+
+    }
+
+    /**
+     * The distribution of a non-negative value, e.g. a latency in micros.
+     * Values below 2^SUB_BUCKET_BITS are counted exactly, bigger ones in buckets of 2^SUB_BUCKET_BITS
+     * per power of two, so a percentile is within about 3% of the true value, whatever its magnitude.
+     */
+    public static final class Histogram {
+
+        static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(String name){
+            this.name = name;
+        }
+
+        /**
+         * @param value The value to count, negative values count as 0.
+         */
+        public void record(long value){
+            if(!enabled){
+                return;
+            }
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)){
+                //another thread raised the max, try again
+            }
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public long getCount(){
+            return count.get();
+        }
+
+        public long getMax(){
+            return max.get();
+        }
+
+        /**
+         * @return The mean value, NaN if nothing has been recorded.
+         */
+        public double getMean(){
+            long n = count.get();
+            return n == 0 ? Double.NaN : (double) sum.get() / n;
+        }
+
+        /**
+         * @param percentile E.g. 99 for the 99th percentile.
+         * @return The value at the percentile (the middle of its bucket, or the max if it is in the max's bucket),
+         * 0 if nothing has been recorded.
+         */
+        public long getPercentile(double percentile){
+            long n = count.get();
+            if(n == 0){
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if(seen >= rank){
+                    //the last bucket holds the max, which is known exactly
+                    return seen >= n ? max.get() : Math.min(max.get(), middleOf(i));
+                }
+            }
+            return max.get();
+        }
+
+        void reset(){
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        static int bucketOf(long value){
+            if(value < SUB_BUCKETS){
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        static long middleOf(int bucket){
+            if(bucket < SUB_BUCKETS){
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) >>> 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%s count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                    name, getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99),
+                    getPercentile(99.9), getMax());
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * What a {@link ConsumerChannel} does with a new fix when its queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Drop the oldest queued fix to make room, the publisher never waits.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Make the publisher wait until the consumer makes room, no fix is lost.
+     */
+    BLOCK,
+
+    /**
+     * Only the newest fix matters (e.g. for a display): the publisher drops the oldest fix when
+     * full and the consumer skips straight to the newest queued fix, counting the ones it skipped.
+     */
+    COALESCE
+
+}
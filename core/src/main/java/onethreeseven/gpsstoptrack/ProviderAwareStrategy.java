@@ -0,0 +1,31 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Like {@link AccuracyWeightedStrategy} but prefers GPS fixes: a NETWORK fix's score is multiplied by
+ * {@link #NETWORK_PENALTY} (OTHER by {@link #OTHER_PENALTY}), so they are only picked when GPS is
+ * much worse (e.g. indoors) or missing.
+ */
+public class ProviderAwareStrategy extends AccuracyWeightedStrategy {
+
+    public static final double NETWORK_PENALTY = 4;
+    public static final double OTHER_PENALTY = 2;
+
+    @Override
+    protected double score(Fix fix, long now, Fix lastReported, long reportingInterval) {
+        double score = super.score(fix, now, lastReported, reportingInterval);
+        switch (fix.getProvider()){
+            case NETWORK:
+                return score * NETWORK_PENALTY;
+            case OTHER:
+                return score * OTHER_PENALTY;
+            default:
+                return score;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "provider";
+    }
+
+}
@@ -0,0 +1,35 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Prefers the newest fix unless an older one is more accurate by more than the user could have
+ * moved since: a fix scores its accuracy plus "speed" times its age (meters), roughly its
+ * expected distance from where the user is now.
+ */
+public class RecencyWeightedStrategy extends ScoringSelectionStrategy {
+
+    public static final double DEFAULT_SPEED = 2.0;
+
+    private final double speed;
+
+    public RecencyWeightedStrategy(){
+        this(DEFAULT_SPEED);
+    }
+
+    /**
+     * @param speed The speed (meters/second) the user is assumed to move at.
+     */
+    public RecencyWeightedStrategy(double speed){
+        this.speed = speed;
+    }
+
+    @Override
+    protected double score(Fix fix, long now, Fix lastReported, long reportingInterval) {
+        return fix.getAccuracy() + speed * (now - fix.getTime()) / 1000.0;
+    }
+
+    @Override
+    public String getName() {
+        return "recency(" + speed + "m/s)";
+    }
+
+}
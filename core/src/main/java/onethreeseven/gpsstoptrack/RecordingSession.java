@@ -0,0 +1,67 @@
+package onethreeseven.gpsstoptrack;
+
+import java.util.ArrayList;
+
+/**
+ * One recording session's location consumers (from starting to stopping a recording).
+ * The session subscribes its consumers to the tracker and unsubscribes all of them when it is
+ * closed, so consumers never outlive their session: however many sessions the service runs,
+ * each fix is only sent to the current session's consumers.
+ */
+public class RecordingSession {
+
+    private static final String TAG = RecordingSession.class.getSimpleName();
+
+    private final FixTracker tracker;
+    private final ArrayList<Subscription> subscriptions = new ArrayList<>();
+    private boolean closed = false;
+
+    public RecordingSession(FixTracker tracker){
+        this.tracker = tracker;
+    }
+
+    /**
+     * Subscribe a consumer for the rest of the session (no location is lost if it falls behind).
+     */
+    public Subscription subscribe(LocationConsumer consumer){
+        return subscribe(consumer, OverflowPolicy.BLOCK, ConsumerChannel.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Subscribe a consumer for the rest of the session, see {@link FixTracker#subscribe(LocationConsumer, OverflowPolicy, int)}.
+     */
+    public Subscription subscribe(LocationConsumer consumer, OverflowPolicy policy, int capacity){
+        if(closed){
+            throw new IllegalStateException("Session is closed");
+        }
+        Subscription subscription = tracker.subscribe(consumer, policy, capacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public int getConsumerCount(){
+        return subscriptions.size();
+    }
+
+    public boolean isClosed(){
+        return closed;
+    }
+
+    /**
+     * Unsubscribe the session's consumers, once they have consumed the locations already sent to them.
+     * Does nothing if already closed.
+     */
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription subscription = subscriptions.get(i);
+            subscription.unsubscribe();
+            TrackerLog.i(TAG, "Location consumer " + subscription.getChannel());
+        }
+        subscriptions.clear();
+    }
+
+}
@@ -0,0 +1,58 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+
+/**
+ * A journal trail that was interrupted (e.g. the process was killed while recording) and has
+ * been truncated back to its last intact record by {@link TrailRecovery}.
+ * Holds the tracker state from the journal's last checkpoint so the session can be resumed.
+ */
+public class RecoveredTrail {
+
+    private final File file;
+    private final long fixCount;
+    private final long lastFixTime;
+    private final boolean isStopped;
+    private final int recordingInterval;
+
+    RecoveredTrail(File file, long fixCount, long lastFixTime, boolean isStopped, int recordingInterval) {
+        this.file = file;
+        this.fixCount = fixCount;
+        this.lastFixTime = lastFixTime;
+        this.isStopped = isStopped;
+        this.recordingInterval = recordingInterval;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return Number of intact fixes in the journal.
+     */
+    public long getFixCount() {
+        return fixCount;
+    }
+
+    /**
+     * @return Time of the last intact fix, or 0 if there are none.
+     */
+    public long getLastFixTime() {
+        return lastFixTime;
+    }
+
+    /**
+     * @return The movement state the session was in when it was interrupted.
+     */
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    /**
+     * @return The recording interval (seconds) of the session.
+     */
+    public int getRecordingInterval() {
+        return recordingInterval;
+    }
+
+}
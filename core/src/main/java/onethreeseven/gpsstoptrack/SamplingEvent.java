@@ -0,0 +1,73 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * A change of {@link SamplingPlan} (i.e. location updates were re-requested), with how many fixes
+ * arrived under the previous plan and for how long it was in place, so the effect of each plan on the
+ * fix rate (and battery) can be measured.
+ */
+public final class SamplingEvent {
+
+    private final long time;
+    private final SamplingPlan previousPlan;
+    private final SamplingPlan plan;
+    private final long previousFixCount;
+    private final long previousDuration;
+
+    public SamplingEvent(long time, SamplingPlan previousPlan, SamplingPlan plan,
+                         long previousFixCount, long previousDuration) {
+        this.time = time;
+        this.previousPlan = previousPlan;
+        this.plan = plan;
+        this.previousFixCount = previousFixCount;
+        this.previousDuration = previousDuration;
+    }
+
+    /**
+     * @return When the plan changed (millis since epoch).
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The plan being replaced, or null if tracking just started.
+     */
+    public SamplingPlan getPreviousPlan() {
+        return previousPlan;
+    }
+
+    public SamplingPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return Number of fixes received under the previous plan.
+     */
+    public long getPreviousFixCount() {
+        return previousFixCount;
+    }
+
+    /**
+     * @return How long the previous plan was in place (millis).
+     */
+    public long getPreviousDuration() {
+        return previousDuration;
+    }
+
+    /**
+     * @return Fixes per minute received under the previous plan (0 if it was in place for no time).
+     */
+    public double getPreviousFixRate() {
+        return previousDuration <= 0 ? 0 : previousFixCount * 60000.0 / previousDuration;
+    }
+
+    @Override
+    public String toString() {
+        if(previousPlan == null){
+            return "started " + plan;
+        }
+        return previousPlan + " -> " + plan + " after " + previousFixCount + " fixes in " +
+                (previousDuration / 1000) + "s (" + String.format("%.1f", getPreviousFixRate()) + " fixes/min)";
+    }
+
+}
@@ -0,0 +1,10 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Told every time location updates are re-requested with a new {@link SamplingPlan}.
+ */
+public interface SamplingListener {
+
+    void onSamplingChanged(SamplingEvent event);
+
+}
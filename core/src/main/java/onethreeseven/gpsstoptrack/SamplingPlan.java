@@ -0,0 +1,85 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * How location updates are requested: which providers, how often (minTime) and
+ * how far apart (minDistance), as passed to LocationManager.requestLocationUpdates.
+ * Plans are immutable, see {@link AdaptiveSampler} for how they are picked.
+ */
+public final class SamplingPlan {
+
+    public enum Mode {
+        //no speed known yet, request both providers at 0.3x the recording interval
+        DEFAULT,
+        //stopped (annotated by the user or detected), back off
+        STATIONARY,
+        MOVING,
+        //faster than walking, sample more often
+        FAST
+    }
+
+    private final Mode mode;
+    private final boolean useGps;
+    private final boolean useNetwork;
+    private final long minTime;
+    private final float minDistance;
+
+    public SamplingPlan(Mode mode, boolean useGps, boolean useNetwork, long minTime, float minDistance) {
+        this.mode = mode;
+        this.useGps = useGps;
+        this.useNetwork = useNetwork;
+        this.minTime = minTime;
+        this.minDistance = minDistance;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean usesGps() {
+        return useGps;
+    }
+
+    public boolean usesNetwork() {
+        return useNetwork;
+    }
+
+    /**
+     * @return Minimum time between location updates (millis).
+     */
+    public long getMinTime() {
+        return minTime;
+    }
+
+    /**
+     * @return Minimum distance between location updates (meters).
+     */
+    public float getMinDistance() {
+        return minDistance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SamplingPlan)) return false;
+        SamplingPlan other = (SamplingPlan) o;
+        return mode == other.mode && useGps == other.useGps && useNetwork == other.useNetwork &&
+                minTime == other.minTime && Float.compare(minDistance, other.minDistance) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mode.hashCode();
+        result = 31 * result + (useGps ? 1 : 0);
+        result = 31 * result + (useNetwork ? 1 : 0);
+        result = 31 * result + (int) (minTime ^ (minTime >>> 32));
+        result = 31 * result + Float.floatToIntBits(minDistance);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        String providers = useGps ? (useNetwork ? "gps+network" : "gps") : (useNetwork ? "network" : "none");
+        return mode + "(" + providers + "," + minTime + "ms," + minDistance + "m)";
+    }
+
+}
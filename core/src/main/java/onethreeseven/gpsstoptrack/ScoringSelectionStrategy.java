@@ -0,0 +1,36 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * A strategy that scores each fix and keeps the best scoring one.
+ */
+public abstract class ScoringSelectionStrategy implements SelectionStrategy {
+
+    /**
+     * Replace the current best fix with the candidate if the candidate scores better (or equal).
+     */
+    @Override
+    public void offer(Fix best, Fix candidate, Fix lastReported, long reportingInterval) {
+        long now = candidate.getTime();
+        double scoreBest = score(best, now, lastReported, reportingInterval);
+        double scoreCandidate = score(candidate, now, lastReported, reportingInterval);
+        if(!(scoreBest < scoreCandidate)){
+            best.set(candidate);
+        }
+    }
+
+    @Override
+    public void reset() {
+
+    }
+
+    /**
+     * Score a recorded fix.
+     * @param fix A recorded fix.
+     * @param now Time of the newest fix (millis).
+     * @param lastReported The last reported fix.
+     * @param reportingInterval The required amount of time between reported fixes (millis).
+     * @return A score (lower is better).
+     */
+    protected abstract double score(Fix fix, long now, Fix lastReported, long reportingInterval);
+
+}
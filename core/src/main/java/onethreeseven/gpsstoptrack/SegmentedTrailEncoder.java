@@ -0,0 +1,117 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the movement state once per segment instead of on every entry.
+ * The entries go to the trail file as CSV lines without the "Stopped|Moving" column
+ * (see {@link CsvTrailEncoder}), and each run of entries with the same state goes to a segments file
+ * next to it (see {@link #segmentsFileOf(File)}) as one "Stopped|Moving,startTime,endTime,firstIndex,lastIndex"
+ * line, where the indices are the (0 based, inclusive) lines of the trail file the segment covers.
+ * A segment is written when the state changes and when the encoder is closed, so the segments file
+ * only grows once per toggle. Read it back using {@link SegmentedTrailReader}.
+ */
+public class SegmentedTrailEncoder implements TrailEncoder {
+
+    public static final String SEGMENTS_FILE_EXTENSION = "seg";
+
+    private static final byte[] NEW_LINE = System.getProperty("line.separator", "\n").getBytes();
+
+    private final CsvTrailEncoder fixes;
+    private final OutputStream segments;
+
+    private long fixCount = 0;
+    private long segmentCount = 0;
+    //the segment being written, not in the segments file yet
+    private boolean segmentStopped;
+    private long segmentStartTime;
+    private long segmentEndTime;
+    private long segmentFirstIndex;
+
+    /**
+     * @param fixesOut The stream the entries (the trail file) are written to.
+     * @param segmentsOut The stream the segments are written to.
+     */
+    public SegmentedTrailEncoder(OutputStream fixesOut, OutputStream segmentsOut){
+        this.fixes = new CsvTrailEncoder(fixesOut, false);
+        this.segments = new BufferedOutputStream(segmentsOut);
+    }
+
+    /**
+     * @return The segments file that goes with a segmented trail file, e.g. trail_123.seg for trail_123.sgt.
+     */
+    public static File segmentsFileOf(File trailFile){
+        String name = trailFile.getName();
+        int extIdx = name.lastIndexOf('.');
+        String baseName = extIdx > 0 ? name.substring(0, extIdx) : name;
+        return new File(trailFile.getAbsoluteFile().getParentFile(), baseName + "." + SEGMENTS_FILE_EXTENSION);
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        if(fixCount == 0){
+            startSegment(isStopped, time);
+        }else if(isStopped != segmentStopped){
+            writeSegment();
+            startSegment(isStopped, time);
+        }
+        fixes.write(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+        segmentEndTime = time;
+        fixCount++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        fixes.flush();
+        segments.flush();
+    }
+
+    /**
+     * Writes the last segment, then closes both files.
+     */
+    @Override
+    public void close() throws IOException {
+        try{
+            if(fixCount > 0){
+                writeSegment();
+            }
+            fixes.close();
+        }finally {
+            segments.close();
+        }
+    }
+
+    public long getFixCount(){
+        return fixCount;
+    }
+
+    /**
+     * @return Number of segments written to the segments file so far.
+     */
+    public long getSegmentCount(){
+        return segmentCount;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void startSegment(boolean isStopped, long time){
+        segmentStopped = isStopped;
+        segmentStartTime = time;
+        segmentFirstIndex = fixCount;
+    }
+
+    private void writeSegment() throws IOException {
+        String segment = (segmentStopped ? "Stopped" : "Moving") + "," + segmentStartTime + "," +
+                segmentEndTime + "," + segmentFirstIndex + "," + (fixCount - 1);
+        segments.write(segment.getBytes());
+        segments.write(NEW_LINE);
+        segmentCount++;
+    }
+
+}
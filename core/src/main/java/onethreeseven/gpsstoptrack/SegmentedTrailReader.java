@@ -0,0 +1,257 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads segmented trails written by {@link SegmentedTrailEncoder}.
+ * Only the segments file is read up front, so questions about segments (how long was spent stopped,
+ * where each stop starts and ends) cost O(segments) and never touch the entries.
+ * The entries are read one at a time by {@link #next()}, with their movement state worked out
+ * from the segment they fall in.
+ * <p>
+ * If the trail was cut off (e.g. by a crash) the segment being written is missing from the segments
+ * file. A segment only ends when the state changes, so the entries after the last segment are given
+ * the other state to it (or moving if there are no segments at all).
+ */
+public class SegmentedTrailReader implements Closeable {
+
+    private final File trailFile;
+
+    private boolean[] stopped = new boolean[16];
+    private long[] startTimes = new long[16];
+    private long[] endTimes = new long[16];
+    private long[] firstIndices = new long[16];
+    private long[] lastIndices = new long[16];
+    private int segmentCount = 0;
+
+    private BufferedReader fixes;
+    private long fixIndex = -1;
+    private int segment = 0;
+    private double lat;
+    private double lon;
+    private long time;
+    private byte predicted;
+    private double smoothedLat;
+    private double smoothedLon;
+
+    public SegmentedTrailReader(File trailFile) throws IOException {
+        this.trailFile = trailFile;
+        File segmentsFile = SegmentedTrailEncoder.segmentsFileOf(trailFile);
+        if(segmentsFile.exists()){
+            readSegments(segmentsFile);
+        }
+    }
+
+    public int getSegmentCount(){
+        return segmentCount;
+    }
+
+    public boolean isSegmentStopped(int segment){
+        return stopped[segment];
+    }
+
+    public long getSegmentStartTime(int segment){
+        return startTimes[segment];
+    }
+
+    public long getSegmentEndTime(int segment){
+        return endTimes[segment];
+    }
+
+    /**
+     * @return The index of the segment's first entry in the trail.
+     */
+    public long getSegmentFirstIndex(int segment){
+        return firstIndices[segment];
+    }
+
+    /**
+     * @return The index of the segment's last entry in the trail (inclusive).
+     */
+    public long getSegmentLastIndex(int segment){
+        return lastIndices[segment];
+    }
+
+    /**
+     * @return The total time (millis) covered by stopped segments.
+     */
+    public long getStoppedMillis(){
+        return getMillis(true);
+    }
+
+    /**
+     * @return The total time (millis) covered by moving segments.
+     */
+    public long getMovingMillis(){
+        return getMillis(false);
+    }
+
+    /**
+     * @return The segment the entry at fixIndex is in, or -1 if it is after the last segment.
+     */
+    public int segmentOf(long fixIndex){
+        if(segmentCount == 0 || fixIndex > lastIndices[segmentCount - 1]){
+            return -1;
+        }
+        int idx = Arrays.binarySearch(firstIndices, 0, segmentCount, fixIndex);
+        return idx >= 0 ? idx : Math.max(0, -idx - 2);
+    }
+
+    /**
+     * @return The movement state of the entry at fixIndex.
+     */
+    public boolean isStopped(long fixIndex){
+        int segment = segmentOf(fixIndex);
+        return segment >= 0 ? stopped[segment] : stateAfterSegments();
+    }
+
+    /**
+     * Move to the next entry of the trail.
+     * @return False if there are no more entries.
+     */
+    public boolean next() throws IOException {
+        if(fixes == null){
+            fixes = new BufferedReader(new FileReader(trailFile));
+        }
+        String line;
+        while ((line = fixes.readLine()) != null){
+            String[] columns = line.split(",", -1);
+            if(columns.length < 3){
+                continue;
+            }
+            try{
+                lat = Double.parseDouble(columns[0]);
+                lon = Double.parseDouble(columns[1]);
+                time = Long.parseLong(columns[2]);
+                predicted = columns.length < 4 || columns[3].isEmpty() ? TrailEncoder.NO_PREDICTION :
+                        columns[3].startsWith("S") ? TrailEncoder.PREDICTED_STOPPED : TrailEncoder.PREDICTED_MOVING;
+                boolean smoothed = columns.length >= 6;
+                smoothedLat = smoothed ? Double.parseDouble(columns[4]) : Double.NaN;
+                smoothedLon = smoothed ? Double.parseDouble(columns[5]) : Double.NaN;
+            }catch (NumberFormatException e){
+                //e.g. the last line of a trail cut off by a crash
+                continue;
+            }
+            fixIndex++;
+            //entries are read in order, so the segment only ever moves forwards
+            while (segment < segmentCount && fixIndex > lastIndices[segment]){
+                segment++;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The index of the current entry in the trail.
+     */
+    public long getFixIndex(){
+        return fixIndex;
+    }
+
+    public double getLat(){
+        return lat;
+    }
+
+    public double getLon(){
+        return lon;
+    }
+
+    public long getTime(){
+        return time;
+    }
+
+    /**
+     * @return The movement state of the current entry.
+     */
+    public boolean isStopped(){
+        return segment < segmentCount ? stopped[segment] : stateAfterSegments();
+    }
+
+    public byte getPredicted(){
+        return predicted;
+    }
+
+    /**
+     * @return The smoothed latitude of the current entry, NaN if it was not smoothed.
+     */
+    public double getSmoothedLat(){
+        return smoothedLat;
+    }
+
+    /**
+     * @return The smoothed longitude of the current entry, NaN if it was not smoothed.
+     */
+    public double getSmoothedLon(){
+        return smoothedLon;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(fixes != null){
+            fixes.close();
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void readSegments(File segmentsFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(segmentsFile));
+        try{
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] columns = line.split(",");
+                if(columns.length < 5){
+                    continue;
+                }
+                try{
+                    addSegment(columns[0].startsWith("S"), Long.parseLong(columns[1]), Long.parseLong(columns[2]),
+                            Long.parseLong(columns[3]), Long.parseLong(columns[4]));
+                }catch (NumberFormatException e){
+                    //e.g. the last line of a segments file cut off by a crash
+                }
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    private void addSegment(boolean isStopped, long startTime, long endTime, long firstIndex, long lastIndex){
+        if(segmentCount == stopped.length){
+            int capacity = segmentCount * 2;
+            stopped = Arrays.copyOf(stopped, capacity);
+            startTimes = Arrays.copyOf(startTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+            firstIndices = Arrays.copyOf(firstIndices, capacity);
+            lastIndices = Arrays.copyOf(lastIndices, capacity);
+        }
+        stopped[segmentCount] = isStopped;
+        startTimes[segmentCount] = startTime;
+        endTimes[segmentCount] = endTime;
+        firstIndices[segmentCount] = firstIndex;
+        lastIndices[segmentCount] = lastIndex;
+        segmentCount++;
+    }
+
+    private boolean stateAfterSegments(){
+        return segmentCount > 0 && !stopped[segmentCount - 1];
+    }
+
+    private long getMillis(boolean isStopped){
+        long millis = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            if(stopped[i] == isStopped){
+                millis += endTimes[i] - startTimes[i];
+            }
+        }
+        return millis;
+    }
+
+}
@@ -0,0 +1,29 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * The fix selection strategies a session can use, see {@link SelectionStrategy}.
+ */
+public enum SelectionMethod {
+
+    ACCURACY_WEIGHTED,
+    RECENCY_WEIGHTED,
+    KALMAN,
+    PROVIDER_AWARE;
+
+    /**
+     * @return A new strategy (strategies keep state, so each session needs its own).
+     */
+    public SelectionStrategy newStrategy(){
+        switch (this){
+            case RECENCY_WEIGHTED:
+                return new RecencyWeightedStrategy();
+            case KALMAN:
+                return new KalmanSelectionStrategy();
+            case PROVIDER_AWARE:
+                return new ProviderAwareStrategy();
+            default:
+                return new AccuracyWeightedStrategy();
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Decides which fix {@link FixSelector} reports next, out of the fixes received since the last report.
+ * Strategies are offered every received fix and keep the best one so far up to date (in place, so
+ * nothing is allocated per fix). See {@link SelectionMethod} for the available strategies.
+ */
+public interface SelectionStrategy {
+
+    /**
+     * Offer a newly received fix.
+     * @param best The fix that would currently be reported, update it (in place) if the candidate changes that.
+     * @param candidate The newly received fix (only valid during this call).
+     * @param lastReported The last reported fix.
+     * @param reportingInterval The required amount of time between reported fixes (millis).
+     */
+    void offer(Fix best, Fix candidate, Fix lastReported, long reportingInterval);
+
+    /**
+     * Forget all fixes seen so far (e.g. at the start of a new session).
+     */
+    void reset();
+
+    String getName();
+
+}
@@ -0,0 +1,227 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.IOException;
+
+/**
+ * Simplifies a trail as it is written, dropping entries that can be rebuilt (to within "max error")
+ * by interpolating between the entries kept, before passing the rest to another encoder.
+ * Uses an opening window: from the last entry kept (the anchor) the window grows while every entry
+ * in it is within max error of where dead reckoning from the anchor to the newest entry puts it at
+ * its time (the synchronized euclidean distance, so time as well as shape is kept).
+ * When an entry breaks the bound the previous one is kept and becomes the new anchor.
+ * So straight segments and long stops shrink to their end points.
+ * <p>
+ * Entries either side of a change in the annotated (or predicted) movement state are always kept.
+ * The window holds at most "max window" entries, so memory is bounded, but those entries are only
+ * written once the window closes: if the process dies they are lost on top of whatever the
+ * {@link TrailWriter} had not committed.
+ */
+public class SimplifyingTrailEncoder implements TrailEncoder {
+
+    public static final int DEFAULT_MAX_WINDOW = 64;
+
+    private final TrailEncoder out;
+    private final double maxErrorMeters;
+
+    //the window of entries since the anchor, the last one is the candidate for the next anchor
+    private final double[] lats;
+    private final double[] lons;
+    private final long[] times;
+    private final boolean[] stopped;
+    private final byte[] predicted;
+    private final double[] smoothedLats;
+    private final double[] smoothedLons;
+    private int windowSize = 0;
+
+    private boolean hasAnchor = false;
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorTime;
+    private boolean anchorStopped;
+    private byte anchorPredicted;
+    private double metersPerDegreeLon;
+
+    //errors of the entries that are dropped if the candidate is kept
+    private double candidateMaxError = 0;
+    private double candidateErrorSum = 0;
+
+    private long fixesIn = 0;
+    private long fixesOut = 0;
+    private double maxError = 0;
+    private double errorSum = 0;
+
+    public SimplifyingTrailEncoder(TrailEncoder out, double maxErrorMeters){
+        this(out, maxErrorMeters, DEFAULT_MAX_WINDOW);
+    }
+
+    /**
+     * @param out The encoder the kept entries are written to.
+     * @param maxErrorMeters The furthest a dropped entry may be from its interpolated position.
+     * @param maxWindow The most entries held back at once.
+     */
+    public SimplifyingTrailEncoder(TrailEncoder out, double maxErrorMeters, int maxWindow){
+        this.out = out;
+        this.maxErrorMeters = maxErrorMeters;
+        int capacity = Math.max(1, maxWindow);
+        this.lats = new double[capacity];
+        this.lons = new double[capacity];
+        this.times = new long[capacity];
+        this.stopped = new boolean[capacity];
+        this.predicted = new byte[capacity];
+        this.smoothedLats = new double[capacity];
+        this.smoothedLons = new double[capacity];
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        fixesIn++;
+        if(!hasAnchor){
+            keep(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+            return;
+        }
+        int last = windowSize - 1;
+        boolean stateChanged = windowSize > 0 ?
+                (isStopped != stopped[last] || predicted != this.predicted[last]) :
+                (isStopped != anchorStopped || predicted != anchorPredicted);
+        if(stateChanged){
+            //keep the last entry before the change and the first after it
+            keepCandidate();
+            keep(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+            return;
+        }
+        if(windowSize == lats.length || !fitsWindow(lat, lon, time)){
+            //the window starts again from the candidate, with the new entry the only one after it
+            keepCandidate();
+        }
+        add(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Keeps the last entry held back, then closes the wrapped encoder.
+     */
+    @Override
+    public void close() throws IOException {
+        keepCandidate();
+        out.close();
+    }
+
+    public double getMaxErrorMeters(){
+        return maxErrorMeters;
+    }
+
+    public long getFixesIn(){
+        return fixesIn;
+    }
+
+    public long getFixesOut(){
+        return fixesOut;
+    }
+
+    /**
+     * @return Entries written to this encoder per entry kept (1 if nothing was dropped).
+     */
+    public double getCompressionRatio(){
+        return fixesOut == 0 ? 1 : (double) fixesIn / fixesOut;
+    }
+
+    /**
+     * @return The largest distance (meters) of a dropped entry from its interpolated position.
+     */
+    public double getMaxError(){
+        return maxError;
+    }
+
+    /**
+     * @return The mean distance (meters) of the dropped entries from their interpolated positions, NaN if none.
+     */
+    public double getMeanError(){
+        long dropped = fixesIn - fixesOut - windowSize;
+        return dropped <= 0 ? Double.NaN : errorSum / dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "kept " + fixesOut + "/" + fixesIn + " fixes (" + String.format("%.1f", getCompressionRatio()) +
+                "x), error max " + String.format("%.2f", maxError) + "m mean " + String.format("%.2f", getMeanError()) +
+                "m (bound " + maxErrorMeters + "m)";
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * @return Whether every entry in the window is within max error of its position dead reckoned
+     * from the anchor to the new entry (and if so, their errors become the candidate's).
+     */
+    private boolean fitsWindow(double lat, double lon, long time){
+        double worst = 0;
+        double sum = 0;
+        long span = time - anchorTime;
+        for (int i = 0; i < windowSize; i++) {
+            double ratio = span <= 0 ? 0 : (double) (times[i] - anchorTime) / span;
+            double dLat = (anchorLat + ratio * (lat - anchorLat) - lats[i]) * Geo.metersPerDegreeLat();
+            double dLon = (anchorLon + ratio * (lon - anchorLon) - lons[i]) * metersPerDegreeLon;
+            double error = Math.sqrt(dLat * dLat + dLon * dLon);
+            if(error > maxErrorMeters){
+                return false;
+            }
+            worst = Math.max(worst, error);
+            sum += error;
+        }
+        candidateMaxError = worst;
+        candidateErrorSum = sum;
+        return true;
+    }
+
+    private void add(double lat, double lon, long time, boolean isStopped, byte predicted,
+                     double smoothedLat, double smoothedLon){
+        lats[windowSize] = lat;
+        lons[windowSize] = lon;
+        times[windowSize] = time;
+        stopped[windowSize] = isStopped;
+        this.predicted[windowSize] = predicted;
+        smoothedLats[windowSize] = smoothedLat;
+        smoothedLons[windowSize] = smoothedLon;
+        windowSize++;
+    }
+
+    /**
+     * Keep the last entry in the window (if any), dropping the rest.
+     */
+    private void keepCandidate() throws IOException {
+        if(windowSize == 0){
+            return;
+        }
+        int last = windowSize - 1;
+        maxError = Math.max(maxError, candidateMaxError);
+        errorSum += candidateErrorSum;
+        candidateMaxError = 0;
+        candidateErrorSum = 0;
+        windowSize = 0;
+        keep(lats[last], lons[last], times[last], stopped[last], predicted[last], smoothedLats[last], smoothedLons[last]);
+    }
+
+    /**
+     * Write an entry and make it the anchor.
+     */
+    private void keep(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        out.write(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+        fixesOut++;
+        hasAnchor = true;
+        anchorLat = lat;
+        anchorLon = lon;
+        anchorTime = time;
+        anchorStopped = isStopped;
+        anchorPredicted = predicted;
+        metersPerDegreeLon = Geo.metersPerDegreeLon(lat);
+    }
+
+}
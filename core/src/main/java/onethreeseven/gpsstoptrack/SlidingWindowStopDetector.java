@@ -0,0 +1,171 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Predicts a stop when every fix within the last "minDuration" fits inside a circle of
+ * (roughly) "radius" meters, i.e. the user has stayed put for at least that long.
+ * The window keeps the fewest most recent fixes spanning minDuration. Its bounding box is
+ * tracked with monotonic min/max queues over locally projected coordinates, so each fix costs
+ * O(1) amortized. A stop is predicted when the bounding box diagonal is at most 2 * radius.
+ */
+public class SlidingWindowStopDetector implements StopDetector {
+
+    public static final double DEFAULT_RADIUS_METERS = 50;
+    public static final long DEFAULT_MIN_DURATION_MILLIS = 3 * 60 * 1000L;
+    public static final int DEFAULT_MAX_WINDOW_FIXES = 1024;
+
+    private final double radius;
+    private final long minDuration;
+
+    //window of fixes (projected to meters), indexed by sequence number & mask
+    private final int mask;
+    private final double[] xs;
+    private final double[] ys;
+    private final long[] times;
+    private long oldestSeq = 0;
+    private long nextSeq = 0;
+
+    //monotonic queues of sequence numbers giving the window's min/max x and y
+    private final SeqQueue minX;
+    private final SeqQueue maxX;
+    private final SeqQueue minY;
+    private final SeqQueue maxY;
+
+    //projection origin
+    private boolean hasOrigin = false;
+    private double originLat;
+    private double originLon;
+    private double metersPerDegreeLon;
+
+    public SlidingWindowStopDetector(){
+        this(DEFAULT_RADIUS_METERS, DEFAULT_MIN_DURATION_MILLIS, DEFAULT_MAX_WINDOW_FIXES);
+    }
+
+    /**
+     * @param radius The radius (meters) the user must stay within to be stopped.
+     * @param minDuration How long (millis) the user must stay within the radius to be stopped.
+     * @param maxWindowFixes The most fixes kept in the window (rounded up to a power of two),
+     *                       if fixes arrive faster than this over minDuration the window is shortened.
+     */
+    public SlidingWindowStopDetector(double radius, long minDuration, int maxWindowFixes){
+        this.radius = radius;
+        this.minDuration = minDuration;
+        int capacity = Integer.highestOneBit(Math.max(2, maxWindowFixes) - 1) << 1;
+        this.mask = capacity - 1;
+        this.xs = new double[capacity];
+        this.ys = new double[capacity];
+        this.times = new long[capacity];
+        this.minX = new SeqQueue(capacity);
+        this.maxX = new SeqQueue(capacity);
+        this.minY = new SeqQueue(capacity);
+        this.maxY = new SeqQueue(capacity);
+    }
+
+    @Override
+    public boolean onFix(Fix fix) {
+        if(!hasOrigin){
+            originLat = fix.getLat();
+            originLon = fix.getLon();
+            metersPerDegreeLon = Geo.metersPerDegreeLon(originLat);
+            hasOrigin = true;
+        }
+        long time = fix.getTime();
+        if(nextSeq - oldestSeq > mask){
+            evictOldest();
+        }
+        //keep only the newest fixes needed to span minDuration
+        while (nextSeq - oldestSeq >= 2 && times[(int) ((oldestSeq + 1) & mask)] <= time - minDuration){
+            evictOldest();
+        }
+
+        long seq = nextSeq++;
+        int i = (int) (seq & mask);
+        xs[i] = (fix.getLon() - originLon) * metersPerDegreeLon;
+        ys[i] = (fix.getLat() - originLat) * Geo.metersPerDegreeLat();
+        times[i] = time;
+        minX.pushMin(seq, xs);
+        maxX.pushMax(seq, xs);
+        minY.pushMin(seq, ys);
+        maxY.pushMax(seq, ys);
+
+        if(time - times[(int) (oldestSeq & mask)] < minDuration){
+            return false;
+        }
+        double width = xs[(int) (maxX.first() & mask)] - xs[(int) (minX.first() & mask)];
+        double height = ys[(int) (maxY.first() & mask)] - ys[(int) (minY.first() & mask)];
+        return width * width + height * height <= 4 * radius * radius;
+    }
+
+    @Override
+    public void reset() {
+        hasOrigin = false;
+        oldestSeq = 0;
+        nextSeq = 0;
+        minX.clear();
+        maxX.clear();
+        minY.clear();
+        maxY.clear();
+    }
+
+    @Override
+    public String getName() {
+        return "window(" + radius + "m," + (minDuration / 1000) + "s)";
+    }
+
+    private void evictOldest(){
+        long seq = oldestSeq++;
+        minX.evict(seq);
+        maxX.evict(seq);
+        minY.evict(seq);
+        maxY.evict(seq);
+    }
+
+    /**
+     * A deque of sequence numbers whose values are kept monotonic, so the first one is always
+     * the min (or max) of the window.
+     */
+    private final static class SeqQueue {
+
+        private final long[] seqs;
+        private final int mask;
+        private long head = 0;
+        private long tail = 0;
+
+        SeqQueue(int capacity){
+            this.seqs = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        void pushMin(long seq, double[] values){
+            double value = values[(int) (seq & mask)];
+            while (tail > head && values[(int) (seqs[(int) ((tail - 1) & mask)] & mask)] >= value){
+                tail--;
+            }
+            seqs[(int) (tail++ & mask)] = seq;
+        }
+
+        void pushMax(long seq, double[] values){
+            double value = values[(int) (seq & mask)];
+            while (tail > head && values[(int) (seqs[(int) ((tail - 1) & mask)] & mask)] <= value){
+                tail--;
+            }
+            seqs[(int) (tail++ & mask)] = seq;
+        }
+
+        long first(){
+            return seqs[(int) (head & mask)];
+        }
+
+        void evict(long seq){
+            if(tail > head && first() == seq){
+                head++;
+            }
+        }
+
+        void clear(){
+            head = 0;
+            tail = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Predicts a stop while the (exponentially smoothed) speed is below a threshold.
+ * Speed is measured over a baseline of at least "minBaseline" millis rather than between
+ * consecutive fixes, otherwise at short recording intervals the GPS noise alone looks like movement.
+ * Baselines end at the first fix on or after a multiple of minBaseline, so after a baseline or two the
+ * anchors are the same fixes wherever the detector started (e.g. in a trail split up to run in parallel).
+ */
+public class SpeedStopDetector implements StopDetector {
+
+    public static final double DEFAULT_SPEED_THRESHOLD = 0.5;
+    public static final long DEFAULT_MIN_BASELINE_MILLIS = 30 * 1000L;
+    public static final double DEFAULT_SMOOTHING = 0.5;
+
+    private final double speedThreshold;
+    private final long minBaseline;
+    private final double smoothing;
+
+    //start of the current baseline
+    private boolean hasAnchor = false;
+    private double anchorLat;
+    private double anchorLon;
+    private long anchorTime;
+    private long baselineEnd;
+    private double smoothedSpeed = Double.NaN;
+
+    public SpeedStopDetector(){
+        this(DEFAULT_SPEED_THRESHOLD, DEFAULT_MIN_BASELINE_MILLIS, DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * @param speedThreshold Speeds below this (meters/second) are a stop.
+     * @param minBaseline Minimum time (millis) a speed is measured over.
+     * @param smoothing Weight (0-1] of the newest speed in the moving average, 1 means no smoothing.
+     */
+    public SpeedStopDetector(double speedThreshold, long minBaseline, double smoothing){
+        this.speedThreshold = speedThreshold;
+        this.minBaseline = minBaseline;
+        this.smoothing = smoothing;
+    }
+
+    @Override
+    public boolean onFix(Fix fix) {
+        if(!hasAnchor){
+            setAnchor(fix);
+        }else if(fix.getTime() >= baselineEnd){
+            double speed = Geo.distanceMeters(anchorLat, anchorLon, fix.getLat(), fix.getLon()) /
+                    ((fix.getTime() - anchorTime) / 1000.0);
+            smoothedSpeed = Double.isNaN(smoothedSpeed) ?
+                    speed : smoothing * speed + (1 - smoothing) * smoothedSpeed;
+            setAnchor(fix);
+        }
+        //until the first baseline has passed there is no speed, so assume moving
+        return smoothedSpeed < speedThreshold;
+    }
+
+    @Override
+    public void reset() {
+        hasAnchor = false;
+        smoothedSpeed = Double.NaN;
+    }
+
+    @Override
+    public String getName() {
+        return "speed(" + speedThreshold + "m/s," + (minBaseline / 1000) + "s)";
+    }
+
+    private void setAnchor(Fix fix){
+        anchorLat = fix.getLat();
+        anchorLon = fix.getLon();
+        anchorTime = fix.getTime();
+        //the first multiple of minBaseline at least minBaseline on
+        baselineEnd = anchorTime + minBaseline;
+        long past = minBaseline > 0 ? baselineEnd % minBaseline : 0;
+        if(past != 0){
+            baselineEnd += past > 0 ? minBaseline - past : -past;
+        }
+        hasAnchor = true;
+    }
+
+}
@@ -0,0 +1,23 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * A streaming stop/move detection algorithm.
+ * Fed one fix at a time (in time order), it predicts whether the user is stopped at that fix.
+ * Implementations should take O(1) amortized time per fix and not allocate.
+ */
+public interface StopDetector {
+
+    /**
+     * @param fix The next fix (only valid during this call).
+     * @return True if the user is predicted to be stopped at this fix.
+     */
+    boolean onFix(Fix fix);
+
+    /**
+     * Forget all fixes seen so far (e.g. at the start of a new session).
+     */
+    void reset();
+
+    String getName();
+
+}
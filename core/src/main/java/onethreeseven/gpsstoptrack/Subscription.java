@@ -0,0 +1,45 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * A consumer's subscription to a {@link FixBus}, whoever subscribed is responsible for unsubscribing
+ * (e.g. when their recording session ends), otherwise the consumer keeps being sent fixes.
+ */
+public class Subscription {
+
+    private final FixBus bus;
+    private final ConsumerChannel channel;
+    private volatile boolean active = true;
+
+    Subscription(FixBus bus, ConsumerChannel channel){
+        this.bus = bus;
+        this.channel = channel;
+    }
+
+    /**
+     * @return The consumer's channel (queue depth, lag etc).
+     */
+    public ConsumerChannel getChannel(){
+        return channel;
+    }
+
+    public LocationConsumer getConsumer(){
+        return channel.getConsumer();
+    }
+
+    public boolean isActive(){
+        return active;
+    }
+
+    /**
+     * Stop sending fixes to the consumer, once it has been sent the ones already queued for it.
+     * Waits for the consumer to finish them, does nothing if already unsubscribed.
+     */
+    public void unsubscribe(){
+        if(!active){
+            return;
+        }
+        active = false;
+        bus.unsubscribe(channel);
+    }
+
+}
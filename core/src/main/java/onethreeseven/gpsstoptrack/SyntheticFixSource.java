@@ -0,0 +1,97 @@
+package onethreeseven.gpsstoptrack;
+
+import java.util.Random;
+
+/**
+ * Makes up the fixes of someone walking around, stopping now and then, for replaying without a recorded trail.
+ * Walks (at about 1.4m/s, slowly changing direction) for 2-20 minutes, then stops for 1-10 minutes, and so on.
+ * Each fix is off the true position by noise of about its accuracy, one in ten comes from the
+ * network provider (and is a lot less accurate).
+ * The same seed always makes the same fixes.
+ */
+public class SyntheticFixSource implements FixSource {
+
+    private static final double WALKING_SPEED_MPS = 1.4;
+    private static final long MIN_MOVE_MILLIS = 2 * 60 * 1000L;
+    private static final long MAX_MOVE_MILLIS = 20 * 60 * 1000L;
+    private static final long MIN_STOP_MILLIS = 60 * 1000L;
+    private static final long MAX_STOP_MILLIS = 10 * 60 * 1000L;
+
+    private final Random random;
+    private final long intervalMillis;
+    private final long endTime;
+
+    //the true position
+    private double lat;
+    private double lon;
+    private double headingRadians;
+    private long time;
+    private boolean isStopped = false;
+    private long stateEndTime;
+
+    /**
+     * @param startTime Time (millis) of the first fix.
+     * @param intervalMillis Time between fixes.
+     * @param durationMillis How long the fixes go on for.
+     * @param seed Seed of the randomness, the same seed makes the same fixes.
+     */
+    public SyntheticFixSource(double startLat, double startLon, long startTime, long intervalMillis,
+                              long durationMillis, long seed){
+        this.random = new Random(seed);
+        this.lat = startLat;
+        this.lon = startLon;
+        this.time = startTime - intervalMillis;
+        this.intervalMillis = intervalMillis;
+        this.endTime = startTime + durationMillis;
+        this.headingRadians = random.nextDouble() * 2 * Math.PI;
+        this.stateEndTime = startTime + nextStateMillis();
+    }
+
+    @Override
+    public boolean next(Fix fix) {
+        time += intervalMillis;
+        if(time >= endTime){
+            return false;
+        }
+        if(time >= stateEndTime){
+            isStopped = !isStopped;
+            stateEndTime = time + nextStateMillis();
+        }
+        if(!isStopped){
+            headingRadians += random.nextGaussian() * 0.1;
+            double meters = WALKING_SPEED_MPS * intervalMillis / 1000.0;
+            lat += Math.cos(headingRadians) * meters / Geo.metersPerDegreeLat();
+            lon += Math.sin(headingRadians) * meters / Geo.metersPerDegreeLon(lat);
+        }
+        boolean fromNetwork = random.nextInt(10) == 0;
+        float accuracy = fromNetwork ? 30 + random.nextInt(40) : 3 + random.nextInt(15);
+        double noiseLat = random.nextGaussian() * accuracy / 2 / Geo.metersPerDegreeLat();
+        double noiseLon = random.nextGaussian() * accuracy / 2 / Geo.metersPerDegreeLon(lat);
+        fix.set(lat + noiseLat, lon + noiseLon, time, accuracy,
+                fromNetwork ? Fix.Provider.NETWORK : Fix.Provider.GPS);
+        return true;
+    }
+
+    /**
+     * @return Whether the walker was really stopped at the last fix.
+     */
+    public boolean isStopped(){
+        return isStopped;
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private long nextStateMillis(){
+        long min = isStopped ? MIN_STOP_MILLIS : MIN_MOVE_MILLIS;
+        long max = isStopped ? MAX_STOP_MILLIS : MAX_MOVE_MILLIS;
+        return min + (long) (random.nextDouble() * (max - min));
+    }
+
+}
@@ -0,0 +1,77 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * Logging for the plain java classes, with the same calls (and levels) as android.util.Log.
+ * Messages go to a {@link Sink}: on the device RecordingService installs one backed by android.util.Log,
+ * off-device (tools, benchmarks, tests) they are printed to System.err and verbose logging is off.
+ */
+public final class TrackerLog {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+
+        boolean isLoggable(String tag, int level);
+
+        void log(int level, String tag, String msg, Throwable tr);
+
+    }
+
+    private static final Sink STDERR_SINK = new Sink() {
+        @Override
+        public boolean isLoggable(String tag, int level) {
+            return level >= INFO;
+        }
+
+        @Override
+        public void log(int level, String tag, String msg, Throwable tr) {
+            System.err.println(tag + ": " + msg);
+            if(tr != null){
+                tr.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile Sink sink = STDERR_SINK;
+
+    private TrackerLog(){}
+
+    /**
+     * @param newSink Where to log to, null to go back to System.err.
+     */
+    public static void setSink(Sink newSink){
+        sink = newSink == null ? STDERR_SINK : newSink;
+    }
+
+    public static boolean isLoggable(String tag, int level){
+        return sink.isLoggable(tag, level);
+    }
+
+    public static void v(String tag, String msg){
+        log(VERBOSE, tag, msg, null);
+    }
+
+    public static void i(String tag, String msg){
+        log(INFO, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable tr){
+        log(WARN, tag, msg, tr);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private static void log(int level, String tag, String msg, Throwable tr){
+        Sink s = sink;
+        if(s.isLoggable(tag, level)){
+            s.log(level, tag, msg, tr);
+        }
+    }
+
+}
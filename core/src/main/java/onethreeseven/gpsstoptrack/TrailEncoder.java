@@ -0,0 +1,34 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.IOException;
+
+/**
+ * Encodes trail entries (lat,lon,time,movement state) into some on-disk format.
+ * Each entry may also carry the movement state predicted by a {@link StopDetector} and a
+ * smoothed position (see {@link KalmanSmoother}).
+ * See {@link TrailFormat} for the available formats.
+ */
+public interface TrailEncoder {
+
+    byte NO_PREDICTION = -1;
+    byte PREDICTED_MOVING = 0;
+    byte PREDICTED_STOPPED = 1;
+
+    /**
+     * @param isStopped The movement state the user annotated.
+     * @param predicted The predicted movement state: {@link #PREDICTED_STOPPED},
+     *                  {@link #PREDICTED_MOVING} or {@link #NO_PREDICTION}.
+     * @param smoothedLat The smoothed latitude, NaN if the entry was not smoothed.
+     * @param smoothedLon The smoothed longitude, NaN if the entry was not smoothed.
+     */
+    void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+               double smoothedLat, double smoothedLon) throws IOException;
+
+    void flush() throws IOException;
+
+    /**
+     * Writes anything still buffered (and any trailing footer) then closes the underlying stream.
+     */
+    void close() throws IOException;
+
+}
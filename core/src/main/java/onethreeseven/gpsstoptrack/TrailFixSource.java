@@ -0,0 +1,126 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays the fixes of a recorded trail (of any {@link TrailFormat}).
+ * Trails only keep the (raw) position and time of each fix, so every fix gets the same accuracy
+ * and comes from the GPS provider.
+ */
+public class TrailFixSource implements FixSource {
+
+    public static final float DEFAULT_ACCURACY = 5;
+
+    private final TrailFormat format;
+    private final float accuracy;
+    //only the reader of the trail's format is used
+    private MappedTrailReader csvReader;
+    private MappedTrailReader.Cursor csvCursor;
+    private JournalTrailReader journalReader;
+    private SegmentedTrailReader segmentedReader;
+    private BinaryTrailReader binaryReader;
+
+    //the current block of a binary trail
+    private double[] lats;
+    private double[] lons;
+    private long[] times;
+    private boolean[] isStopped;
+    private byte[] predicted;
+    private int nextBlock = 0;
+    private int cursor = 0;
+    private int count = 0;
+
+    public TrailFixSource(File trail) throws IOException {
+        this(trail, DEFAULT_ACCURACY);
+    }
+
+    /**
+     * @param accuracy The accuracy (meters) every fix is given.
+     */
+    public TrailFixSource(File trail, float accuracy) throws IOException {
+        this.format = TrailFormat.of(trail);
+        this.accuracy = accuracy;
+        if(format == null){
+            throw new IOException("Not a trail file: " + trail);
+        }
+        switch (format){
+            case BINARY:
+                binaryReader = new BinaryTrailReader(trail);
+                int capacity = binaryReader.getBlockCapacity();
+                lats = new double[capacity];
+                lons = new double[capacity];
+                times = new long[capacity];
+                isStopped = new boolean[capacity];
+                predicted = new byte[capacity];
+                break;
+            case JOURNAL:
+                journalReader = new JournalTrailReader(trail);
+                break;
+            case SEGMENTED:
+                segmentedReader = new SegmentedTrailReader(trail);
+                break;
+            default:
+                csvReader = new MappedTrailReader(trail);
+                csvCursor = csvReader.cursor();
+        }
+    }
+
+    @Override
+    public boolean next(Fix fix) throws IOException {
+        switch (format){
+            case BINARY:
+                while (cursor == count){
+                    if(nextBlock == binaryReader.getBlockCount()){
+                        return false;
+                    }
+                    count = binaryReader.readBlock(nextBlock++, lats, lons, times, isStopped, predicted);
+                    cursor = 0;
+                }
+                fix.set(lats[cursor], lons[cursor], times[cursor], accuracy, Fix.Provider.GPS);
+                cursor++;
+                return true;
+            case JOURNAL:
+                byte type;
+                while ((type = journalReader.next()) != 0){
+                    if(type == JournalTrailEncoder.TYPE_FIX){
+                        fix.set(journalReader.getLat(), journalReader.getLon(), journalReader.getTime(),
+                                accuracy, Fix.Provider.GPS);
+                        return true;
+                    }
+                }
+                return false;
+            case SEGMENTED:
+                if(!segmentedReader.next()){
+                    return false;
+                }
+                fix.set(segmentedReader.getLat(), segmentedReader.getLon(), segmentedReader.getTime(),
+                        accuracy, Fix.Provider.GPS);
+                return true;
+            default:
+                if(!csvCursor.next()){
+                    return false;
+                }
+                fix.set(csvCursor.getLat(), csvCursor.getLon(), csvCursor.getTime(), accuracy, Fix.Provider.GPS);
+                return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        switch (format){
+            case BINARY:
+                binaryReader.close();
+                break;
+            case JOURNAL:
+                journalReader.close();
+                break;
+            case SEGMENTED:
+                segmentedReader.close();
+                break;
+            default:
+                csvReader.close();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The formats a trail can be written in.
+ * CSV is the original "lat,lon,time,Stopped|Moving" text format, BINARY is the compact columnar
+ * format written by {@link BinaryTrailEncoder} and JOURNAL is the crash-safe format written by
+ * {@link JournalTrailEncoder} (convert either back to CSV using {@link BinaryTrailConverter}).
+ * SEGMENTED is CSV without the movement state column, which is written once per stop or move
+ * to a segments file instead (see {@link SegmentedTrailEncoder}).
+ */
+public enum TrailFormat {
+
+    CSV("txt"),
+    BINARY("bin"),
+    JOURNAL("jnl"),
+    SEGMENTED("sgt");
+
+    private final String fileExtension;
+
+    TrailFormat(String fileExtension){
+        this.fileExtension = fileExtension;
+    }
+
+    public String getFileExtension(){
+        return fileExtension;
+    }
+
+    /**
+     * @return The format of the trail file, going by its extension, or null if it is not a trail.
+     */
+    public static TrailFormat of(File trail){
+        for (TrailFormat format : values()) {
+            if(trail.getName().endsWith("." + format.getFileExtension())){
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param trailFile The trail file, SEGMENTED trails also write the segments file next to it.
+     * @param out The stream to write the trail to.
+     * @param recordingInterval The recording interval (seconds) of the session.
+     */
+    public TrailEncoder newEncoder(File trailFile, OutputStream out, int recordingInterval) throws IOException {
+        if(this == SEGMENTED){
+            return new SegmentedTrailEncoder(out,
+                    new FileOutputStream(SegmentedTrailEncoder.segmentsFileOf(trailFile)));
+        }
+        return newEncoder(out, recordingInterval);
+    }
+
+    /**
+     * @param out The stream to write the trail to.
+     * @param recordingInterval The recording interval (seconds) of the session.
+     * @throws UnsupportedOperationException For SEGMENTED, which needs the trail file to write the
+     * segments next to, see {@link #newEncoder(File, OutputStream, int)}.
+     */
+    public TrailEncoder newEncoder(OutputStream out, int recordingInterval) throws IOException {
+        switch (this){
+            case SEGMENTED:
+                throw new UnsupportedOperationException("Segmented trails need a trail file");
+            case BINARY:
+                return new BinaryTrailEncoder(out);
+            case JOURNAL:
+                return new JournalTrailEncoder(out, recordingInterval);
+            default:
+                return new CsvTrailEncoder(out);
+        }
+    }
+
+}
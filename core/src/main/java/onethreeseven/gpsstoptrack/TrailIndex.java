@@ -0,0 +1,869 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A spatial index over every fix in a trails directory, answering bounding box, radius and
+ * k-nearest queries without reading the trails.
+ * The index is one file ({@link #FILE_NAME}, next to the trails) of fixed size entries sorted by
+ * the {@link HilbertCurve} key of their position: (key, time, trail number and movement state).
+ * The key is the position (to about 1cm) so nothing else is stored for it.
+ * A query turns its area into a few key ranges, binary searches the memory-mapped entries
+ * for each and filters what they cover, so it costs O(log n) plus the fixes nearby.
+ * <p>
+ * {@link TrailWriter} adds each trail to the index when it is closed (on one background thread), by merging
+ * the trail's sorted fixes into a new copy of the file: the old entries between them are copied in bulk,
+ * so adding a trail is one sequential copy of the index (indexing a trail again replaces its fixes).
+ * Open indexes keep reading the old copy, reopen to see the new trail.
+ * Can be run off-device to (re)build the index of a trails directory and query it:
+ * {@code TrailIndex <trails dir> [box minLat minLon maxLat maxLon | radius lat lon meters | nearest lat lon k]}
+ */
+public class TrailIndex implements Closeable {
+
+    private static final String TAG = TrailIndex.class.getSimpleName();
+
+    public static final String FILE_NAME = "trails.idx";
+    static final int MAGIC = 0x54494458;
+    static final byte VERSION = 1;
+    //key, time, trail number (top bit set if stopped)
+    static final int ENTRY_SIZE = 20;
+    private static final int STOPPED_BIT = 0x80000000;
+    //about one grid cell
+    private static final double BOX_PADDING_DEGREES = 1e-7;
+    //a nearest search scans a cell's fixes rather than splitting it once it has this few
+    private static final int NEAREST_LEAF_FIXES = 32;
+    private static final double MAX_RADIUS_METERS = Math.PI * Geo.EARTH_RADIUS_METERS;
+    //appends and rebuilds rewrite the file, so only one may run at a time
+    private static final Object WRITE_LOCK = new Object();
+
+    private final String[] trails;
+    private final long size;
+    private final MappedByteBuffer entries;
+    private final RandomAccessFile raf;
+
+    /**
+     * Fixes found by a query, as columns.
+     */
+    public static class Hits {
+
+        //if > 0 only this many of the nearest hits are kept, as a max-heap on distance
+        private final int limit;
+        private String[] trails;
+        private long[] keys;
+        private long[] times;
+        private boolean[] stopped;
+        private double[] distances;
+        private int size = 0;
+
+        private Hits(int limit){
+            this.limit = limit;
+            int capacity = limit > 0 ? limit : 16;
+            this.trails = new String[capacity];
+            this.keys = new long[capacity];
+            this.times = new long[capacity];
+            this.stopped = new boolean[capacity];
+            this.distances = new double[capacity];
+        }
+
+        public int size(){
+            return size;
+        }
+
+        /**
+         * @return The name of the trail file the fix is in.
+         */
+        public String getTrail(int i){
+            return trails[i];
+        }
+
+        public double getLat(int i){
+            return HilbertCurve.lat(keys[i]);
+        }
+
+        public double getLon(int i){
+            return HilbertCurve.lon(keys[i]);
+        }
+
+        public long getTime(int i){
+            return times[i];
+        }
+
+        public boolean isStopped(int i){
+            return stopped[i];
+        }
+
+        /**
+         * @return Distance (meters) from the query point, NaN for box queries.
+         */
+        public double getDistanceMeters(int i){
+            return distances[i];
+        }
+
+        private void add(String trail, long key, long time, boolean isStopped, double distance){
+            if(limit > 0 && size == limit){
+                //replace the furthest, if this one is nearer
+                if(distance >= distances[0]){
+                    return;
+                }
+                set(0, trail, key, time, isStopped, distance);
+                siftDown();
+                return;
+            }
+            if(size == keys.length){
+                int capacity = size * 2;
+                trails = Arrays.copyOf(trails, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                times = Arrays.copyOf(times, capacity);
+                stopped = Arrays.copyOf(stopped, capacity);
+                distances = Arrays.copyOf(distances, capacity);
+            }
+            set(size++, trail, key, time, isStopped, distance);
+            if(limit > 0){
+                siftUp(size - 1);
+            }
+        }
+
+        /**
+         * @return The distance of the furthest hit.
+         */
+        private double maxDistance(){
+            return limit > 0 ? distances[0] : Double.NaN;
+        }
+
+        private void set(int i, String trail, long key, long time, boolean isStopped, double distance){
+            trails[i] = trail;
+            keys[i] = key;
+            times[i] = time;
+            stopped[i] = isStopped;
+            distances[i] = distance;
+        }
+
+        private void siftUp(int i){
+            while (i > 0){
+                int parent = (i - 1) / 2;
+                if(distances[parent] >= distances[i]){
+                    return;
+                }
+                swap(parent, i);
+                i = parent;
+            }
+        }
+
+        private void siftDown(){
+            int i = 0;
+            while (true){
+                int child = 2 * i + 1;
+                if(child >= size){
+                    return;
+                }
+                if(child + 1 < size && distances[child + 1] > distances[child]){
+                    child++;
+                }
+                if(distances[i] >= distances[child]){
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j){
+            String trail = trails[i];
+            long key = keys[i];
+            long time = times[i];
+            boolean isStopped = stopped[i];
+            double distance = distances[i];
+            set(i, trails[j], keys[j], times[j], stopped[j], distances[j]);
+            set(j, trail, key, time, isStopped, distance);
+        }
+
+        /**
+         * Order the hits nearest first.
+         */
+        private void sortByDistance(){
+            //distances are never negative, so their bits sort in the same order
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = Double.doubleToLongBits(distances[i]);
+            }
+            int[] idx = sortedIndices(order, size);
+            String[] sortedTrails = new String[trails.length];
+            long[] sortedKeys = new long[keys.length];
+            long[] sortedTimes = new long[times.length];
+            boolean[] sortedStopped = new boolean[stopped.length];
+            double[] sortedDistances = new double[distances.length];
+            for (int i = 0; i < size; i++) {
+                sortedTrails[i] = trails[idx[i]];
+                sortedKeys[i] = keys[idx[i]];
+                sortedTimes[i] = times[idx[i]];
+                sortedStopped[i] = stopped[idx[i]];
+                sortedDistances[i] = distances[idx[i]];
+            }
+            trails = sortedTrails;
+            keys = sortedKeys;
+            times = sortedTimes;
+            stopped = sortedStopped;
+            distances = sortedDistances;
+        }
+
+    }
+
+    /**
+     * @throws IOException If the file is not an index or is too big to map.
+     */
+    public TrailIndex(File indexFile) throws IOException {
+        this.raf = new RandomAccessFile(indexFile, "r");
+        try{
+            if(raf.readInt() != MAGIC || raf.readByte() != VERSION){
+                throw new IOException("Not a trail index: " + indexFile);
+            }
+            this.trails = new String[raf.readInt()];
+            for (int i = 0; i < trails.length; i++) {
+                trails[i] = raf.readUTF();
+            }
+            this.size = raf.readLong();
+            long entriesOffset = raf.getFilePointer();
+            if(size * ENTRY_SIZE > Integer.MAX_VALUE || entriesOffset + size * ENTRY_SIZE > raf.length()){
+                throw new IOException("Trail index too big to map, or cut off: " + indexFile);
+            }
+            this.entries = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, entriesOffset, size * ENTRY_SIZE);
+        }catch (IOException e){
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of fixes indexed.
+     */
+    public long size(){
+        return size;
+    }
+
+    /**
+     * @return Names of the trail files indexed.
+     */
+    public String[] getTrails(){
+        return trails.clone();
+    }
+
+    /**
+     * @return The fixes inside the box (a box with minLon > maxLon crosses the antimeridian).
+     */
+    public Hits inBox(double minLat, double minLon, double maxLat, double maxLon){
+        Hits hits = new Hits(0);
+        if(minLon > maxLon){
+            scan(minLat, minLon, maxLat, 180, Double.NaN, Double.NaN, 0, hits);
+            scan(minLat, -180, maxLat, maxLon, Double.NaN, Double.NaN, 0, hits);
+        }else{
+            scan(minLat, minLon, maxLat, maxLon, Double.NaN, Double.NaN, 0, hits);
+        }
+        return hits;
+    }
+
+    /**
+     * @return The fixes within "meters" of the point, in index (not distance) order.
+     */
+    public Hits withinRadius(double lat, double lon, double meters){
+        Hits hits = new Hits(0);
+        scanRadius(lat, lon, meters, hits);
+        return hits;
+    }
+
+    /**
+     * @return The k fixes nearest the point, nearest first.
+     */
+    public Hits nearest(double lat, double lon, int k){
+        Hits hits = new Hits(Math.max(1, k));
+        if(size == 0 || k <= 0){
+            return hits;
+        }
+        //best first search down the quadtree: visit cells nearest first, until the nearest
+        //cell left is further than the kth nearest fix found so far
+        PriorityQueue<Cell> cells = new PriorityQueue<>();
+        cells.add(new Cell(0, 0, HilbertCurve.ORDER, 0, size, 0));
+        while (!cells.isEmpty()){
+            Cell cell = cells.poll();
+            if(hits.size() == k && cell.minDistance > hits.maxDistance()){
+                break;
+            }
+            if(cell.to - cell.from <= NEAREST_LEAF_FIXES || cell.level == 0){
+                for (long i = cell.from; i < cell.to; i++) {
+                    long key = key(i);
+                    addHit(i, Geo.distanceMeters(lat, lon, HilbertCurve.lat(key), HilbertCurve.lon(key)), hits);
+                }
+                continue;
+            }
+            long half = 1L << (cell.level - 1);
+            for (int child = 0; child < 4; child++) {
+                long cx = cell.x + ((child & 1) == 0 ? 0 : half);
+                long cy = cell.y + ((child & 2) == 0 ? 0 : half);
+                long nKeys = half * half;
+                long start = HilbertCurve.key(cx, cy) & ~(nKeys - 1);
+                //the child's fixes are a sub range of the parent's
+                long from = lowerBound(start, cell.from, cell.to);
+                long to = lowerBound(start + nKeys, from, cell.to);
+                if(from < to){
+                    cells.add(new Cell(cx, cy, cell.level - 1, from, to, minDistance(lat, lon, cx, cy, half)));
+                }
+            }
+        }
+        hits.sortByDistance();
+        return hits;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Add a closed trail to the index in its directory (making the index if there isn't one),
+     * replacing the trail's fixes if it was already indexed.
+     */
+    public static void add(File trail) throws IOException {
+        File indexFile = new File(trail.getAbsoluteFile().getParentFile(), FILE_NAME);
+        synchronized (WRITE_LOCK){
+            long start = System.currentTimeMillis();
+            TrailIndex old = indexFile.exists() ? new TrailIndex(indexFile) : null;
+            try{
+                List<String> names = new ArrayList<>();
+                if(old != null){
+                    names.addAll(Arrays.asList(old.trails));
+                }
+                int trailNumber = names.indexOf(trail.getName());
+                //only a trail indexed again has old entries to leave out
+                int replaced = trailNumber;
+                if(trailNumber < 0){
+                    trailNumber = names.size();
+                    names.add(trail.getName());
+                }
+                Entries added = new Entries();
+                added.addTrail(trail, trailNumber);
+                int[] order = sortedIndices(added.keys, added.size);
+
+                long oldSize = old == null ? 0 : old.size;
+                long kept = replaced < 0 ? oldSize : oldSize - old.count(replaced);
+                ByteBuffer source = old == null ? null : old.entries.duplicate();
+                byte[] buffer = new byte[ENTRY_SIZE * 1024];
+                File tmp = new File(indexFile.getPath() + ".tmp");
+                DataOutputStream out = openForWriting(tmp, names, kept + added.size);
+                try{
+                    //the trail's sorted entries, each after the run of old entries with keys up to its own
+                    long i = 0;
+                    for (int j = 0; j < added.size; j++) {
+                        int e = order[j];
+                        if(old != null){
+                            long to = old.lowerBound(added.keys[e] + 1, i, oldSize);
+                            copyEntries(source, i, to, replaced, buffer, out);
+                            i = to;
+                        }
+                        writeEntry(out, added.keys[e], added.times[e], added.trails[e]);
+                    }
+                    if(old != null){
+                        copyEntries(source, i, oldSize, replaced, buffer, out);
+                    }
+                }finally {
+                    out.close();
+                }
+                if(old != null){
+                    old.close();
+                    old = null;
+                }
+                if(!tmp.renameTo(indexFile)){
+                    throw new IOException("Could not replace " + indexFile);
+                }
+                TrackerLog.i(TAG, "Indexed " + added.size + " fixes of " + trail.getName() + " in " +
+                        (System.currentTimeMillis() - start) + "ms, " + (kept + added.size) + " fixes indexed");
+            }finally {
+                if(old != null){
+                    old.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * (Re)build the index of every trail in the directory.
+     * @return The index file.
+     */
+    public static File build(File trailsDir) throws IOException {
+        File[] trailFiles = trailsDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith("trail_") && TrailFormat.of(file) != null;
+            }
+        });
+        if(trailFiles == null){
+            throw new IOException("Not a directory: " + trailsDir);
+        }
+        Arrays.sort(trailFiles);
+        File indexFile = new File(trailsDir, FILE_NAME);
+        synchronized (WRITE_LOCK){
+            List<String> names = new ArrayList<>();
+            Entries entries = new Entries();
+            for (File trailFile : trailFiles) {
+                try{
+                    entries.addTrail(trailFile, names.size());
+                    names.add(trailFile.getName());
+                }catch (IOException e){
+                    //e.g. a trail that isn't readable any more
+                    TrackerLog.w(TAG, "Skipping " + trailFile.getName(), e);
+                }
+            }
+            int[] order = sortedIndices(entries.keys, entries.size);
+            File tmp = new File(indexFile.getPath() + ".tmp");
+            DataOutputStream out = openForWriting(tmp, names, entries.size);
+            try{
+                for (int i = 0; i < entries.size; i++) {
+                    int e = order[i];
+                    writeEntry(out, entries.keys[e], entries.times[e], entries.trails[e]);
+                }
+            }finally {
+                out.close();
+            }
+            if(!tmp.renameTo(indexFile)){
+                throw new IOException("Could not replace " + indexFile);
+            }
+        }
+        return indexFile;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 1 && args.length != 5 && args.length != 6){
+            System.err.println("Usage: TrailIndex <trails dir> " +
+                    "[box minLat minLon maxLat maxLon | radius lat lon meters | nearest lat lon k]");
+            System.exit(1);
+        }
+        File trailsDir = new File(args[0]);
+        File indexFile = new File(trailsDir, FILE_NAME);
+        if(args.length == 1 || !indexFile.exists()){
+            long start = System.currentTimeMillis();
+            build(trailsDir);
+            System.out.println("Built " + indexFile.getPath() + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        TrailIndex index = new TrailIndex(indexFile);
+        try{
+            System.out.println(index.size() + " fixes from " + index.trails.length + " trails indexed");
+            if(args.length == 1){
+                return;
+            }
+            long start = System.nanoTime();
+            Hits hits;
+            if(args[1].equals("box") && args.length == 6){
+                hits = index.inBox(Double.parseDouble(args[2]), Double.parseDouble(args[3]),
+                        Double.parseDouble(args[4]), Double.parseDouble(args[5]));
+            }else if(args[1].equals("radius")){
+                hits = index.withinRadius(Double.parseDouble(args[2]), Double.parseDouble(args[3]),
+                        Double.parseDouble(args[4]));
+            }else if(args[1].equals("nearest")){
+                hits = index.nearest(Double.parseDouble(args[2]), Double.parseDouble(args[3]),
+                        Integer.parseInt(args[4]));
+            }else{
+                System.err.println("Unknown query: " + args[1]);
+                System.exit(1);
+                return;
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+            for (int i = 0; i < hits.size(); i++) {
+                System.out.println(hits.getTrail(i) + "," + hits.getLat(i) + "," + hits.getLon(i) + "," +
+                        hits.getTime(i) + "," + (hits.isStopped(i) ? "Stopped" : "Moving") +
+                        (Double.isNaN(hits.getDistanceMeters(i)) ? "" : "," + hits.getDistanceMeters(i)));
+            }
+            System.out.println(hits.size() + " fixes in " + micros + "us");
+        }finally {
+            index.close();
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private long key(long i){
+        return entries.getLong((int) (i * ENTRY_SIZE));
+    }
+
+    private long time(long i){
+        return entries.getLong((int) (i * ENTRY_SIZE + 8));
+    }
+
+    private int trailNumber(long i){
+        return entries.getInt((int) (i * ENTRY_SIZE + 16)) & ~STOPPED_BIT;
+    }
+
+    /**
+     * @return Number of entries of the trail.
+     */
+    private long count(int trailNumber){
+        long n = 0;
+        for (long i = 0; i < size; i++) {
+            if(trailNumber(i) == trailNumber){
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private long lowerBound(long key){
+        return lowerBound(key, 0, size);
+    }
+
+    /**
+     * @return Index of the first entry in [lo,hi) with a key at or after the given one (hi if none).
+     */
+    private long lowerBound(long key, long lo, long hi){
+        while (lo < hi){
+            long mid = (lo + hi) >>> 1;
+            if(key(mid) < key){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Add the fixes within "meters" of the point to the hits.
+     */
+    private void scanRadius(double lat, double lon, double meters, Hits hits){
+        //pad the box by about a grid cell, so rounding never leaves out a fix on the circle
+        double dLat = meters / Geo.metersPerDegreeLat() + BOX_PADDING_DEGREES;
+        double minLat = lat - dLat;
+        double maxLat = lat + dLat;
+        if(minLat <= -90 || maxLat >= 90 || meters >= MAX_RADIUS_METERS){
+            //takes in a pole, so every longitude
+            scan(Math.max(-90, minLat), -180, Math.min(90, maxLat), 180, lat, lon, meters, hits);
+            return;
+        }
+        //the box is widest in longitude at the latitude nearest a pole
+        double dLon = meters / Geo.metersPerDegreeLon(Math.max(Math.abs(minLat), Math.abs(maxLat))) +
+                BOX_PADDING_DEGREES;
+        if(dLon >= 180){
+            scan(minLat, -180, maxLat, 180, lat, lon, meters, hits);
+        }else if(lon - dLon < -180){
+            scan(minLat, lon - dLon + 360, maxLat, 180, lat, lon, meters, hits);
+            scan(minLat, -180, maxLat, lon + dLon, lat, lon, meters, hits);
+        }else if(lon + dLon > 180){
+            scan(minLat, lon - dLon, maxLat, 180, lat, lon, meters, hits);
+            scan(minLat, -180, maxLat, lon + dLon - 360, lat, lon, meters, hits);
+        }else{
+            scan(minLat, lon - dLon, maxLat, lon + dLon, lat, lon, meters, hits);
+        }
+    }
+
+    /**
+     * Add the fixes in the box to the hits, or if lat/lon are not NaN only those within "meters" of them.
+     */
+    private void scan(double minLat, double minLon, double maxLat, double maxLon,
+                      double lat, double lon, double meters, Hits hits){
+        long x0 = HilbertCurve.toX(minLon);
+        long y0 = HilbertCurve.toY(minLat);
+        long x1 = HilbertCurve.toX(maxLon);
+        long y1 = HilbertCurve.toY(maxLat);
+        boolean byDistance = !Double.isNaN(lat);
+        long[] ranges = HilbertCurve.ranges(x0, y0, x1, y1);
+        for (int r = 0; r < ranges.length; r += 2) {
+            long end = ranges[r + 1];
+            for (long i = lowerBound(ranges[r]); i < size; i++) {
+                long key = key(i);
+                if(key >= end){
+                    break;
+                }
+                if(byDistance){
+                    //a nearest search narrows as it finds nearer fixes
+                    double radius = hits.limit > 0 && hits.size() == hits.limit ?
+                            Math.min(meters, hits.maxDistance()) : meters;
+                    double distance = Geo.distanceMeters(lat, lon, HilbertCurve.lat(key), HilbertCurve.lon(key));
+                    if(distance <= radius){
+                        addHit(i, distance, hits);
+                    }
+                    continue;
+                }
+                double fixLat = HilbertCurve.lat(key);
+                double fixLon = HilbertCurve.lon(key);
+                if(fixLat >= minLat && fixLat <= maxLat && fixLon >= minLon && fixLon <= maxLon){
+                    addHit(i, Double.NaN, hits);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The distance (meters) from the point to the nearest point of the grid cell.
+     */
+    private static double minDistance(double lat, double lon, long cx, long cy, long cellSize){
+        double minLat = cy * 180.0 / HilbertCurve.GRID_SIZE - 90;
+        double maxLat = (cy + cellSize) * 180.0 / HilbertCurve.GRID_SIZE - 90;
+        double minLon = cx * 360.0 / HilbertCurve.GRID_SIZE - 180;
+        double maxLon = (cx + cellSize) * 360.0 / HilbertCurve.GRID_SIZE - 180;
+        if(lon >= minLon && lon <= maxLon){
+            //north/south of the cell (or in it), along the meridian
+            double latGap = lat < minLat ? minLat - lat : (lat > maxLat ? lat - maxLat : 0);
+            return latGap * Geo.metersPerDegreeLat();
+        }
+        //east/west of the cell, the nearest point is on one of its edges
+        return Math.min(distanceToMeridian(lat, lon, minLon, minLat, maxLat),
+                distanceToMeridian(lat, lon, maxLon, minLat, maxLat));
+    }
+
+    /**
+     * @return The distance (meters) from the point to the meridian between minLat and maxLat.
+     */
+    private static double distanceToMeridian(double lat, double lon, double meridian, double minLat, double maxLat){
+        double phi = Math.toRadians(lat);
+        double cosDLon = Math.cos(Math.toRadians(lon - meridian));
+        //the nearest point of the meridian's great circle, or the nearest pole if that is on the far side
+        double nearestLat = cosDLon > 0 ?
+                Math.toDegrees(Math.atan2(Math.sin(phi), Math.cos(phi) * cosDLon)) : (lat >= 0 ? 90 : -90);
+        //distance grows moving away from it along the meridian
+        nearestLat = Math.max(minLat, Math.min(maxLat, nearestLat));
+        return Geo.distanceMeters(lat, lon, nearestLat, meridian);
+    }
+
+    private void addHit(long i, double distance, Hits hits){
+        int trail = entries.getInt((int) (i * ENTRY_SIZE + 16));
+        hits.add(trails[trail & ~STOPPED_BIT], key(i), time(i), (trail & STOPPED_BIT) != 0, distance);
+    }
+
+    private static DataOutputStream openForWriting(File file, List<String> trails, long nEntries) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(trails.size());
+        for (String trail : trails) {
+            out.writeUTF(trail);
+        }
+        out.writeLong(nEntries);
+        return out;
+    }
+
+    /**
+     * Copy the entries [from,to) of an index as they are, in bulk unless some are of the trail to leave out.
+     * @param skipTrail Number of the trail to leave out, -1 for none.
+     */
+    private static void copyEntries(ByteBuffer entries, long from, long to, int skipTrail,
+                                    byte[] buffer, DataOutputStream out) throws IOException {
+        if(skipTrail < 0){
+            entries.position((int) (from * ENTRY_SIZE));
+            int remaining = (int) ((to - from) * ENTRY_SIZE);
+            while (remaining > 0){
+                int n = Math.min(remaining, buffer.length);
+                entries.get(buffer, 0, n);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+            return;
+        }
+        for (long i = from; i < to; i++) {
+            int offset = (int) (i * ENTRY_SIZE);
+            if((entries.getInt(offset + 16) & ~STOPPED_BIT) != skipTrail){
+                entries.position(offset);
+                entries.get(buffer, 0, ENTRY_SIZE);
+                out.write(buffer, 0, ENTRY_SIZE);
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, long key, long time, int trailAndState) throws IOException {
+        out.writeLong(key);
+        out.writeLong(time);
+        out.writeInt(trailAndState);
+    }
+
+    /**
+     * @return The indices 0..n-1 ordered by their keys.
+     */
+    static int[] sortedIndices(long[] keys, int n){
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) {
+            idx[i] = i;
+        }
+        sortIndices(idx, keys, 0, n - 1);
+        return idx;
+    }
+
+    private static void sortIndices(int[] idx, long[] keys, int lo, int hi){
+        while (hi - lo > 16){
+            //median of three pivot
+            int mid = (lo + hi) >>> 1;
+            long a = keys[idx[lo]];
+            long b = keys[idx[mid]];
+            long c = keys[idx[hi]];
+            long pivot = a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+            int i = lo;
+            int j = hi;
+            while (i <= j){
+                while (keys[idx[i]] < pivot){
+                    i++;
+                }
+                while (keys[idx[j]] > pivot){
+                    j--;
+                }
+                if(i <= j){
+                    int t = idx[i];
+                    idx[i++] = idx[j];
+                    idx[j--] = t;
+                }
+            }
+            //recurse into the smaller side so the stack stays O(log n)
+            if(j - lo < hi - i){
+                sortIndices(idx, keys, lo, j);
+                lo = i;
+            }else{
+                sortIndices(idx, keys, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            int t = idx[i];
+            long key = keys[t];
+            int j = i - 1;
+            while (j >= lo && keys[idx[j]] > key){
+                idx[j + 1] = idx[j];
+                j--;
+            }
+            idx[j + 1] = t;
+        }
+    }
+
+    /**
+     * A quadtree cell still to visit in a nearest search, ordered nearest first.
+     */
+    private static final class Cell implements Comparable<Cell> {
+
+        private final long x;
+        private final long y;
+        private final int level;
+        //the cell's entries
+        private final long from;
+        private final long to;
+        private final double minDistance;
+
+        private Cell(long x, long y, int level, long from, long to, double minDistance){
+            this.x = x;
+            this.y = y;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.minDistance = minDistance;
+        }
+
+        @Override
+        public int compareTo(Cell other) {
+            return Double.compare(minDistance, other.minDistance);
+        }
+
+    }
+
+    /**
+     * Index entries read from trails, as growable columns.
+     */
+    private static final class Entries {
+
+        private long[] keys = new long[1024];
+        private long[] times = new long[1024];
+        private int[] trails = new int[1024];
+        private int size = 0;
+
+        private void add(double lat, double lon, long time, boolean isStopped, int trailNumber){
+            if(size == keys.length){
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                times = Arrays.copyOf(times, capacity);
+                trails = Arrays.copyOf(trails, capacity);
+            }
+            keys[size] = HilbertCurve.key(lat, lon);
+            times[size] = time;
+            trails[size] = trailNumber | (isStopped ? STOPPED_BIT : 0);
+            size++;
+        }
+
+        private void addTrail(File trail, int trailNumber) throws IOException {
+            TrailFormat format = TrailFormat.of(trail);
+            if(format == TrailFormat.BINARY){
+                addBinaryTrail(trail, trailNumber);
+            }else if(format == TrailFormat.JOURNAL){
+                addJournalTrail(trail, trailNumber);
+            }else if(format == TrailFormat.SEGMENTED){
+                addSegmentedTrail(trail, trailNumber);
+            }else{
+                addCsvTrail(trail, trailNumber);
+            }
+        }
+
+        private void addCsvTrail(File trail, int trailNumber) throws IOException {
+            MappedTrailReader reader = new MappedTrailReader(trail);
+            try{
+                MappedTrailReader.Cursor cursor = reader.cursor();
+                while (cursor.next()){
+                    add(cursor.getLat(), cursor.getLon(), cursor.getTime(), cursor.isStopped(), trailNumber);
+                }
+            }finally {
+                reader.close();
+            }
+        }
+
+        private void addBinaryTrail(File trail, int trailNumber) throws IOException {
+            BinaryTrailReader reader = new BinaryTrailReader(trail);
+            try{
+                int capacity = reader.getBlockCapacity();
+                double[] lats = new double[capacity];
+                double[] lons = new double[capacity];
+                long[] times = new long[capacity];
+                boolean[] isStopped = new boolean[capacity];
+                byte[] predicted = new byte[capacity];
+                for (int block = 0; block < reader.getBlockCount(); block++) {
+                    int count = reader.readBlock(block, lats, lons, times, isStopped, predicted);
+                    for (int i = 0; i < count; i++) {
+                        add(lats[i], lons[i], times[i], isStopped[i], trailNumber);
+                    }
+                }
+            }finally {
+                reader.close();
+            }
+        }
+
+        private void addJournalTrail(File trail, int trailNumber) throws IOException {
+            JournalTrailReader reader = new JournalTrailReader(trail);
+            try{
+                byte type;
+                while ((type = reader.next()) != 0){
+                    if(type == JournalTrailEncoder.TYPE_FIX){
+                        add(reader.getLat(), reader.getLon(), reader.getTime(), reader.isStopped(), trailNumber);
+                    }
+                }
+            }finally {
+                reader.close();
+            }
+        }
+
+        private void addSegmentedTrail(File trail, int trailNumber) throws IOException {
+            SegmentedTrailReader reader = new SegmentedTrailReader(trail);
+            try{
+                while (reader.next()){
+                    add(reader.getLat(), reader.getLon(), reader.getTime(), reader.isStopped(), trailNumber);
+                }
+            }finally {
+                reader.close();
+            }
+        }
+
+    }
+
+}
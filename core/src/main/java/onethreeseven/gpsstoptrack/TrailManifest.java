@@ -0,0 +1,227 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the chunks of a recording session that {@link TrailWriter} rotated into several trail files.
+ * A session "trail_123" is written to the chunks trail_123_0001.txt, trail_123_0002.txt, ... and the
+ * manifest trail_123.manifest, which gets a "chunk,firstTime,lastTime,fixCount" line as each chunk is closed.
+ * So a reader can pick out the chunks covering a time window (see {@link #chunksCovering(long, long)})
+ * instead of parsing the whole session.
+ * <p>
+ * If recording was interrupted, the chunk being written is missing from the manifest. Chunk files of
+ * the session that are not listed are still returned, with a time range from the end of the last
+ * listed chunk onwards, so they are never skipped.
+ */
+public class TrailManifest {
+
+    public static final String FILE_EXTENSION = "manifest";
+
+    private static final Pattern CHUNK_NAME = Pattern.compile("(trail_\\d+)_(\\d+)\\.\\w+");
+
+    private final File file;
+    private final List<Chunk> chunks;
+
+    private TrailManifest(File file, List<Chunk> chunks){
+        this.file = file;
+        this.chunks = chunks;
+    }
+
+    /**
+     * @return The manifest of the session, e.g. trails/trail_123.manifest.
+     */
+    public static File manifestFileOf(File trailsDir, String session){
+        return new File(trailsDir, session + "." + FILE_EXTENSION);
+    }
+
+    /**
+     * @param chunkNumber The chunk's number in the session, from 1.
+     * @return The chunk's trail file, e.g. trails/trail_123_0002.txt.
+     */
+    public static File chunkFileOf(File trailsDir, String session, int chunkNumber, TrailFormat format){
+        return new File(trailsDir, session + "_" + String.format(Locale.ENGLISH, "%04d", chunkNumber) +
+                "." + format.getFileExtension());
+    }
+
+    /**
+     * @return The session the trail file is a chunk of, or null if it is not a chunk.
+     */
+    public static String sessionOf(File trailFile){
+        Matcher matcher = CHUNK_NAME.matcher(trailFile.getName());
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return The trail file's number in its session, or 0 if it is not a chunk.
+     */
+    public static int chunkNumberOf(File trailFile){
+        Matcher matcher = CHUNK_NAME.matcher(trailFile.getName());
+        return matcher.matches() ? Integer.parseInt(matcher.group(2)) : 0;
+    }
+
+    /**
+     * Add a closed chunk to the session's manifest (made if it does not exist).
+     */
+    public static void append(File manifestFile, File chunkFile, long firstTime, long lastTime, long fixCount)
+            throws IOException {
+        String line = chunkFile.getName() + "," + firstTime + "," + lastTime + "," + fixCount +
+                System.getProperty("line.separator", "\n");
+        FileOutputStream out = new FileOutputStream(manifestFile, true);
+        try{
+            out.write(line.getBytes());
+            out.getFD().sync();
+        }finally {
+            out.close();
+        }
+    }
+
+    public static TrailManifest read(File manifestFile) throws IOException {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        BufferedReader reader = new BufferedReader(new FileReader(manifestFile));
+        try{
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] columns = line.split(",");
+                if(columns.length < 4){
+                    continue;
+                }
+                try{
+                    chunks.add(new Chunk(new File(manifestFile.getAbsoluteFile().getParentFile(), columns[0]),
+                            Long.parseLong(columns[1]), Long.parseLong(columns[2]), Long.parseLong(columns[3])));
+                }catch (NumberFormatException e){
+                    //e.g. the last line of a manifest cut off by a crash
+                }
+            }
+        }finally {
+            reader.close();
+        }
+        addUnlisted(manifestFile, chunks);
+        return new TrailManifest(manifestFile, chunks);
+    }
+
+    public File getFile(){
+        return file;
+    }
+
+    /**
+     * @return The session's chunks, in the order they were written.
+     */
+    public List<Chunk> getChunks(){
+        return chunks;
+    }
+
+    /**
+     * @return The chunks with fixes in the time window [from, to].
+     */
+    public List<Chunk> chunksCovering(long from, long to){
+        List<Chunk> covering = new ArrayList<Chunk>();
+        for (Chunk chunk : chunks) {
+            if(chunk.firstTime <= to && chunk.lastTime >= from){
+                covering.add(chunk);
+            }
+        }
+        return covering;
+    }
+
+    public long getFixCount(){
+        long fixCount = 0;
+        for (Chunk chunk : chunks) {
+            fixCount += chunk.fixCount;
+        }
+        return fixCount;
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + ": " + chunks.size() + " chunks, " + getFixCount() + " fixes";
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Add the session's chunk files that come after the last chunk in the manifest.
+     */
+    private static void addUnlisted(File manifestFile, List<Chunk> chunks){
+        String name = manifestFile.getName();
+        final String session = name.substring(0, name.length() - FILE_EXTENSION.length() - 1);
+        final int lastListed = chunks.isEmpty() ? 0 : chunkNumberOf(chunks.get(chunks.size() - 1).file);
+        File[] unlisted = manifestFile.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return session.equals(sessionOf(file)) && chunkNumberOf(file) > lastListed &&
+                        !file.getName().endsWith("." + SegmentedTrailEncoder.SEGMENTS_FILE_EXTENSION);
+            }
+        });
+        if(unlisted == null){
+            return;
+        }
+        Arrays.sort(unlisted);
+        long from = chunks.isEmpty() ? Long.MIN_VALUE : chunks.get(chunks.size() - 1).lastTime;
+        for (File chunk : unlisted) {
+            chunks.add(new Chunk(chunk, from, Long.MAX_VALUE, 0));
+        }
+    }
+
+    /**
+     * One trail file of a session.
+     */
+    public static class Chunk {
+
+        private final File file;
+        private final long firstTime;
+        private final long lastTime;
+        private final long fixCount;
+
+        Chunk(File file, long firstTime, long lastTime, long fixCount){
+            this.file = file;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.fixCount = fixCount;
+        }
+
+        public File getFile(){
+            return file;
+        }
+
+        /**
+         * @return Time of the chunk's first fix (Long.MIN_VALUE if unknown).
+         */
+        public long getFirstTime(){
+            return firstTime;
+        }
+
+        /**
+         * @return Time of the chunk's last fix (Long.MAX_VALUE if unknown).
+         */
+        public long getLastTime(){
+            return lastTime;
+        }
+
+        /**
+         * @return Number of fixes in the chunk (0 if unknown).
+         */
+        public long getFixCount(){
+            return fixCount;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + " [" + firstTime + ", " + lastTime + "] " + fixCount + " fixes";
+        }
+
+    }
+
+}
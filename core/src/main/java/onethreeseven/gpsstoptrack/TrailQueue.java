@@ -0,0 +1,124 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded single-producer/single-consumer queue of trail entries
+ * (lat,lon,time,movement state,predicted movement state,smoothed lat,smoothed lon), each with the
+ * {@link System#nanoTime()} it was queued at so the consumer can measure how long entries wait.
+ * Entries are stored column-wise in primitive arrays so neither side allocates anything.
+ * Exactly one thread may call {@link #offer(double, double, long, boolean, byte, double, double)} and exactly one
+ * (other) thread may call {@link #drainTo(TrailEncoder, int)}.
+ */
+public class TrailQueue {
+
+    private final int mask;
+    private final double[] lats;
+    private final double[] lons;
+    private final long[] times;
+    private final boolean[] stopped;
+    private final byte[] predicted;
+    private final double[] smoothedLats;
+    private final double[] smoothedLons;
+    private final long[] enqueueNanos;
+
+    //next index the consumer reads, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //next index the producer writes, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity Maximum number of entries held, rounded up to a power of two.
+     */
+    public TrailQueue(int capacity){
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.lats = new double[size];
+        this.lons = new double[size];
+        this.times = new long[size];
+        this.stopped = new boolean[size];
+        this.predicted = new byte[size];
+        this.smoothedLats = new double[size];
+        this.smoothedLons = new double[size];
+        this.enqueueNanos = new long[size];
+    }
+
+    /**
+     * Add an entry (producer thread only).
+     * @return False if the queue is full and the entry was not added.
+     */
+    public boolean offer(double lat, double lon, long time, boolean isStopped, byte predicted,
+                         double smoothedLat, double smoothedLon){
+        return offer(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon, 0);
+    }
+
+    /**
+     * Add an entry (producer thread only).
+     * @param nanos When the entry was queued ({@link System#nanoTime()}), or 0 if it isn't being timed.
+     * @return False if the queue is full and the entry was not added.
+     */
+    public boolean offer(double lat, double lon, long time, boolean isStopped, byte predicted,
+                         double smoothedLat, double smoothedLon, long nanos){
+        long t = tail.get();
+        if(t - head.get() > mask){
+            return false;
+        }
+        int i = (int) (t & mask);
+        lats[i] = lat;
+        lons[i] = lon;
+        times[i] = time;
+        stopped[i] = isStopped;
+        this.predicted[i] = predicted;
+        smoothedLats[i] = smoothedLat;
+        smoothedLons[i] = smoothedLon;
+        enqueueNanos[i] = nanos;
+        //publish the entry to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Write up to maxEntries queued entries to the encoder (consumer thread only).
+     * @return The number of entries written.
+     */
+    public int drainTo(TrailEncoder encoder, int maxEntries) throws IOException {
+        return drainTo(encoder, maxEntries, null, 0);
+    }
+
+    /**
+     * Write up to maxEntries queued entries to the encoder (consumer thread only), copying when they were queued.
+     * If the encoder throws, the entry it failed on is removed from the queue too (so it is not retried
+     * forever) and the exception is passed on.
+     * @param nanosOut Gets the time each written entry was queued, from nanosOut[offset] on (as far as it fits),
+     *                 may be null.
+     * @return The number of entries written.
+     */
+    public int drainTo(TrailEncoder encoder, int maxEntries, long[] nanosOut, int offset) throws IOException {
+        long h = head.get();
+        int n = (int) Math.min(tail.get() - h, maxEntries);
+        int k = 0;
+        try{
+            for (; k < n; k++) {
+                int i = (int) ((h + k) & mask);
+                encoder.write(lats[i], lons[i], times[i], stopped[i], predicted[i], smoothedLats[i], smoothedLons[i]);
+                if(nanosOut != null && offset + k < nanosOut.length){
+                    nanosOut[offset + k] = enqueueNanos[i];
+                }
+            }
+        }finally {
+            //free the written slots (and the one that failed, if any) for the producer
+            head.lazySet(h + Math.min(k + 1, n));
+        }
+        return n;
+    }
+
+    public int size(){
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity(){
+        return mask + 1;
+    }
+
+}
@@ -0,0 +1,161 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Recovers journal trails (see {@link JournalTrailEncoder}) left behind when recording was
+ * interrupted, i.e. journals without an END record.
+ * Each interrupted journal is truncated back to its last intact record. The most recent one is
+ * returned so its session can be resumed, any older ones are sealed straight away.
+ */
+public class TrailRecovery {
+
+    private static final String TAG = TrailRecovery.class.getSimpleName();
+
+    private TrailRecovery(){}
+
+    /**
+     * Scan the trails directory for interrupted journals.
+     * @param trailsDir The directory trails are written to.
+     * @return The most recent interrupted trail (truncated to its last intact record), or null if
+     * every journal was closed cleanly.
+     */
+    public static RecoveredTrail recover(File trailsDir){
+        final String journalExt = "." + TrailFormat.JOURNAL.getFileExtension();
+        File[] journals = trailsDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(journalExt);
+            }
+        });
+        if(journals == null){
+            return null;
+        }
+        //trail_<millis> names, oldest first
+        Arrays.sort(journals);
+        RecoveredTrail mostRecent = null;
+        for (File journal : journals) {
+            try {
+                if(endsCleanly(journal)){
+                    continue;
+                }
+                RecoveredTrail recovered = truncate(journal);
+                if(recovered == null){
+                    continue;
+                }
+                if(mostRecent != null){
+                    seal(mostRecent);
+                }
+                mostRecent = recovered;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return mostRecent;
+    }
+
+    /**
+     * Close off a recovered trail that will not be resumed (appends the END record).
+     */
+    public static void seal(RecoveredTrail trail){
+        try {
+            new JournalTrailEncoder(new FileOutputStream(trail.getFile(), true),
+                    trail.getRecordingInterval(), trail.getFixCount()).close();
+            TrackerLog.i(TAG, "Sealed interrupted trail " + trail.getFile().getName());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Cheap check whether the journal ends with an intact END record (so does not need a full scan).
+     */
+    private static boolean endsCleanly(File journal) throws IOException {
+        long length = journal.length();
+        int endSize = JournalTrailEncoder.END_RECORD_SIZE;
+        if(length < JournalTrailEncoder.HEADER_SIZE + endSize){
+            return false;
+        }
+        byte[] end = new byte[endSize];
+        RandomAccessFile raf = new RandomAccessFile(journal, "r");
+        try{
+            raf.seek(length - endSize);
+            raf.readFully(end);
+        }finally {
+            raf.close();
+        }
+        if(end[0] != JournalTrailEncoder.TYPE_END){
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(end, 0, endSize - 4);
+        int storedCrc = ((end[endSize - 4] & 0xFF) << 24) | ((end[endSize - 3] & 0xFF) << 16) |
+                ((end[endSize - 2] & 0xFF) << 8) | (end[endSize - 1] & 0xFF);
+        return storedCrc == (int) crc.getValue();
+    }
+
+    /**
+     * Scan the journal and truncate it after its last intact record.
+     * @return The recovered trail, or null if the journal was actually closed or did not even have
+     * a valid header (it is deleted).
+     */
+    private static RecoveredTrail truncate(File journal) throws IOException {
+        JournalTrailReader reader;
+        try{
+            reader = new JournalTrailReader(journal);
+        }catch (IOException e){
+            TrackerLog.w(TAG, "Deleting unreadable trail " + journal.getName(), e);
+            journal.delete();
+            return null;
+        }
+        long fixCount = 0;
+        long lastFixTime = 0;
+        boolean isStopped = false;
+        int recordingInterval = reader.getRecordingInterval();
+        boolean ended = false;
+        long validLength;
+        try{
+            byte type;
+            while (!ended && (type = reader.next()) != 0){
+                if(type == JournalTrailEncoder.TYPE_FIX){
+                    fixCount++;
+                    lastFixTime = reader.getTime();
+                    isStopped = reader.isStopped();
+                }else if(type == JournalTrailEncoder.TYPE_CHECKPOINT){
+                    isStopped = reader.isStopped();
+                    recordingInterval = reader.getCheckpointInterval();
+                }else if(type == JournalTrailEncoder.TYPE_END){
+                    ended = true;
+                }
+            }
+            validLength = reader.getValidLength();
+        }finally {
+            reader.close();
+        }
+        if(validLength < journal.length()){
+            RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+            try{
+                raf.setLength(validLength);
+            }finally {
+                raf.close();
+            }
+        }
+        if(ended){
+            //closed cleanly, just had junk after the end record
+            return null;
+        }
+        TrackerLog.i(TAG, "Recovered interrupted trail " + journal.getName() + " with " + fixCount + " fixes");
+        return new RecoveredTrail(journal, fixCount, lastFixTime, isStopped, recordingInterval);
+    }
+
+}
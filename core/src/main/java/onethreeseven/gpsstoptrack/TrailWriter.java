@@ -0,0 +1,596 @@
+package onethreeseven.gpsstoptrack;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write the location data to a file.
+ * Entries are handed to a dedicated writer thread through a bounded {@link TrailQueue} so no I/O
+ * happens on the (location callback) thread calling {@link #write(Fix, boolean)}.
+ * The writer thread group-commits: queued entries are encoded as they arrive but only flushed
+ * (and optionally fsync'd) once every "commitEveryFixes" entries or "commitIntervalMillis",
+ * whichever comes first. So if the process dies at most that many entries (plus whatever is
+ * still queued) are lost, in every {@link TrailFormat}: a commit writes out a binary trail's partially
+ * filled block, and a binary trail that was never closed is still read, see {@link BinaryTrailReader}.
+ * If the queue is full new entries are dropped and counted. If the trail
+ * can't be written (e.g. the disk is full) the writer thread stops, see {@link #getWriteError()}.
+ * <p>
+ * Long sessions can be rotated into chunks, see {@link #setRotation(long, long, long)} and {@link TrailManifest}.
+ * <p>
+ * While {@link Metrics} are enabled it records how long each entry took from {@link #write(Fix, boolean)}
+ * until it was committed ("trail.fix_to_disk_us"), the queue depth at each write and the bytes committed.
+ */
+public class TrailWriter  {
+
+    private static final String TAG = TrailWriter.class.getSimpleName();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_COMMIT_EVERY_FIXES = 30;
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10000L;
+    public static final long DEFAULT_MAX_CHUNK_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_MAX_CHUNK_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private static final Metrics.Histogram FIX_TO_DISK_MICROS = Metrics.histogram("trail.fix_to_disk_us");
+    private static final Metrics.Histogram QUEUE_DEPTH = Metrics.histogram("trail.queue_depth");
+    private static final Metrics.Counter QUEUED_FIXES = Metrics.counter("trail.fixes.queued");
+    private static final Metrics.Counter DROPPED_FIXES = Metrics.counter("trail.fixes.dropped");
+    private static final Metrics.Counter COMMITS = Metrics.counter("trail.commits");
+    private static final Metrics.Counter COMMITTED_BYTES = Metrics.counter("trail.bytes.committed");
+    //one low priority thread adds closed trails to their index, in the order they were closed
+    private static final ExecutorService INDEXER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread indexer = new Thread(runnable, "TrailIndexer");
+            indexer.setDaemon(true);
+            indexer.setPriority(Thread.MIN_PRIORITY);
+            return indexer;
+        }
+    });
+
+    private final File baseDir;
+    private final int queueCapacity;
+    private final int commitEveryFixes;
+    private final long commitIntervalNanos;
+    private final boolean fsync;
+    //whether closed trails are added to the trails directory's TrailIndex
+    private volatile boolean indexTrails = false;
+    //max error (meters) new trails are simplified to, 0 to write every entry
+    private volatile double simplifyMaxErrorMeters = 0;
+    //limits that start a new chunk of the session, 0 for no limit
+    private volatile long maxChunkBytes = 0;
+    private volatile long maxChunkMillis = 0;
+    private volatile long maxChunkFixes = 0;
+
+    public TrailWriter(File baseDir){
+        this(baseDir, DEFAULT_QUEUE_CAPACITY, DEFAULT_COMMIT_EVERY_FIXES, DEFAULT_COMMIT_INTERVAL_MILLIS, true);
+    }
+
+    /**
+     * @param baseDir The directory the "trails" directory is made in.
+     * @param queueCapacity Maximum number of entries waiting for the writer thread.
+     * @param commitEveryFixes Commit once this many entries are waiting to be committed.
+     * @param commitIntervalMillis Commit at least this often while there are entries to commit.
+     * @param fsync Whether each commit also forces the file to the storage device.
+     */
+    public TrailWriter(File baseDir, int queueCapacity, int commitEveryFixes, long commitIntervalMillis, boolean fsync){
+        this.baseDir = new File(baseDir, "trails");
+        if(!this.baseDir.exists()){
+            this.baseDir.mkdir();
+        }
+        this.queueCapacity = queueCapacity;
+        this.commitEveryFixes = commitEveryFixes;
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        this.fsync = fsync;
+    }
+
+    private File trailFile;
+    private FileOutputStream fileOut;
+    private ChunkEncoder encoder;
+    //the session being rotated into chunks, null if it is written to a single trail file
+    private String session;
+    //name of the last session's trail file (or of its chunks' manifest) without the extension
+    private String sessionName;
+    private File manifestFile;
+    private int chunkNumber;
+    private TrailFormat format;
+    private int recordingInterval;
+    private TrailQueue queue;
+    private Thread writerThread;
+    //guards writing, so no entry can be queued once closeTrailFile() has stopped the writer
+    private final Object writingLock = new Object();
+    private volatile boolean writing = false;
+    //why the writer thread stopped early, null while it is fine
+    private volatile IOException writeError = null;
+    //checked once per trail, isLoggable may allocate
+    private boolean logWrites = false;
+    //when each uncommitted entry was queued (writer thread only)
+    private long[] uncommittedNanos;
+    //position of the trail file at the last commit (writer thread only)
+    private long committedPosition = 0;
+
+    //only written by the thread calling write(), read from anywhere
+    private volatile long droppedFixes = 0;
+    private volatile long backpressureEvents = 0;
+    //only written by the writer thread, read from anywhere
+    private volatile long commits = 0;
+    private volatile long committedFixes = 0;
+    //entries drained but not yet committed, so write() can tell when a batch is ready
+    private volatile int drainedFixes = 0;
+
+    public File getTrailsDir(){
+        return baseDir;
+    }
+
+    /**
+     * @param indexTrails Whether each trail is added to the {@link TrailIndex} of the trails directory
+     *                    once it is closed (on a background thread).
+     */
+    public void setIndexTrails(boolean indexTrails){
+        this.indexTrails = indexTrails;
+    }
+
+    /**
+     * @param maxErrorMeters Simplify trails started from now on, so no dropped entry is further than
+     *                       this from where the kept ones put it (see {@link SimplifyingTrailEncoder}),
+     *                       or 0 to write every entry.
+     */
+    public void setSimplification(double maxErrorMeters){
+        this.simplifyMaxErrorMeters = maxErrorMeters;
+    }
+
+    /**
+     * Rotate sessions started from now on into numbered chunk files, listed in the session's
+     * {@link TrailManifest}, starting a new chunk once the current one reaches any of the limits.
+     * The limits are checked at each commit, so a chunk can go over by up to one commit.
+     * All 0 writes each session to a single trail file.
+     * @param maxChunkBytes Size (bytes) of the chunk's trail file, 0 for no limit.
+     * @param maxChunkMillis Time between the chunk's first and last fixes, 0 for no limit.
+     * @param maxChunkFixes Number of fixes in the chunk, 0 for no limit.
+     */
+    public void setRotation(long maxChunkBytes, long maxChunkMillis, long maxChunkFixes){
+        this.maxChunkBytes = maxChunkBytes;
+        this.maxChunkMillis = maxChunkMillis;
+        this.maxChunkFixes = maxChunkFixes;
+    }
+
+    /**
+     * Start a new trail file (or the first chunk of one, if sessions are rotated).
+     * @param format The format the trail is written in, see TrackerState#getTrailFormat().
+     * @param recordingInterval The recording interval (seconds) of the session.
+     */
+    public void newTrailFile(TrailFormat format, int recordingInterval){
+        this.format = format;
+        this.recordingInterval = recordingInterval;
+        String name = "trail_" + System.currentTimeMillis();
+        sessionName = name;
+        try {
+            if(isRotating()){
+                startSession(name);
+                openChunk(1);
+            }else{
+                session = null;
+                manifestFile = null;
+                openTrailFile(new File(baseDir, name + "." + format.getFileExtension()));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        startWriting();
+    }
+
+    /**
+     * Continue writing to an interrupted journal trail, see {@link TrailRecovery}.
+     * @param recoveredTrail The (truncated) journal to append to.
+     */
+    public void resumeTrailFile(RecoveredTrail recoveredTrail){
+        trailFile = recoveredTrail.getFile();
+        TrackerLog.i(TAG, "Resuming file at: " + trailFile.getAbsolutePath());
+        format = TrailFormat.JOURNAL;
+        recordingInterval = recoveredTrail.getRecordingInterval();
+        //carry on the session the journal is a chunk of
+        session = TrailManifest.sessionOf(trailFile);
+        manifestFile = session == null ? null : TrailManifest.manifestFileOf(baseDir, session);
+        chunkNumber = TrailManifest.chunkNumberOf(trailFile);
+        sessionName = session != null ? session : baseNameOf(trailFile);
+        try {
+            fileOut = new FileOutputStream(trailFile, true);
+            committedPosition = trailFile.length();
+            encoder = new ChunkEncoder(simplified(new JournalTrailEncoder(fileOut,
+                    recordingInterval, recoveredTrail.getFixCount())));
+            encoder.fixCount = recoveredTrail.getFixCount();
+            encoder.firstTime = firstFixTime(trailFile);
+            encoder.lastTime = recoveredTrail.getLastFixTime();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        startWriting();
+    }
+
+    /**
+     * Queue an entry for the writer thread, must always be called from the same thread.
+     * The fix's smoothed position is written too if it has one.
+     */
+    public void write(Fix fix, boolean isStopped){
+        write(fix, isStopped, TrailEncoder.NO_PREDICTION);
+    }
+
+    /**
+     * Queue an entry that also has a predicted movement state, see StopDetectionConsumer.
+     * @param predicted The predicted movement state, e.g. {@link TrailEncoder#PREDICTED_STOPPED}.
+     */
+    public void write(Fix fix, boolean isStopped, byte predicted){
+        long nanos = Metrics.isEnabled() ? System.nanoTime() : 0;
+        boolean queuedFix;
+        //uncontended except while closing, when it makes sure the writer's last drain sees this entry
+        synchronized (writingLock){
+            if(!writing){
+                return;
+            }
+            queuedFix = queue.offer(fix.getLat(), fix.getLon(), fix.getTime(), isStopped, predicted,
+                    fix.getSmoothedLat(), fix.getSmoothedLon(), nanos);
+        }
+        if(!queuedFix){
+            droppedFixes++;
+            DROPPED_FIXES.inc();
+            LockSupport.unpark(writerThread);
+            return;
+        }
+        int queued = queue.size();
+        QUEUED_FIXES.inc();
+        QUEUE_DEPTH.record(queued);
+        //wake the writer early when a batch is ready (counting what it has drained) or the queue is filling up
+        if(queued + drainedFixes >= commitEveryFixes){
+            if(queued > queue.capacity() * 3 / 4){
+                backpressureEvents++;
+            }
+            LockSupport.unpark(writerThread);
+        }
+        if(logWrites){
+            TrackerLog.v(TAG, "Queued:" + fix + "," + (isStopped ? "Stopped" : "Moving"));
+        }
+    }
+
+    /**
+     * Stops the writer thread once everything queued has been written and closes the trail file.
+     * @return The trail file (the last chunk, if the session was rotated).
+     */
+    public File closeTrailFile(){
+        if(writerThread != null){
+            synchronized (writingLock){
+                writing = false;
+            }
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+            TrackerLog.i(TAG, "Closed trail, commits: " + commits + ", fixes: " + committedFixes +
+                    ", dropped: " + droppedFixes + ", backpressure events: " + backpressureEvents +
+                    (writeError == null ? "" : ", stopped early by: " + writeError));
+        }
+        if(encoder != null){
+            try {
+                closeChunk();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            encoder = null;
+            fileOut = null;
+        }
+        return trailFile;
+    }
+
+    /**
+     * @return The files of the last session: its trail file, or its chunks and manifest if it was rotated.
+     */
+    public List<File> getSessionFiles(){
+        List<File> files = new ArrayList<File>();
+        if(manifestFile == null){
+            if(trailFile != null){
+                files.add(trailFile);
+            }
+            return files;
+        }
+        try {
+            for (TrailManifest.Chunk chunk : TrailManifest.read(manifestFile).getChunks()) {
+                files.add(chunk.getFile());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        files.add(manifestFile);
+        return files;
+    }
+
+    /**
+     * @return Name of the last session, e.g. "trail_1490000000000", null if there hasn't been one.
+     */
+    public String getSessionName(){
+        return sessionName;
+    }
+
+    /**
+     * @return Number of entries dropped because the writer thread could not keep up (current trail).
+     */
+    public long getDroppedFixes(){
+        return droppedFixes;
+    }
+
+    /**
+     * @return Number of times the queue was more than 3/4 full when an entry was added (current trail).
+     */
+    public long getBackpressureEvents(){
+        return backpressureEvents;
+    }
+
+    /**
+     * @return Number of entries waiting for the writer thread.
+     */
+    public int getQueueDepth(){
+        TrailQueue q = queue;
+        return q == null ? 0 : q.size();
+    }
+
+    /**
+     * @return Why the writer thread stopped writing the current trail early (e.g. the disk is full),
+     * null if it hasn't. Entries written after that are ignored.
+     */
+    public IOException getWriteError(){
+        return writeError;
+    }
+
+    public long getCommits(){
+        return commits;
+    }
+
+    public long getCommittedFixes(){
+        return committedFixes;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private boolean isRotating(){
+        return maxChunkBytes > 0 || maxChunkMillis > 0 || maxChunkFixes > 0;
+    }
+
+    private void startSession(String name) throws IOException {
+        session = name;
+        manifestFile = TrailManifest.manifestFileOf(baseDir, session);
+        if(!manifestFile.exists() && !manifestFile.createNewFile()){
+            throw new IOException("Could not make " + manifestFile);
+        }
+        TrackerLog.i(TAG, "Made new session at: " + manifestFile.getAbsolutePath());
+    }
+
+    private void openChunk(int chunkNumber) throws IOException {
+        this.chunkNumber = chunkNumber;
+        openTrailFile(TrailManifest.chunkFileOf(baseDir, session, chunkNumber, format));
+    }
+
+    private void openTrailFile(File file) throws IOException {
+        trailFile = file;
+        TrackerLog.i(TAG, "Made new file at: " + trailFile.getAbsolutePath());
+        fileOut = new FileOutputStream(trailFile);
+        committedPosition = 0;
+        encoder = new ChunkEncoder(simplified(format.newEncoder(trailFile, fileOut, recordingInterval)));
+    }
+
+    /**
+     * Close the trail file, list it in the session's manifest and queue it for indexing.
+     */
+    private void closeChunk() throws IOException {
+        encoder.close();
+        if(encoder.out instanceof SimplifyingTrailEncoder){
+            TrackerLog.i(TAG, "Simplified trail, " + encoder.out);
+        }
+        if(manifestFile != null){
+            TrailManifest.append(manifestFile, trailFile, encoder.firstTime, encoder.lastTime, encoder.fixCount);
+        }
+        if(indexTrails){
+            indexInBackground(trailFile);
+        }
+    }
+
+    /**
+     * Start the next chunk if the current one has reached a rotation limit (called by the writer thread after a commit).
+     */
+    private void rotateIfFull() throws IOException {
+        if(manifestFile == null){
+            return;
+        }
+        long bytes = maxChunkBytes;
+        long millis = maxChunkMillis;
+        long fixes = maxChunkFixes;
+        boolean full = (fixes > 0 && encoder.fixCount >= fixes) ||
+                (millis > 0 && encoder.lastTime - encoder.firstTime >= millis) ||
+                (bytes > 0 && fileOut.getChannel().position() >= bytes);
+        if(!full){
+            return;
+        }
+        closeChunk();
+        openChunk(chunkNumber + 1);
+    }
+
+    /**
+     * @return Time of the journal's first fix, or 0 if it has none.
+     */
+    private static long firstFixTime(File journal) throws IOException {
+        JournalTrailReader reader = new JournalTrailReader(journal);
+        try{
+            byte type;
+            while ((type = reader.next()) != 0){
+                if(type == JournalTrailEncoder.TYPE_FIX){
+                    return reader.getTime();
+                }
+            }
+            return 0;
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static String baseNameOf(File file){
+        String name = file.getName();
+        int extIdx = name.lastIndexOf('.');
+        return extIdx > 0 ? name.substring(0, extIdx) : name;
+    }
+
+    private TrailEncoder simplified(TrailEncoder encoder){
+        double maxErrorMeters = simplifyMaxErrorMeters;
+        return maxErrorMeters > 0 ? new SimplifyingTrailEncoder(encoder, maxErrorMeters) : encoder;
+    }
+
+    private void startWriting(){
+        logWrites = TrackerLog.isLoggable(TAG, TrackerLog.VERBOSE);
+        droppedFixes = 0;
+        backpressureEvents = 0;
+        commits = 0;
+        committedFixes = 0;
+        writeError = null;
+        queue = new TrailQueue(queueCapacity);
+        //nothing is left uncommitted for long past a full queue, the rest just isn't timed
+        uncommittedNanos = new long[queueCapacity + commitEveryFixes];
+        writing = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "TrailWriter");
+        writerThread.start();
+    }
+
+    private void writeLoop(){
+        int uncommitted = 0;
+        drainedFixes = 0;
+        long commitDeadline = System.nanoTime() + commitIntervalNanos;
+        while (true){
+            //read before draining so nothing queued before close is missed (see writingLock)
+            boolean keepWriting = writing;
+            try {
+                uncommitted += queue.drainTo(encoder, queue.capacity(), uncommittedNanos, uncommitted);
+                long now = System.nanoTime();
+                if(uncommitted > 0 && (!keepWriting || uncommitted >= commitEveryFixes || now >= commitDeadline)){
+                    commit(uncommitted);
+                    uncommitted = 0;
+                    if(keepWriting){
+                        rotateIfFull();
+                    }
+                }
+                if(uncommitted == 0){
+                    commitDeadline = now + commitIntervalNanos;
+                }
+                drainedFixes = uncommitted;
+            } catch (IOException e) {
+                //a full disk or closed file won't get better, stop rather than fail on every entry
+                TrackerLog.w(TAG, "Stopped writing " + trailFile.getName() + ", " +
+                        (queue.size() + uncommitted) + " entries lost", e);
+                writeError = e;
+                synchronized (writingLock){
+                    writing = false;
+                }
+                return;
+            }
+            if(!keepWriting){
+                return;
+            }
+            //the rest of a batch may have been queued after the drain, when write() still saw too few to wake us
+            if(uncommitted + queue.size() >= commitEveryFixes){
+                continue;
+            }
+            LockSupport.parkNanos(this, Math.max(0, commitDeadline - System.nanoTime()));
+        }
+    }
+
+    private static void indexInBackground(final File trail){
+        INDEXER.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TrailIndex.add(trail);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void commit(int nFixes) throws IOException {
+        encoder.flush();
+        if(fsync){
+            fileOut.getChannel().force(false);
+        }
+        committedFixes += nFixes;
+        commits++;
+        if(Metrics.isEnabled()){
+            recordCommit(nFixes);
+        }
+    }
+
+    private void recordCommit(int nFixes) throws IOException {
+        long now = System.nanoTime();
+        for (int i = 0; i < Math.min(nFixes, uncommittedNanos.length); i++) {
+            //entries queued while metrics were disabled weren't timed
+            if(uncommittedNanos[i] != 0){
+                FIX_TO_DISK_MICROS.record((now - uncommittedNanos[i]) / 1000);
+            }
+        }
+        long position = fileOut.getChannel().position();
+        COMMITTED_BYTES.add(position - committedPosition);
+        committedPosition = position;
+        COMMITS.inc();
+    }
+
+    /**
+     * Keeps track of the fixes written to the current trail file.
+     */
+    private static final class ChunkEncoder implements TrailEncoder {
+
+        private final TrailEncoder out;
+        //only used by the writer thread (and by closeTrailFile once it has stopped)
+        private long fixCount = 0;
+        private long firstTime = 0;
+        private long lastTime = 0;
+
+        private ChunkEncoder(TrailEncoder out){
+            this.out = out;
+        }
+
+        @Override
+        public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                          double smoothedLat, double smoothedLon) throws IOException {
+            out.write(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+            if(fixCount == 0){
+                firstTime = time;
+            }
+            lastTime = time;
+            fixCount++;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+    }
+
+}
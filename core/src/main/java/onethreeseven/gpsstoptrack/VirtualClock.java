@@ -0,0 +1,32 @@
+package onethreeseven.gpsstoptrack;
+
+/**
+ * A clock that only moves when it is told to, e.g. by a {@link FixReplayer} to the time of each replayed fix.
+ */
+public class VirtualClock implements Clock {
+
+    private volatile long now;
+
+    public VirtualClock(long startMillis){
+        this.now = startMillis;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Move the clock to the time, it never goes backwards.
+     */
+    public void set(long millis){
+        if(millis > now){
+            now = millis;
+        }
+    }
+
+    public void advance(long millis){
+        set(now + millis);
+    }
+
+}
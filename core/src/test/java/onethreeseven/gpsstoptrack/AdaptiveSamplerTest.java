@@ -0,0 +1,180 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the {@link SamplingPlan}s {@link AdaptiveSampler} picks as the user speeds up, slows down and
+ * annotates themselves, and that the hysteresis keeps speeds near a threshold from flipping the plan.
+ */
+public class AdaptiveSamplerTest {
+
+    private static final long INTERVAL_MILLIS = 10000;
+    private static final double START_LAT = -37.8136;
+    private static final double START_LON = 144.9631;
+    private static final long START_TIME = 1490000000000L;
+
+    private AdaptiveSampler sampler;
+    private final List<SamplingEvent> events = new ArrayList<>();
+    private final Fix fix = new Fix();
+    //the clock's time, fixes are timed this much earlier
+    private long time;
+    private long fixTimeBehind = 0;
+    private double lat;
+
+    @Before
+    public void setUp(){
+        sampler = new AdaptiveSampler(INTERVAL_MILLIS, false);
+        time = START_TIME;
+        lat = START_LAT;
+        SamplingEvent first = sampler.start(time);
+        assertNull(first.getPreviousPlan());
+    }
+
+    @Test
+    public void startsWithBothProvidersUntilTheSpeedIsKnown(){
+        assertPlan(SamplingPlan.Mode.DEFAULT, true, true, (long) (INTERVAL_MILLIS * 0.3));
+    }
+
+    @Test
+    public void annotationAndProvidersChangeThePlanStraightAway(){
+        SamplingEvent event = sampler.setStopped(true, time);
+        assertEquals(SamplingPlan.Mode.DEFAULT, event.getPreviousPlan().getMode());
+        assertPlan(SamplingPlan.Mode.STATIONARY, false, true, AdaptiveSampler.STATIONARY_MIN_TIME_MILLIS);
+
+        sampler.setNetworkAvailable(false, time);
+        assertPlan(SamplingPlan.Mode.STATIONARY, true, false, AdaptiveSampler.STATIONARY_MIN_TIME_MILLIS);
+        //nothing changed, nothing allocated
+        assertNull(sampler.setNetworkAvailable(false, time));
+
+        sampler.setNetworkAvailable(true, time);
+        sampler.setStopped(false, time);
+        assertPlan(SamplingPlan.Mode.DEFAULT, true, true, (long) (INTERVAL_MILLIS * 0.3));
+    }
+
+    @Test
+    public void walkingWithGoodGpsIsGpsOnlyAtHalfTheInterval(){
+        move(1.5, 0, 120);
+        assertPlan(SamplingPlan.Mode.MOVING, true, false, INTERVAL_MILLIS / 2);
+    }
+
+    @Test
+    public void fastStaysFastUntilClearlySlower(){
+        move(5, 0, 120);
+        assertPlan(SamplingPlan.Mode.FAST, true, false, INTERVAL_MILLIS / 4);
+        //between the exit and entry speeds
+        events.clear();
+        move(3.5, 0, 300);
+        assertEquals(0, events.size());
+        assertEquals(SamplingPlan.Mode.FAST, sampler.getPlan().getMode());
+
+        move(2, 0, 120);
+        assertEquals(SamplingPlan.Mode.MOVING, sampler.getPlan().getMode());
+        //and the same speed isn't enough to go fast again
+        move(3.5, 0, 300);
+        assertEquals(SamplingPlan.Mode.MOVING, sampler.getPlan().getMode());
+    }
+
+    @Test
+    public void stationaryOnceSlowForLongEnoughAndUntilClearlyMoving(){
+        move(1.5, 0, 60);
+        //not before STATIONARY_AFTER_MILLIS of being slow
+        move(0, 0, (int) (AdaptiveSampler.STATIONARY_AFTER_MILLIS / 1000));
+        assertEquals(SamplingPlan.Mode.MOVING, sampler.getPlan().getMode());
+        //the smoothed speed took a few baselines to fall below STATIONARY_SPEED
+        move(0, 0, 120);
+        assertPlan(SamplingPlan.Mode.STATIONARY, false, true, AdaptiveSampler.STATIONARY_MIN_TIME_MILLIS);
+
+        //faster than STATIONARY_SPEED but slower than STATIONARY_EXIT_SPEED
+        move(0.45, 0, 300);
+        assertEquals(SamplingPlan.Mode.STATIONARY, sampler.getPlan().getMode());
+
+        move(1.5, 0, 60);
+        assertEquals(SamplingPlan.Mode.MOVING, sampler.getPlan().getMode());
+    }
+
+    @Test
+    public void plansGoByTheClockNotTheFixTimes(){
+        //e.g. a device clock an hour ahead of GPS time
+        fixTimeBehind = 60 * 60 * 1000L;
+        move(1.5, 0, 60);
+        assertPlan(SamplingPlan.Mode.MOVING, true, false, INTERVAL_MILLIS / 2);
+        long stoppedAt = time;
+        move(0, 0, (int) (AdaptiveSampler.STATIONARY_AFTER_MILLIS / 1000) + 120);
+        assertPlan(SamplingPlan.Mode.STATIONARY, false, true, AdaptiveSampler.STATIONARY_MIN_TIME_MILLIS);
+        //the events are timed by the clock too
+        long stationaryAt = events.get(events.size() - 1).getTime();
+        assertTrue(stationaryAt - stoppedAt >= AdaptiveSampler.STATIONARY_AFTER_MILLIS && stationaryAt <= time);
+
+        //and a fix timed later than the clock doesn't change the plan before its minimum time
+        fixTimeBehind = -fixTimeBehind;
+        events.clear();
+        move(8, 0, (int) (AdaptiveSampler.MIN_PLAN_MILLIS / 1000) - 1);
+        assertEquals(0, events.size());
+    }
+
+    @Test
+    public void networkIsAddedWhileGpsIsPoorAndKeptUntilItIsClearlyGood(){
+        //fast enough that the accuracy doesn't hide the movement
+        move(8, 40, 120);
+        assertPlan(SamplingPlan.Mode.FAST, true, true, INTERVAL_MILLIS / 4);
+
+        //not poor, but not clearly good either
+        move(8, 25, 120);
+        assertTrue(sampler.getPlan().usesNetwork());
+
+        move(8, 10, 120);
+        assertPlan(SamplingPlan.Mode.FAST, true, false, INTERVAL_MILLIS / 4);
+    }
+
+    @Test
+    public void speedChangesWaitForThePlanToHaveRunItsMinimumTime(){
+        Random random = new Random(3);
+        //speeds jumping around every threshold
+        for (int i = 0; i < 100; i++) {
+            move(random.nextDouble() * 6, 0, 5 + random.nextInt(30));
+        }
+        assertTrue(events.size() > 5);
+        long fixes = 0;
+        for (int i = 1; i < events.size(); i++) {
+            SamplingEvent event = events.get(i);
+            assertTrue(event.getTime() - events.get(i - 1).getTime() >= AdaptiveSampler.MIN_PLAN_MILLIS);
+            assertEquals(event.getTime() - events.get(i - 1).getTime(), event.getPreviousDuration());
+            assertEquals(events.get(i - 1).getPlan(), event.getPreviousPlan());
+            fixes += event.getPreviousFixCount();
+        }
+        //the fixes under every plan but the first and the current one, a fix a second
+        assertEquals((events.get(events.size() - 1).getTime() - events.get(0).getTime()) / 1000, fixes);
+    }
+
+    //private methods
+
+    /**
+     * Feed a fix a second, heading north at the given speed.
+     */
+    private void move(double metersPerSecond, float accuracy, int seconds){
+        for (int i = 0; i < seconds; i++) {
+            time += 1000;
+            lat += metersPerSecond / Geo.metersPerDegreeLat();
+            SamplingEvent event = sampler.onFix(fix.set(lat, START_LON, time - fixTimeBehind, accuracy,
+                    Fix.Provider.GPS), time);
+            if(event != null){
+                assertEquals(sampler.getPlan(), event.getPlan());
+                events.add(event);
+            }
+        }
+    }
+
+    private void assertPlan(SamplingPlan.Mode mode, boolean useGps, boolean useNetwork, long minTime){
+        assertEquals(new SamplingPlan(mode, useGps, useNetwork, minTime, 0), sampler.getPlan());
+    }
+
+}
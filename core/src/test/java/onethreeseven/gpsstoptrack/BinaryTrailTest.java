@@ -0,0 +1,256 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes binary trails with {@link BinaryTrailEncoder} and reads them back with {@link BinaryTrailReader}:
+ * full and partial blocks, big and negative deltas, the footer index, trails that were never closed (also cut
+ * off mid block) and the CSV written by {@link BinaryTrailConverter}.
+ */
+public class BinaryTrailTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final int BLOCK_CAPACITY = 64;
+    private static final String NEW_LINE = System.getProperty("line.separator", "\n");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Random random = new Random(37);
+
+    @Test
+    public void blocksRoundTrip() throws IOException {
+        File trail = tmp.newFile("trail_1.bin");
+        List<double[]> written = makeEntries(3 * BLOCK_CAPACITY + 17);
+        BinaryTrailEncoder encoder = new BinaryTrailEncoder(new FileOutputStream(trail), BLOCK_CAPACITY);
+        write(encoder, written, 0, written.size());
+        encoder.close();
+
+        BinaryTrailReader reader = new BinaryTrailReader(trail);
+        try{
+            assertTrue(reader.hasFooter());
+            assertEquals(BLOCK_CAPACITY, reader.getBlockCapacity());
+            assertBlocks(reader, written, new int[]{BLOCK_CAPACITY, BLOCK_CAPACITY, BLOCK_CAPACITY, 17});
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void flushWritesThePartialBlockAndUnclosedTrailIsRead() throws IOException {
+        File trail = tmp.newFile("trail_1.bin");
+        List<double[]> written = makeEntries(100);
+        BinaryTrailEncoder encoder = new BinaryTrailEncoder(new FileOutputStream(trail), BLOCK_CAPACITY);
+        write(encoder, written, 0, 70);
+        encoder.flush();
+        write(encoder, written, 70, 80);
+        encoder.flush();
+        //nothing to write
+        encoder.flush();
+        //written but not flushed, as if the process died now
+        write(encoder, written, 80, 100);
+
+        BinaryTrailReader reader = new BinaryTrailReader(trail);
+        try{
+            assertTrue(!reader.hasFooter());
+            assertBlocks(reader, written, new int[]{BLOCK_CAPACITY, 6, 10});
+        }finally {
+            reader.close();
+        }
+        encoder.close();
+        reader = new BinaryTrailReader(trail);
+        try{
+            assertTrue(reader.hasFooter());
+            assertBlocks(reader, written, new int[]{BLOCK_CAPACITY, 6, 10, 20});
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void trailCutOffAnywhereReadsTheBlocksBeforeTheCut() throws IOException {
+        File trail = tmp.newFile("trail_1.bin");
+        List<double[]> written = makeEntries(150);
+        BinaryTrailEncoder encoder = new BinaryTrailEncoder(new FileOutputStream(trail), BLOCK_CAPACITY);
+        int[] blockSizes = {BLOCK_CAPACITY, 20, BLOCK_CAPACITY, 2};
+        //the file size after each block
+        long[] blockEnds = new long[blockSizes.length];
+        int from = 0;
+        for (int i = 0; i < blockSizes.length; i++) {
+            write(encoder, written, from, from + blockSizes[i]);
+            encoder.flush();
+            from += blockSizes[i];
+            blockEnds[i] = trail.length();
+        }
+        encoder.close();
+        byte[] bytes = Files.readAllBytes(trail.toPath());
+
+        File cut = tmp.newFile("trail_2.bin");
+        for (int length = BinaryTrailEncoder.HEADER_SIZE; length < bytes.length; length++) {
+            Files.write(cut.toPath(), Arrays.copyOf(bytes, length));
+            int nBlocks = 0;
+            while (nBlocks < blockEnds.length && blockEnds[nBlocks] <= length){
+                nBlocks++;
+            }
+            //a cut in the footer leaves every block
+            BinaryTrailReader reader = new BinaryTrailReader(cut);
+            try{
+                assertTrue(!reader.hasFooter());
+                assertBlocks(reader, written, Arrays.copyOf(blockSizes, nBlocks));
+            }finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void zerosAfterTheLastBlockAreIgnored() throws IOException {
+        File trail = tmp.newFile("trail_1.bin");
+        List<double[]> written = makeEntries(10);
+        BinaryTrailEncoder encoder = new BinaryTrailEncoder(new FileOutputStream(trail), BLOCK_CAPACITY);
+        write(encoder, written, 0, 10);
+        encoder.flush();
+        //a crash can leave the end of the file zeroed
+        FileOutputStream out = new FileOutputStream(trail, true);
+        try{
+            out.write(new byte[100]);
+        }finally {
+            out.close();
+        }
+        BinaryTrailReader reader = new BinaryTrailReader(trail);
+        try{
+            assertBlocks(reader, written, new int[]{10});
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void converterWritesTheCsvLines() throws IOException {
+        List<double[]> written = makeEntries(2 * BLOCK_CAPACITY + 5);
+        File trail = tmp.newFile("trail_1.bin");
+        BinaryTrailEncoder encoder = new BinaryTrailEncoder(new FileOutputStream(trail), BLOCK_CAPACITY);
+        write(encoder, written, 0, written.size());
+        encoder.close();
+
+        File csv = tmp.newFile("trail_1.txt");
+        BinaryTrailConverter.toCsv(trail, csv);
+        StringBuilder expected = new StringBuilder();
+        for (double[] entry : written) {
+            expected.append(String.format(Locale.ENGLISH, "%f,%f,%d,%s", fixed(entry[0]), fixed(entry[1]),
+                    (long) entry[2], entry[3] == 1 ? "Stopped" : "Moving"));
+            byte predicted = (byte) entry[4];
+            if(predicted != TrailEncoder.NO_PREDICTION){
+                expected.append(predicted == TrailEncoder.PREDICTED_STOPPED ? ",Stopped" : ",Moving");
+            }
+            if(!Double.isNaN(entry[5])){
+                expected.append(predicted == TrailEncoder.NO_PREDICTION ? ",," : ",");
+                expected.append(String.format(Locale.ENGLISH, "%f,%f", fixed(entry[5]), fixed(entry[6])));
+            }
+            expected.append(NEW_LINE);
+        }
+        assertEquals(expected.toString(), new String(Files.readAllBytes(csv.toPath()), StandardCharsets.US_ASCII));
+    }
+
+    //private methods
+
+    /**
+     * @return Entries as {lat, lon, time, stopped, predicted, smoothedLat, smoothedLon}: mostly small steps,
+     * with jumps across the map and back in time now and then, and runs without predictions or smoothing.
+     */
+    private List<double[]> makeEntries(int nEntries){
+        List<double[]> entries = new ArrayList<>();
+        double lat = -37.8;
+        double lon = 144.9;
+        long time = START_TIME;
+        for (int i = 0; i < nEntries; i++) {
+            if(random.nextInt(20) == 0){
+                lat = (random.nextDouble() - 0.5) * 180;
+                lon = (random.nextDouble() - 0.5) * 360;
+                time += (random.nextInt(2) == 0 ? -1 : 1) * random.nextInt(1000000000);
+            }else{
+                lat += (random.nextDouble() - 0.5) * 1e-3;
+                lon += (random.nextDouble() - 0.5) * 1e-3;
+                time += random.nextInt(5000);
+            }
+            //the first block has neither predictions nor smoothed positions
+            boolean extras = i >= BLOCK_CAPACITY;
+            byte predicted = extras ? (byte) (random.nextInt(3) - 1) : TrailEncoder.NO_PREDICTION;
+            boolean smoothed = extras && random.nextBoolean();
+            entries.add(new double[]{lat, lon, time, random.nextBoolean() ? 1 : 0, predicted,
+                    smoothed ? lat + (random.nextDouble() - 0.5) * 1e-4 : Double.NaN,
+                    smoothed ? lon + (random.nextDouble() - 0.5) * 1e-4 : Double.NaN});
+        }
+        return entries;
+    }
+
+    private static void write(TrailEncoder encoder, List<double[]> entries, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            double[] entry = entries.get(i);
+            encoder.write(entry[0], entry[1], (long) entry[2], entry[3] == 1, (byte) entry[4], entry[5], entry[6]);
+        }
+    }
+
+    /**
+     * Check the reader has blocks of the given sizes, holding the first entries written.
+     */
+    private static void assertBlocks(BinaryTrailReader reader, List<double[]> written, int[] blockSizes)
+            throws IOException {
+        assertEquals(blockSizes.length, reader.getBlockCount());
+        int capacity = reader.getBlockCapacity();
+        double[] lats = new double[capacity];
+        double[] lons = new double[capacity];
+        long[] times = new long[capacity];
+        boolean[] isStopped = new boolean[capacity];
+        byte[] predicted = new byte[capacity];
+        double[] smoothedLats = new double[capacity];
+        double[] smoothedLons = new double[capacity];
+        int n = 0;
+        for (int block = 0; block < blockSizes.length; block++) {
+            assertEquals(blockSizes[block], reader.getBlockSize(block));
+            assertEquals((long) written.get(n)[2], reader.getBlockFirstTime(block));
+            assertEquals((long) written.get(n + blockSizes[block] - 1)[2], reader.getBlockLastTime(block));
+            int count = reader.readBlock(block, lats, lons, times, isStopped, predicted, smoothedLats, smoothedLons);
+            assertEquals(blockSizes[block], count);
+            for (int i = 0; i < count; i++, n++) {
+                double[] entry = written.get(n);
+                String at = "entry " + n;
+                assertEquals(at, fixed(entry[0]), lats[i], 0);
+                assertEquals(at, fixed(entry[1]), lons[i], 0);
+                assertEquals(at, (long) entry[2], times[i]);
+                assertEquals(at, entry[3] == 1, isStopped[i]);
+                assertEquals(at, (byte) entry[4], predicted[i]);
+                if(Double.isNaN(entry[5])){
+                    assertTrue(at, Double.isNaN(smoothedLats[i]) && Double.isNaN(smoothedLons[i]));
+                }else{
+                    assertEquals(at, fixed(entry[5]), smoothedLats[i], 0);
+                    assertEquals(at, fixed(entry[6]), smoothedLons[i], 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The coordinate as the binary format stores it.
+     */
+    private static double fixed(double coordinate){
+        return Math.round(coordinate * BinaryTrailEncoder.COORD_SCALE) / BinaryTrailEncoder.COORD_SCALE;
+    }
+
+}
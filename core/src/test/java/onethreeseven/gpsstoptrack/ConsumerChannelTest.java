@@ -0,0 +1,179 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Publishes through a {@link FixBus} to a slow consumer and checks what its {@link ConsumerChannel} drops
+ * (DROP_OLDEST) or skips (COALESCE): the counters add up, the newest fixes are the ones delivered and
+ * every fix delivered is whole, never half one fix and half another.
+ */
+public class ConsumerChannelTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final int CAPACITY = 4;
+
+    private final Random random = new Random(41);
+
+    @Test
+    public void dropOldestKeepsTheNewestQueued() throws InterruptedException {
+        StalledConsumer consumer = new StalledConsumer();
+        FixBus bus = new FixBus();
+        Subscription subscription = bus.subscribe(consumer, OverflowPolicy.DROP_OLDEST, CAPACITY);
+        ConsumerChannel channel = subscription.getChannel();
+        publishWhileStalled(bus, consumer, 100);
+        subscription.unsubscribe();
+
+        assertEquals(101, channel.getPublished());
+        //the ring held the last 4 of the 100 published while the consumer was stuck on the first
+        assertEquals(100 - CAPACITY, channel.getDropped());
+        assertEquals(0, channel.getCoalesced());
+        assertEquals(1 + CAPACITY, channel.getDelivered());
+        assertEquals(listOf(0, 97, 98, 99, 100), consumer.consumed);
+        assertEquals(0, channel.getQueueDepth());
+    }
+
+    @Test
+    public void coalesceDeliversOnlyTheNewest() throws InterruptedException {
+        StalledConsumer consumer = new StalledConsumer();
+        FixBus bus = new FixBus();
+        Subscription subscription = bus.subscribe(consumer, OverflowPolicy.COALESCE, CAPACITY);
+        ConsumerChannel channel = subscription.getChannel();
+        publishWhileStalled(bus, consumer, 100);
+        subscription.unsubscribe();
+
+        assertEquals(101, channel.getPublished());
+        assertEquals(100 - CAPACITY, channel.getDropped());
+        //of the 4 queued, the consumer skipped to the newest
+        assertEquals(CAPACITY - 1, channel.getCoalesced());
+        assertEquals(2, channel.getDelivered());
+        assertEquals(listOf(0, 100), consumer.consumed);
+    }
+
+    @Test
+    public void fixesAreNeverTornWhileDropping(){
+        for (OverflowPolicy policy : new OverflowPolicy[]{OverflowPolicy.DROP_OLDEST, OverflowPolicy.COALESCE}) {
+            CheckingConsumer consumer = new CheckingConsumer();
+            FixBus bus = new FixBus();
+            Subscription subscription = bus.subscribe(consumer, policy, CAPACITY);
+            ConsumerChannel channel = subscription.getChannel();
+            int nFixes = 200000;
+            Fix fix = new Fix();
+            for (int i = 0; i < nFixes; i++) {
+                bus.publish(fixOf(fix, i));
+            }
+            subscription.unsubscribe();
+
+            String message = policy + " " + channel;
+            assertEquals(message, null, consumer.error);
+            assertEquals(message, nFixes, channel.getPublished());
+            assertEquals(message, channel.getDelivered(), consumer.nConsumed);
+            assertEquals(message, nFixes, channel.getDelivered() + channel.getDropped() + channel.getCoalesced());
+            //a slow consumer can't keep up with publishing in a loop
+            assertTrue(message, channel.getDropped() > 0);
+            //and whatever was dropped, the newest is delivered
+            assertEquals(message, nFixes - 1, consumer.last);
+        }
+    }
+
+    //private methods
+
+    /**
+     * Publish a fix, wait for the consumer to be stuck consuming it, publish nFixes more and let it go.
+     */
+    private static void publishWhileStalled(FixBus bus, StalledConsumer consumer, int nFixes)
+            throws InterruptedException {
+        Fix fix = new Fix();
+        bus.publish(fixOf(fix, 0));
+        assertTrue("Timed out waiting for the consumer", consumer.consuming.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i <= nFixes; i++) {
+            bus.publish(fixOf(fix, i));
+        }
+        consumer.release.countDown();
+    }
+
+    /**
+     * @return The i'th fix, every field derived from i so a torn fix shows.
+     */
+    private static Fix fixOf(Fix fix, int i){
+        return fix.set(-37.8 + i * 1e-5, 144.9 - i * 1e-5, START_TIME + i * 1000L, i % 1000,
+                i % 2 == 0 ? Fix.Provider.GPS : Fix.Provider.NETWORK);
+    }
+
+    /**
+     * @return The i the fix was made from, -1 if its fields don't agree.
+     */
+    private static int indexOf(Fix fix){
+        long i = (fix.getTime() - START_TIME) / 1000;
+        Fix expected = fixOf(new Fix(), (int) i);
+        boolean whole = fix.getLat() == expected.getLat() && fix.getLon() == expected.getLon() &&
+                fix.getAccuracy() == expected.getAccuracy() && fix.getProvider() == expected.getProvider();
+        return whole ? (int) i : -1;
+    }
+
+    private static List<Integer> listOf(int... values){
+        List<Integer> list = new ArrayList<>();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * Blocks in its first {@link #consume(Fix)} until released.
+     */
+    private static class StalledConsumer implements LocationConsumer {
+
+        final CountDownLatch consuming = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        //only touched by the consumer's thread until unsubscribe has waited for it
+        final List<Integer> consumed = new ArrayList<>();
+
+        @Override
+        public void consume(Fix fix) {
+            consumed.add(indexOf(fix));
+            consuming.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Does some work per fix and checks each is whole and newer than the last.
+     */
+    private class CheckingConsumer implements LocationConsumer {
+
+        final long spinNanos = 1000 + random.nextInt(1000);
+        int nConsumed = 0;
+        int last = -1;
+        String error;
+
+        @Override
+        public void consume(Fix fix) {
+            int i = indexOf(fix);
+            if(error == null && i < 0){
+                error = "Torn fix " + fix;
+            }else if(error == null && i <= last){
+                error = "Fix " + i + " after " + last;
+            }
+            last = i;
+            nConsumed++;
+            long until = System.nanoTime() + spinNanos;
+            while (System.nanoTime() < until){
+                //slow
+            }
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link CsvTrailEncoder} writes the same lines as formatting with %f, especially for values
+ * at or next to halfway between two 6 decimal place values.
+ */
+public class CsvTrailEncoderTest {
+
+    private static final long TIME = 1490000000000L;
+    private static final String NEW_LINE = System.getProperty("line.separator", "\n");
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void halfwayValuesRoundLikeFormat() throws IOException {
+        for (int i = 0; i < 100000; i++) {
+            //halfway at the 7th decimal place, and the doubles either side of it
+            double halfway = (long) ((random.nextDouble() - 0.5) * 360e6) / 1e6 + 5e-7;
+            assertLine(halfway, Math.nextUp(halfway));
+            assertLine(Math.nextAfter(halfway, Double.NEGATIVE_INFINITY), -halfway);
+            assertLine(-Math.nextUp(halfway), -Math.nextAfter(halfway, Double.NEGATIVE_INFINITY));
+        }
+    }
+
+    @Test
+    public void randomValuesMatchFormat() throws IOException {
+        for (int i = 0; i < 100000; i++) {
+            assertLine((random.nextDouble() - 0.5) * 180, (random.nextDouble() - 0.5) * 360);
+        }
+    }
+
+    @Test
+    public void edgeValuesMatchFormat() throws IOException {
+        double[] values = {0, -0.0, 4e-7, -4e-7, 5e-7, -5e-7, 6e-7, -6e-7, 0.9999995, -0.9999995,
+                179.9999995, -179.9999995, 90, -90, 1e-300, Double.MIN_VALUE, 999.9999995, 123456789.1234565,
+                1e20, Double.MAX_VALUE};
+        for (double lat : values) {
+            for (double lon : values) {
+                assertLine(lat, lon);
+            }
+        }
+    }
+
+    //private methods
+
+    private static void assertLine(double lat, double lon) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CsvTrailEncoder encoder = new CsvTrailEncoder(bytes);
+        encoder.write(lat, lon, TIME, false, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        encoder.close();
+        String expected = String.format(Locale.ENGLISH, "%f,%f,%d,%s", lat, lon, TIME, "Moving") + NEW_LINE;
+        assertEquals(lat + "," + lon, expected, bytes.toString("US-ASCII"));
+    }
+
+}
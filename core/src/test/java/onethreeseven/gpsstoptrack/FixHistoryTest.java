@@ -0,0 +1,142 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link FixHistory} against a plain list of every fix appended: which fixes it holds once it
+ * wraps or they age out, its time lookups and the distance/stopped/moving totals over ranges.
+ */
+public class FixHistoryTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final long MAX_AGE_MILLIS = 100 * 1000L;
+
+    private final Random random = new Random(5);
+
+    @Test
+    public void matchesTheFixesAppended(){
+        FixHistory history = new FixHistory(50, MAX_AGE_MILLIS);
+        assertEquals(64, history.capacity());
+        List<double[]> appended = new ArrayList<>();
+        long time = START_TIME;
+        double lat = -37.8;
+        double lon = 144.9;
+        for (int n = 0; n < 2000; n++) {
+            //bursts (some at the same time) and gaps, so both the capacity and the max age drop fixes
+            time += random.nextInt(10) < 8 ? random.nextInt(3) * 500L : random.nextInt(60) * 1000L;
+            lat += (random.nextDouble() - 0.5) * 1e-4;
+            lon += (random.nextDouble() - 0.5) * 1e-4;
+            boolean isStopped = random.nextInt(4) == 0;
+            assertTrue(history.append(lat, lon, time, 5, isStopped));
+            appended.add(new double[]{lat, lon, time, isStopped ? 1 : 0});
+            if(n % 10 == 0){
+                assertMatches(history, appended);
+            }
+        }
+    }
+
+    @Test
+    public void olderFixIsRefused(){
+        FixHistory history = new FixHistory(16, MAX_AGE_MILLIS);
+        assertTrue(history.append(-37.8, 144.9, START_TIME + 1000, 5, false));
+        assertTrue(!history.append(-37.8, 144.9, START_TIME, 5, false));
+        //the same time is fine
+        assertTrue(history.append(-37.8, 144.9, START_TIME + 1000, 5, false));
+        assertEquals(2, history.size());
+    }
+
+    @Test
+    public void emptyAndClearedHistoryHasNoTotals(){
+        FixHistory history = new FixHistory(16, MAX_AGE_MILLIS);
+        assertEquals(0, history.getDistanceMeters(), 0);
+        assertTrue(Double.isNaN(history.getAverageSpeed()));
+        assertEquals(-1, history.indexAtOrBefore(START_TIME));
+        assertEquals(0, history.indexAtOrAfter(START_TIME));
+        history.append(-37.8, 144.9, START_TIME, 5, true);
+        history.append(-37.7, 144.9, START_TIME + 1000, 5, false);
+        assertEquals(1000, history.getStoppedMillis());
+        history.clear();
+        assertEquals(0, history.size());
+        assertEquals(0, history.getStoppedMillis());
+        try{
+            history.getTime(0);
+            fail("Read a fix of an empty history");
+        }catch (IndexOutOfBoundsException e){
+            //expected
+        }
+    }
+
+    @Test
+    public void forIntervalHoldsMaxAgeOfFixes(){
+        FixHistory history = FixHistory.forInterval(5000, 60 * 60 * 1000L);
+        assertTrue(history.capacity() >= 60 * 60 / 5 + 1);
+        //very short intervals are capped
+        assertEquals(1 << 20, FixHistory.forInterval(1, FixHistory.DEFAULT_MAX_AGE_MILLIS).capacity());
+    }
+
+    //private methods
+
+    private void assertMatches(FixHistory history, List<double[]> appended){
+        //the newest fixes that fit and aren't too old
+        int newest = appended.size() - 1;
+        long newestTime = (long) appended.get(newest)[2];
+        int first = newest;
+        while (first > 0 && newest - first + 1 < history.capacity() &&
+                newestTime - (long) appended.get(first - 1)[2] <= MAX_AGE_MILLIS){
+            first--;
+        }
+        assertEquals(newest - first + 1, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            double[] fix = appended.get(first + i);
+            assertEquals(fix[0], history.getLat(i), 0);
+            assertEquals(fix[1], history.getLon(i), 0);
+            assertEquals((long) fix[2], history.getTime(i));
+            assertEquals(fix[3] == 1, history.isStopped(i));
+        }
+
+        for (int q = 0; q < 5; q++) {
+            int from = (int) (random.nextDouble() * history.size());
+            int to = from + (int) (random.nextDouble() * (history.size() - from));
+            double distance = 0;
+            long stoppedMillis = 0;
+            long movingMillis = 0;
+            for (int i = from; i < to; i++) {
+                double[] a = appended.get(first + i);
+                double[] b = appended.get(first + i + 1);
+                distance += Geo.distanceMeters(a[0], a[1], b[0], b[1]);
+                long elapsed = (long) b[2] - (long) a[2];
+                if(a[3] == 1){
+                    stoppedMillis += elapsed;
+                }else{
+                    movingMillis += elapsed;
+                }
+            }
+            assertEquals(distance, history.getDistanceMeters(from, to), 1e-6);
+            assertEquals(stoppedMillis, history.getStoppedMillis(from, to));
+            assertEquals(movingMillis, history.getMovingMillis(from, to));
+
+            long time = history.getTime(from) + (long) (random.nextDouble() * 3000) - 1000;
+            int atOrAfter = history.size();
+            int atOrBefore = -1;
+            for (int i = 0; i < history.size(); i++) {
+                if(history.getTime(i) >= time && atOrAfter == history.size()){
+                    atOrAfter = i;
+                }
+                if(history.getTime(i) <= time){
+                    atOrBefore = i;
+                }
+            }
+            assertEquals(atOrAfter, history.indexAtOrAfter(time));
+            assertEquals(atOrBefore, history.indexAtOrBefore(time));
+        }
+    }
+
+}
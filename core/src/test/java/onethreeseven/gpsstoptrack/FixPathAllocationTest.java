@@ -0,0 +1,138 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the per fix path from {@link FixTracker} to {@link TrailWriter} allocates nothing
+ * once it has warmed up, neither on the calling thread, the consumer's thread nor on the trail writer thread.
+ */
+public class FixPathAllocationTest {
+
+    private static final int WARM_UP_FIXES = 200000;
+    private static final int MEASURED_FIXES = 100000;
+
+    private File baseDir;
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        baseDir = File.createTempFile("trails", "");
+        baseDir.delete();
+        baseDir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        File trailsDir = new File(baseDir, "trails");
+        File[] trails = trailsDir.listFiles();
+        if(trails != null){
+            for (File trail : trails) {
+                trail.delete();
+            }
+        }
+        trailsDir.delete();
+        baseDir.delete();
+    }
+
+    @Test
+    public void csvPathAllocatesNothingPerFix() {
+        assertNoAllocationPerFix(TrailFormat.CSV);
+    }
+
+    @Test
+    public void binaryPathAllocatesNothingPerFix() {
+        assertNoAllocationPerFix(TrailFormat.BINARY);
+    }
+
+    @Test
+    public void smoothedJournalPathAllocatesNothingPerFix() {
+        assertNoAllocationPerFix(TrailFormat.JOURNAL, new KalmanSmoother());
+    }
+
+    @Test
+    public void instrumentedCsvPathAllocatesNothingPerFix() {
+        Metrics.setEnabled(true);
+        try{
+            assertNoAllocationPerFix(TrailFormat.CSV);
+        }finally {
+            Metrics.setEnabled(false);
+        }
+        assertTrue(Metrics.histogram("trail.fix_to_disk_us").getCount() > 0);
+    }
+
+    private void assertNoAllocationPerFix(TrailFormat format){
+        assertNoAllocationPerFix(format, null);
+    }
+
+    private void assertNoAllocationPerFix(TrailFormat format, KalmanSmoother smoother){
+        final TrailWriter trailWriter = new TrailWriter(baseDir, 4096, 1000, 10L, true);
+        trailWriter.newTrailFile(format, 1);
+        FixTracker tracker = new FixTracker();
+        tracker.setSmoother(smoother);
+        Subscription subscription = tracker.subscribe(new LocationConsumer() {
+            @Override
+            public void consume(Fix fix) {
+                trailWriter.write(fix, fix.getTime() % 2 == 0);
+            }
+        });
+        //tracker reports every 1s by default, fixes arrive every 400ms
+        Fix fix = new Fix();
+        long time = 1480000000000L;
+
+        for (int i = 0; i < WARM_UP_FIXES; i++) {
+            time += 400;
+            tracker.onFix(fix.set(-37.8 + i * 1e-6, 144.9 + i * 1e-6, time, 5 + i % 10, Fix.Provider.GPS));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long writerThreadId = findThread("TrailWriter").getId();
+        long consumerThreadId = findThread("FixBus-" + subscription.getConsumer().getClass().getName()).getId();
+        //calibrate the bytes allocated by just measuring
+        long overheadStart = threadBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadBean.getThreadAllocatedBytes(threadId) - overheadStart;
+
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        long writerStart = threadBean.getThreadAllocatedBytes(writerThreadId);
+        long consumerStart = threadBean.getThreadAllocatedBytes(consumerThreadId);
+        for (int i = 0; i < MEASURED_FIXES; i++) {
+            time += 400;
+            tracker.onFix(fix.set(-37.8 - i * 1e-6, 144.9 - i * 1e-6, time, 5 + i % 10, Fix.Provider.NETWORK));
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+        long writerAllocated = threadBean.getThreadAllocatedBytes(writerThreadId) - writerStart;
+        long consumerAllocated = threadBean.getThreadAllocatedBytes(consumerThreadId) - consumerStart;
+        subscription.unsubscribe();
+        trailWriter.closeTrailFile();
+
+        //any object is at least 16 bytes, so even one allocation per fix shows up here
+        assertEquals("Bytes allocated per fix (" + allocated + " bytes over " + MEASURED_FIXES + " fixes)",
+                0, allocated / MEASURED_FIXES);
+        assertEquals("Consumer thread bytes allocated per fix (" + consumerAllocated + " bytes over " +
+                MEASURED_FIXES + " fixes)", 0, consumerAllocated / MEASURED_FIXES);
+        assertEquals("Writer thread bytes allocated per fix (" + writerAllocated + " bytes over " +
+                MEASURED_FIXES + " fixes)", 0, writerAllocated / MEASURED_FIXES);
+    }
+
+    private static Thread findThread(String name){
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(name.equals(thread.getName())){
+                return thread;
+            }
+        }
+        throw new AssertionError("No thread named " + name);
+    }
+
+}
@@ -0,0 +1,153 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays fixes through the whole recording pipeline (fix selection, smoothing, consumer, trail writer)
+ * on the JVM using a {@link FixReplayer}, checking it records every fix and does the same thing every time.
+ */
+public class FixTrackerReplayTest {
+
+    private static final long START_TIME = 1480000000000L;
+    private static final long REPORTING_INTERVAL_MILLIS = 1000;
+    private static final double START_LAT = -37.8;
+    private static final double START_LON = 144.9;
+
+    private final List<File> baseDirs = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File baseDir : baseDirs) {
+            File trailsDir = new File(baseDir, "trails");
+            File[] trails = trailsDir.listFiles();
+            if(trails != null){
+                for (File trail : trails) {
+                    trail.delete();
+                }
+            }
+            trailsDir.delete();
+            baseDir.delete();
+        }
+    }
+
+    @Test
+    public void replaysTenHoursOfFixes() throws IOException {
+        //how long it takes depends on the machine, so it is not asserted
+        File trail = record(new SyntheticFixSource(START_LAT, START_LON, START_TIME, 500,
+                TimeUnit.HOURS.toMillis(10), 2));
+
+        //a fix every 500ms reported every second, the very first fix only starts the first interval
+        assertEquals(TimeUnit.HOURS.toSeconds(10) - 1,
+                Files.readAllLines(trail.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void sameFixesMakeTheSameTrail() throws IOException {
+        File first = record(new SyntheticFixSource(START_LAT, START_LON, START_TIME, 400,
+                TimeUnit.HOURS.toMillis(1), 3));
+        File second = record(new SyntheticFixSource(START_LAT, START_LON, START_TIME, 400,
+                TimeUnit.HOURS.toMillis(1), 3));
+
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+    }
+
+    @Test
+    public void recordedTrailIsReplayedFixByFix() throws IOException {
+        File recorded = record(new SyntheticFixSource(START_LAT, START_LON, START_TIME, 250,
+                TimeUnit.HOURS.toMillis(1), 4));
+        File rerecorded = record(new TrailFixSource(recorded));
+
+        //each fix recorded again is one of the replayed ones (same raw position and time), in order
+        List<String> recordedLines = Files.readAllLines(recorded.toPath(), StandardCharsets.UTF_8);
+        List<String> rerecordedLines = Files.readAllLines(rerecorded.toPath(), StandardCharsets.UTF_8);
+        assertTrue(rerecordedLines.size() > recordedLines.size() / 2);
+        int r = 0;
+        for (String line : rerecordedLines) {
+            String fix = rawFixOf(line);
+            while (r < recordedLines.size() && !rawFixOf(recordedLines.get(r)).equals(fix)){
+                r++;
+            }
+            assertTrue("Not a replayed fix: " + line, r < recordedLines.size());
+        }
+    }
+
+    @Test
+    public void realTimeReplayIsPaced() throws IOException {
+        final VirtualClock clock = new VirtualClock(START_TIME);
+        FixReplayer replayer = new FixReplayer(clock);
+        //10 seconds of fixes at 100 times real time
+        replayer.setSpeed(100);
+        final long[] lastClockTime = new long[1];
+        long start = System.nanoTime();
+        long replayed = replayer.replay(new SyntheticFixSource(START_LAT, START_LON, START_TIME, 1000, 10000, 5),
+                new LocationConsumer() {
+                    @Override
+                    public void consume(Fix fix) {
+                        lastClockTime[0] = clock.currentTimeMillis();
+                    }
+                });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(10, replayed);
+        assertEquals(START_TIME + 9000, lastClockTime[0]);
+        assertTrue("Replaying 9 seconds at 100x took " + elapsedMillis + "ms", elapsedMillis >= 90);
+    }
+
+    /**
+     * @return The lat,lon,time columns of a CSV trail line.
+     */
+    private static String rawFixOf(String line){
+        String[] columns = line.split(",");
+        return columns[0] + "," + columns[1] + "," + columns[2];
+    }
+
+    /**
+     * Replay the fixes through a tracker writing a CSV trail, as the recording service does.
+     * @return The trail.
+     */
+    private File record(FixSource source) throws IOException {
+        File baseDir = Files.createTempDirectory("replay").toFile();
+        baseDirs.add(baseDir);
+        final TrailWriter trailWriter = new TrailWriter(baseDir, 4096, 1000, 10000L, false);
+        trailWriter.newTrailFile(TrailFormat.CSV, 1);
+
+        VirtualClock clock = new VirtualClock(START_TIME);
+        final FixTracker tracker = new FixTracker(clock);
+        tracker.setSmoother(new KalmanSmoother());
+        RecordingSession session = new RecordingSession(tracker);
+        session.subscribe(new LocationConsumer() {
+            @Override
+            public void consume(Fix fix) {
+                trailWriter.write(fix, false);
+            }
+        });
+        tracker.startTracking(REPORTING_INTERVAL_MILLIS, false);
+        try{
+            new FixReplayer(clock).replay(source, new LocationConsumer() {
+                @Override
+                public void consume(Fix fix) {
+                    tracker.onFix(fix);
+                }
+            });
+        }finally {
+            source.close();
+        }
+        tracker.stopTracking();
+        session.close();
+        return trailWriter.closeTrailFile();
+    }
+
+}
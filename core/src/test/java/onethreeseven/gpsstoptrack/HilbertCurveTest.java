@@ -0,0 +1,93 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link HilbertCurve} keys map back to their cells, and that the ranges of a rectangle cover every cell in it.
+ */
+public class HilbertCurveTest {
+
+    private final Random random = new Random(7);
+
+    @Test
+    public void keysMapBackToTheirCells(){
+        for (int i = 0; i < 10000; i++) {
+            long x = (long) (random.nextDouble() * HilbertCurve.GRID_SIZE);
+            long y = (long) (random.nextDouble() * HilbertCurve.GRID_SIZE);
+            long key = HilbertCurve.key(x, y);
+            assertTrue(key >= 0 && key < HilbertCurve.GRID_SIZE * HilbertCurve.GRID_SIZE);
+            assertEquals(x, HilbertCurve.toX(HilbertCurve.lon(key)));
+            assertEquals(y, HilbertCurve.toY(HilbertCurve.lat(key)));
+        }
+        //the corners
+        assertEquals(0, HilbertCurve.key(0, 0));
+        assertEquals(HilbertCurve.GRID_SIZE - 1, HilbertCurve.toX(HilbertCurve.lon(HilbertCurve.key(90.0, 180.0))));
+        assertEquals(HilbertCurve.GRID_SIZE - 1, HilbertCurve.toY(HilbertCurve.lat(HilbertCurve.key(90.0, 180.0))));
+    }
+
+    @Test
+    public void alignedSquareIsOneRunOfKeys(){
+        //an 8x8 aligned square is 64 consecutive keys, each once
+        long x0 = 8 * 123456L;
+        long y0 = 8 * 654321L;
+        long[] keys = new long[64];
+        for (int i = 0; i < 64; i++) {
+            keys[i] = HilbertCurve.key(x0 + i % 8, y0 + i / 8);
+        }
+        Arrays.sort(keys);
+        assertEquals(0, keys[0] % 64);
+        for (int i = 1; i < 64; i++) {
+            assertEquals(keys[0] + i, keys[i]);
+        }
+    }
+
+    @Test
+    public void rangesCoverEveryCellOfTheRectangle(){
+        for (int q = 0; q < 200; q++) {
+            long x0 = (long) (random.nextDouble() * (HilbertCurve.GRID_SIZE - 64));
+            long y0 = (long) (random.nextDouble() * (HilbertCurve.GRID_SIZE - 64));
+            long x1 = x0 + random.nextInt(64);
+            long y1 = y0 + random.nextInt(64);
+            long[] ranges = HilbertCurve.ranges(x0, y0, x1, y1);
+            assertEquals(0, ranges.length % 2);
+            //sorted and not touching (those are merged)
+            for (int r = 0; r < ranges.length; r += 2) {
+                assertTrue(ranges[r] < ranges[r + 1]);
+                if(r > 0){
+                    assertTrue(ranges[r - 1] < ranges[r]);
+                }
+            }
+            for (long x = x0; x <= x1; x++) {
+                for (long y = y0; y <= y1; y++) {
+                    assertTrue("cell " + x + "," + y, inRanges(HilbertCurve.key(x, y), ranges));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rangesOfTheWholeGridAreEveryKey(){
+        long[] ranges = HilbertCurve.ranges(0, 0, HilbertCurve.GRID_SIZE - 1, HilbertCurve.GRID_SIZE - 1);
+        assertEquals(2, ranges.length);
+        assertEquals(0, ranges[0]);
+        assertEquals(HilbertCurve.GRID_SIZE * HilbertCurve.GRID_SIZE, ranges[1]);
+    }
+
+    //private methods
+
+    private static boolean inRanges(long key, long[] ranges){
+        for (int r = 0; r < ranges.length; r += 2) {
+            if(key >= ranges[r] && key < ranges[r + 1]){
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,280 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips journals through {@link JournalTrailEncoder} and {@link JournalTrailReader}, and checks
+ * {@link TrailRecovery} truncates, resumes and seals interrupted ones.
+ */
+public class JournalTrailTest {
+
+    private static final int INTERVAL = 5;
+    private static final long START_TIME = 1490000000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void closedJournalReadsBackWithEndRecord() throws IOException {
+        File journal = journal(1000);
+        JournalTrailEncoder encoder = new JournalTrailEncoder(new FileOutputStream(journal), INTERVAL);
+        writeFixes(encoder, 0, 100);
+        encoder.write(-37.5, 144.5, START_TIME + 100 * 1000L, true, TrailEncoder.PREDICTED_STOPPED, -37.4, 144.4);
+        encoder.close();
+
+        JournalTrailReader reader = new JournalTrailReader(journal);
+        try{
+            assertEquals(INTERVAL, reader.getRecordingInterval());
+            int fixes = 0;
+            int checkpoints = 0;
+            byte type;
+            while ((type = reader.next()) != JournalTrailEncoder.TYPE_END){
+                if(type == JournalTrailEncoder.TYPE_FIX){
+                    if(fixes < 100){
+                        assertFix(reader, fixes);
+                    }
+                    fixes++;
+                }else{
+                    assertEquals(JournalTrailEncoder.TYPE_CHECKPOINT, type);
+                    assertEquals(INTERVAL, reader.getCheckpointInterval());
+                    checkpoints++;
+                }
+            }
+            //the smoothed fix, with its prediction
+            assertTrue(reader.isStopped());
+            assertEquals(101, fixes);
+            assertEquals(101, reader.getFixCount());
+            //the first fix, every 60th and the change to stopped
+            assertEquals(3, checkpoints);
+            assertEquals(0, reader.next());
+            assertEquals(journal.length(), reader.getValidLength());
+        }finally {
+            reader.close();
+        }
+        assertNull(TrailRecovery.recover(journal.getParentFile()));
+    }
+
+    @Test
+    public void smoothedFixKeepsItsPrediction() throws IOException {
+        File journal = journal(1000);
+        JournalTrailEncoder encoder = new JournalTrailEncoder(new FileOutputStream(journal), INTERVAL);
+        encoder.write(-37.5, 144.5, START_TIME, true, TrailEncoder.PREDICTED_MOVING, -37.4, 144.4);
+        encoder.close();
+
+        JournalTrailReader reader = new JournalTrailReader(journal);
+        try{
+            assertEquals(JournalTrailEncoder.TYPE_FIX, reader.next());
+            assertEquals(-37.5, reader.getLat(), 0);
+            assertEquals(144.5, reader.getLon(), 0);
+            assertEquals(START_TIME, reader.getTime());
+            assertTrue(reader.isStopped());
+            assertEquals(TrailEncoder.PREDICTED_MOVING, reader.getPredicted());
+            assertEquals(-37.4, reader.getSmoothedLat(), 0);
+            assertEquals(144.4, reader.getSmoothedLon(), 0);
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void cutOffLastRecordIsTruncated() throws IOException {
+        File journal = interruptedJournal(1000, 10);
+        long intactLength = journal.length() - JournalTrailEncoder.FIX_RECORD_SIZE;
+        cutOff(journal, 5);
+
+        RecoveredTrail recovered = TrailRecovery.recover(journal.getParentFile());
+        assertNotNull(recovered);
+        assertEquals(journal, recovered.getFile());
+        assertEquals(9, recovered.getFixCount());
+        assertEquals(START_TIME + 8 * 1000L, recovered.getLastFixTime());
+        assertEquals(INTERVAL, recovered.getRecordingInterval());
+        assertEquals(intactLength, journal.length());
+        assertEquals(9, countFixes(journal));
+    }
+
+    @Test
+    public void badCrcEndsTheJournal() throws IOException {
+        File journal = interruptedJournal(1000, 10);
+        //the checkpoint after the first fix, then the 5th fix's latitude
+        long fifthFix = JournalTrailEncoder.HEADER_SIZE + JournalTrailEncoder.CHECKPOINT_RECORD_SIZE
+                + 4 * JournalTrailEncoder.FIX_RECORD_SIZE;
+        flipByte(journal, fifthFix + 3);
+        assertEquals(4, countFixes(journal));
+
+        RecoveredTrail recovered = TrailRecovery.recover(journal.getParentFile());
+        assertNotNull(recovered);
+        assertEquals(4, recovered.getFixCount());
+        assertEquals(fifthFix, journal.length());
+    }
+
+    @Test
+    public void unreadableHeaderIsDeleted() throws IOException {
+        File journal = interruptedJournal(1000, 10);
+        flipByte(journal, 1);
+
+        assertNull(TrailRecovery.recover(journal.getParentFile()));
+        assertTrue(!journal.exists());
+    }
+
+    @Test
+    public void resumedJournalCarriesOnThenSeals() throws IOException {
+        File journal = interruptedJournal(1000, 10);
+        cutOff(journal, 5);
+        RecoveredTrail recovered = TrailRecovery.recover(journal.getParentFile());
+        assertNotNull(recovered);
+
+        JournalTrailEncoder encoder = new JournalTrailEncoder(new FileOutputStream(journal, true),
+                recovered.getRecordingInterval(), recovered.getFixCount());
+        writeFixes(encoder, 9, 20);
+        encoder.close();
+
+        assertEquals(20, countFixes(journal));
+        assertEquals(20, endFixCount(journal));
+        assertNull(TrailRecovery.recover(journal.getParentFile()));
+    }
+
+    @Test
+    public void sealAppendsEndRecord() throws IOException {
+        File journal = interruptedJournal(1000, 10);
+        RecoveredTrail recovered = TrailRecovery.recover(journal.getParentFile());
+        assertNotNull(recovered);
+        long length = journal.length();
+
+        TrailRecovery.seal(recovered);
+
+        assertEquals(length + JournalTrailEncoder.END_RECORD_SIZE, journal.length());
+        assertEquals(10, endFixCount(journal));
+        assertNull(TrailRecovery.recover(journal.getParentFile()));
+    }
+
+    @Test
+    public void junkAfterEndRecordIsTruncated() throws IOException {
+        File journal = journal(1000);
+        JournalTrailEncoder encoder = new JournalTrailEncoder(new FileOutputStream(journal), INTERVAL);
+        writeFixes(encoder, 0, 10);
+        encoder.close();
+        long length = journal.length();
+        FileOutputStream out = new FileOutputStream(journal, true);
+        out.write(new byte[]{JournalTrailEncoder.TYPE_FIX, 1, 2, 3});
+        out.close();
+
+        assertNull(TrailRecovery.recover(journal.getParentFile()));
+        assertEquals(length, journal.length());
+        assertEquals(10, endFixCount(journal));
+    }
+
+    @Test
+    public void onlyTheMostRecentInterruptedJournalIsReturned() throws IOException {
+        File older = interruptedJournal(1000, 10);
+        File newer = interruptedJournal(2000, 5);
+
+        RecoveredTrail recovered = TrailRecovery.recover(older.getParentFile());
+        assertNotNull(recovered);
+        assertEquals(newer, recovered.getFile());
+        assertEquals(5, recovered.getFixCount());
+        //the older one was sealed
+        assertEquals(10, endFixCount(older));
+    }
+
+    //private methods
+
+    private File journal(long startMillis){
+        return new File(tmp.getRoot(), "trail_" + startMillis + "." + TrailFormat.JOURNAL.getFileExtension());
+    }
+
+    /**
+     * A journal with the given number of fixes (all moving) and no END record.
+     */
+    private File interruptedJournal(long startMillis, int nFixes) throws IOException {
+        File journal = journal(startMillis);
+        JournalTrailEncoder encoder = new JournalTrailEncoder(new FileOutputStream(journal), INTERVAL);
+        writeFixes(encoder, 0, nFixes);
+        encoder.flush();
+        return journal;
+    }
+
+    private static void writeFixes(JournalTrailEncoder encoder, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            encoder.write(-37.8 + i * 1e-5, 144.9 + i * 1e-5, START_TIME + i * 1000L, false,
+                    TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        }
+    }
+
+    private static void assertFix(JournalTrailReader reader, int i){
+        assertEquals(-37.8 + i * 1e-5, reader.getLat(), 0);
+        assertEquals(144.9 + i * 1e-5, reader.getLon(), 0);
+        assertEquals(START_TIME + i * 1000L, reader.getTime());
+        assertTrue(!reader.isStopped());
+        assertEquals(TrailEncoder.NO_PREDICTION, reader.getPredicted());
+        assertTrue(Double.isNaN(reader.getSmoothedLat()));
+    }
+
+    private static int countFixes(File journal) throws IOException {
+        JournalTrailReader reader = new JournalTrailReader(journal);
+        try{
+            int fixes = 0;
+            byte type;
+            while ((type = reader.next()) != 0){
+                if(type == JournalTrailEncoder.TYPE_FIX){
+                    assertFix(reader, fixes);
+                    fixes++;
+                }
+            }
+            return fixes;
+        }finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return The fix count of the journal's END record, or -1 if it has none.
+     */
+    private static long endFixCount(File journal) throws IOException {
+        JournalTrailReader reader = new JournalTrailReader(journal);
+        try{
+            byte type;
+            while ((type = reader.next()) != 0){
+                if(type == JournalTrailEncoder.TYPE_END){
+                    return reader.getFixCount();
+                }
+            }
+            return -1;
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static void cutOff(File file, int bytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try{
+            raf.setLength(raf.length() - bytes);
+        }finally {
+            raf.close();
+        }
+    }
+
+    private static void flipByte(File file, long pos) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try{
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }finally {
+            raf.close();
+        }
+    }
+
+}
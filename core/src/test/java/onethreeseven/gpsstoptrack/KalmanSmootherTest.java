@@ -0,0 +1,141 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds {@link KalmanSmoother} noisy fixes of a user standing still and of one walking in a straight line:
+ * the estimate converges and is closer to the truth than the fixes, and it starts afresh after a gap.
+ */
+public class KalmanSmootherTest {
+
+    private static final double LAT = -37.8;
+    private static final double LON = 144.9;
+    private static final long START_TIME = 1490000000000L;
+    private static final float ACCURACY = 10;
+
+    private final Random random = new Random(43);
+
+    @Test
+    public void convergesOnAConstantPosition(){
+        //fixes all at one spot are smoothed to it, with no speed
+        KalmanSmoother smoother = new KalmanSmoother();
+        Fix fix = new Fix();
+        for (int i = 0; i < 60; i++) {
+            smoother.smooth(at(fix, 0, 0, i * 1000L, ACCURACY));
+            assertEquals(fix.getLat(), fix.getSmoothedLat(), 0);
+            assertEquals(fix.getLon(), fix.getSmoothedLon(), 0);
+        }
+        assertEquals(0, smoother.getSpeed(), 0);
+
+        //noisy fixes of a user who barely accelerates settle on the spot
+        smoother = new KalmanSmoother(0.01, KalmanSmoother.DEFAULT_MAX_GAP_MILLIS);
+        smoother.smooth(noisy(fix, 0, 0, 0));
+        assertEquals(ACCURACY, smoother.getAccuracy(), 1e-6);
+        double squares = 0;
+        int n = 0;
+        for (int i = 1; i < 300; i++) {
+            smoother.smooth(noisy(fix, 0, 0, i * 1000L));
+            if(i >= 30){
+                squares += square(distance(fix.getSmoothedLat(), fix.getSmoothedLon(), 0, 0));
+                n++;
+            }
+        }
+        assertTrue(smoother.getAccuracy() < ACCURACY / 2);
+        assertTrue(Math.sqrt(squares / n) < ACCURACY / 2);
+        assertTrue(smoother.getSpeed() < 1);
+    }
+
+    @Test
+    public void smoothedIsCloserToTheTruthThanTheFixes(){
+        KalmanSmoother smoother = new KalmanSmoother();
+        Fix fix = new Fix();
+        double speed = 1.5;
+        double rawSquares = 0;
+        double smoothedSquares = 0;
+        double speeds = 0;
+        int n = 0;
+        for (int i = 0; i < 600; i++) {
+            double east = speed * i;
+            smoother.smooth(noisy(fix, east, 0, i * 1000L));
+            //once the filter has settled on the speed
+            if(i >= 30){
+                rawSquares += square(distance(fix.getLat(), fix.getLon(), east, 0));
+                smoothedSquares += square(distance(fix.getSmoothedLat(), fix.getSmoothedLon(), east, 0));
+                speeds += smoother.getSpeed();
+                n++;
+            }
+        }
+        double rawRms = Math.sqrt(rawSquares / n);
+        double smoothedRms = Math.sqrt(smoothedSquares / n);
+        assertTrue("raw " + rawRms + " smoothed " + smoothedRms, smoothedRms < rawRms * 2 / 3);
+        //the default noise lets the speed wander, but around the real one
+        assertEquals(speed, speeds / n, 0.6);
+    }
+
+    @Test
+    public void startsAfreshAfterAGap(){
+        long maxGapMillis = 60000;
+        KalmanSmoother smoother = new KalmanSmoother(KalmanSmoother.DEFAULT_ACCELERATION_NOISE, maxGapMillis);
+        Fix fix = new Fix();
+        for (int i = 0; i < 60; i++) {
+            smoother.smooth(noisy(fix, 0, 0, i * 1000L));
+        }
+        //a kilometer north within the gap is smoothed towards the old estimate
+        long time = 59000 + maxGapMillis;
+        smoother.smooth(at(fix, 0, 1000, time, ACCURACY));
+        assertTrue(distance(fix.getSmoothedLat(), fix.getSmoothedLon(), 0, 1000) > 1);
+
+        //after a longer gap it is taken as is
+        time += maxGapMillis + 1;
+        smoother.smooth(at(fix, 0, 1000, time, 3));
+        assertEquals(fix.getLat(), fix.getSmoothedLat(), 0);
+        assertEquals(fix.getLon(), fix.getSmoothedLon(), 0);
+        assertEquals(3, smoother.getAccuracy(), 1e-9);
+        assertEquals(0, smoother.getSpeed(), 0);
+
+        //as is a fix back in time
+        smoother.smooth(at(fix, 0, 2000, time - 1, 3));
+        assertEquals(fix.getLat(), fix.getSmoothedLat(), 0);
+
+        //and the first after a reset
+        smoother.smooth(at(fix, 0, 2000, time + 1000, 3));
+        smoother.reset();
+        assertTrue(Double.isNaN(smoother.getAccuracy()));
+        smoother.smooth(at(fix, 0, 3000, time + 2000, 3));
+        assertEquals(fix.getLat(), fix.getSmoothedLat(), 0);
+    }
+
+    //private methods
+
+    /**
+     * @return The fix set to the given position (meters east and north of LAT, LON) plus gaussian noise.
+     */
+    private Fix noisy(Fix fix, double east, double north, long millis){
+        return at(fix, east + random.nextGaussian() * ACCURACY, north + random.nextGaussian() * ACCURACY,
+                millis, ACCURACY);
+    }
+
+    private static Fix at(Fix fix, double east, double north, long millis, float accuracy){
+        return fix.set(LAT + north / Geo.metersPerDegreeLat(), LON + east / Geo.metersPerDegreeLon(LAT),
+                START_TIME + millis, accuracy, Fix.Provider.GPS);
+    }
+
+    /**
+     * @return Meters from the lat, lon to the position east and north of LAT, LON.
+     */
+    private static double distance(double lat, double lon, double east, double north){
+        double dEast = (lon - LON) * Geo.metersPerDegreeLon(LAT) - east;
+        double dNorth = (lat - LAT) * Geo.metersPerDegreeLat() - north;
+        return Math.hypot(dEast, dNorth);
+    }
+
+    private static double square(double x){
+        return x * x;
+    }
+
+}
@@ -0,0 +1,272 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link MappedTrailReader} against parsing each line of a CSV trail with the JDK: whatever the window
+ * size, however the file is split, and with lines that don't parse (or are cut off) among them.
+ */
+public class MappedTrailReaderTest {
+
+    private static final long START_TIME = 1490000000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Random random = new Random(31);
+
+    @Test
+    public void cursorMatchesParsingEachLine() throws IOException {
+        File trail = writeTrail(5000);
+        List<Line> expected = parseLines(trail);
+        assertEquals(5000, expected.size());
+        MappedTrailReader reader = new MappedTrailReader(trail);
+        try{
+            assertEquals(trail.length(), reader.size());
+            assertLines(expected, 0, expected.size(), reader.cursor());
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void smallWindowsReadTheSameLines() throws IOException {
+        File trail = writeTrail(2000);
+        List<Line> expected = parseLines(trail);
+        //the longest line is under 100 bytes, so no window is too small for one
+        for (int windowBytes : new int[]{100, 101, 128, 4096, 65536}) {
+            MappedTrailReader reader = new MappedTrailReader(trail, windowBytes);
+            try{
+                assertLines(expected, 0, expected.size(), reader.cursor());
+            }finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void splitRangesReadEveryLineOnce() throws IOException {
+        File trail = writeTrail(3000);
+        List<Line> expected = parseLines(trail);
+        byte[] bytes = Files.readAllBytes(trail.toPath());
+        for (int windowBytes : new int[]{100, MappedTrailReader.DEFAULT_WINDOW_BYTES}) {
+            MappedTrailReader reader = new MappedTrailReader(trail, windowBytes);
+            try{
+                for (int parts = 1; parts <= 16; parts++) {
+                    long[] offsets = reader.split(parts);
+                    assertEquals(parts + 1, offsets.length);
+                    assertEquals(0, offsets[0]);
+                    assertEquals(bytes.length, offsets[parts]);
+                    int line = 0;
+                    for (int i = 0; i < parts; i++) {
+                        assertTrue(offsets[i] <= offsets[i + 1]);
+                        //on a line boundary
+                        assertTrue(offsets[i] == 0 || bytes[(int) offsets[i] - 1] == '\n');
+                        int lines = countLinesStartingBefore(expected, offsets[i + 1]) - line;
+                        assertLines(expected, line, line + lines, reader.cursor(offsets[i], offsets[i + 1]));
+                        line += lines;
+                    }
+                    assertEquals(expected.size(), line);
+                }
+            }finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void linesThatDontParseAreSkipped() throws IOException {
+        String content = "lat,lon,time,state\n" +
+                "-37.800000,144.900000,1490000000000,Moving\n" +
+                "\n" +
+                "-37.8x,144.900000,1490000001000,Moving\n" +
+                "-37.800000,144.900000,1490000002000,Unknown\n" +
+                "-37.800000,144.900000\n" +
+                "-37.800000,144.900000,,Stopped\n" +
+                //written on windows
+                "-37.800100,144.900100,1490000003000,Stopped,Moving\r\n" +
+                //a bad smoothed position is dropped, not the line
+                "-37.800200,144.900200,1490000004000,Stopped,,oops,144.9\n" +
+                "-37.800300,144.900300,1490000005000,Moving,,-37.800301,144.900301\n" +
+                //cut off by a crash
+                "-37.800400,144.90";
+        File trail = tmp.newFile("trail_1.txt");
+        Files.write(trail.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+
+        MappedTrailReader reader = new MappedTrailReader(trail);
+        try{
+            MappedTrailReader.Cursor cursor = reader.cursor();
+            assertTrue(cursor.next());
+            assertEquals(content.indexOf("-37.800000"), cursor.getLineStart());
+            assertEquals(-37.8, cursor.getLat(), 0);
+            assertEquals(START_TIME, cursor.getTime());
+            assertTrue(!cursor.isStopped());
+            assertEquals(TrailEncoder.NO_PREDICTION, cursor.getPredicted());
+
+            assertTrue(cursor.next());
+            assertEquals(START_TIME + 3000, cursor.getTime());
+            assertTrue(cursor.isStopped());
+            assertEquals(TrailEncoder.PREDICTED_MOVING, cursor.getPredicted());
+            assertTrue(Double.isNaN(cursor.getSmoothedLat()));
+
+            assertTrue(cursor.next());
+            assertEquals(START_TIME + 4000, cursor.getTime());
+            assertTrue(Double.isNaN(cursor.getSmoothedLat()) && Double.isNaN(cursor.getSmoothedLon()));
+
+            assertTrue(cursor.next());
+            assertEquals(START_TIME + 5000, cursor.getTime());
+            assertEquals(-37.800301, cursor.getSmoothedLat(), 0);
+            assertEquals(144.900301, cursor.getSmoothedLon(), 0);
+
+            assertTrue(!cursor.next());
+            //and stays at the end
+            assertTrue(!cursor.next());
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void lineLongerThanTheWindowIsSkipped() throws IOException {
+        StringBuilder content = new StringBuilder("-37.800000,144.900000,1490000000000,Moving\n");
+        content.append("-37.800000,144.900000,1490000001000,Moving,");
+        for (int i = 0; i < 300; i++) {
+            content.append('x');
+        }
+        content.append('\n').append("-37.800000,144.900000,1490000002000,Stopped\n");
+        File trail = tmp.newFile("trail_1.txt");
+        Files.write(trail.toPath(), content.toString().getBytes(StandardCharsets.US_ASCII));
+
+        MappedTrailReader reader = new MappedTrailReader(trail, 64);
+        try{
+            MappedTrailReader.Cursor cursor = reader.cursor();
+            assertTrue(cursor.next());
+            assertEquals(START_TIME, cursor.getTime());
+            assertTrue(cursor.next());
+            assertEquals(START_TIME + 2000, cursor.getTime());
+            assertTrue(!cursor.next());
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void emptyTrailHasNoLines() throws IOException {
+        MappedTrailReader reader = new MappedTrailReader(tmp.newFile("trail_1.txt"));
+        try{
+            assertEquals(0, reader.size());
+            assertTrue(!reader.cursor().next());
+            long[] offsets = reader.split(4);
+            for (long offset : offsets) {
+                assertEquals(0, offset);
+            }
+        }finally {
+            reader.close();
+        }
+    }
+
+    //private methods
+
+    /**
+     * Write a CSV trail of random entries, some predicted and some smoothed.
+     */
+    private File writeTrail(int nEntries) throws IOException {
+        File trail = tmp.newFile("trail_" + nEntries + ".txt");
+        CsvTrailEncoder encoder = new CsvTrailEncoder(new FileOutputStream(trail));
+        try{
+            long time = START_TIME;
+            for (int i = 0; i < nEntries; i++) {
+                time += random.nextInt(5000);
+                double lat = (random.nextDouble() - 0.5) * 180;
+                double lon = (random.nextDouble() - 0.5) * 360;
+                boolean smoothed = random.nextBoolean();
+                encoder.write(lat, lon, time, random.nextBoolean(), (byte) (random.nextInt(3) - 1),
+                        smoothed ? lat + 1e-5 : Double.NaN, smoothed ? lon - 1e-5 : Double.NaN);
+            }
+        }finally {
+            encoder.close();
+        }
+        return trail;
+    }
+
+    /**
+     * Parse every line of a well formed trail with String.split and Double.parseDouble.
+     */
+    private static List<Line> parseLines(File trail) throws IOException {
+        String content = new String(Files.readAllBytes(trail.toPath()), StandardCharsets.US_ASCII);
+        List<Line> lines = new ArrayList<>();
+        int start = 0;
+        while (start < content.length()){
+            int end = content.indexOf('\n', start);
+            String[] columns = content.substring(start, end).trim().split(",", -1);
+            Line line = new Line();
+            line.start = start;
+            line.lat = Double.parseDouble(columns[0]);
+            line.lon = Double.parseDouble(columns[1]);
+            line.time = Long.parseLong(columns[2]);
+            line.isStopped = columns[3].equals("Stopped");
+            line.predicted = columns.length < 5 || columns[4].isEmpty() ? TrailEncoder.NO_PREDICTION :
+                    columns[4].equals("Stopped") ? TrailEncoder.PREDICTED_STOPPED : TrailEncoder.PREDICTED_MOVING;
+            line.smoothedLat = columns.length < 7 ? Double.NaN : Double.parseDouble(columns[5]);
+            line.smoothedLon = columns.length < 7 ? Double.NaN : Double.parseDouble(columns[6]);
+            lines.add(line);
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private static int countLinesStartingBefore(List<Line> lines, long offset){
+        int count = 0;
+        while (count < lines.size() && lines.get(count).start < offset){
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Check the cursor reads lines [from, to) and nothing else.
+     */
+    private static void assertLines(List<Line> expected, int from, int to, MappedTrailReader.Cursor cursor)
+            throws IOException {
+        for (int i = from; i < to; i++) {
+            Line line = expected.get(i);
+            String at = "line " + i;
+            assertTrue(at, cursor.next());
+            assertEquals(at, line.start, cursor.getLineStart());
+            assertEquals(at, line.lat, cursor.getLat(), 0);
+            assertEquals(at, line.lon, cursor.getLon(), 0);
+            assertEquals(at, line.time, cursor.getTime());
+            assertEquals(at, line.isStopped, cursor.isStopped());
+            assertEquals(at, line.predicted, cursor.getPredicted());
+            assertEquals(at, line.smoothedLat, cursor.getSmoothedLat(), 0);
+            assertEquals(at, line.smoothedLon, cursor.getSmoothedLon(), 0);
+        }
+        assertTrue(!cursor.next());
+    }
+
+    private static class Line {
+        long start;
+        double lat;
+        double lon;
+        long time;
+        boolean isStopped;
+        byte predicted;
+        double smoothedLat;
+        double smoothedLon;
+    }
+
+}
@@ -0,0 +1,133 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the buckets of a {@link Metrics.Histogram}: exact below 64, contiguous and within 1/32 of their values
+ * above it (up to Long.MAX_VALUE), and that percentiles of recorded values are about the exact ones.
+ */
+public class MetricsTest {
+
+    private static final int SUB_BUCKETS = 1 << Metrics.Histogram.SUB_BUCKET_BITS;
+
+    private final Random random = new Random(47);
+
+    @Before
+    public void setUp(){
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown(){
+        Metrics.setEnabled(false);
+    }
+
+    @Test
+    public void smallValuesHaveABucketEach(){
+        for (long value = 0; value < 2 * SUB_BUCKETS; value++) {
+            int bucket = Metrics.Histogram.bucketOf(value);
+            assertEquals("value " + value, value, bucket);
+            assertEquals("value " + value, value, Metrics.Histogram.middleOf(bucket));
+        }
+        //from 64 buckets are two wide
+        assertEquals(64, Metrics.Histogram.bucketOf(64));
+        assertEquals(64, Metrics.Histogram.bucketOf(65));
+        assertEquals(65, Metrics.Histogram.bucketOf(66));
+        assertEquals(65, Metrics.Histogram.middleOf(64));
+    }
+
+    @Test
+    public void bucketsAreContiguousUpToTheBiggestValue(){
+        int last = Metrics.Histogram.bucketOf(Long.MAX_VALUE);
+        long lowest = 0;
+        for (int bucket = 0; bucket <= last; bucket++) {
+            long next = bucket == last ? Long.MAX_VALUE : lowestOf(bucket + 1);
+            long highest = bucket == last ? Long.MAX_VALUE : next - 1;
+            String at = "bucket " + bucket;
+            assertTrue(at, lowest <= highest);
+            assertEquals(at, bucket, Metrics.Histogram.bucketOf(lowest));
+            assertEquals(at, bucket, Metrics.Histogram.bucketOf(highest));
+            long middle = Metrics.Histogram.middleOf(bucket);
+            assertTrue(at, lowest <= middle && middle <= highest);
+            assertEquals(at, bucket, Metrics.Histogram.bucketOf(middle));
+            //a bucket is at most 1/32 of its values wide
+            assertTrue(at, highest - lowest <= lowest / SUB_BUCKETS);
+            lowest = next;
+        }
+        assertEquals(Long.MAX_VALUE - (1L << 57) + 1, lowestOf(last));
+    }
+
+    @Test
+    public void percentilesAreCloseToTheExactOnes(){
+        Metrics.Histogram histogram = Metrics.histogram("test.percentiles");
+        histogram.reset();
+        int n = 100000;
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            //spread over many powers of two
+            values[i] = (long) Math.pow(2, random.nextDouble() * 40);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(n, histogram.getCount());
+        assertEquals(values[n - 1], histogram.getMax());
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * n) - 1];
+            long estimate = histogram.getPercentile(percentile);
+            assertTrue("p" + percentile + " " + estimate + " vs " + exact,
+                    Math.abs(estimate - exact) <= Math.max(1, exact / SUB_BUCKETS));
+        }
+        //the top one is the max, not the middle of its bucket
+        assertEquals(values[n - 1], histogram.getPercentile(100));
+    }
+
+    @Test
+    public void extremesAreCounted(){
+        Metrics.Histogram histogram = Metrics.histogram("test.extremes");
+        histogram.reset();
+        histogram.record(-5);
+        histogram.record(31);
+        histogram.record(32);
+        histogram.record(33);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(5, histogram.getCount());
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        //the negative value counts as 0
+        assertEquals(0, histogram.getPercentile(20));
+        assertEquals(31, histogram.getPercentile(40));
+        assertEquals(32, histogram.getPercentile(60));
+        assertEquals(33, histogram.getPercentile(80));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+
+        //nothing is recorded while disabled
+        Metrics.setEnabled(false);
+        histogram.record(1);
+        assertEquals(5, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertTrue(Double.isNaN(histogram.getMean()));
+    }
+
+    //private methods
+
+    /**
+     * @return The smallest value counted in the bucket.
+     */
+    private static long lowestOf(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+}
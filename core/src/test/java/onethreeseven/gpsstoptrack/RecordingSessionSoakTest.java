@@ -0,0 +1,94 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs hundreds of recording sessions through one {@link FixTracker} (as one service lifetime would)
+ * and checks each fix is only ever consumed by the current session's consumers, once each,
+ * and that closing a session leaves no consumers (or their threads) behind.
+ */
+public class RecordingSessionSoakTest {
+
+    private static final int SESSIONS = 500;
+    private static final int FIXES_PER_SESSION = 40;
+    private static final int CONSUMERS_PER_SESSION = 3;
+
+    @Test
+    public void perFixWorkStaysConstantAcrossSessions() {
+        FixTracker tracker = new FixTracker();
+        Fix fix = new Fix();
+        long time = 1480000000000L;
+        int baselineThreads = countBusThreads();
+        CountingConsumer[] previousConsumers = null;
+        long[] previousCounts = null;
+
+        for (int s = 0; s < SESSIONS; s++) {
+            RecordingSession session = new RecordingSession(tracker);
+            CountingConsumer[] consumers = new CountingConsumer[CONSUMERS_PER_SESSION];
+            Subscription[] subscriptions = new Subscription[CONSUMERS_PER_SESSION];
+            for (int c = 0; c < CONSUMERS_PER_SESSION; c++) {
+                consumers[c] = new CountingConsumer();
+                subscriptions[c] = session.subscribe(consumers[c]);
+            }
+            assertEquals("Consumers subscribed in session " + s, CONSUMERS_PER_SESSION, tracker.getConsumerCount());
+
+            //a fix every recording interval, so each one is reported
+            for (int i = 0; i < FIXES_PER_SESSION; i++) {
+                time += 1000;
+                tracker.onFix(fix.set(-37.8, 144.9, time, 5, Fix.Provider.GPS));
+            }
+            session.close();
+
+            assertEquals("Consumers left after session " + s, 0, tracker.getConsumerCount());
+            long published = subscriptions[0].getChannel().getPublished();
+            //the very first fix only starts the first interval
+            assertEquals("Fixes sent in session " + s, s == 0 ? FIXES_PER_SESSION - 1 : FIXES_PER_SESSION, published);
+            for (int c = 0; c < CONSUMERS_PER_SESSION; c++) {
+                assertFalse(subscriptions[c].isActive());
+                assertEquals("Fixes published to consumer " + c + " of session " + s,
+                        published, subscriptions[c].getChannel().getPublished());
+                assertEquals("Fixes consumed by consumer " + c + " of session " + s, published, consumers[c].count);
+            }
+            //the last session's consumers got nothing from this one
+            if(previousConsumers != null){
+                for (int c = 0; c < CONSUMERS_PER_SESSION; c++) {
+                    assertEquals("Fixes consumed by an old consumer during session " + s,
+                            previousCounts[c], previousConsumers[c].count);
+                }
+            }
+            assertEquals("Consumer threads left after session " + s, baselineThreads, countBusThreads());
+
+            previousConsumers = consumers;
+            previousCounts = new long[CONSUMERS_PER_SESSION];
+            for (int c = 0; c < CONSUMERS_PER_SESSION; c++) {
+                previousCounts[c] = consumers[c].count;
+            }
+        }
+    }
+
+    private static int countBusThreads(){
+        int n = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(thread.isAlive() && thread.getName().startsWith("FixBus-")){
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private static final class CountingConsumer implements LocationConsumer {
+
+        //only written by the consumer's thread, read once it has been unsubscribed (joined)
+        private long count = 0;
+
+        @Override
+        public void consume(Fix fix) {
+            count++;
+        }
+
+    }
+
+}
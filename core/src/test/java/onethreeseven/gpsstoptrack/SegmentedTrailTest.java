@@ -0,0 +1,220 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes segmented trails with {@link SegmentedTrailEncoder} and reads them back with {@link SegmentedTrailReader}:
+ * the entries, the segments and the per-index lookups match what was written, also when the trail was cut off.
+ */
+public class SegmentedTrailTest {
+
+    private static final long START_TIME = 1490000000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Random random = new Random(17);
+
+    @Test
+    public void entriesAndSegmentsRoundTrip() throws IOException {
+        File trail = tmp.newFile("trail_1.sgt");
+        SegmentedTrailEncoder encoder = newEncoder(trail);
+        List<double[]> written = writeRandomEntries(encoder, 3000);
+        encoder.close();
+        assertEquals(written.size(), encoder.getFixCount());
+
+        //the runs of the same state, as {stopped, startTime, endTime, firstIndex, lastIndex}
+        List<long[]> runs = runsOf(written, written.size());
+        assertTrue(runs.size() > 10);
+        assertEquals(runs.size(), encoder.getSegmentCount());
+
+        SegmentedTrailReader reader = new SegmentedTrailReader(trail);
+        try{
+            assertSegments(reader, runs);
+            long stoppedMillis = 0;
+            long movingMillis = 0;
+            for (long[] run : runs) {
+                if(run[0] == 1){
+                    stoppedMillis += run[2] - run[1];
+                }else{
+                    movingMillis += run[2] - run[1];
+                }
+            }
+            assertEquals(stoppedMillis, reader.getStoppedMillis());
+            assertEquals(movingMillis, reader.getMovingMillis());
+
+            int run = 0;
+            for (int i = 0; i < written.size(); i++) {
+                while (i > runs.get(run)[4]){
+                    run++;
+                }
+                assertEquals(run, reader.segmentOf(i));
+                assertEquals(written.get(i)[3] == 1, reader.isStopped(i));
+            }
+            assertEquals(-1, reader.segmentOf(written.size()));
+
+            assertEntries(reader, written);
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void cutOffTrailGivesTheLastEntriesTheOtherState() throws IOException {
+        File trail = tmp.newFile("trail_2.sgt");
+        SegmentedTrailEncoder encoder = newEncoder(trail);
+        List<double[]> written = writeRandomEntries(encoder, 500);
+        //as if the process died: flushed but never closed, and half a line after it
+        encoder.flush();
+        FileOutputStream out = new FileOutputStream(trail, true);
+        try{
+            out.write("-37.81,144.9".getBytes());
+        }finally {
+            out.close();
+        }
+
+        List<long[]> allRuns = runsOf(written, written.size());
+        int lastRunFirst = (int) allRuns.get(allRuns.size() - 1)[3];
+        //the last run's segment was never written
+        List<long[]> runs = runsOf(written, lastRunFirst);
+        SegmentedTrailReader reader = new SegmentedTrailReader(trail);
+        try{
+            assertSegments(reader, runs);
+            boolean lastStopped = written.get(written.size() - 1)[3] == 1;
+            assertEquals(-1, reader.segmentOf(lastRunFirst));
+            assertEquals(lastStopped, reader.isStopped(lastRunFirst));
+            //the cut off line is skipped
+            assertEntries(reader, written);
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void trailWithoutSegmentsIsMoving() throws IOException {
+        File trail = tmp.newFile("trail_3.sgt");
+        SegmentedTrailEncoder encoder = newEncoder(trail);
+        encoder.write(-37.8, 144.9, START_TIME, true, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        encoder.close();
+        assertTrue(SegmentedTrailEncoder.segmentsFileOf(trail).delete());
+
+        SegmentedTrailReader reader = new SegmentedTrailReader(trail);
+        try{
+            assertEquals(0, reader.getSegmentCount());
+            assertEquals(0, reader.getStoppedMillis());
+            assertTrue(reader.next());
+            assertTrue(!reader.isStopped());
+            assertTrue(!reader.next());
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void segmentsFileIsNextToTheTrail(){
+        File trail = new File(tmp.getRoot(), "trail_123.sgt");
+        assertEquals(new File(tmp.getRoot(), "trail_123.seg").getAbsoluteFile(),
+                SegmentedTrailEncoder.segmentsFileOf(trail));
+    }
+
+    //private methods
+
+    private static SegmentedTrailEncoder newEncoder(File trail) throws IOException {
+        return new SegmentedTrailEncoder(new FileOutputStream(trail),
+                new FileOutputStream(SegmentedTrailEncoder.segmentsFileOf(trail)));
+    }
+
+    /**
+     * Write entries in runs of the same movement state, some predicted and some smoothed.
+     * @return The entries written, as {lat, lon, time, stopped, predicted, smoothedLat, smoothedLon}.
+     */
+    private List<double[]> writeRandomEntries(TrailEncoder encoder, int nEntries) throws IOException {
+        List<double[]> written = new ArrayList<>();
+        boolean isStopped = random.nextBoolean();
+        long time = START_TIME;
+        for (int i = 0; i < nEntries; i++) {
+            if(random.nextInt(50) == 0){
+                isStopped = !isStopped;
+            }
+            //some entries at the same time
+            time += random.nextInt(3) * 1000L;
+            double lat = -37.8 + (random.nextDouble() - 0.5) * 0.01;
+            double lon = 144.9 + (random.nextDouble() - 0.5) * 0.01;
+            byte predicted = (byte) (random.nextInt(3) - 1);
+            boolean smoothed = random.nextBoolean();
+            double smoothedLat = smoothed ? lat + 1e-5 : Double.NaN;
+            double smoothedLon = smoothed ? lon - 1e-5 : Double.NaN;
+            encoder.write(lat, lon, time, isStopped, predicted, smoothedLat, smoothedLon);
+            written.add(new double[]{lat, lon, time, isStopped ? 1 : 0, predicted, smoothedLat, smoothedLon});
+        }
+        return written;
+    }
+
+    /**
+     * @return The runs of the same state in the first nEntries entries,
+     * as {stopped, startTime, endTime, firstIndex, lastIndex}.
+     */
+    private static List<long[]> runsOf(List<double[]> written, int nEntries){
+        List<long[]> runs = new ArrayList<>();
+        for (int i = 0; i < nEntries; i++) {
+            long stopped = (long) written.get(i)[3];
+            long time = (long) written.get(i)[2];
+            long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if(last == null || last[0] != stopped){
+                runs.add(new long[]{stopped, time, time, i, i});
+            }else{
+                last[2] = time;
+                last[4] = i;
+            }
+        }
+        return runs;
+    }
+
+    private static void assertSegments(SegmentedTrailReader reader, List<long[]> runs){
+        assertEquals(runs.size(), reader.getSegmentCount());
+        for (int i = 0; i < runs.size(); i++) {
+            long[] run = runs.get(i);
+            assertEquals(run[0] == 1, reader.isSegmentStopped(i));
+            assertEquals(run[1], reader.getSegmentStartTime(i));
+            assertEquals(run[2], reader.getSegmentEndTime(i));
+            assertEquals(run[3], reader.getSegmentFirstIndex(i));
+            assertEquals(run[4], reader.getSegmentLastIndex(i));
+        }
+    }
+
+    /**
+     * Read every entry, checking them against those written.
+     */
+    private static void assertEntries(SegmentedTrailReader reader, List<double[]> written) throws IOException {
+        for (int i = 0; i < written.size(); i++) {
+            double[] entry = written.get(i);
+            assertTrue(reader.next());
+            assertEquals(i, reader.getFixIndex());
+            assertEquals(entry[0], reader.getLat(), 1e-6);
+            assertEquals(entry[1], reader.getLon(), 1e-6);
+            assertEquals((long) entry[2], reader.getTime());
+            assertEquals("entry " + i, entry[3] == 1, reader.isStopped());
+            assertEquals((byte) entry[4], reader.getPredicted());
+            if(Double.isNaN(entry[5])){
+                assertTrue(Double.isNaN(reader.getSmoothedLat()) && Double.isNaN(reader.getSmoothedLon()));
+            }else{
+                assertEquals(entry[5], reader.getSmoothedLat(), 1e-6);
+                assertEquals(entry[6], reader.getSmoothedLon(), 1e-6);
+            }
+        }
+        assertTrue(!reader.next());
+    }
+
+}
@@ -0,0 +1,153 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the time weighting of {@link AccuracyWeightedStrategy} varies smoothly with how far a fix is from
+ * an interval after the last report, and which fix each strategy has {@link FixSelector} report out of the
+ * same few fixes.
+ */
+public class SelectionStrategyTest {
+
+    private static final double LAT = -37.8;
+    private static final double LON = 144.9;
+    private static final long START_TIME = 1490000000000L;
+    private static final long INTERVAL = 10000;
+
+    @Test
+    public void timeWeightingIsContinuous(){
+        AccuracyWeightedStrategy strategy = new AccuracyWeightedStrategy();
+        Fix lastReported = new Fix().set(LAT, LON, START_TIME, 5, Fix.Provider.GPS);
+        Fix fix = new Fix();
+        double lastScore = Double.NaN;
+        for (long delta = 0; delta <= 2 * INTERVAL; delta += 100) {
+            fix.set(LAT, LON, START_TIME + delta, 10, Fix.Provider.GPS);
+            double score = strategy.score(fix, fix.getTime(), lastReported, INTERVAL);
+            assertEquals("delta " + delta, 10 * (1 + Math.abs(1 - (double) delta / INTERVAL)), score, 1e-9);
+            //better up to an interval after the last report, worse after it
+            if(delta > 0){
+                assertTrue("delta " + delta, delta <= INTERVAL ? score < lastScore : score > lastScore);
+            }
+            lastScore = score;
+        }
+        //half an interval early or late counts the accuracy 1.5x
+        fix.set(LAT, LON, START_TIME + INTERVAL / 2, 10, Fix.Provider.GPS);
+        assertEquals(15, strategy.score(fix, fix.getTime(), lastReported, INTERVAL), 1e-9);
+        fix.set(LAT, LON, START_TIME + INTERVAL * 3 / 2, 10, Fix.Provider.GPS);
+        assertEquals(15, strategy.score(fix, fix.getTime(), lastReported, INTERVAL), 1e-9);
+    }
+
+    @Test
+    public void accuracyWeightedPicksTheAccurateFixNearTheInterval(){
+        FixSelector selector = selector(new AccuracyWeightedStrategy());
+        Fix reported = offer(selector, new Fix[]{
+                fix(0, 5, Fix.Provider.GPS),
+                fix(2000, 6, Fix.Provider.GPS),
+                //scores 8 * 1.1, truncating the time weighting scored it 8 * 2 and picked the last
+                fix(9000, 8, Fix.Provider.GPS),
+                fix(INTERVAL, 9.5f, Fix.Provider.GPS)
+        });
+        assertEquals(START_TIME + 9000, reported.getTime());
+    }
+
+    @Test
+    public void providerAwarePicksGpsUnlessItIsMuchWorse(){
+        FixSelector selector = selector(new ProviderAwareStrategy());
+        Fix reported = offer(selector, new Fix[]{
+                fix(0, 5, Fix.Provider.GPS),
+                fix(9000, 8, Fix.Provider.NETWORK),
+                fix(INTERVAL, 9.5f, Fix.Provider.GPS)
+        });
+        assertEquals(START_TIME + INTERVAL, reported.getTime());
+        assertEquals(Fix.Provider.GPS, reported.getProvider());
+
+        //indoors, the next interval's GPS fix is far worse than the network one
+        reported = offer(selector, new Fix[]{
+                fix(INTERVAL + 9000, 3, Fix.Provider.NETWORK),
+                fix(2 * INTERVAL, 60, Fix.Provider.GPS)
+        });
+        assertEquals(START_TIME + INTERVAL + 9000, reported.getTime());
+        assertEquals(Fix.Provider.NETWORK, reported.getProvider());
+    }
+
+    @Test
+    public void recencyWeightedPicksTheNewestUnlessAnOlderIsMuchMoreAccurate(){
+        FixSelector selector = selector(new RecencyWeightedStrategy(2));
+        //scores 10 + 2 * 5 against the newest's 15
+        Fix reported = offer(selector, new Fix[]{
+                fix(0, 30, Fix.Provider.GPS),
+                fix(5000, 10, Fix.Provider.GPS),
+                fix(INTERVAL, 15, Fix.Provider.GPS)
+        });
+        assertEquals(START_TIME + INTERVAL, reported.getTime());
+
+        //scores 3 + 2 * 5 against the newest's 15
+        reported = offer(selector, new Fix[]{
+                fix(INTERVAL + 5000, 3, Fix.Provider.GPS),
+                fix(2 * INTERVAL, 15, Fix.Provider.GPS)
+        });
+        assertEquals(START_TIME + INTERVAL + 5000, reported.getTime());
+    }
+
+    @Test
+    public void kalmanReportsAnEstimateWeightedByAccuracy(){
+        KalmanSelectionStrategy strategy = new KalmanSelectionStrategy();
+        FixSelector selector = selector(strategy);
+        Fix outlier = fix(5000, 100, Fix.Provider.NETWORK);
+        outlier.set(LAT + 0.01, LON + 0.01, outlier.getTime(), outlier.getAccuracy(), outlier.getProvider());
+        Fix reported = offer(selector, new Fix[]{
+                fix(0, 4, Fix.Provider.GPS),
+                outlier,
+                fix(INTERVAL, 4, Fix.Provider.GPS)
+        });
+        //not any one fix: at the newest's time, barely moved by the inaccurate one and more accurate than either
+        assertEquals(START_TIME + INTERVAL, reported.getTime());
+        assertEquals(LAT, reported.getLat(), 0.01 * 0.01);
+        assertEquals(LON, reported.getLon(), 0.01 * 0.01);
+        assertTrue(reported.getLat() != LAT);
+        assertTrue(reported.getAccuracy() < 4);
+
+        //reset forgets the estimate, so only the fixes after it count
+        selector.reset();
+        Fix moved = fix(3 * INTERVAL, 20, Fix.Provider.GPS);
+        moved.set(LAT + 1, LON, moved.getTime(), moved.getAccuracy(), moved.getProvider());
+        selector.onFix(moved);
+        reported = selector.onFix(fix(4 * INTERVAL, 20, Fix.Provider.GPS));
+        assertTrue(reported != null);
+        //about halfway, as both fixes are as accurate (the estimate's variance grew a little in between)
+        assertEquals(LAT + 0.5, reported.getLat(), 0.02);
+    }
+
+    //private methods
+
+    private static FixSelector selector(SelectionStrategy strategy){
+        FixSelector selector = new FixSelector();
+        selector.setReportingInterval(INTERVAL);
+        selector.setStrategy(strategy);
+        return selector;
+    }
+
+    /**
+     * @return A fix at the given millis after the start.
+     */
+    private static Fix fix(long millis, float accuracy, Fix.Provider provider){
+        return new Fix().set(LAT, LON, START_TIME + millis, accuracy, provider);
+    }
+
+    /**
+     * Offer the fixes, checking only the last one makes the selector report.
+     * @return A copy of the fix reported.
+     */
+    private static Fix offer(FixSelector selector, Fix[] fixes){
+        for (int i = 0; i < fixes.length - 1; i++) {
+            assertEquals(null, selector.onFix(fixes[i]));
+        }
+        Fix reported = selector.onFix(fixes[fixes.length - 1]);
+        assertTrue(reported != null);
+        return new Fix().set(reported);
+    }
+
+}
@@ -0,0 +1,196 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link SimplifyingTrailEncoder} keeps a subset of the entries from which every dropped one can be
+ * interpolated to within max error, that it keeps both sides of a state change, and that its window is bounded.
+ */
+public class SimplifyingTrailEncoderTest {
+
+    private static final double START_LAT = -37.8136;
+    private static final double START_LON = 144.9631;
+    private static final long START_TIME = 1490000000000L;
+
+    @Test
+    public void droppedEntriesAreWithinMaxErrorOfTheKeptOnes() throws IOException {
+        for (double maxError : new double[]{1, 5, 20}) {
+            List<Entry> written = new ArrayList<>();
+            RecordingEncoder recorder = new RecordingEncoder();
+            SimplifyingTrailEncoder encoder = new SimplifyingTrailEncoder(recorder, maxError);
+            SyntheticFixSource source = new SyntheticFixSource(START_LAT, START_LON, START_TIME, 1000,
+                    TimeUnit.HOURS.toMillis(1), 7);
+            Fix fix = new Fix();
+            while (source.next(fix)){
+                Entry entry = new Entry(fix.getLat(), fix.getLon(), fix.getTime(), source.isStopped(),
+                        TrailEncoder.NO_PREDICTION);
+                written.add(entry);
+                encoder.write(entry.lat, entry.lon, entry.time, entry.isStopped, entry.predicted, Double.NaN, Double.NaN);
+            }
+            encoder.close();
+            List<Entry> kept = recorder.entries;
+
+            assertEquals(written.size(), encoder.getFixesIn());
+            assertEquals(kept.size(), encoder.getFixesOut());
+            //something was dropped, or the bound wasn't tested
+            assertTrue(kept.size() < written.size());
+            assertEquals(written.get(0).time, kept.get(0).time);
+            assertEquals(written.get(written.size() - 1).time, kept.get(kept.size() - 1).time);
+
+            double worst = 0;
+            double sum = 0;
+            int next = 0;
+            for (int i = 0; i < written.size(); i++) {
+                Entry entry = written.get(i);
+                if(entry.time == kept.get(next).time){
+                    assertEquals(entry, kept.get(next));
+                    next++;
+                    continue;
+                }
+                double error = interpolationError(kept.get(next - 1), kept.get(next), entry);
+                assertTrue("entry " + i + " is " + error + "m off", error <= maxError);
+                worst = Math.max(worst, error);
+                sum += error;
+            }
+            assertEquals(kept.size(), next);
+            assertEquals(worst, encoder.getMaxError(), 1e-9);
+            assertEquals(sum / (written.size() - kept.size()), encoder.getMeanError(), 1e-9);
+        }
+    }
+
+    @Test
+    public void bothSidesOfAStateChangeAreKept() throws IOException {
+        RecordingEncoder recorder = new RecordingEncoder();
+        SimplifyingTrailEncoder encoder = new SimplifyingTrailEncoder(recorder, 10);
+        //a straight line, so only the state changes (and the ends) are worth keeping
+        for (int i = 0; i < 100; i++) {
+            boolean isStopped = i >= 40 && i < 60;
+            byte predicted = i >= 70 ? TrailEncoder.PREDICTED_STOPPED : TrailEncoder.PREDICTED_MOVING;
+            encoder.write(START_LAT + i * 1e-5, START_LON, START_TIME + i * 1000L, isStopped, predicted,
+                    Double.NaN, Double.NaN);
+        }
+        encoder.close();
+        assertKeptTimes(recorder, 0, 39, 40, 59, 60, 69, 70, 99);
+    }
+
+    @Test
+    public void straightLineIsCutOnlyByTheMaxWindow() throws IOException {
+        RecordingEncoder recorder = new RecordingEncoder();
+        SimplifyingTrailEncoder encoder = new SimplifyingTrailEncoder(recorder, 10, 8);
+        for (int i = 0; i < 100; i++) {
+            encoder.write(START_LAT + i * 1e-5, START_LON, START_TIME + i * 1000L, false,
+                    TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        }
+        //the entries after the last cut are held back until close
+        assertEquals(13, encoder.getFixesOut());
+        encoder.close();
+        assertKeptTimes(recorder, 0, 8, 16, 24, 32, 40, 48, 56, 64, 72, 80, 88, 96, 99);
+        assertEquals(100.0 / 14, encoder.getCompressionRatio(), 1e-9);
+        assertEquals(0, encoder.getMaxError(), 1e-6);
+    }
+
+    @Test
+    public void nothingWrittenMeansNothingDropped() throws IOException {
+        RecordingEncoder recorder = new RecordingEncoder();
+        SimplifyingTrailEncoder encoder = new SimplifyingTrailEncoder(recorder, 10);
+        encoder.close();
+        assertEquals(0, recorder.entries.size());
+        assertTrue(recorder.closed);
+        assertEquals(1, encoder.getCompressionRatio(), 0);
+        assertTrue(Double.isNaN(encoder.getMeanError()));
+    }
+
+    //private methods
+
+    /**
+     * @return How far (meters) the entry is from where it is interpolated at its time between the kept entries,
+     * projected around the first one like the encoder.
+     */
+    private static double interpolationError(Entry from, Entry to, Entry entry){
+        double ratio = (double) (entry.time - from.time) / (to.time - from.time);
+        double dLat = (from.lat + ratio * (to.lat - from.lat) - entry.lat) * Geo.metersPerDegreeLat();
+        double dLon = (from.lon + ratio * (to.lon - from.lon) - entry.lon) * Geo.metersPerDegreeLon(from.lat);
+        return Math.sqrt(dLat * dLat + dLon * dLon);
+    }
+
+    /**
+     * @param seconds The seconds after START_TIME of every entry that should have been kept.
+     */
+    private static void assertKeptTimes(RecordingEncoder recorder, int... seconds){
+        assertEquals(seconds.length, recorder.entries.size());
+        for (int i = 0; i < seconds.length; i++) {
+            assertEquals(START_TIME + seconds[i] * 1000L, recorder.entries.get(i).time);
+        }
+    }
+
+    private static class Entry {
+
+        final double lat;
+        final double lon;
+        final long time;
+        final boolean isStopped;
+        final byte predicted;
+
+        Entry(double lat, double lon, long time, boolean isStopped, byte predicted) {
+            this.lat = lat;
+            this.lon = lon;
+            this.time = time;
+            this.isStopped = isStopped;
+            this.predicted = predicted;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Entry)){
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return lat == entry.lat && lon == entry.lon && time == entry.time &&
+                    isStopped == entry.isStopped && predicted == entry.predicted;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (time ^ (time >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return lat + "," + lon + "," + time + "," + isStopped + "," + predicted;
+        }
+    }
+
+    /**
+     * Keeps the entries written to it in memory.
+     */
+    private static class RecordingEncoder implements TrailEncoder {
+
+        final List<Entry> entries = new ArrayList<>();
+        boolean closed = false;
+
+        @Override
+        public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                          double smoothedLat, double smoothedLon) {
+            assertTrue("Written after close", !closed);
+            entries.add(new Entry(lat, lon, time, isStopped, predicted));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link SlidingWindowStopDetector} against a brute force window over the same fixes,
+ * and both detectors on someone standing still and someone walking. {@link SpeedStopDetector} started
+ * partway through a trail predicts the same as one started at the beginning once it has caught up.
+ */
+public class StopDetectorTest {
+
+    private static final double START_LAT = -37.8136;
+    private static final double START_LON = 144.9631;
+    private static final long START_TIME = 1490000000000L;
+
+    @Test
+    public void slidingWindowMatchesBruteForce(){
+        SlidingWindowStopDetector detector = new SlidingWindowStopDetector(30, 60 * 1000L, 4096);
+        assertMatchesBruteForce(detector, 30, 60 * 1000L, 1);
+        //and again after a reset, with a different projection origin
+        detector.reset();
+        assertMatchesBruteForce(detector, 30, 60 * 1000L, 2);
+    }
+
+    @Test
+    public void slidingWindowStopsOnlyOnceStillForMinDuration(){
+        SlidingWindowStopDetector detector = new SlidingWindowStopDetector(50, 3 * 60 * 1000L, 1024);
+        Fix fix = new Fix();
+        for (int i = 0; i < 600; i++) {
+            //a few meters of jitter
+            double jitter = (i % 7 - 3) * 1e-5;
+            boolean stopped = detector.onFix(fix.set(START_LAT + jitter, START_LON - jitter, START_TIME + i * 1000L,
+                    5, Fix.Provider.GPS));
+            assertEquals("fix " + i, i >= 180, stopped);
+        }
+    }
+
+    @Test
+    public void slidingWindowNeverStopsWhileWalking(){
+        SlidingWindowStopDetector detector = new SlidingWindowStopDetector();
+        Fix fix = new Fix();
+        for (int i = 0; i < 3600; i++) {
+            //1.4m/s north
+            double lat = START_LAT + i * 1.4 / Geo.metersPerDegreeLat();
+            assertTrue(!detector.onFix(fix.set(lat, START_LON, START_TIME + i * 1000L, 5, Fix.Provider.GPS)));
+        }
+    }
+
+    @Test
+    public void fullWindowIsShortenedSoNeverSpansMinDuration(){
+        //8 fixes only span 7s of the minute needed
+        SlidingWindowStopDetector detector = new SlidingWindowStopDetector(50, 60 * 1000L, 8);
+        Fix fix = new Fix();
+        for (int i = 0; i < 300; i++) {
+            assertTrue(!detector.onFix(fix.set(START_LAT, START_LON, START_TIME + i * 1000L, 5, Fix.Provider.GPS)));
+        }
+    }
+
+    @Test
+    public void speedDetectorStopsAfterTheFirstBaseline(){
+        SpeedStopDetector detector = new SpeedStopDetector();
+        //the first baseline ends on the first multiple of 30s at least 30s on (40s, START_TIME is 20s past one)
+        int firstBaselineEnd = 40;
+        Fix fix = new Fix();
+        for (int i = 0; i < 300; i++) {
+            boolean stopped = detector.onFix(fix.set(START_LAT, START_LON, START_TIME + i * 1000L, 5, Fix.Provider.GPS));
+            //no speed until the first baseline has passed
+            assertEquals("fix " + i, i >= firstBaselineEnd, stopped);
+        }
+        //walking off, the smoothed speed goes over the threshold from the first whole baseline walked
+        double walked = 0;
+        for (int i = 300; i < 600; i++) {
+            walked += 1.4;
+            boolean stopped = detector.onFix(fix.set(START_LAT + walked / Geo.metersPerDegreeLat(), START_LON,
+                    START_TIME + i * 1000L, 5, Fix.Provider.GPS));
+            if(i >= 340){
+                assertTrue("fix " + i, !stopped);
+            }
+        }
+    }
+
+    @Test
+    public void speedDetectorForgetsWhereItStarted(){
+        //one detector from the start of a walk with stops, and one from a few minutes and seconds in
+        SyntheticFixSource source = new SyntheticFixSource(START_LAT, START_LON, START_TIME, 1000,
+                TimeUnit.HOURS.toMillis(2), 3);
+        SpeedStopDetector fromStart = new SpeedStopDetector();
+        SpeedStopDetector late = new SpeedStopDetector();
+        int lateStart = 5 * 60 + 17;
+        Fix fix = new Fix();
+        int stops = 0;
+        for (int i = 0; source.next(fix); i++) {
+            boolean stopped = fromStart.onFix(fix);
+            if(i >= lateStart){
+                boolean lateStopped = late.onFix(fix);
+                //once the late one has the same anchors and its average has forgotten the difference
+                if(i >= lateStart + 10 * 60){
+                    assertEquals("fix " + i, stopped, lateStopped);
+                }
+            }
+            if(stopped){
+                stops++;
+            }
+        }
+        assertTrue(stops > 0);
+    }
+
+    @Test
+    public void speedDetectorResetForgetsTheBaseline(){
+        SpeedStopDetector detector = new SpeedStopDetector();
+        Fix fix = new Fix();
+        for (int i = 0; i < 60; i++) {
+            detector.onFix(fix.set(START_LAT, START_LON, START_TIME + i * 1000L, 5, Fix.Provider.GPS));
+        }
+        detector.reset();
+        assertTrue(!detector.onFix(fix.set(START_LAT, START_LON, START_TIME + 60 * 1000L, 5, Fix.Provider.GPS)));
+    }
+
+    //private methods
+
+    /**
+     * Feed a synthetic walk with stops to the detector and check every prediction against working out the window
+     * (the fewest newest fixes spanning minDuration) and its bounding box from scratch.
+     */
+    private static void assertMatchesBruteForce(StopDetector detector, double radius, long minDuration, long seed){
+        SyntheticFixSource source = new SyntheticFixSource(START_LAT, START_LON, START_TIME, 1000,
+                TimeUnit.HOURS.toMillis(2), seed);
+        int capacity = 2 * 60 * 60;
+        double[] lats = new double[capacity];
+        double[] lons = new double[capacity];
+        long[] times = new long[capacity];
+        Fix fix = new Fix();
+        int n = 0;
+        int stops = 0;
+        while (source.next(fix)){
+            lats[n] = fix.getLat();
+            lons[n] = fix.getLon();
+            times[n] = fix.getTime();
+            n++;
+            boolean expected = bruteForceStopped(lats, lons, times, n, radius, minDuration);
+            assertEquals("fix " + (n - 1), expected, detector.onFix(fix));
+            if(expected){
+                stops++;
+            }
+        }
+        //the walk has stops, so both answers were checked
+        assertTrue(stops > 0 && stops < n);
+    }
+
+    private static boolean bruteForceStopped(double[] lats, double[] lons, long[] times, int n,
+                                             double radius, long minDuration){
+        long time = times[n - 1];
+        int oldest = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            if(times[i] <= time - minDuration){
+                oldest = i;
+                break;
+            }
+        }
+        if(time - times[oldest] < minDuration){
+            return false;
+        }
+        //projected around the first fix, like the detector
+        double metersPerDegreeLon = Geo.metersPerDegreeLon(lats[0]);
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = oldest; i < n; i++) {
+            double x = (lons[i] - lons[0]) * metersPerDegreeLon;
+            double y = (lats[i] - lats[0]) * Geo.metersPerDegreeLat();
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        double width = maxX - minX;
+        double height = maxY - minY;
+        return width * width + height * height <= 4 * radius * radius;
+    }
+
+}
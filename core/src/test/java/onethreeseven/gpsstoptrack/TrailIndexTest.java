@@ -0,0 +1,255 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link TrailIndex} queries find exactly what a brute force search of the trails finds,
+ * including near the antimeridian, and that adding trails one at a time gives the same index as building it.
+ */
+public class TrailIndexTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final int N_TRAILS = 6;
+    private static final int FIXES_PER_TRAIL = 400;
+    //trails wander around Melbourne, or either side of the antimeridian
+    private static final double[][] CENTRES = {{-37.8, 144.9}, {10.05, 180.0}};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+    private File trailsDir;
+    private File[] trailFiles;
+    //every fix's time and the centre of its grid cell, which is where the index puts it
+    private long[] times;
+    private double[] lats;
+    private double[] lons;
+
+    @Before
+    public void setUp() throws IOException {
+        trailsDir = tmp.getRoot();
+        trailFiles = new File[N_TRAILS];
+        times = new long[N_TRAILS * FIXES_PER_TRAIL];
+        lats = new double[times.length];
+        lons = new double[times.length];
+        for (int t = 0; t < N_TRAILS; t++) {
+            trailFiles[t] = new File(trailsDir, "trail_" + (START_TIME + t) + ".txt");
+            writeTrail(trailFiles[t], t, CENTRES[t % CENTRES.length], FIXES_PER_TRAIL);
+            TrailIndex.add(trailFiles[t]);
+        }
+    }
+
+    @Test
+    public void addingTrailsOneAtATimeMatchesBuilding() throws IOException {
+        File indexFile = new File(trailsDir, TrailIndex.FILE_NAME);
+        byte[] added = readAll(indexFile);
+        TrailIndex.build(trailsDir);
+        assertArrayEquals(added, readAll(indexFile));
+    }
+
+    @Test
+    public void indexingATrailAgainReplacesItsFixes() throws IOException {
+        writeTrail(trailFiles[2], 2, CENTRES[0], 50);
+        TrailIndex.add(trailFiles[2]);
+
+        TrailIndex index = new TrailIndex(new File(trailsDir, TrailIndex.FILE_NAME));
+        try{
+            assertEquals((N_TRAILS - 1) * FIXES_PER_TRAIL + 50, index.size());
+            assertEquals(N_TRAILS, index.getTrails().length);
+            TrailIndex.Hits hits = index.inBox(-90, -180, 90, 180);
+            int fixesOfTrail = 0;
+            for (int i = 0; i < hits.size(); i++) {
+                if(hits.getTrail(i).equals(trailFiles[2].getName())){
+                    fixesOfTrail++;
+                }
+            }
+            assertEquals(50, fixesOfTrail);
+        }finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void boxQueriesMatchBruteForce() throws IOException {
+        TrailIndex index = new TrailIndex(new File(trailsDir, TrailIndex.FILE_NAME));
+        try{
+            for (int q = 0; q < 200; q++) {
+                double[] centre = CENTRES[q % CENTRES.length];
+                double lat = centre[0] + (random.nextDouble() - 0.5) * 0.02;
+                double lon = wrap(centre[1] + (random.nextDouble() - 0.5) * 0.02);
+                double dLat = random.nextDouble() * 0.01;
+                double dLon = random.nextDouble() * 0.01;
+                //a box crossing the antimeridian has minLon > maxLon
+                assertBox(index, lat - dLat, wrap(lon - dLon), lat + dLat, wrap(lon + dLon));
+            }
+            assertBox(index, 10, 179.995, 10.1, -179.995);
+            assertBox(index, -90, -180, 90, 180);
+        }finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void radiusQueriesMatchBruteForce() throws IOException {
+        TrailIndex index = new TrailIndex(new File(trailsDir, TrailIndex.FILE_NAME));
+        try{
+            for (int q = 0; q < 200; q++) {
+                double[] centre = CENTRES[q % CENTRES.length];
+                double lat = centre[0] + (random.nextDouble() - 0.5) * 0.02;
+                double lon = wrap(centre[1] + (random.nextDouble() - 0.5) * 0.02);
+                assertRadius(index, lat, lon, random.nextDouble() * 1500);
+            }
+            //takes in every fix
+            assertRadius(index, 0, 0, Geo.EARTH_RADIUS_METERS * Math.PI);
+        }finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void nearestQueriesMatchBruteForce() throws IOException {
+        TrailIndex index = new TrailIndex(new File(trailsDir, TrailIndex.FILE_NAME));
+        try{
+            for (int q = 0; q < 200; q++) {
+                double[] centre = CENTRES[q % CENTRES.length];
+                double lat = centre[0] + (random.nextDouble() - 0.5) * 0.05;
+                double lon = wrap(centre[1] + (random.nextDouble() - 0.5) * 0.05);
+                assertNearest(index, lat, lon, 1 + random.nextInt(100));
+            }
+            //far from every fix, and more than there are
+            assertNearest(index, 60, 0, 5);
+            assertNearest(index, 10.05, -179.9999, times.length + 10);
+        }finally {
+            index.close();
+        }
+    }
+
+    //private methods
+
+    /**
+     * Write a random walk of fixes near the centre, remembering where the index will put them.
+     */
+    private void writeTrail(File trail, int trailNumber, double[] centre, int nFixes) throws IOException {
+        CsvTrailEncoder encoder = new CsvTrailEncoder(new FileOutputStream(trail));
+        double lat = centre[0];
+        double lon = centre[1];
+        for (int i = 0; i < nFixes; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-3;
+            lon = wrap(lon + (random.nextDouble() - 0.5) * 1e-3);
+            encoder.write(lat, lon, START_TIME + trailNumber * 10000000L + i * 1000L, i % 50 < 10,
+                    TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        }
+        encoder.close();
+
+        //read back, so the positions are what the trail holds
+        TrailFixSource source = new TrailFixSource(trail);
+        try{
+            Fix fix = new Fix();
+            int i = 0;
+            while (source.next(fix)){
+                int e = trailNumber * FIXES_PER_TRAIL + i++;
+                long key = HilbertCurve.key(fix.getLat(), fix.getLon());
+                times[e] = fix.getTime();
+                lats[e] = HilbertCurve.lat(key);
+                lons[e] = HilbertCurve.lon(key);
+            }
+            //fixes a shorter trail no longer has
+            for (; i < FIXES_PER_TRAIL; i++) {
+                times[trailNumber * FIXES_PER_TRAIL + i] = -1;
+            }
+        }finally {
+            source.close();
+        }
+    }
+
+    private void assertBox(TrailIndex index, double minLat, double minLon, double maxLat, double maxLon){
+        List<Long> expected = new ArrayList<>();
+        for (int e = 0; e < times.length; e++) {
+            boolean inLon = minLon > maxLon ? lons[e] >= minLon || lons[e] <= maxLon :
+                    lons[e] >= minLon && lons[e] <= maxLon;
+            if(lats[e] >= minLat && lats[e] <= maxLat && inLon){
+                expected.add(times[e]);
+            }
+        }
+        TrailIndex.Hits hits = index.inBox(minLat, minLon, maxLat, maxLon);
+        assertArrayEquals("box " + minLat + "," + minLon + " " + maxLat + "," + maxLon,
+                sorted(expected), sortedTimes(hits));
+    }
+
+    private void assertRadius(TrailIndex index, double lat, double lon, double meters){
+        List<Long> expected = new ArrayList<>();
+        for (int e = 0; e < times.length; e++) {
+            if(Geo.distanceMeters(lat, lon, lats[e], lons[e]) <= meters){
+                expected.add(times[e]);
+            }
+        }
+        TrailIndex.Hits hits = index.withinRadius(lat, lon, meters);
+        assertArrayEquals("radius " + meters + " of " + lat + "," + lon, sorted(expected), sortedTimes(hits));
+    }
+
+    private void assertNearest(TrailIndex index, double lat, double lon, int k){
+        double[] distances = new double[times.length];
+        for (int e = 0; e < times.length; e++) {
+            distances[e] = Geo.distanceMeters(lat, lon, lats[e], lons[e]);
+        }
+        Arrays.sort(distances);
+        TrailIndex.Hits hits = index.nearest(lat, lon, k);
+        assertEquals(Math.min(k, times.length), hits.size());
+        //ties could be either fix, so compare the distances
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals("nearest " + k + " to " + lat + "," + lon, distances[i], hits.getDistanceMeters(i), 0);
+            assertEquals(hits.getDistanceMeters(i),
+                    Geo.distanceMeters(lat, lon, hits.getLat(i), hits.getLon(i)), 0);
+        }
+    }
+
+    private static double wrap(double lon){
+        return lon > 180 ? lon - 360 : (lon < -180 ? lon + 360 : lon);
+    }
+
+    private static long[] sorted(List<Long> times){
+        long[] sorted = new long[times.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = times.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long[] sortedTimes(TrailIndex.Hits hits){
+        long[] sorted = new long[hits.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = hits.getTime(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try{
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        }finally {
+            raf.close();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link TrailQueue} hands entries over in order and doesn't get stuck on an entry the encoder fails on.
+ */
+public class TrailQueueTest {
+
+    @Test
+    public void drainsInOrderAcrossTheWrap() throws IOException {
+        TrailQueue queue = new TrailQueue(4);
+        RecordingEncoder encoder = new RecordingEncoder(-1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(i, i, 2 * i, false, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN));
+            assertTrue(queue.offer(i, i, 2 * i + 1, false, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN));
+            assertEquals(2, queue.drainTo(encoder, 8));
+        }
+        assertEquals(20, encoder.written);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void fullQueueRefusesEntries(){
+        TrailQueue queue = new TrailQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i, i, i, false, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN));
+        }
+        assertTrue(!queue.offer(4, 4, 4, false, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN));
+    }
+
+    @Test
+    public void failedEntryIsNotRetried() throws IOException {
+        TrailQueue queue = new TrailQueue(8);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(i, i, i, false, TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        }
+        RecordingEncoder encoder = new RecordingEncoder(2);
+        try{
+            queue.drainTo(encoder, 8);
+            fail("The encoder's exception should be passed on");
+        }catch (IOException expected){
+            //the two written and the one that failed are gone
+            assertEquals(3, queue.size());
+        }
+        encoder.failAt = -1;
+        assertEquals(3, queue.drainTo(encoder, 8));
+        assertEquals(5, encoder.written);
+        assertEquals(5, encoder.lastTime);
+    }
+
+    private static class RecordingEncoder implements TrailEncoder {
+
+        private int failAt;
+        private int written = 0;
+        private long lastTime = -1;
+
+        RecordingEncoder(int failAt){
+            this.failAt = failAt;
+        }
+
+        @Override
+        public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                          double smoothedLat, double smoothedLon) throws IOException {
+            if(time == failAt){
+                throw new IOException("No space left on device");
+            }
+            assertTrue(time > lastTime);
+            lastTime = time;
+            written++;
+        }
+
+        @Override
+        public void flush() {
+
+        }
+
+        @Override
+        public void close() {
+
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+package onethreeseven.gpsstoptrack;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link TrailWriter} only rotates sessions into chunks when asked to, and that the
+ * {@link TrailManifest} lists the chunks (including ones an interruption left out), and that what it has
+ * committed can be read before the trail is closed.
+ */
+public class TrailRotationTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final int COMMIT_EVERY_FIXES = 10;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private TrailWriter writer;
+    private File trailsDir;
+
+    @Before
+    public void setUp(){
+        writer = new TrailWriter(tmp.getRoot(), 1024, COMMIT_EVERY_FIXES, 60000L, false);
+        trailsDir = writer.getTrailsDir();
+    }
+
+    @Test
+    public void sessionIsOneTrailFileByDefault() throws IOException {
+        writer.newTrailFile(TrailFormat.CSV, 1);
+        writeCommitted(250);
+        File trail = writer.closeTrailFile();
+
+        assertNull(TrailManifest.sessionOf(trail));
+        assertEquals(writer.getSessionName() + ".txt", trail.getName());
+        assertEquals(250, countFixes(trail));
+        List<File> sessionFiles = writer.getSessionFiles();
+        assertEquals(1, sessionFiles.size());
+        assertEquals(trail, sessionFiles.get(0));
+        assertEquals(1, trailsDir.list().length);
+    }
+
+    @Test
+    public void rotatedSessionIsListedInItsManifest() throws IOException {
+        writer.setRotation(0, 0, 100);
+        writer.newTrailFile(TrailFormat.CSV, 1);
+        writeCommitted(350);
+        writer.closeTrailFile();
+
+        String session = writer.getSessionName();
+        File manifestFile = TrailManifest.manifestFileOf(trailsDir, session);
+        TrailManifest manifest = TrailManifest.read(manifestFile);
+        List<TrailManifest.Chunk> chunks = manifest.getChunks();
+        assertEquals(4, chunks.size());
+        assertEquals(350, manifest.getFixCount());
+        long[] fixCounts = {100, 100, 100, 50};
+        for (int i = 0; i < chunks.size(); i++) {
+            TrailManifest.Chunk chunk = chunks.get(i);
+            assertEquals(TrailManifest.chunkFileOf(trailsDir, session, i + 1, TrailFormat.CSV), chunk.getFile());
+            assertEquals(fixCounts[i], chunk.getFixCount());
+            assertEquals(fixCounts[i], countFixes(chunk.getFile()));
+            assertEquals(START_TIME + i * 100 * 1000L, chunk.getFirstTime());
+            assertEquals(START_TIME + (i * 100 + fixCounts[i] - 1) * 1000L, chunk.getLastTime());
+        }
+        //the 150th-210th fixes are in the 2nd and 3rd chunks
+        List<TrailManifest.Chunk> covering = manifest.chunksCovering(START_TIME + 150 * 1000L, START_TIME + 210 * 1000L);
+        assertEquals(2, covering.size());
+        assertEquals(chunks.get(1).getFile(), covering.get(0).getFile());
+        assertEquals(chunks.get(2).getFile(), covering.get(1).getFile());
+        //the chunks and the manifest
+        assertEquals(5, writer.getSessionFiles().size());
+        assertTrue(writer.getSessionFiles().contains(manifestFile));
+    }
+
+    @Test
+    public void rotationCanBeTurnedOffAgain() throws IOException {
+        writer.setRotation(0, 0, 100);
+        writer.setRotation(0, 0, 0);
+        writer.newTrailFile(TrailFormat.CSV, 1);
+        writeCommitted(250);
+        File trail = writer.closeTrailFile();
+
+        assertNull(TrailManifest.sessionOf(trail));
+        assertEquals(250, countFixes(trail));
+    }
+
+    @Test
+    public void committedFixesOfAnUnclosedBinaryTrailAreRead() throws IOException {
+        writer.newTrailFile(TrailFormat.BINARY, 1);
+        //far fewer than fill a block
+        writeCommitted(3 * COMMIT_EVERY_FIXES);
+        File trail = writer.getSessionFiles().get(0);
+        BinaryTrailReader reader = new BinaryTrailReader(trail);
+        try{
+            assertTrue(!reader.hasFooter());
+            //a block per commit
+            assertEquals(3, reader.getBlockCount());
+        }finally {
+            reader.close();
+        }
+        assertEquals(3 * COMMIT_EVERY_FIXES, countFixes(trail));
+
+        writer.closeTrailFile();
+        assertEquals(3 * COMMIT_EVERY_FIXES, countFixes(trail));
+    }
+
+    @Test
+    public void chunkNamesRoundTrip(){
+        File chunk = TrailManifest.chunkFileOf(trailsDir, "trail_123", 12, TrailFormat.JOURNAL);
+        assertEquals("trail_123_0012." + TrailFormat.JOURNAL.getFileExtension(), chunk.getName());
+        assertEquals("trail_123", TrailManifest.sessionOf(chunk));
+        assertEquals(12, TrailManifest.chunkNumberOf(chunk));
+        assertNull(TrailManifest.sessionOf(new File(trailsDir, "trail_123.txt")));
+        assertEquals(0, TrailManifest.chunkNumberOf(new File(trailsDir, "trail_123.txt")));
+        assertEquals(new File(trailsDir, "trail_123.manifest"), TrailManifest.manifestFileOf(trailsDir, "trail_123"));
+    }
+
+    @Test
+    public void unlistedChunksOfAnInterruptedSessionAreKept() throws IOException {
+        File manifestFile = TrailManifest.manifestFileOf(trailsDir, "trail_123");
+        File first = TrailManifest.chunkFileOf(trailsDir, "trail_123", 1, TrailFormat.CSV);
+        File second = TrailManifest.chunkFileOf(trailsDir, "trail_123", 2, TrailFormat.CSV);
+        File third = TrailManifest.chunkFileOf(trailsDir, "trail_123", 3, TrailFormat.CSV);
+        for (File chunk : new File[]{first, second, third}) {
+            assertTrue(chunk.createNewFile());
+        }
+        //another session's chunk isn't part of it
+        assertTrue(TrailManifest.chunkFileOf(trailsDir, "trail_456", 3, TrailFormat.CSV).createNewFile());
+        TrailManifest.append(manifestFile, first, 1000, 2000, 10);
+        //the second chunk's line was cut off by a crash
+        FileOutputStream out = new FileOutputStream(manifestFile, true);
+        out.write((second.getName() + ",2001,30").getBytes());
+        out.close();
+
+        TrailManifest manifest = TrailManifest.read(manifestFile);
+        List<TrailManifest.Chunk> chunks = manifest.getChunks();
+        assertEquals(3, chunks.size());
+        assertEquals(first, chunks.get(0).getFile());
+        assertEquals(second, chunks.get(1).getFile());
+        assertEquals(third, chunks.get(2).getFile());
+        //the unlisted ones cover everything after the last listed chunk
+        assertEquals(2000, chunks.get(1).getFirstTime());
+        assertEquals(Long.MAX_VALUE, chunks.get(2).getLastTime());
+        assertEquals(1, manifest.chunksCovering(0, 1500).size());
+        assertEquals(3, manifest.chunksCovering(1500, 5000).size());
+        assertEquals(10, manifest.getFixCount());
+    }
+
+    //private methods
+
+    /**
+     * Write the fixes a commit's worth at a time, waiting for each commit, so rotation happens at known fixes.
+     */
+    private void writeCommitted(int nFixes){
+        Fix fix = new Fix();
+        for (int i = 0; i < nFixes; i++) {
+            writer.write(fix.set(-37.8 + i * 1e-5, 144.9, START_TIME + i * 1000L, 5, Fix.Provider.GPS), false);
+            if((i + 1) % COMMIT_EVERY_FIXES == 0){
+                waitForCommittedFixes(i + 1);
+            }
+        }
+    }
+
+    private void waitForCommittedFixes(long fixes){
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writer.getCommittedFixes() < fixes){
+            assertTrue("Timed out waiting for the writer to commit", System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+    }
+
+    private static int countFixes(File trail) throws IOException {
+        TrailFixSource source = new TrailFixSource(trail);
+        try{
+            Fix fix = new Fix();
+            int fixes = 0;
+            while (source.next(fix)){
+                fixes++;
+            }
+            return fixes;
+        }finally {
+            source.close();
+        }
+    }
+
+}
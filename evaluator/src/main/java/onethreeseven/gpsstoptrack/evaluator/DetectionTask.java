@@ -0,0 +1,70 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import java.util.concurrent.RecursiveAction;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.StopDetector;
+
+/**
+ * Runs every algorithm over the fixes [from, to) of a trail, splitting long ranges into time segments
+ * that run in parallel. Each segment's detectors are first warmed up (predictions discarded) on the
+ * fixes within {@link #WARM_UP_MILLIS} before it, so as long as no detector looks further back than that,
+ * the predictions match running the whole trail through one detector (except, rarely, for fixes right
+ * at a detector's threshold, e.g. where a different projection origin rounds differently).
+ */
+final class DetectionTask extends RecursiveAction {
+
+    //fork/join tasks are Serializable, but these are never serialized
+    private static final long serialVersionUID = 1L;
+
+    static final long WARM_UP_MILLIS = 10 * 60 * 1000L;
+    static final int MIN_SEGMENT_FIXES = 8192;
+
+    private final Trail trail;
+    private final DetectorFactory[] algorithms;
+    private final boolean[][] predictions;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param predictions Per algorithm, an array the size of the trail to write the predictions into.
+     */
+    DetectionTask(Trail trail, DetectorFactory[] algorithms, boolean[][] predictions, int from, int to){
+        this.trail = trail;
+        this.algorithms = algorithms;
+        this.predictions = predictions;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if(to - from >= 2 * MIN_SEGMENT_FIXES){
+            int mid = (from + to) >>> 1;
+            invokeAll(new DetectionTask(trail, algorithms, predictions, from, mid),
+                    new DetectionTask(trail, algorithms, predictions, mid, to));
+            return;
+        }
+        int warmUpFrom = from == 0 ? 0 : Math.min(from, trail.indexAtOrAfter(trail.getTime(from) - WARM_UP_MILLIS));
+        Fix fix = new Fix();
+        for (int a = 0; a < algorithms.length; a++) {
+            StopDetector detector = algorithms[a].newDetector();
+            boolean[] predicted = predictions[a];
+            for (int i = warmUpFrom; i < from; i++) {
+                detector.onFix(toFix(i, fix));
+            }
+            for (int i = from; i < to; i++) {
+                predicted[i] = detector.onFix(toFix(i, fix));
+            }
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private Fix toFix(int i, Fix fix){
+        return fix.set(trail.getLat(i), trail.getLon(i), trail.getTime(i), 0, Fix.Provider.OTHER);
+    }
+
+}
@@ -0,0 +1,12 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import onethreeseven.gpsstoptrack.StopDetector;
+
+/**
+ * Detectors are stateful, so every task that runs an algorithm gets a fresh one from its factory.
+ */
+interface DetectorFactory {
+
+    StopDetector newDetector();
+
+}
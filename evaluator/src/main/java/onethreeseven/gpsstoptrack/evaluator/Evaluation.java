@@ -0,0 +1,188 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+/**
+ * Scores of each algorithm (by index) over some trails: a per-fix confusion matrix
+ * (positive = stopped) and segment-level matches.
+ * A segment is a maximal run of stopped fixes. A true stop segment and a predicted one match
+ * when their intersection over union (in fixes) is more than a half, so each segment matches at most one other.
+ * Evaluations of disjoint sets of trails are combined with {@link #add(Evaluation)}.
+ */
+final class Evaluation {
+
+    private final long[] truePositives;
+    private final long[] falsePositives;
+    private final long[] falseNegatives;
+    private final long[] trueNegatives;
+    private final long[] predictedSegments;
+    private final long[] matchedSegments;
+    private long trueSegments = 0;
+    private long trails = 0;
+    private long fixes = 0;
+
+    Evaluation(int nAlgorithms){
+        this.truePositives = new long[nAlgorithms];
+        this.falsePositives = new long[nAlgorithms];
+        this.falseNegatives = new long[nAlgorithms];
+        this.trueNegatives = new long[nAlgorithms];
+        this.predictedSegments = new long[nAlgorithms];
+        this.matchedSegments = new long[nAlgorithms];
+    }
+
+    /**
+     * Score one trail.
+     * @param trail The trail (its labels are the truth).
+     * @param predictions Per algorithm, the predicted stopped state of each fix in the trail.
+     */
+    void score(Trail trail, boolean[][] predictions){
+        int n = trail.size();
+        int[] trueStarts = new int[n / 2 + 1];
+        int[] trueEnds = new int[n / 2 + 1];
+        int[] predStarts = new int[n / 2 + 1];
+        int[] predEnds = new int[n / 2 + 1];
+
+        int nTrue = 0;
+        for (int i = 0; i < n; i++) {
+            if(trail.isStopped(i) && (i == 0 || !trail.isStopped(i - 1))){
+                trueStarts[nTrue] = i;
+            }
+            if(trail.isStopped(i) && (i == n - 1 || !trail.isStopped(i + 1))){
+                trueEnds[nTrue++] = i + 1;
+            }
+        }
+        trueSegments += nTrue;
+        trails++;
+        fixes += n;
+
+        for (int a = 0; a < predictions.length; a++) {
+            boolean[] predicted = predictions[a];
+            int nPred = 0;
+            for (int i = 0; i < n; i++) {
+                boolean truth = trail.isStopped(i);
+                if(predicted[i]){
+                    if(truth){
+                        truePositives[a]++;
+                    }else{
+                        falsePositives[a]++;
+                    }
+                    if(i == 0 || !predicted[i - 1]){
+                        predStarts[nPred] = i;
+                    }
+                    if(i == n - 1 || !predicted[i + 1]){
+                        predEnds[nPred++] = i + 1;
+                    }
+                }else if(truth){
+                    falseNegatives[a]++;
+                }else{
+                    trueNegatives[a]++;
+                }
+            }
+            predictedSegments[a] += nPred;
+            matchedSegments[a] += countMatches(trueStarts, trueEnds, nTrue, predStarts, predEnds, nPred);
+        }
+    }
+
+    void add(Evaluation other){
+        for (int a = 0; a < truePositives.length; a++) {
+            truePositives[a] += other.truePositives[a];
+            falsePositives[a] += other.falsePositives[a];
+            falseNegatives[a] += other.falseNegatives[a];
+            trueNegatives[a] += other.trueNegatives[a];
+            predictedSegments[a] += other.predictedSegments[a];
+            matchedSegments[a] += other.matchedSegments[a];
+        }
+        trueSegments += other.trueSegments;
+        trails += other.trails;
+        fixes += other.fixes;
+    }
+
+    long getTrails() {
+        return trails;
+    }
+
+    long getFixes() {
+        return fixes;
+    }
+
+    long getTruePositives(int algorithm){
+        return truePositives[algorithm];
+    }
+
+    long getFalsePositives(int algorithm){
+        return falsePositives[algorithm];
+    }
+
+    long getFalseNegatives(int algorithm){
+        return falseNegatives[algorithm];
+    }
+
+    long getTrueNegatives(int algorithm){
+        return trueNegatives[algorithm];
+    }
+
+    double getPrecision(int algorithm){
+        return ratio(truePositives[algorithm], truePositives[algorithm] + falsePositives[algorithm]);
+    }
+
+    double getRecall(int algorithm){
+        return ratio(truePositives[algorithm], truePositives[algorithm] + falseNegatives[algorithm]);
+    }
+
+    double getF1(int algorithm){
+        return f1(getPrecision(algorithm), getRecall(algorithm));
+    }
+
+    double getAccuracy(int algorithm){
+        return ratio(truePositives[algorithm] + trueNegatives[algorithm], fixes);
+    }
+
+    double getSegmentPrecision(int algorithm){
+        return ratio(matchedSegments[algorithm], predictedSegments[algorithm]);
+    }
+
+    double getSegmentRecall(int algorithm){
+        return ratio(matchedSegments[algorithm], trueSegments);
+    }
+
+    double getSegmentF1(int algorithm){
+        return f1(getSegmentPrecision(algorithm), getSegmentRecall(algorithm));
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Both lists of segments are sorted and disjoint, so sweep through them together.
+     */
+    private static long countMatches(int[] trueStarts, int[] trueEnds, int nTrue,
+                                     int[] predStarts, int[] predEnds, int nPred){
+        long matches = 0;
+        int p = 0;
+        for (int t = 0; t < nTrue; t++) {
+            while (p < nPred && predEnds[p] <= trueStarts[t]){
+                p++;
+            }
+            for (int q = p; q < nPred && predStarts[q] < trueEnds[t]; q++) {
+                int overlap = Math.min(trueEnds[t], predEnds[q]) - Math.max(trueStarts[t], predStarts[q]);
+                int union = Math.max(trueEnds[t], predEnds[q]) - Math.min(trueStarts[t], predStarts[q]);
+                if(2 * overlap > union){
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static double ratio(long numerator, long denominator){
+        return denominator == 0 ? Double.NaN : numerator / (double) denominator;
+    }
+
+    private static double f1(double precision, double recall){
+        if(precision + recall == 0){
+            return 0;
+        }
+        return 2 * precision * recall / (precision + recall);
+    }
+
+}
@@ -0,0 +1,61 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates the trails [from, to) by splitting them in half until there is one task per trail.
+ * A trail is loaded, its fixes are run through every algorithm (see {@link DetectionTask}) and then
+ * scored, so only the trails currently being worked on are ever in memory.
+ */
+final class EvaluationTask extends RecursiveTask<Evaluation> {
+
+    //only here because ForkJoinTask is Serializable, tasks are never serialized
+    private static final long serialVersionUID = 1L;
+
+    private final File[] trails;
+    private final DetectorFactory[] algorithms;
+    private final boolean smoothed;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param smoothed Whether the algorithms are run on the trails' smoothed positions (see {@link Trail#load(File, boolean)}).
+     */
+    EvaluationTask(File[] trails, DetectorFactory[] algorithms, boolean smoothed, int from, int to){
+        this.trails = trails;
+        this.algorithms = algorithms;
+        this.smoothed = smoothed;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected Evaluation compute() {
+        if(to - from > 1){
+            int mid = (from + to) >>> 1;
+            EvaluationTask left = new EvaluationTask(trails, algorithms, smoothed, from, mid);
+            left.fork();
+            Evaluation evaluation = new EvaluationTask(trails, algorithms, smoothed, mid, to).compute();
+            evaluation.add(left.join());
+            return evaluation;
+        }
+        Evaluation evaluation = new Evaluation(algorithms.length);
+        if(to == from){
+            return evaluation;
+        }
+        Trail trail;
+        try {
+            trail = Trail.load(trails[from], smoothed);
+        } catch (IOException e) {
+            System.err.println("Skipping unreadable trail " + trails[from] + ": " + e.getMessage());
+            return evaluation;
+        }
+        boolean[][] predictions = new boolean[algorithms.length][trail.size()];
+        new DetectionTask(trail, algorithms, predictions, 0, trail.size()).compute();
+        evaluation.score(trail, predictions);
+        return evaluation;
+    }
+
+}
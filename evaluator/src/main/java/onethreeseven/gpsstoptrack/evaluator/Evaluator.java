@@ -0,0 +1,142 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import onethreeseven.gpsstoptrack.SlidingWindowStopDetector;
+import onethreeseven.gpsstoptrack.SpeedStopDetector;
+import onethreeseven.gpsstoptrack.StopDetector;
+
+/**
+ * Scores stop/move detection algorithms against recorded (labelled) CSV trails, on all cores.
+ * Usage: {@code Evaluator [--smoothed] <trails dir|trail_*.txt> [...]}, directories are searched for trail_*.txt files.
+ * With --smoothed the algorithms are run on the trails' smoothed positions (where they have them).
+ * Prints each algorithm's per-fix confusion matrix, precision/recall/F1 and segment-level precision/recall/F1.
+ */
+public class Evaluator {
+
+    private final DetectorFactory[] algorithms;
+    private final String[] names;
+    private final ForkJoinPool pool;
+    private final boolean smoothed;
+
+    Evaluator(DetectorFactory[] algorithms, ForkJoinPool pool, boolean smoothed){
+        this.algorithms = algorithms;
+        this.pool = pool;
+        this.smoothed = smoothed;
+        this.names = new String[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            names[i] = algorithms[i].newDetector().getName();
+        }
+    }
+
+    Evaluation evaluate(File[] trails){
+        return pool.invoke(new EvaluationTask(trails, algorithms, smoothed, 0, trails.length));
+    }
+
+    String getName(int algorithm){
+        return names[algorithm];
+    }
+
+    /**
+     * @return The algorithms compared by default: the app's detectors with their defaults and a few variations.
+     */
+    static DetectorFactory[] defaultAlgorithms(){
+        return new DetectorFactory[]{
+                new DetectorFactory() {
+                    @Override
+                    public StopDetector newDetector() {
+                        return new SlidingWindowStopDetector();
+                    }
+                },
+                new DetectorFactory() {
+                    @Override
+                    public StopDetector newDetector() {
+                        return new SlidingWindowStopDetector(25, 2 * 60 * 1000L,
+                                SlidingWindowStopDetector.DEFAULT_MAX_WINDOW_FIXES);
+                    }
+                },
+                new DetectorFactory() {
+                    @Override
+                    public StopDetector newDetector() {
+                        return new SlidingWindowStopDetector(100, 5 * 60 * 1000L,
+                                SlidingWindowStopDetector.DEFAULT_MAX_WINDOW_FIXES);
+                    }
+                },
+                new DetectorFactory() {
+                    @Override
+                    public StopDetector newDetector() {
+                        return new SpeedStopDetector();
+                    }
+                },
+                new DetectorFactory() {
+                    @Override
+                    public StopDetector newDetector() {
+                        return new SpeedStopDetector(1.0, SpeedStopDetector.DEFAULT_MIN_BASELINE_MILLIS,
+                                SpeedStopDetector.DEFAULT_SMOOTHING);
+                    }
+                }
+        };
+    }
+
+    static File[] findTrails(String[] paths){
+        FilenameFilter trailFilter = new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("trail_") && name.endsWith(".txt");
+            }
+        };
+        List<File> trails = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if(file.isDirectory()){
+                File[] inDir = file.listFiles(trailFilter);
+                if(inDir != null){
+                    Arrays.sort(inDir);
+                    trails.addAll(Arrays.asList(inDir));
+                }
+            }else{
+                trails.add(file);
+            }
+        }
+        return trails.toArray(new File[trails.size()]);
+    }
+
+    public static void main(String[] args) {
+        boolean smoothed = args.length > 0 && args[0].equals("--smoothed");
+        int first = smoothed ? 1 : 0;
+        if(args.length == first){
+            System.err.println("Usage: Evaluator [--smoothed] <trails dir|trail_*.txt> [...]");
+            System.exit(1);
+        }
+        File[] trails = findTrails(Arrays.copyOfRange(args, first, args.length));
+        ForkJoinPool pool = new ForkJoinPool();
+        Evaluator evaluator = new Evaluator(defaultAlgorithms(), pool, smoothed);
+
+        long startNanos = System.nanoTime();
+        Evaluation evaluation = evaluator.evaluate(trails);
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+        pool.shutdown();
+
+        System.out.println(String.format("%d trails, %d fixes in %d ms (%d threads, %.0f fixes/s)%s",
+                evaluation.getTrails(), evaluation.getFixes(), elapsedMillis, pool.getParallelism(),
+                evaluation.getFixes() * 1000.0 / Math.max(1, elapsedMillis), smoothed ? ", smoothed" : ""));
+        System.out.println(String.format("%-24s %10s %10s %10s %10s %6s %6s %6s %6s %6s %6s %6s",
+                "algorithm", "TP", "FP", "FN", "TN", "acc", "prec", "recall", "F1",
+                "sPrec", "sRec", "sF1"));
+        for (int a = 0; a < evaluator.algorithms.length; a++) {
+            System.out.println(String.format("%-24s %10d %10d %10d %10d %6.3f %6.3f %6.3f %6.3f %6.3f %6.3f %6.3f",
+                    evaluator.getName(a),
+                    evaluation.getTruePositives(a), evaluation.getFalsePositives(a),
+                    evaluation.getFalseNegatives(a), evaluation.getTrueNegatives(a),
+                    evaluation.getAccuracy(a), evaluation.getPrecision(a), evaluation.getRecall(a),
+                    evaluation.getF1(a), evaluation.getSegmentPrecision(a),
+                    evaluation.getSegmentRecall(a), evaluation.getSegmentF1(a)));
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.FixSelector;
+import onethreeseven.gpsstoptrack.SelectionMethod;
+
+/**
+ * Replays recorded trails through each fix selection strategy (see {@link SelectionMethod}) and
+ * measures the positional error of the selected fixes and the CPU time spent selecting per received fix.
+ * The received fixes are simulated around each trail (see {@link SimulatedFixes}), with the same
+ * fixes for every strategy.
+ * Usage: {@code SelectionReplay [--hz gpsHz] [--interval millis] <trails dir|trail_*.txt> [...]}
+ */
+public class SelectionReplay {
+
+    private static final long SEED = 137;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    private final int gpsHz;
+    private final long reportingInterval;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    //per method
+    private final long[] receivedFixes = new long[SelectionMethod.values().length];
+    private final long[] cpuNanos = new long[SelectionMethod.values().length];
+    private final double[][] errors = new double[SelectionMethod.values().length][];
+    private final int[] nErrors = new int[SelectionMethod.values().length];
+
+    //the selected fixes of the current trail
+    private double[] selectedLats = new double[1024];
+    private double[] selectedLons = new double[1024];
+    private long[] selectedTimes = new long[1024];
+
+    SelectionReplay(int gpsHz, long reportingInterval){
+        this.gpsHz = gpsHz;
+        this.reportingInterval = reportingInterval;
+        for (int m = 0; m < errors.length; m++) {
+            errors[m] = new double[1024];
+        }
+    }
+
+    void replay(File[] trails) throws IOException {
+        boolean warmedUp = false;
+        for (File trailFile : trails) {
+            SimulatedFixes fixes = new SimulatedFixes(Trail.load(trailFile), gpsHz, SEED);
+            if(fixes.size() == 0){
+                continue;
+            }
+            if(!warmedUp){
+                //let the JIT compile every strategy before anything is timed
+                for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+                    for (SelectionMethod method : SelectionMethod.values()) {
+                        select(fixes, method);
+                    }
+                }
+                warmedUp = true;
+            }
+            for (SelectionMethod method : SelectionMethod.values()) {
+                int m = method.ordinal();
+                long startCpu = threads.getCurrentThreadCpuTime();
+                int nSelected = select(fixes, method);
+                cpuNanos[m] += threads.getCurrentThreadCpuTime() - startCpu;
+                receivedFixes[m] += fixes.size();
+                for (int i = 0; i < nSelected; i++) {
+                    addError(m, fixes.error(selectedLats[i], selectedLons[i], selectedTimes[i]));
+                }
+            }
+        }
+    }
+
+    void printResults(){
+        System.out.println(String.format("%-18s %10s %10s %10s %10s %10s %12s",
+                "method", "selected", "mean(m)", "rms(m)", "p50(m)", "p95(m)", "cpu(ns/fix)"));
+        for (SelectionMethod method : SelectionMethod.values()) {
+            int m = method.ordinal();
+            int n = nErrors[m];
+            double[] sorted = Arrays.copyOf(errors[m], n);
+            Arrays.sort(sorted);
+            double sum = 0;
+            double sumSquares = 0;
+            for (double error : sorted) {
+                sum += error;
+                sumSquares += error * error;
+            }
+            System.out.println(String.format("%-18s %10d %10.2f %10.2f %10.2f %10.2f %12.1f",
+                    method, n, sum / n, Math.sqrt(sumSquares / n), percentile(sorted, 0.5),
+                    percentile(sorted, 0.95), cpuNanos[m] / (double) receivedFixes[m]));
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Run the fixes through a new selector using the method, keeping the selected fixes.
+     * @return The number of selected fixes.
+     */
+    private int select(SimulatedFixes fixes, SelectionMethod method){
+        FixSelector selector = new FixSelector();
+        selector.setStrategy(method.newStrategy());
+        selector.setReportingInterval(reportingInterval);
+        Fix fix = new Fix();
+        int nSelected = 0;
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix selected = selector.onFix(fixes.get(i, fix));
+            if(selected != null){
+                if(nSelected == selectedLats.length){
+                    selectedLats = Arrays.copyOf(selectedLats, nSelected * 2);
+                    selectedLons = Arrays.copyOf(selectedLons, nSelected * 2);
+                    selectedTimes = Arrays.copyOf(selectedTimes, nSelected * 2);
+                }
+                selectedLats[nSelected] = selected.getLat();
+                selectedLons[nSelected] = selected.getLon();
+                selectedTimes[nSelected] = selected.getTime();
+                nSelected++;
+            }
+        }
+        return nSelected;
+    }
+
+    private void addError(int m, double error){
+        if(nErrors[m] == errors[m].length){
+            errors[m] = Arrays.copyOf(errors[m], nErrors[m] * 2);
+        }
+        errors[m][nErrors[m]++] = error;
+    }
+
+    private static double percentile(double[] sorted, double p){
+        if(sorted.length == 0){
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    public static void main(String[] args) throws IOException {
+        int gpsHz = 1;
+        long reportingInterval = 1000L;
+        int first = 0;
+        while (first + 1 < args.length && args[first].startsWith("--")){
+            if(args[first].equals("--hz")){
+                gpsHz = Integer.parseInt(args[first + 1]);
+            }else if(args[first].equals("--interval")){
+                reportingInterval = Long.parseLong(args[first + 1]);
+            }else{
+                break;
+            }
+            first += 2;
+        }
+        if(first >= args.length){
+            System.err.println("Usage: SelectionReplay [--hz gpsHz] [--interval millis] <trails dir|trail_*.txt> [...]");
+            System.exit(1);
+        }
+        File[] trails = Evaluator.findTrails(Arrays.copyOfRange(args, first, args.length));
+        SelectionReplay replay = new SelectionReplay(gpsHz, reportingInterval);
+        replay.replay(trails);
+        System.out.println(String.format("%d trails, %d Hz GPS, %d ms interval", trails.length, gpsHz, reportingInterval));
+        replay.printResults();
+    }
+
+}
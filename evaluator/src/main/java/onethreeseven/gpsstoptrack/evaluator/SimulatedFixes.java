@@ -0,0 +1,142 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.Geo;
+
+/**
+ * The raw fixes a phone could have received while recording a trail, used to replay fix selection.
+ * A recorded trail only holds the fixes that were selected, so the raw ones are simulated around it:
+ * the trail (interpolated) is taken as the true path, GPS fixes arrive at "gpsHz" and NETWORK fixes
+ * about once a second, each with an accuracy (like Android's, the radius the true position is within
+ * 68% of the time) and noise to match. GPS has occasional outages (e.g. indoors) where its accuracy is poor.
+ * Stored as primitive columns so replaying them costs nothing but the selection itself.
+ */
+final class SimulatedFixes {
+
+    //per axis standard deviation of a fix's error is its accuracy divided by this (68% within the accuracy)
+    private static final double ACCURACY_TO_SIGMA = 1.51;
+
+    private final Trail truth;
+    private double[] lats;
+    private double[] lons;
+    private long[] times;
+    private float[] accuracies;
+    private boolean[] isGps;
+    private int size = 0;
+
+    SimulatedFixes(Trail truth, int gpsHz, long seed){
+        this.truth = truth;
+        int capacity = 16;
+        if(truth.size() > 1){
+            long duration = truth.getTime(truth.size() - 1) - truth.getTime(0);
+            capacity += (int) Math.min(Integer.MAX_VALUE / 2, duration / 1000 * (gpsHz + 1));
+        }
+        this.lats = new double[capacity];
+        this.lons = new double[capacity];
+        this.times = new long[capacity];
+        this.accuracies = new float[capacity];
+        this.isGps = new boolean[capacity];
+        if(truth.size() > 1){
+            simulate(gpsHz, new Random(seed));
+        }
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * Copy the i'th fix into the given one.
+     * @return The given fix.
+     */
+    Fix get(int i, Fix fix){
+        return fix.set(lats[i], lons[i], times[i], accuracies[i], isGps[i] ? Fix.Provider.GPS : Fix.Provider.NETWORK);
+    }
+
+    /**
+     * @return The distance (meters) of a position from the true position at the given time.
+     */
+    double error(double lat, double lon, long time){
+        int i = Math.min(Math.max(1, truth.indexAtOrAfter(time)), truth.size() - 1);
+        return Geo.distanceMeters(lat, lon, truthLat(i, time), truthLon(i, time));
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void simulate(int gpsHz, Random random){
+        long gpsPeriod = 1000L / gpsHz;
+        long end = truth.getTime(truth.size() - 1);
+        long gpsTime = truth.getTime(0);
+        long networkTime = gpsTime + random.nextInt(1000);
+        long outageLeft = 0;
+        int i = 1;
+        while (true){
+            boolean gps = gpsTime <= networkTime;
+            long time = gps ? gpsTime : networkTime;
+            if(time > end){
+                return;
+            }
+            while (truth.getTime(i) < time){
+                i++;
+            }
+            float accuracy;
+            if(gps){
+                if(outageLeft <= 0 && random.nextInt(2000) == 0){
+                    outageLeft = 10000L + random.nextInt(50000);
+                }
+                accuracy = outageLeft > 0 ? 30 + random.nextFloat() * 100 : 3 + (float) Math.abs(random.nextGaussian()) * 8;
+                long step = gpsPeriod + random.nextInt((int) (gpsPeriod / 5) + 1);
+                outageLeft -= step;
+                gpsTime += step;
+            }else{
+                accuracy = 20 + random.nextFloat() * 60;
+                networkTime += 800 + random.nextInt(400);
+            }
+            double sigma = accuracy / ACCURACY_TO_SIGMA;
+            double lat = truthLat(i, time);
+            append(lat + random.nextGaussian() * sigma / Geo.metersPerDegreeLat(),
+                    truthLon(i, time) + random.nextGaussian() * sigma / Geo.metersPerDegreeLon(lat),
+                    time, accuracy, gps);
+        }
+    }
+
+    /**
+     * The true latitude at a time between fix i - 1 and fix i of the trail.
+     */
+    private double truthLat(int i, long time){
+        return truth.getLat(i - 1) + (truth.getLat(i) - truth.getLat(i - 1)) * fraction(i, time);
+    }
+
+    private double truthLon(int i, long time){
+        return truth.getLon(i - 1) + (truth.getLon(i) - truth.getLon(i - 1)) * fraction(i, time);
+    }
+
+    private double fraction(int i, long time){
+        long t0 = truth.getTime(i - 1);
+        long t1 = truth.getTime(i);
+        return t1 <= t0 ? 1 : Math.min(1, Math.max(0, (time - t0) / (double) (t1 - t0)));
+    }
+
+    private void append(double lat, double lon, long time, float accuracy, boolean gps){
+        if(size == lats.length){
+            int capacity = size * 2;
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            times = Arrays.copyOf(times, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+            isGps = Arrays.copyOf(isGps, capacity);
+        }
+        lats[size] = lat;
+        lons[size] = lon;
+        times[size] = time;
+        accuracies[size] = accuracy;
+        isGps[size] = gps;
+        size++;
+    }
+
+}
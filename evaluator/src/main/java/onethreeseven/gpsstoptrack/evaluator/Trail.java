@@ -0,0 +1,134 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import onethreeseven.gpsstoptrack.MappedTrailReader;
+
+/**
+ * A CSV trail (lat,lon,time,Stopped|Moving[,predicted[,smoothedLat,smoothedLon]]) loaded into primitive columns.
+ * Either the raw or the smoothed positions can be loaded, lines without a smoothed position
+ * keep their raw one.
+ * The file is read with a {@link MappedTrailReader}, so loading a trail creates no per-line objects.
+ * Lines that don't parse (e.g. the last line of a trail cut off by a crash) are skipped.
+ */
+public final class Trail {
+
+    //rough bytes per line, used to size the columns up front
+    private static final int BYTES_PER_LINE_ESTIMATE = 40;
+
+    private final String name;
+    private final boolean smoothed;
+    private double[] lats;
+    private double[] lons;
+    private long[] times;
+    private boolean[] isStopped;
+    private int size = 0;
+
+    private Trail(String name, boolean smoothed, int capacity){
+        this.name = name;
+        this.smoothed = smoothed;
+        this.lats = new double[capacity];
+        this.lons = new double[capacity];
+        this.times = new long[capacity];
+        this.isStopped = new boolean[capacity];
+    }
+
+    public static Trail load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    /**
+     * @param smoothed Whether to load the smoothed positions (where the trail has them) rather than the raw ones.
+     */
+    public static Trail load(File file, boolean smoothed) throws IOException {
+        MappedTrailReader reader = new MappedTrailReader(file);
+        try{
+            Trail trail = new Trail(file.getName(), smoothed, (int) Math.min(Integer.MAX_VALUE - 16,
+                    reader.size() / BYTES_PER_LINE_ESTIMATE) + 16);
+            MappedTrailReader.Cursor cursor = reader.cursor();
+            while (cursor.next()){
+                double lat = cursor.getLat();
+                double lon = cursor.getLon();
+                if(smoothed && !Double.isNaN(cursor.getSmoothedLat()) && !Double.isNaN(cursor.getSmoothedLon())){
+                    lat = cursor.getSmoothedLat();
+                    lon = cursor.getSmoothedLon();
+                }
+                trail.append(lat, lon, cursor.getTime(), cursor.isStopped());
+            }
+            return trail;
+        }finally {
+            reader.close();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Whether the smoothed positions were loaded (where there are any).
+     */
+    public boolean isSmoothed() {
+        return smoothed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLat(int i){
+        return lats[i];
+    }
+
+    public double getLon(int i){
+        return lons[i];
+    }
+
+    public long getTime(int i){
+        return times[i];
+    }
+
+    public boolean isStopped(int i){
+        return isStopped[i];
+    }
+
+    /**
+     * @return The index of the first fix at or after the given time (or size() if there are none),
+     * assumes fixes are in time order.
+     */
+    public int indexAtOrAfter(long time){
+        int lo = 0;
+        int hi = size;
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(times[mid] < time){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void append(double lat, double lon, long time, boolean stopped){
+        if(size == lats.length){
+            int capacity = size * 2;
+            lats = Arrays.copyOf(lats, capacity);
+            lons = Arrays.copyOf(lons, capacity);
+            times = Arrays.copyOf(times, capacity);
+            isStopped = Arrays.copyOf(isStopped, capacity);
+        }
+        lats[size] = lat;
+        lons[size] = lon;
+        times[size] = time;
+        isStopped[size] = stopped;
+        size++;
+    }
+
+}
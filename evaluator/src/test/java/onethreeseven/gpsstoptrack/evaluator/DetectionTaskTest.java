@@ -0,0 +1,97 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import onethreeseven.gpsstoptrack.CsvTrailEncoder;
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.StopDetector;
+import onethreeseven.gpsstoptrack.SyntheticFixSource;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a {@link DetectionTask} split into warmed up segments run on a fork/join pool predicts what running
+ * the whole trail through one detector per algorithm does.
+ */
+public class DetectionTaskTest {
+
+    private static final long START_TIME = 1490000000000L;
+    //split into 8 segments
+    private static final int N_FIXES = 8 * DetectionTask.MIN_SEGMENT_FIXES;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void forkJoinMatchesSequential() throws IOException {
+        Trail trail = Trail.load(writeTrail());
+        assertEquals(N_FIXES, trail.size());
+        DetectorFactory[] algorithms = Evaluator.defaultAlgorithms();
+
+        boolean[][] parallel = new boolean[algorithms.length][trail.size()];
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try{
+            pool.invoke(new DetectionTask(trail, algorithms, parallel, 0, trail.size()));
+        }finally {
+            pool.shutdown();
+        }
+
+        Fix fix = new Fix();
+        int findingStops = 0;
+        for (int a = 0; a < algorithms.length; a++) {
+            StopDetector detector = algorithms[a].newDetector();
+            int stopped = 0;
+            int differences = 0;
+            for (int i = 0; i < trail.size(); i++) {
+                fix.set(trail.getLat(i), trail.getLon(i), trail.getTime(i), 0, Fix.Provider.OTHER);
+                boolean sequential = detector.onFix(fix);
+                if(sequential != parallel[a][i]){
+                    differences++;
+                }
+                if(sequential){
+                    stopped++;
+                }
+            }
+            if(stopped > 0 && stopped < trail.size()){
+                findingStops++;
+            }
+            //only fixes right at a threshold may differ, a segment's detector projects around its own first fix
+            assertTrue(detector.getName() + " differs at " + differences + " fixes",
+                    differences <= trail.size() / 1000);
+        }
+        //so there are stops and moves to get wrong
+        assertTrue(findingStops > 0);
+    }
+
+    //private methods
+
+    /**
+     * Write a synthetic walk with stops, a fix a second.
+     */
+    private File writeTrail() throws IOException {
+        File file = tmp.newFile("trail_1.txt");
+        SyntheticFixSource source = new SyntheticFixSource(-37.8136, 144.9631, START_TIME, 1000,
+                N_FIXES * 1000L, 7);
+        TrailEncoder encoder = new CsvTrailEncoder(new FileOutputStream(file));
+        try{
+            Fix fix = new Fix();
+            while (source.next(fix)){
+                encoder.write(fix.getLat(), fix.getLon(), fix.getTime(), source.isStopped(),
+                        TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+            }
+        }finally {
+            encoder.close();
+        }
+        return file;
+    }
+
+}
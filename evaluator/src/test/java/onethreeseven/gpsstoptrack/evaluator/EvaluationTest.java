@@ -0,0 +1,155 @@
+package onethreeseven.gpsstoptrack.evaluator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import onethreeseven.gpsstoptrack.CsvTrailEncoder;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Scores hand made predictions for a small trail with {@link Evaluation}: the per-fix counts, precision,
+ * recall and F1, which stop segments match (more than half their union in common) and combining evaluations.
+ */
+public class EvaluationTest {
+
+    private static final long START_TIME = 1490000000000L;
+    //stopped at [5, 10) and [13, 15)
+    private static final String TRUTH = "-----SSSSS---SS-----";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void perfectPredictionsScoreOne() throws IOException {
+        Evaluation evaluation = score(TRUTH);
+        assertEquals(1, evaluation.getTrails());
+        assertEquals(TRUTH.length(), evaluation.getFixes());
+        assertEquals(7, evaluation.getTruePositives(0));
+        assertEquals(13, evaluation.getTrueNegatives(0));
+        assertEquals(1, evaluation.getPrecision(0), 0);
+        assertEquals(1, evaluation.getRecall(0), 0);
+        assertEquals(1, evaluation.getF1(0), 0);
+        assertEquals(1, evaluation.getAccuracy(0), 0);
+        assertEquals(1, evaluation.getSegmentPrecision(0), 0);
+        assertEquals(1, evaluation.getSegmentRecall(0), 0);
+        assertEquals(1, evaluation.getSegmentF1(0), 0);
+    }
+
+    @Test
+    public void partlyRightPredictions() throws IOException {
+        Evaluation evaluation = score(
+                //the first stop a fix late (matches), a stop that isn't one and the second stop missed
+                "------SSSS-S--------",
+                //both stops as one long stop, which matches neither
+                "----SSSSSSSSSSSS----",
+                //half of the second stop, exactly half its union isn't enough to match
+                "-------------S------");
+
+        assertEquals(4, evaluation.getTruePositives(0));
+        assertEquals(1, evaluation.getFalsePositives(0));
+        assertEquals(3, evaluation.getFalseNegatives(0));
+        assertEquals(12, evaluation.getTrueNegatives(0));
+        assertEquals(4 / 5.0, evaluation.getPrecision(0), 1e-12);
+        assertEquals(4 / 7.0, evaluation.getRecall(0), 1e-12);
+        assertEquals(2 * 4 / (2 * 4 + 1 + 3.0), evaluation.getF1(0), 1e-12);
+        assertEquals(16 / 20.0, evaluation.getAccuracy(0), 1e-12);
+        assertEquals(1 / 2.0, evaluation.getSegmentPrecision(0), 1e-12);
+        assertEquals(1 / 2.0, evaluation.getSegmentRecall(0), 1e-12);
+        assertEquals(1 / 2.0, evaluation.getSegmentF1(0), 1e-12);
+
+        assertEquals(7 / 12.0, evaluation.getPrecision(1), 1e-12);
+        assertEquals(1, evaluation.getRecall(1), 0);
+        assertEquals(0, evaluation.getSegmentPrecision(1), 0);
+        assertEquals(0, evaluation.getSegmentRecall(1), 0);
+        assertEquals(0, evaluation.getSegmentF1(1), 0);
+
+        assertEquals(1, evaluation.getPrecision(2), 0);
+        assertEquals(1 / 7.0, evaluation.getRecall(2), 1e-12);
+        assertEquals(0, evaluation.getSegmentPrecision(2), 0);
+    }
+
+    @Test
+    public void noStopsPredictedHasNoPrecision() throws IOException {
+        Evaluation evaluation = score("--------------------");
+        assertEquals(0, evaluation.getRecall(0), 0);
+        assertEquals(0, evaluation.getSegmentRecall(0), 0);
+        assertEquals(Double.NaN, evaluation.getPrecision(0), 0);
+        assertEquals(Double.NaN, evaluation.getSegmentPrecision(0), 0);
+    }
+
+    @Test
+    public void addingIsScoringTogether() throws IOException {
+        Trail trail = writeTrail(TRUTH);
+        boolean[][] first = {states("------SSSS-S--------")};
+        boolean[][] second = {states("-----SSSSS----------")};
+        Evaluation together = new Evaluation(1);
+        together.score(trail, first);
+        together.score(trail, second);
+        Evaluation added = new Evaluation(1);
+        added.score(trail, first);
+        Evaluation other = new Evaluation(1);
+        other.score(trail, second);
+        added.add(other);
+
+        assertEquals(2, added.getTrails());
+        assertEquals(together.getFixes(), added.getFixes());
+        assertEquals(together.getTruePositives(0), added.getTruePositives(0));
+        assertEquals(together.getFalsePositives(0), added.getFalsePositives(0));
+        assertEquals(together.getFalseNegatives(0), added.getFalseNegatives(0));
+        assertEquals(together.getTrueNegatives(0), added.getTrueNegatives(0));
+        assertEquals(together.getSegmentPrecision(0), added.getSegmentPrecision(0), 0);
+        //2 of the 4 true stops matched
+        assertEquals(1 / 2.0, added.getSegmentRecall(0), 1e-12);
+    }
+
+    //private methods
+
+    /**
+     * Score the predictions (one per algorithm, as strings like TRUTH) for a trail labelled TRUTH.
+     */
+    private Evaluation score(String... predictions) throws IOException {
+        Trail trail = writeTrail(TRUTH);
+        boolean[][] predicted = new boolean[predictions.length][];
+        for (int a = 0; a < predictions.length; a++) {
+            predicted[a] = states(predictions[a]);
+        }
+        Evaluation evaluation = new Evaluation(predictions.length);
+        evaluation.score(trail, predicted);
+        return evaluation;
+    }
+
+    /**
+     * @return A trail with a fix a second, stopped where the labels have an 'S'.
+     */
+    private Trail writeTrail(String labels) throws IOException {
+        File file = tmp.newFile();
+        TrailEncoder encoder = new CsvTrailEncoder(new FileOutputStream(file));
+        try{
+            for (int i = 0; i < labels.length(); i++) {
+                encoder.write(-37.8 + i * 1e-4, 144.9, START_TIME + i * 1000L, labels.charAt(i) == 'S',
+                        TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+            }
+        }finally {
+            encoder.close();
+        }
+        Trail trail = Trail.load(file);
+        assertEquals(labels.length(), trail.size());
+        return trail;
+    }
+
+    private static boolean[] states(String labels){
+        boolean[] stopped = new boolean[labels.length()];
+        for (int i = 0; i < labels.length(); i++) {
+            stopped[i] = labels.charAt(i) == 'S';
+        }
+        return stopped;
+    }
+
+}
@@ -0,0 +1,139 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A reused buffer the text encoders build their output in, one entry at a time.
+ * Numbers and times are written out by hand so encoding an entry allocates nothing.
+ */
+final class AsciiLine {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private byte[] bytes = new byte[256];
+    //scratch space for writing out digits in reverse
+    private final byte[] digits = new byte[20];
+    private int size = 0;
+
+    AsciiLine clear(){
+        size = 0;
+        return this;
+    }
+
+    AsciiLine put(String str){
+        ensureCapacity(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            bytes[size++] = (byte) str.charAt(i);
+        }
+        return this;
+    }
+
+    AsciiLine put(char c){
+        ensureCapacity(1);
+        bytes[size++] = (byte) c;
+        return this;
+    }
+
+    AsciiLine putLong(long value){
+        if(value == Long.MIN_VALUE){
+            return put(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if(value < 0){
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int nDigits = 0;
+        do{
+            digits[nDigits++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }while (value != 0);
+        while (nDigits > 0){
+            bytes[size++] = digits[--nDigits];
+        }
+        return this;
+    }
+
+    /**
+     * Put the value rounded to the given number of decimal places (at most 9).
+     */
+    AsciiLine putDecimal(double value, int decimals){
+        if(Double.isNaN(value) || Double.isInfinite(value)){
+            return put(Double.toString(value));
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        if(value < 0 && scaled != 0){
+            put('-');
+        }
+        putLong(scaled / scale);
+        if(decimals > 0){
+            ensureCapacity(decimals + 1);
+            bytes[size++] = '.';
+            long fraction = scaled % scale;
+            for (int i = size + decimals - 1; i >= size; i--) {
+                bytes[i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            size += decimals;
+        }
+        return this;
+    }
+
+    /**
+     * Put the time as an ISO 8601 UTC timestamp, e.g. 2017-03-01T09:30:00.250Z.
+     */
+    AsciiLine putIsoTime(long millis){
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        long millisOfDay = millis - days * MILLIS_PER_DAY;
+        //civil date from days since 1970-01-01 (proleptic Gregorian), see H. Hinnant's date algorithms
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        putPadded(year, 4).put('-').putPadded(month, 2).put('-').putPadded(day, 2).put('T');
+        putPadded(millisOfDay / 3600000, 2).put(':').putPadded(millisOfDay / 60000 % 60, 2).put(':');
+        return putPadded(millisOfDay / 1000 % 60, 2).put('.').putPadded(millisOfDay % 1000, 3).put('Z');
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private AsciiLine putPadded(long value, int width){
+        long bound = 10;
+        for (int i = 1; i < width; i++) {
+            if(value >= 0 && value < bound){
+                put('0');
+            }
+            bound *= 10;
+        }
+        return putLong(value);
+    }
+
+    private void ensureCapacity(int extra){
+        if(size + extra > bytes.length){
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+    private static long floorDiv(long x, long y){
+        long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+}
@@ -0,0 +1,38 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.File;
+import java.io.IOException;
+
+import onethreeseven.gpsstoptrack.MappedTrailReader;
+
+/**
+ * Streams a CSV trail out of the memory-mapped file using a {@link MappedTrailReader}, so however
+ * long the trail is nothing is allocated per line (and the file is not read onto the heap).
+ */
+final class CsvTrailSource implements TrailSource {
+
+    private final MappedTrailReader reader;
+    private final MappedTrailReader.Cursor cursor;
+
+    CsvTrailSource(File trail) throws IOException {
+        this.reader = new MappedTrailReader(trail);
+        this.cursor = reader.cursor();
+    }
+
+    @Override
+    public int read(FixBlock block) throws IOException {
+        int added = 0;
+        while (!block.isFull() && cursor.next()){
+            block.add(cursor.getLat(), cursor.getLon(), cursor.getTime(), cursor.isStopped(),
+                    cursor.getPredicted(), cursor.getSmoothedLat(), cursor.getSmoothedLon());
+            added++;
+        }
+        return added;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
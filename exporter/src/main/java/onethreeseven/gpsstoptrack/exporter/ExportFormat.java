@@ -0,0 +1,44 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import onethreeseven.gpsstoptrack.BinaryTrailEncoder;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+/**
+ * The formats trails can be exported to.
+ * COLUMNAR is the app's own columnar binary format (see {@link BinaryTrailEncoder}): blocks of
+ * entries stored column by column, delta and varint encoded, with a footer indexing the blocks by time.
+ */
+enum ExportFormat {
+
+    GPX("gpx"),
+    GEOJSON("geojson"),
+    COLUMNAR("bin");
+
+    private final String fileExtension;
+
+    ExportFormat(String fileExtension){
+        this.fileExtension = fileExtension;
+    }
+
+    String getFileExtension(){
+        return fileExtension;
+    }
+
+    /**
+     * @param name The trail's name, e.g. its file name.
+     */
+    TrailEncoder newEncoder(OutputStream out, String name) throws IOException {
+        switch (this){
+            case GPX:
+                return new GpxTrailEncoder(out, name);
+            case GEOJSON:
+                return new GeoJsonTrailEncoder(out);
+            default:
+                return new BinaryTrailEncoder(out);
+        }
+    }
+
+}
@@ -0,0 +1,195 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.KalmanSmoother;
+import onethreeseven.gpsstoptrack.SimplifyingTrailEncoder;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+/**
+ * Exports one trail by streaming it through the stages parse -> smooth (optional) -> encode,
+ * each on its own thread, so a big trail is exported on up to three cores.
+ * Simplification (see {@link SimplifyingTrailEncoder}) is part of the encode stage.
+ * The stages pass {@link FixBlock}s through bounded queues and hand them back to the parse stage once
+ * encoded, so only "BLOCKS_IN_FLIGHT" blocks of the trail are ever in memory, whatever its size.
+ * If a stage fails the others are interrupted and the failure is thrown from {@link #export(File, File)}.
+ */
+final class ExportPipeline {
+
+    static final int BLOCK_SIZE = 4096;
+    static final int BLOCKS_IN_FLIGHT = 4;
+    //how often the encode stage checks on the other stages while it waits for a block
+    private static final long POLL_MILLIS = 50;
+
+    private final ExportFormat format;
+    private final float smoothingAccuracy;
+    private final double simplifyMaxErrorMeters;
+
+    /**
+     * @param smoothingAccuracy Smooth the raw positions with a {@link KalmanSmoother}, taking each fix
+     *                          to be this accurate (meters), or 0 to keep any smoothed positions the trail has.
+     * @param simplifyMaxErrorMeters Simplify the trail to within this many meters, 0 to keep every entry.
+     */
+    ExportPipeline(ExportFormat format, float smoothingAccuracy, double simplifyMaxErrorMeters){
+        this.format = format;
+        this.smoothingAccuracy = smoothingAccuracy;
+        this.simplifyMaxErrorMeters = simplifyMaxErrorMeters;
+    }
+
+    /**
+     * @return Number of entries read from the trail.
+     */
+    long export(File trail, File exported) throws IOException {
+        final BlockingQueue<FixBlock> free = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT);
+        final BlockingQueue<FixBlock> parsed = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT);
+        for (int i = 0; i < BLOCKS_IN_FLIGHT; i++) {
+            free.add(new FixBlock(BLOCK_SIZE));
+        }
+        final TrailSource source = TrailSources.open(trail);
+        Stage parse = new Stage("parse " + trail.getName()) {
+            @Override
+            void runStage() throws Exception {
+                while (true){
+                    FixBlock block = free.take();
+                    block.clear();
+                    block.last = source.read(block) == 0;
+                    parsed.put(block);
+                    if(block.last){
+                        return;
+                    }
+                }
+            }
+        };
+        Stage smooth = null;
+        BlockingQueue<FixBlock> toEncode = parsed;
+        if(smoothingAccuracy > 0){
+            final BlockingQueue<FixBlock> smoothed = new ArrayBlockingQueue<>(BLOCKS_IN_FLIGHT);
+            smooth = new Stage("smooth " + trail.getName()) {
+                private final KalmanSmoother smoother = new KalmanSmoother();
+                private final Fix fix = new Fix();
+
+                @Override
+                void runStage() throws Exception {
+                    while (true){
+                        FixBlock block = parsed.take();
+                        smooth(block);
+                        //once handed on the block can be encoded and refilled (as the last one) before we look
+                        boolean last = block.last;
+                        smoothed.put(block);
+                        if(last){
+                            return;
+                        }
+                    }
+                }
+
+                private void smooth(FixBlock block){
+                    for (int i = 0; i < block.size; i++) {
+                        fix.set(block.lats[i], block.lons[i], block.times[i], smoothingAccuracy, Fix.Provider.OTHER);
+                        smoother.smooth(fix);
+                        block.smoothedLats[i] = fix.getSmoothedLat();
+                        block.smoothedLons[i] = fix.getSmoothedLon();
+                    }
+                }
+            };
+            toEncode = smoothed;
+        }
+
+        long fixes = 0;
+        TrailEncoder encoder = null;
+        try{
+            parse.start();
+            if(smooth != null){
+                smooth.start();
+            }
+            encoder = format.newEncoder(new FileOutputStream(exported), trail.getName());
+            if(simplifyMaxErrorMeters > 0){
+                encoder = new SimplifyingTrailEncoder(encoder, simplifyMaxErrorMeters);
+            }
+            while (true){
+                FixBlock block = take(toEncode, parse, smooth);
+                block.writeTo(encoder);
+                fixes += block.size;
+                if(block.last){
+                    break;
+                }
+                free.put(block);
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted exporting " + trail, e);
+        }finally {
+            stop(parse);
+            stop(smooth);
+            source.close();
+            if(encoder != null){
+                encoder.close();
+            }
+        }
+        return fixes;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    /**
+     * Wait for the next block, failing if a stage before the encoder has failed.
+     */
+    private static FixBlock take(BlockingQueue<FixBlock> queue, Stage... stages) throws IOException, InterruptedException {
+        while (true){
+            FixBlock block = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if(block != null){
+                return block;
+            }
+            for (Stage stage : stages) {
+                if(stage != null && stage.error != null){
+                    throw new IOException(stage.getName() + " failed", stage.error);
+                }
+            }
+        }
+    }
+
+    private static void stop(Stage stage) throws IOException {
+        if(stage == null){
+            return;
+        }
+        stage.interrupt();
+        try {
+            stage.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted stopping " + stage.getName(), e);
+        }
+    }
+
+    private abstract static class Stage extends Thread {
+
+        private volatile Throwable error;
+
+        private Stage(String name){
+            super(name);
+            setDaemon(true);
+        }
+
+        abstract void runStage() throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                runStage();
+            } catch (InterruptedException e) {
+                //stopped by the encode stage
+            } catch (Throwable t) {
+                error = t;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+/**
+ * Exports recorded trails (any trail format) to GPX, GeoJSON or the columnar binary format, on all cores.
+ * Usage: {@code Exporter [--format gpx|geojson|columnar] [--smooth accuracyMeters] [--simplify meters]
+ * [--threads n] [--out dir] <trails dir|trail file> [...]}, directories are searched for trail files.
+ * Trails are exported "threads" at a time (by default one per core), each through its own
+ * {@link ExportPipeline}, and written to the "out" directory (by default "export" next to each trail).
+ * Exported files keep the trail's own extension, e.g. trail_123.bin.gpx, so a trail and its
+ * converted copy (see {@link onethreeseven.gpsstoptrack.BinaryTrailConverter}) don't export to the same file.
+ * Prints the number of fixes exported and the throughput in fixes per second.
+ */
+public class Exporter {
+
+    private final ExportPipeline pipeline;
+    private final ExecutorService pool;
+    private final int threads;
+    private final File outDir;
+
+    Exporter(ExportPipeline pipeline, int threads, File outDir){
+        this.pipeline = pipeline;
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.outDir = outDir;
+    }
+
+    /**
+     * Export the trails, reporting any that fail.
+     * @return Number of fixes exported.
+     */
+    long export(File[] trails, final ExportFormat format) throws InterruptedException {
+        List<Future<Long>> exports = new ArrayList<>();
+        for (final File trail : trails) {
+            exports.add(pool.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return pipeline.export(trail, exportedFile(trail, format));
+                }
+            }));
+        }
+        long fixes = 0;
+        for (int i = 0; i < trails.length; i++) {
+            try {
+                fixes += exports.get(i).get();
+            } catch (ExecutionException e) {
+                System.err.println("Failed to export " + trails[i] + ": " + e.getCause());
+            }
+        }
+        return fixes;
+    }
+
+    void shutdown(){
+        pool.shutdown();
+    }
+
+    static File[] findTrails(List<String> paths){
+        FileFilter trailFilter = new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith("trail_") && TrailFormat.of(file) != null;
+            }
+        };
+        //the same trail named twice (or in a directory also named) is exported once
+        Set<File> trails = new LinkedHashSet<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if(file.isDirectory()){
+                File[] inDir = file.listFiles(trailFilter);
+                if(inDir != null){
+                    Arrays.sort(inDir);
+                    for (File trail : inDir) {
+                        trails.add(trail.getAbsoluteFile());
+                    }
+                }
+            }else{
+                trails.add(file.getAbsoluteFile());
+            }
+        }
+        return trails.toArray(new File[trails.size()]);
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private File exportedFile(File trail, ExportFormat format){
+        File dir = outDir != null ? outDir : new File(trail.getAbsoluteFile().getParentFile(), "export");
+        if(!dir.exists()){
+            dir.mkdirs();
+        }
+        return new File(dir, trail.getName() + "." + format.getFileExtension());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ExportFormat format = ExportFormat.GPX;
+        float smoothingAccuracy = 0;
+        double simplifyMaxErrorMeters = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File outDir = null;
+        List<String> paths = new ArrayList<>();
+        try{
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]){
+                    case "--format":
+                        format = ExportFormat.valueOf(args[++i].toUpperCase(Locale.ENGLISH));
+                        break;
+                    case "--smooth":
+                        smoothingAccuracy = Float.parseFloat(args[++i]);
+                        break;
+                    case "--simplify":
+                        simplifyMaxErrorMeters = Double.parseDouble(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--out":
+                        outDir = new File(args[++i]);
+                        break;
+                    default:
+                        paths.add(args[i]);
+                }
+            }
+        }catch (RuntimeException e){
+            paths.clear();
+        }
+        if(paths.isEmpty()){
+            System.err.println("Usage: Exporter [--format gpx|geojson|columnar] [--smooth accuracyMeters] " +
+                    "[--simplify meters] [--threads n] [--out dir] <trails dir|trail file> [...]");
+            System.exit(1);
+        }
+        File[] trails = findTrails(paths);
+        Exporter exporter = new Exporter(new ExportPipeline(format, smoothingAccuracy, simplifyMaxErrorMeters),
+                threads, outDir);
+
+        long startNanos = System.nanoTime();
+        long fixes = exporter.export(trails, format);
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+        exporter.shutdown();
+
+        System.out.println(String.format("%d trails, %d fixes exported to %s in %d ms (%d threads, %.0f fixes/s)",
+                trails.length, fixes, format, elapsedMillis, exporter.threads,
+                fixes * 1000.0 / Math.max(1, elapsedMillis)));
+    }
+
+}
@@ -0,0 +1,65 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.IOException;
+
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+/**
+ * A block of trail entries in primitive columns, handed between the stages of an {@link ExportPipeline}.
+ * Blocks are reused, so however big a trail is only a few blocks of it are ever in memory.
+ */
+final class FixBlock {
+
+    final double[] lats;
+    final double[] lons;
+    final long[] times;
+    final boolean[] isStopped;
+    final byte[] predicted;
+    final double[] smoothedLats;
+    final double[] smoothedLons;
+    int size = 0;
+    //whether this is the last block of the trail (it may be empty)
+    boolean last = false;
+
+    FixBlock(int capacity){
+        this.lats = new double[capacity];
+        this.lons = new double[capacity];
+        this.times = new long[capacity];
+        this.isStopped = new boolean[capacity];
+        this.predicted = new byte[capacity];
+        this.smoothedLats = new double[capacity];
+        this.smoothedLons = new double[capacity];
+    }
+
+    int capacity(){
+        return lats.length;
+    }
+
+    boolean isFull(){
+        return size == lats.length;
+    }
+
+    void clear(){
+        size = 0;
+        last = false;
+    }
+
+    void add(double lat, double lon, long time, boolean stopped, byte predicted,
+             double smoothedLat, double smoothedLon){
+        lats[size] = lat;
+        lons[size] = lon;
+        times[size] = time;
+        isStopped[size] = stopped;
+        this.predicted[size] = predicted;
+        smoothedLats[size] = smoothedLat;
+        smoothedLons[size] = smoothedLon;
+        size++;
+    }
+
+    void writeTo(TrailEncoder encoder) throws IOException {
+        for (int i = 0; i < size; i++) {
+            encoder.write(lats[i], lons[i], times[i], isStopped[i], predicted[i], smoothedLats[i], smoothedLons[i]);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+/**
+ * Writes a trail as a GeoJSON FeatureCollection with a LineString feature per stop or move, whose
+ * properties are its movement state (stopped|moving), the times of its first and last fixes and its
+ * number of fixes. The properties follow the geometry so each feature can be streamed out as its
+ * fixes arrive, the per fix times are not kept (use GPX or the columnar format for those).
+ * Fixes with a smoothed position are written at their smoothed position.
+ */
+final class GeoJsonTrailEncoder implements TrailEncoder {
+
+    private static final int COORD_DECIMALS = 7;
+
+    private final OutputStream out;
+    private final AsciiLine line = new AsciiLine();
+    private int features = 0;
+    //the feature being written
+    private boolean inFeature = false;
+    private boolean featureStopped;
+    private long featureStart;
+    private long featureEnd;
+    private long featureFixes;
+    private double firstLat;
+    private double firstLon;
+
+    GeoJsonTrailEncoder(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        line.clear().put("{\"type\":\"FeatureCollection\",\"features\":[").writeTo(this.out);
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        if(!Double.isNaN(smoothedLat) && !Double.isNaN(smoothedLon)){
+            lat = smoothedLat;
+            lon = smoothedLon;
+        }
+        line.clear();
+        if(inFeature && isStopped != featureStopped){
+            endFeature();
+        }
+        if(!inFeature){
+            line.put(features++ == 0 ? "\n" : ",\n")
+                    .put("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+            inFeature = true;
+            featureStopped = isStopped;
+            featureStart = time;
+            featureFixes = 0;
+            firstLat = lat;
+            firstLon = lon;
+        }else{
+            line.put(',');
+        }
+        putPosition(lat, lon);
+        featureEnd = time;
+        featureFixes++;
+        line.writeTo(out);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            line.clear();
+            if(inFeature){
+                endFeature();
+            }
+            line.put("\n]}\n").writeTo(out);
+        }finally {
+            out.close();
+        }
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void putPosition(double lat, double lon){
+        line.put('[').putDecimal(lon, COORD_DECIMALS).put(',').putDecimal(lat, COORD_DECIMALS).put(']');
+    }
+
+    private void endFeature(){
+        if(featureFixes == 1){
+            //a LineString needs two positions
+            line.put(',');
+            putPosition(firstLat, firstLon);
+        }
+        line.put("]},\"properties\":{\"state\":\"").put(featureStopped ? "stopped" : "moving")
+                .put("\",\"start\":\"").putIsoTime(featureStart)
+                .put("\",\"end\":\"").putIsoTime(featureEnd)
+                .put("\",\"fixes\":").putLong(featureFixes).put("}}");
+        inFeature = false;
+    }
+
+}
@@ -0,0 +1,78 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+/**
+ * Writes a trail as a GPX 1.1 track, with a track segment per stop or move and each fix's movement
+ * state as its "type" (stopped|moving).
+ * Fixes with a smoothed position are written at their smoothed position.
+ */
+final class GpxTrailEncoder implements TrailEncoder {
+
+    private static final int COORD_DECIMALS = 7;
+
+    private final OutputStream out;
+    private final AsciiLine line = new AsciiLine();
+    private boolean inSegment = false;
+    private boolean segmentStopped;
+
+    /**
+     * @param name The name of the track, e.g. the trail's file name.
+     */
+    GpxTrailEncoder(OutputStream out, String name) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        line.clear()
+                .put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .put("<gpx version=\"1.1\" creator=\"137-GPS-Tracker\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n")
+                .put("<trk><name>").put(escape(name)).put("</name>\n")
+                .writeTo(this.out);
+    }
+
+    @Override
+    public void write(double lat, double lon, long time, boolean isStopped, byte predicted,
+                      double smoothedLat, double smoothedLon) throws IOException {
+        line.clear();
+        if(inSegment && isStopped != segmentStopped){
+            line.put("</trkseg>\n");
+            inSegment = false;
+        }
+        if(!inSegment){
+            line.put("<trkseg>\n");
+            inSegment = true;
+            segmentStopped = isStopped;
+        }
+        boolean smoothed = !Double.isNaN(smoothedLat) && !Double.isNaN(smoothedLon);
+        line.put("<trkpt lat=\"").putDecimal(smoothed ? smoothedLat : lat, COORD_DECIMALS)
+                .put("\" lon=\"").putDecimal(smoothed ? smoothedLon : lon, COORD_DECIMALS)
+                .put("\"><time>").putIsoTime(time)
+                .put("</time><type>").put(isStopped ? "stopped" : "moving").put("</type></trkpt>\n")
+                .writeTo(out);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try{
+            line.clear();
+            if(inSegment){
+                line.put("</trkseg>\n");
+            }
+            line.put("</trk>\n</gpx>\n").writeTo(out);
+        }finally {
+            out.close();
+        }
+    }
+
+    private static String escape(String text){
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+}
@@ -0,0 +1,17 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams the entries of a trail file into {@link FixBlock}s, see {@link TrailSources#open(java.io.File)}.
+ */
+interface TrailSource extends Closeable {
+
+    /**
+     * Add the next entries of the trail to the block, until it is full or the trail runs out.
+     * @return Number of entries added, 0 once there are no more.
+     */
+    int read(FixBlock block) throws IOException;
+
+}
@@ -0,0 +1,149 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import java.io.File;
+import java.io.IOException;
+
+import onethreeseven.gpsstoptrack.BinaryTrailReader;
+import onethreeseven.gpsstoptrack.JournalTrailEncoder;
+import onethreeseven.gpsstoptrack.JournalTrailReader;
+import onethreeseven.gpsstoptrack.SegmentedTrailReader;
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+/**
+ * Opens trail files of any {@link TrailFormat} as {@link TrailSource}s.
+ */
+final class TrailSources {
+
+    private TrailSources(){}
+
+    static TrailSource open(File trail) throws IOException {
+        TrailFormat format = TrailFormat.of(trail);
+        if(format == null){
+            throw new IOException("Not a trail file: " + trail);
+        }
+        switch (format){
+            case BINARY:
+                return new BinarySource(new BinaryTrailReader(trail));
+            case JOURNAL:
+                return new JournalSource(new JournalTrailReader(trail));
+            case SEGMENTED:
+                return new SegmentedSource(new SegmentedTrailReader(trail));
+            default:
+                return new CsvTrailSource(trail);
+        }
+    }
+
+    /**
+     * Reads a binary trail one of its blocks at a time.
+     */
+    private static final class BinarySource implements TrailSource {
+
+        private final BinaryTrailReader reader;
+        private final double[] lats;
+        private final double[] lons;
+        private final long[] times;
+        private final boolean[] isStopped;
+        private final byte[] predicted;
+        private final double[] smoothedLats;
+        private final double[] smoothedLons;
+        private int nextBlock = 0;
+        //the entries of the current block not yet added to a FixBlock
+        private int cursor = 0;
+        private int count = 0;
+
+        private BinarySource(BinaryTrailReader reader){
+            this.reader = reader;
+            int capacity = reader.getBlockCapacity();
+            this.lats = new double[capacity];
+            this.lons = new double[capacity];
+            this.times = new long[capacity];
+            this.isStopped = new boolean[capacity];
+            this.predicted = new byte[capacity];
+            this.smoothedLats = new double[capacity];
+            this.smoothedLons = new double[capacity];
+        }
+
+        @Override
+        public int read(FixBlock block) throws IOException {
+            int added = 0;
+            while (!block.isFull()){
+                if(cursor == count){
+                    if(nextBlock == reader.getBlockCount()){
+                        break;
+                    }
+                    count = reader.readBlock(nextBlock++, lats, lons, times, isStopped, predicted,
+                            smoothedLats, smoothedLons);
+                    cursor = 0;
+                    continue;
+                }
+                block.add(lats[cursor], lons[cursor], times[cursor], isStopped[cursor], predicted[cursor],
+                        smoothedLats[cursor], smoothedLons[cursor]);
+                cursor++;
+                added++;
+            }
+            return added;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+    }
+
+    private static final class JournalSource implements TrailSource {
+
+        private final JournalTrailReader reader;
+
+        private JournalSource(JournalTrailReader reader){
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(FixBlock block) throws IOException {
+            int added = 0;
+            byte type;
+            while (!block.isFull() && (type = reader.next()) != 0){
+                if(type == JournalTrailEncoder.TYPE_FIX){
+                    block.add(reader.getLat(), reader.getLon(), reader.getTime(), reader.isStopped(),
+                            reader.getPredicted(), reader.getSmoothedLat(), reader.getSmoothedLon());
+                    added++;
+                }
+            }
+            return added;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+    }
+
+    private static final class SegmentedSource implements TrailSource {
+
+        private final SegmentedTrailReader reader;
+
+        private SegmentedSource(SegmentedTrailReader reader){
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(FixBlock block) throws IOException {
+            int added = 0;
+            while (!block.isFull() && reader.next()){
+                block.add(reader.getLat(), reader.getLon(), reader.getTime(), reader.isStopped(),
+                        reader.getPredicted(), reader.getSmoothedLat(), reader.getSmoothedLon());
+                added++;
+            }
+            return added;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the numbers and times {@link AsciiLine} writes out by hand against the JDK's formatting.
+ */
+public class AsciiLineTest {
+
+    private final Random random = new Random(29);
+    private final AsciiLine line = new AsciiLine();
+
+    @Test
+    public void longsMatchToString() throws IOException {
+        long[] edges = {0, 1, -1, 9, 10, -10, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        for (long value : edges) {
+            assertEquals(Long.toString(value), toString(line.clear().putLong(value)));
+        }
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >> random.nextInt(64);
+            assertEquals(Long.toString(value), toString(line.clear().putLong(value)));
+        }
+    }
+
+    @Test
+    public void decimalsMatchBigDecimal() throws IOException {
+        for (int i = 0; i < 100000; i++) {
+            int decimals = random.nextInt(10);
+            //a value with exactly that many decimal places, so there is no rounding to disagree on
+            long unscaled = (long) ((random.nextDouble() - 0.5) * 360 * Math.pow(10, decimals));
+            double value = unscaled / Math.pow(10, decimals);
+            String expected = BigDecimal.valueOf(unscaled, decimals).toPlainString();
+            assertEquals(expected, toString(line.clear().putDecimal(value, decimals)));
+        }
+    }
+
+    @Test
+    public void decimalEdgeValues() throws IOException {
+        assertEquals("0.0000000", toString(line.clear().putDecimal(-0.00000001, 7)));
+        assertEquals("-0.0000001", toString(line.clear().putDecimal(-0.00000009, 7)));
+        assertEquals("180.0000000", toString(line.clear().putDecimal(179.99999999, 7)));
+        assertEquals("-12", toString(line.clear().putDecimal(-12.3, 0)));
+        assertEquals("NaN", toString(line.clear().putDecimal(Double.NaN, 7)));
+        assertEquals("-Infinity", toString(line.clear().putDecimal(Double.NEGATIVE_INFINITY, 7)));
+    }
+
+    @Test
+    public void isoTimesMatchSimpleDateFormat() throws IOException {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        //SimpleDateFormat switches to the Julian calendar before 1582, so stay after it
+        long[] edges = {0, -1, 951782400000L, 951868799999L, 4102444800000L, 1490000000000L};
+        for (long millis : edges) {
+            assertEquals(iso.format(new Date(millis)), toString(line.clear().putIsoTime(millis)));
+        }
+        for (int i = 0; i < 100000; i++) {
+            //1900 to 2100
+            long millis = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+            assertEquals(iso.format(new Date(millis)), toString(line.clear().putIsoTime(millis)));
+        }
+    }
+
+    @Test
+    public void growsPastItsInitialSize() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        line.clear();
+        for (int i = 0; i < 1000; i++) {
+            line.put("entry ").putLong(i).put('\n');
+            expected.append("entry ").append(i).append('\n');
+        }
+        assertEquals(expected.toString(), toString(line));
+    }
+
+    //private methods
+
+    private static String toString(AsciiLine line) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        line.writeTo(bytes);
+        return bytes.toString("US-ASCII");
+    }
+
+}
@@ -0,0 +1,292 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import onethreeseven.gpsstoptrack.BinaryTrailReader;
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.SyntheticFixSource;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exports trails of every {@link TrailFormat} through an {@link ExportPipeline}, big enough that the blocks
+ * in flight are reused: the columnar export reads back as the entries written, and the GPX and GeoJSON
+ * exports have a segment or feature per stop or move.
+ */
+public class ExportPipelineTest {
+
+    private static final double START_LAT = -37.8136;
+    private static final double START_LON = 144.9631;
+    private static final long START_TIME = 1490000000000L;
+    //more than fit in the blocks in flight
+    private static final int N_ENTRIES = ExportPipeline.BLOCK_SIZE * ExportPipeline.BLOCKS_IN_FLIGHT * 2 + 123;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final Random random = new Random(23);
+
+    @Test
+    public void everyFormatExportsTheEntriesWritten() throws IOException {
+        List<double[]> written = makeEntries();
+        for (TrailFormat format : TrailFormat.values()) {
+            File trail = writeTrail(format, written);
+            File exported = tmp.newFile("trail_" + format + ".exported.bin");
+            long fixes = new ExportPipeline(ExportFormat.COLUMNAR, 0, 0).export(trail, exported);
+            assertEquals(N_ENTRIES, fixes);
+            assertColumnar(format.toString(), exported, written);
+        }
+    }
+
+    @Test
+    public void gpxHasATrackSegmentPerStopOrMove() throws IOException {
+        List<double[]> written = makeEntries();
+        File exported = tmp.newFile("trail_1.gpx");
+        new ExportPipeline(ExportFormat.GPX, 0, 0).export(writeTrail(TrailFormat.CSV, written), exported);
+        String gpx = new String(Files.readAllBytes(exported.toPath()), StandardCharsets.UTF_8);
+
+        assertTrue(gpx.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<gpx version=\"1.1\""));
+        assertTrue(gpx.contains("<trk><name>trail_CSV.txt</name>\n<trkseg>\n"));
+        assertTrue(gpx.endsWith("</trkseg>\n</trk>\n</gpx>\n"));
+        assertEquals(runs(written), count(gpx, "<trkseg>"));
+        assertEquals(runs(written), count(gpx, "</trkseg>"));
+        assertEquals(N_ENTRIES, count(gpx, "<trkpt "));
+        assertEquals(countStopped(written), count(gpx, "<type>stopped</type>"));
+    }
+
+    @Test
+    public void geoJsonHasAFeaturePerStopOrMove() throws IOException {
+        List<double[]> written = makeEntries();
+        File exported = tmp.newFile("trail_1.geojson");
+        new ExportPipeline(ExportFormat.GEOJSON, 0, 0).export(writeTrail(TrailFormat.BINARY, written), exported);
+        String json = new String(Files.readAllBytes(exported.toPath()), StandardCharsets.UTF_8);
+
+        assertTrue(json.startsWith("{\"type\":\"FeatureCollection\",\"features\":[\n"));
+        assertTrue(json.endsWith("}}\n]}\n"));
+        assertEquals(runs(written), count(json, "{\"type\":\"Feature\","));
+        //every feature's fixes add up to the whole trail
+        long fixes = 0;
+        int at = 0;
+        while ((at = json.indexOf("\"fixes\":", at)) >= 0){
+            at += "\"fixes\":".length();
+            fixes += Long.parseLong(json.substring(at, json.indexOf('}', at)));
+        }
+        assertEquals(N_ENTRIES, fixes);
+    }
+
+    @Test
+    public void smoothingFillsEverySmoothedPosition() throws IOException {
+        List<double[]> written = makeEntries();
+        File exported = tmp.newFile("trail_1.smoothed.bin");
+        new ExportPipeline(ExportFormat.COLUMNAR, 10, 0).export(writeTrail(TrailFormat.JOURNAL, written), exported);
+        BinaryTrailReader reader = new BinaryTrailReader(exported);
+        try{
+            Columns columns = new Columns(reader.getBlockCapacity());
+            int n = 0;
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                int count = columns.read(reader, block);
+                for (int i = 0; i < count; i++) {
+                    //within a few meters of the raw fix
+                    assertEquals(columns.lats[i], columns.smoothedLats[i], 1e-3);
+                    assertEquals(columns.lons[i], columns.smoothedLons[i], 1e-3);
+                }
+                n += count;
+            }
+            assertEquals(N_ENTRIES, n);
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void simplifyingKeepsFewerEntries() throws IOException {
+        List<double[]> written = makeEntries();
+        //both sides of a predicted state change are kept, so without predictions only the bound drops entries
+        for (double[] entry : written) {
+            entry[4] = TrailEncoder.NO_PREDICTION;
+        }
+        File exported = tmp.newFile("trail_1.simplified.bin");
+        long fixes = new ExportPipeline(ExportFormat.COLUMNAR, 0, 20)
+                .export(writeTrail(TrailFormat.SEGMENTED, written), exported);
+        //all read, not all written
+        assertEquals(N_ENTRIES, fixes);
+        BinaryTrailReader reader = new BinaryTrailReader(exported);
+        try{
+            int n = 0;
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                n += reader.getBlockSize(block);
+            }
+            assertTrue(n > 0 && n < N_ENTRIES / 2);
+        }finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void notATrailFails() throws IOException {
+        File notATrail = tmp.newFile("trail_1.dat");
+        try{
+            new ExportPipeline(ExportFormat.GPX, 0, 0).export(notATrail, tmp.newFile("trail_1.gpx"));
+            fail("Exported a file that isn't a trail");
+        }catch (IOException e){
+            //expected
+        }
+    }
+
+    @Test
+    public void brokenTrailFailsTheExport() throws IOException {
+        File trail = tmp.newFile("trail_1.bin");
+        FileOutputStream out = new FileOutputStream(trail);
+        try{
+            out.write(new byte[1000]);
+        }finally {
+            out.close();
+        }
+        try{
+            new ExportPipeline(ExportFormat.GPX, 0, 0).export(trail, tmp.newFile("trail_1.gpx"));
+            fail("Exported a broken trail");
+        }catch (IOException e){
+            //expected
+        }
+    }
+
+    //private methods
+
+    /**
+     * @return A synthetic walk with stops, as {lat, lon, time, stopped, predicted, smoothedLat, smoothedLon},
+     * the coordinates rounded to the 6 decimal places a CSV trail keeps.
+     */
+    private List<double[]> makeEntries(){
+        SyntheticFixSource source = new SyntheticFixSource(START_LAT, START_LON, START_TIME, 1000,
+                TimeUnit.SECONDS.toMillis(N_ENTRIES), 3);
+        List<double[]> entries = new ArrayList<>();
+        Fix fix = new Fix();
+        while (source.next(fix)){
+            double lat = Math.round(fix.getLat() * 1e6) / 1e6;
+            double lon = Math.round(fix.getLon() * 1e6) / 1e6;
+            byte predicted = (byte) (random.nextInt(3) - 1);
+            boolean smoothed = random.nextBoolean();
+            entries.add(new double[]{lat, lon, fix.getTime(), source.isStopped() ? 1 : 0, predicted,
+                    smoothed ? lat + 1e-5 : Double.NaN, smoothed ? lon - 1e-5 : Double.NaN});
+        }
+        assertEquals(N_ENTRIES, entries.size());
+        return entries;
+    }
+
+    private File writeTrail(TrailFormat format, List<double[]> entries) throws IOException {
+        File trail = tmp.newFile("trail_" + format + "." + format.getFileExtension());
+        TrailEncoder encoder = format.newEncoder(trail, new FileOutputStream(trail), 1);
+        try{
+            for (double[] entry : entries) {
+                encoder.write(entry[0], entry[1], (long) entry[2], entry[3] == 1, (byte) entry[4], entry[5], entry[6]);
+            }
+        }finally {
+            encoder.close();
+        }
+        return trail;
+    }
+
+    private static void assertColumnar(String message, File exported, List<double[]> written) throws IOException {
+        BinaryTrailReader reader = new BinaryTrailReader(exported);
+        try{
+            Columns columns = new Columns(reader.getBlockCapacity());
+            int n = 0;
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                int count = columns.read(reader, block);
+                for (int i = 0; i < count; i++, n++) {
+                    double[] entry = written.get(n);
+                    String at = message + " entry " + n;
+                    assertEquals(at, entry[0], columns.lats[i], 1e-6);
+                    assertEquals(at, entry[1], columns.lons[i], 1e-6);
+                    assertEquals(at, (long) entry[2], columns.times[i]);
+                    assertEquals(at, entry[3] == 1, columns.isStopped[i]);
+                    assertEquals(at, (byte) entry[4], columns.predicted[i]);
+                    if(Double.isNaN(entry[5])){
+                        assertTrue(at, Double.isNaN(columns.smoothedLats[i]) && Double.isNaN(columns.smoothedLons[i]));
+                    }else{
+                        assertEquals(at, entry[5], columns.smoothedLats[i], 1e-6);
+                        assertEquals(at, entry[6], columns.smoothedLons[i], 1e-6);
+                    }
+                }
+            }
+            assertEquals(message, written.size(), n);
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static int runs(List<double[]> entries){
+        int runs = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if(i == 0 || entries.get(i)[3] != entries.get(i - 1)[3]){
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    private static int countStopped(List<double[]> entries){
+        int stopped = 0;
+        for (double[] entry : entries) {
+            if(entry[3] == 1){
+                stopped++;
+            }
+        }
+        return stopped;
+    }
+
+    private static int count(String text, String of){
+        int count = 0;
+        int at = 0;
+        while ((at = text.indexOf(of, at)) >= 0){
+            count++;
+            at += of.length();
+        }
+        return count;
+    }
+
+    /**
+     * A block of a columnar trail read back.
+     */
+    private static class Columns {
+
+        final double[] lats;
+        final double[] lons;
+        final long[] times;
+        final boolean[] isStopped;
+        final byte[] predicted;
+        final double[] smoothedLats;
+        final double[] smoothedLons;
+
+        Columns(int capacity){
+            lats = new double[capacity];
+            lons = new double[capacity];
+            times = new long[capacity];
+            isStopped = new boolean[capacity];
+            predicted = new byte[capacity];
+            smoothedLats = new double[capacity];
+            smoothedLons = new double[capacity];
+        }
+
+        int read(BinaryTrailReader reader, int block) throws IOException {
+            return reader.readBlock(block, lats, lons, times, isStopped, predicted, smoothedLats, smoothedLons);
+        }
+    }
+
+}
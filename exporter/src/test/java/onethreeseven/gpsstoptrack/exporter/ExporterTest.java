@@ -0,0 +1,87 @@
+package onethreeseven.gpsstoptrack.exporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import onethreeseven.gpsstoptrack.BinaryTrailConverter;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which trails {@link Exporter} finds and that each is exported to its own file, also when a trail
+ * and its CSV conversion sit side by side.
+ */
+public class ExporterTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final int N_ENTRIES = 5000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void trailAndItsConversionExportToDifferentFiles() throws Exception {
+        File trailsDir = tmp.newFolder("trails");
+        File binary = new File(trailsDir, "trail_1.bin");
+        writeTrail(binary);
+        BinaryTrailConverter.toCsv(binary, new File(trailsDir, "trail_1.txt"));
+        //not a trail
+        assertTrue(new File(trailsDir, "notes.txt").createNewFile());
+
+        //the binary trail is named on its own too, but only exported once
+        File[] trails = Exporter.findTrails(Arrays.asList(trailsDir.getPath(), binary.getPath()));
+        assertEquals(2, trails.length);
+
+        File outDir = tmp.newFolder("out");
+        Exporter exporter = new Exporter(new ExportPipeline(ExportFormat.GPX, 0, 0), 2, outDir);
+        try{
+            assertEquals(2 * N_ENTRIES, exporter.export(trails, ExportFormat.GPX));
+        }finally {
+            exporter.shutdown();
+        }
+        String[] exported = outDir.list();
+        Arrays.sort(exported);
+        assertEquals(Arrays.asList("trail_1.bin.gpx", "trail_1.txt.gpx"), Arrays.asList(exported));
+        for (String name : exported) {
+            String gpx = new String(Files.readAllBytes(new File(outDir, name).toPath()), StandardCharsets.UTF_8);
+            assertEquals(name, N_ENTRIES, count(gpx, "<trkpt "));
+            assertTrue(name, gpx.endsWith("</gpx>\n"));
+        }
+    }
+
+    //private methods
+
+    private static void writeTrail(File trail) throws IOException {
+        TrailEncoder encoder = TrailFormat.BINARY.newEncoder(new FileOutputStream(trail), 1);
+        try{
+            for (int i = 0; i < N_ENTRIES; i++) {
+                encoder.write(-37.8 + i * 1e-5, 144.9, START_TIME + i * 1000L, i % 100 < 30,
+                        TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+            }
+        }finally {
+            encoder.close();
+        }
+    }
+
+    private static int count(String text, String of){
+        int count = 0;
+        int at = 0;
+        while ((at = text.indexOf(of, at)) >= 0){
+            count++;
+            at += of.length();
+        }
+        return count;
+    }
+
+}
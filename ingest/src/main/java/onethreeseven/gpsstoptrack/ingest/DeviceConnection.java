@@ -0,0 +1,255 @@
+package onethreeseven.gpsstoptrack.ingest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import onethreeseven.gpsstoptrack.Metrics;
+import onethreeseven.gpsstoptrack.SegmentedTrailEncoder;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFormat;
+import onethreeseven.gpsstoptrack.TrackerLog;
+
+/**
+ * One device's connection to the {@link IngestServer}, only used by the thread of the selector it is registered with.
+ * Frames are parsed in place out of a fixed size buffer and the fixes are written straight to the device's
+ * trail file, so nothing is allocated per fix. Each read that completes any frames needs acknowledging with
+ * the number of fixes stored so far (see {@link IngestProtocol}): the reactor calls {@link #sync()} and then
+ * {@link #ack()} once it has read from all its ready connections, so the ack is only sent once the fixes are on disk.
+ */
+final class DeviceConnection {
+
+    private static final String TAG = DeviceConnection.class.getSimpleName();
+
+    private static final Metrics.Counter FIXES = Metrics.counter("ingest.fixes");
+    private static final Metrics.Counter BYTES = Metrics.counter("ingest.bytes");
+    private static final Metrics.Histogram FIXES_PER_READ = Metrics.histogram("ingest.fixes_per_read");
+    private static final Metrics.Histogram SYNC_MICROS = Metrics.histogram("ingest.sync_us");
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final File storageDir;
+    private final TrailFormat format;
+    private final ByteBuffer in = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+    //acks waiting to be sent, in write mode
+    private final ByteBuffer out = ByteBuffer.allocate(IngestProtocol.ACK_BYTES * 16);
+
+    //null until the device has said hello
+    private String deviceId;
+    private File trailFile;
+    private TrailEncoder encoder;
+    private FileOutputStream trailOut;
+    //a segmented trail's segments file, null for the other formats
+    private FileOutputStream segmentsOut;
+    private long fixCount = 0;
+    //frames read but not yet acknowledged
+    private boolean ackPending = false;
+    private boolean closed = false;
+
+    DeviceConnection(SocketChannel channel, SelectionKey key, File storageDir, TrailFormat format){
+        this.channel = channel;
+        this.key = key;
+        this.storageDir = storageDir;
+        this.format = format;
+    }
+
+    /**
+     * Read and store what the device has sent.
+     * @return Whether frames were read that now need a {@link #sync()} and {@link #ack()}.
+     */
+    boolean onReadable() throws IOException {
+        int read = channel.read(in);
+        if(read < 0){
+            close();
+            return false;
+        }
+        BYTES.add(read);
+        in.flip();
+        long fixesBefore = fixCount;
+        boolean framesRead = false;
+        while (in.remaining() >= IngestProtocol.HEADER_BYTES){
+            int length = in.getInt(in.position());
+            if(length < 1 || length > IngestProtocol.MAX_FRAME_BYTES - 4){
+                throw new IOException("Bad frame length " + length);
+            }
+            if(in.remaining() < 4 + length){
+                break;
+            }
+            in.getInt();
+            byte type = in.get();
+            int payloadBytes = length - 1;
+            if(type == IngestProtocol.HELLO){
+                onHello(payloadBytes);
+            }else if(type == IngestProtocol.FIXES){
+                onFixes(payloadBytes);
+            }else{
+                throw new IOException("Unknown frame type " + type);
+            }
+            framesRead = true;
+        }
+        in.compact();
+        if(framesRead){
+            if(encoder != null){
+                //everything read so far, a binary trail's partial block included
+                encoder.flush();
+            }
+            FIXES_PER_READ.record(fixCount - fixesBefore);
+            ackPending = true;
+        }
+        return framesRead;
+    }
+
+    /**
+     * Force the fixes written so far to disk.
+     */
+    void sync() throws IOException {
+        if(encoder == null){
+            return;
+        }
+        long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+        trailOut.getChannel().force(false);
+        if(segmentsOut != null){
+            segmentsOut.getChannel().force(false);
+        }
+        if(Metrics.isEnabled()){
+            SYNC_MICROS.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Send the number of fixes stored so far, call once they are synced.
+     */
+    void ack() throws IOException {
+        if(!ackPending){
+            return;
+        }
+        ackPending = false;
+        if(out.remaining() < IngestProtocol.ACK_BYTES){
+            throw new IOException("Device is not reading its acks");
+        }
+        IngestProtocol.putAck(out, fixCount);
+        onWritable();
+    }
+
+    void onWritable() throws IOException {
+        out.flip();
+        channel.write(out);
+        out.compact();
+        //only wait to write while there are acks left to send
+        int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if(key.interestOps() != ops){
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Close the connection and the device's trail, does nothing if already closed.
+     */
+    void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(encoder != null){
+            try {
+                encoder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            TrackerLog.i(TAG, "Closed " + trailFile + ", fixes: " + fixCount);
+        }else if(trailOut != null){
+            //opening the segments file failed
+            try {
+                trailOut.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    String getDeviceId(){
+        return deviceId;
+    }
+
+    long getFixCount(){
+        return fixCount;
+    }
+
+    boolean isClosed(){
+        return closed;
+    }
+
+    /////////////////////
+    //private methods
+    /////////////////////
+
+    private void onHello(int payloadBytes) throws IOException {
+        if(deviceId != null){
+            throw new IOException("Device " + deviceId + " said hello twice");
+        }
+        int idLength = in.getShort();
+        if(idLength < 0 || 2 + idLength + 4 != payloadBytes){
+            throw new IOException("Bad hello");
+        }
+        String id = new String(in.array(), in.arrayOffset() + in.position(), idLength, IngestProtocol.UTF_8);
+        in.position(in.position() + idLength);
+        int recordingInterval = in.getInt();
+        if(!IngestProtocol.isValidDeviceId(id)){
+            throw new IOException("Bad device id " + id);
+        }
+        deviceId = id;
+        openTrailFile(recordingInterval);
+    }
+
+    private void onFixes(int payloadBytes) throws IOException {
+        if(encoder == null){
+            throw new IOException("Fixes before hello");
+        }
+        if(payloadBytes % IngestProtocol.ENTRY_BYTES != 0){
+            throw new IOException("Bad fixes frame of " + payloadBytes + " bytes");
+        }
+        int nFixes = payloadBytes / IngestProtocol.ENTRY_BYTES;
+        for (int i = 0; i < nFixes; i++) {
+            encoder.write(in.getDouble(), in.getDouble(), in.getLong(), in.get() != 0, in.get(),
+                    in.getDouble(), in.getDouble());
+        }
+        fixCount += nFixes;
+        FIXES.add(nFixes);
+    }
+
+    /**
+     * Start a trail in the device's own directory, e.g. storageDir/phone-07/trail_1490000000000.jnl.
+     */
+    private void openTrailFile(int recordingInterval) throws IOException {
+        File deviceDir = new File(storageDir, deviceId);
+        if(!deviceDir.isDirectory() && !deviceDir.mkdirs()){
+            throw new IOException("Could not make " + deviceDir);
+        }
+        //a device that reconnects within the same millisecond gets the next one
+        long millis = System.currentTimeMillis();
+        File file;
+        while (!(file = new File(deviceDir, "trail_" + millis + "." + format.getFileExtension())).createNewFile()){
+            millis++;
+        }
+        trailFile = file;
+        trailOut = new FileOutputStream(trailFile);
+        if(format == TrailFormat.SEGMENTED){
+            //keep the segments stream too, so it can be synced
+            segmentsOut = new FileOutputStream(SegmentedTrailEncoder.segmentsFileOf(trailFile));
+            encoder = new SegmentedTrailEncoder(trailOut, segmentsOut);
+        }else{
+            encoder = format.newEncoder(trailOut, recordingInterval);
+        }
+        TrackerLog.i(TAG, "Device " + deviceId + " writing to " + trailFile);
+    }
+
+}
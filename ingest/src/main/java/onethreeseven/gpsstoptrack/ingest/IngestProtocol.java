@@ -0,0 +1,76 @@
+package onethreeseven.gpsstoptrack.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The framed TCP protocol devices send their trails to the {@link IngestServer} with.
+ * Every frame is [int length][byte type][payload], length counting the type and payload (big-endian).
+ * <ul>
+ *     <li>HELLO (device to server, first frame): [short id length][id (UTF-8)][int recording interval (s)]</li>
+ *     <li>FIXES (device to server): any number of entries of ENTRY_BYTES each,
+ *     [double lat][double lon][long time][byte isStopped][byte predicted][double smoothedLat][double smoothedLon]</li>
+ *     <li>ACK (server to device): [long fixes stored], sent once the fixes received so far are written
+ *     and forced to disk</li>
+ * </ul>
+ * A connection is one trail: the server closes the device's trail file when the device disconnects.
+ */
+final class IngestProtocol {
+
+    static final byte HELLO = 1;
+    static final byte FIXES = 2;
+    static final byte ACK = 3;
+
+    static final int HEADER_BYTES = 5;
+    static final int ENTRY_BYTES = 8 + 8 + 8 + 1 + 1 + 8 + 8;
+    static final int ACK_BYTES = HEADER_BYTES + 8;
+    //frames (header included) can be no bigger, so each connection only needs a small buffer
+    static final int MAX_FRAME_BYTES = 16 * 1024;
+    static final int MAX_FIXES_PER_FRAME = (MAX_FRAME_BYTES - HEADER_BYTES) / ENTRY_BYTES;
+    static final int MAX_DEVICE_ID_LENGTH = 64;
+    static final int DEFAULT_PORT = 13700;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private IngestProtocol(){}
+
+    static void putHello(ByteBuffer out, String deviceId, int recordingInterval){
+        byte[] id = deviceId.getBytes(UTF_8);
+        out.putInt(1 + 2 + id.length + 4).put(HELLO);
+        out.putShort((short) id.length).put(id).putInt(recordingInterval);
+    }
+
+    /**
+     * Put the header of a FIXES frame, to be followed by nFixes {@link #putEntry}s.
+     */
+    static void putFixesHeader(ByteBuffer out, int nFixes){
+        out.putInt(1 + nFixes * ENTRY_BYTES).put(FIXES);
+    }
+
+    static void putEntry(ByteBuffer out, double lat, double lon, long time, boolean isStopped, byte predicted,
+                         double smoothedLat, double smoothedLon){
+        out.putDouble(lat).putDouble(lon).putLong(time).put((byte) (isStopped ? 1 : 0)).put(predicted);
+        out.putDouble(smoothedLat).putDouble(smoothedLon);
+    }
+
+    static void putAck(ByteBuffer out, long fixesStored){
+        out.putInt(1 + 8).put(ACK).putLong(fixesStored);
+    }
+
+    /**
+     * @return Whether the id can name a device's directory: 1-64 letters, digits, '-' or '_'.
+     */
+    static boolean isValidDeviceId(String deviceId){
+        if(deviceId.isEmpty() || deviceId.length() > MAX_DEVICE_ID_LENGTH){
+            return false;
+        }
+        for (int i = 0; i < deviceId.length(); i++) {
+            char c = deviceId.charAt(i);
+            if(!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '-' && c != '_'){
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,279 @@
+package onethreeseven.gpsstoptrack.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import onethreeseven.gpsstoptrack.Metrics;
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+/**
+ * Receives the trails of many devices at once over TCP (see {@link IngestProtocol}) and stores each device's
+ * trails in its own directory, e.g. storageDir/phone-07/trail_1490000000000.jnl, in any trail format.
+ * Usage: {@code IngestServer [--port p] [--threads n] [--format csv|binary|journal|segmented] <storage dir>}.
+ * One thread accepts connections and hands them round robin to "threads" reactors (by default one per core),
+ * each multiplexing its share of the connections on its own selector, so thousands of devices need only
+ * a handful of threads. Prints the open connections and fixes stored per second every few seconds.
+ * <p>
+ * A reactor writes the fixes it reads on its own thread, and once it has read from every ready connection
+ * it flushes and forces their trail files to disk (FileChannel.force) before acking them, so an ack means the
+ * fixes survive a crash. That holds for a binary trail too, as flushing writes out its partially filled block
+ * (so small reads make small blocks) and a trail left without its footer is still read. A slow disk therefore holds up every connection of a reactor, not just the one writing;
+ * more reactors than cores keep more syncs in flight at once.
+ */
+public class IngestServer {
+
+    private static final Metrics.Counter CONNECTIONS = Metrics.counter("ingest.connections");
+    private static final Metrics.Counter FIXES = Metrics.counter("ingest.fixes");
+    private static final long STATS_INTERVAL_MILLIS = 5000;
+
+    private final ServerSocketChannel serverChannel;
+    private final Reactor[] reactors;
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    IngestServer(int port, int threads, File storageDir, TrailFormat format) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.socket().bind(new InetSocketAddress(port), 4096);
+        this.reactors = new Reactor[threads];
+        for (int i = 0; i < threads; i++) {
+            reactors[i] = new Reactor(storageDir, format);
+            reactors[i].setName("ingest-reactor-" + i);
+            reactors[i].start();
+        }
+    }
+
+    /**
+     * @return The port connections are accepted on (the one picked, if made with port 0).
+     */
+    int getPort(){
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Accept connections until the server socket is closed.
+     */
+    void acceptLoop(){
+        int next = 0;
+        while (serverChannel.isOpen()){
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                CONNECTIONS.inc();
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            } catch (IOException e) {
+                if(serverChannel.isOpen()){
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    int getOpenConnections(){
+        return openConnections.get();
+    }
+
+    /**
+     * Stop accepting connections and close every open one (and its trail).
+     */
+    void close() throws IOException {
+        serverChannel.close();
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+    }
+
+    /**
+     * One thread serving its share of the connections.
+     */
+    private class Reactor extends Thread {
+
+        private final Selector selector;
+        private final File storageDir;
+        private final TrailFormat format;
+        //accepted, waiting to be registered with the selector (which only this thread may do without blocking)
+        private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        //read from this round, waiting for their trails to be synced and acked
+        private final List<DeviceConnection> toAck = new ArrayList<>();
+        private volatile boolean running = true;
+
+        Reactor(File storageDir, TrailFormat format) throws IOException {
+            this.selector = Selector.open();
+            this.storageDir = storageDir;
+            this.format = format;
+            setDaemon(true);
+        }
+
+        void register(SocketChannel channel){
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        void shutdown(){
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running){
+                try {
+                    selector.select();
+                    registerAccepted();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()){
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        serve(key);
+                    }
+                    syncAndAck();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((DeviceConnection) key.attachment()).close();
+            }
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null){
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void registerAccepted() throws IOException {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null){
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new DeviceConnection(channel, key, storageDir, format));
+                openConnections.incrementAndGet();
+            }
+        }
+
+        private void serve(SelectionKey key){
+            DeviceConnection connection = (DeviceConnection) key.attachment();
+            try {
+                if(key.isReadable() && connection.onReadable()){
+                    toAck.add(connection);
+                }
+                if(key.isValid() && key.isWritable()){
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                drop(connection, e);
+            }
+            if(!key.isValid()){
+                openConnections.decrementAndGet();
+            }
+        }
+
+        /**
+         * Sync the trails of the connections read from this round, then ack them.
+         */
+        private void syncAndAck(){
+            for (int i = 0; i < toAck.size(); i++) {
+                DeviceConnection connection = toAck.get(i);
+                if(connection.isClosed()){
+                    continue;
+                }
+                try {
+                    connection.sync();
+                    connection.ack();
+                } catch (IOException e) {
+                    drop(connection, e);
+                    openConnections.decrementAndGet();
+                }
+            }
+            toAck.clear();
+        }
+
+        private void drop(DeviceConnection connection, IOException e){
+            System.err.println("Dropping device " + connection.getDeviceId() + ": " + e.getMessage());
+            connection.close();
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = IngestProtocol.DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        TrailFormat format = TrailFormat.JOURNAL;
+        File storageDir = null;
+        try{
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]){
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--format":
+                        format = TrailFormat.valueOf(args[++i].toUpperCase(Locale.ENGLISH));
+                        break;
+                    default:
+                        storageDir = new File(args[i]);
+                }
+            }
+        }catch (RuntimeException e){
+            storageDir = null;
+        }
+        if(storageDir == null){
+            System.err.println("Usage: IngestServer [--port p] [--threads n] " +
+                    "[--format csv|binary|journal|segmented] <storage dir>");
+            System.exit(1);
+        }
+        if(!storageDir.isDirectory() && !storageDir.mkdirs()){
+            System.err.println("Could not make " + storageDir);
+            System.exit(1);
+        }
+        Metrics.setEnabled(true);
+        final IngestServer server = new IngestServer(port, threads, storageDir, format);
+        System.out.println(String.format("Ingesting on port %d to %s (%s, %d threads)",
+                port, storageDir, format, threads));
+
+        Thread stats = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastFixes = FIXES.get();
+                while (true){
+                    try {
+                        Thread.sleep(STATS_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long fixes = FIXES.get();
+                    System.out.println(String.format("%d connections open, %d fixes stored (%.0f fixes/s)",
+                            server.getOpenConnections(), fixes,
+                            (fixes - lastFixes) * 1000.0 / STATS_INTERVAL_MILLIS));
+                    lastFixes = fixes;
+                }
+            }
+        }, "ingest-stats");
+        stats.setDaemon(true);
+        stats.start();
+
+        server.acceptLoop();
+    }
+
+}
@@ -0,0 +1,234 @@
+package onethreeseven.gpsstoptrack.ingest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.SyntheticFixSource;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+
+/**
+ * Load tests an {@link IngestServer} by simulating many devices, all connected at once, on one thread.
+ * Usage: {@code LoadGenerator [--host h] [--port p] [--devices n] [--fixes perDevice] [--batch fixesPerFrame]}.
+ * Each device says hello, then sends its fixes (made up by a {@link SyntheticFixSource} seeded by the device's
+ * number) a batch at a time, sending the next batch once the server acks the last one, and disconnects when done.
+ * Prints the devices that finished (and failed), the fixes acked per second and the bytes sent per second.
+ */
+public class LoadGenerator {
+
+    private static final int RECORDING_INTERVAL_SECONDS = 1;
+
+    private final Selector selector;
+    private final int fixesPerDevice;
+    private final int batchSize;
+    private int devicesRunning = 0;
+    private int devicesFailed = 0;
+    private long fixesAcked = 0;
+    private long bytesSent = 0;
+
+    LoadGenerator(int fixesPerDevice, int batchSize) throws IOException {
+        this.selector = Selector.open();
+        this.fixesPerDevice = fixesPerDevice;
+        this.batchSize = Math.max(1, Math.min(batchSize, IngestProtocol.MAX_FIXES_PER_FRAME));
+    }
+
+    /**
+     * Connect the devices and run them all until they finish (or fail).
+     */
+    void run(InetSocketAddress server, int nDevices) throws IOException {
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < nDevices; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.connect(server);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+            key.attach(new Device(i, key, startTime));
+            devicesRunning++;
+        }
+        while (devicesRunning > 0){
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                Device device = (Device) key.attachment();
+                try {
+                    device.serve();
+                } catch (IOException e) {
+                    System.err.println("Device " + device.id + " failed: " + e.getMessage());
+                    devicesFailed++;
+                    device.close();
+                }
+            }
+        }
+        selector.close();
+    }
+
+    /**
+     * A simulated device, only used by the generator's thread.
+     */
+    private class Device {
+
+        private final String id;
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final SyntheticFixSource source;
+        private final Fix fix = new Fix();
+        private final ByteBuffer out = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        private final ByteBuffer in = ByteBuffer.allocate(IngestProtocol.ACK_BYTES * 16);
+        private long fixesSent = 0;
+        //fixes the server says it has stored
+        private long acked = 0;
+        private boolean closed = false;
+
+        Device(int number, SelectionKey key, long startTime){
+            this.id = String.format("device-%05d", number);
+            this.key = key;
+            this.channel = (SocketChannel) key.channel();
+            //devices start spread over a few kilometers
+            this.source = new SyntheticFixSource(-37.8136 + (number % 100) * 0.0005, 144.9631 + (number / 100) * 0.0005,
+                    startTime, RECORDING_INTERVAL_SECONDS * 1000L,
+                    fixesPerDevice * RECORDING_INTERVAL_SECONDS * 1000L, number);
+        }
+
+        void serve() throws IOException {
+            if(key.isConnectable()){
+                channel.finishConnect();
+                IngestProtocol.putHello(out, id, RECORDING_INTERVAL_SECONDS);
+                putBatch();
+                write();
+                return;
+            }
+            if(key.isReadable()){
+                read();
+            }
+            if(key.isValid() && key.isWritable()){
+                write();
+            }
+        }
+
+        void close(){
+            if(closed){
+                return;
+            }
+            closed = true;
+            devicesRunning--;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /////////////////////
+        //private methods
+        /////////////////////
+
+        private void putBatch(){
+            int start = out.position();
+            out.position(start + IngestProtocol.HEADER_BYTES);
+            int nFixes = 0;
+            while (nFixes < batchSize && source.next(fix)){
+                IngestProtocol.putEntry(out, fix.getLat(), fix.getLon(), fix.getTime(), source.isStopped(),
+                        TrailEncoder.NO_PREDICTION, fix.getSmoothedLat(), fix.getSmoothedLon());
+                nFixes++;
+            }
+            int end = out.position();
+            out.position(start);
+            IngestProtocol.putFixesHeader(out, nFixes);
+            out.position(end);
+            fixesSent += nFixes;
+        }
+
+        private void write() throws IOException {
+            out.flip();
+            bytesSent += channel.write(out);
+            out.compact();
+            //once the batch is sent wait for its ack
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        private void read() throws IOException {
+            if(channel.read(in) < 0){
+                throw new IOException("Server closed the connection");
+            }
+            in.flip();
+            long ack = -1;
+            while (in.remaining() >= IngestProtocol.ACK_BYTES){
+                if(in.getInt() != 1 + 8 || in.get() != IngestProtocol.ACK){
+                    throw new IOException("Bad ack");
+                }
+                ack = in.getLong();
+            }
+            in.compact();
+            if(ack < 0){
+                return;
+            }
+            fixesAcked += ack - acked;
+            acked = ack;
+            if(acked < fixesSent){
+                return;
+            }
+            if(fixesSent >= fixesPerDevice){
+                close();
+                return;
+            }
+            putBatch();
+            write();
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = IngestProtocol.DEFAULT_PORT;
+        int nDevices = 1000;
+        int fixesPerDevice = 3600;
+        int batchSize = 60;
+        try{
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]){
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--devices":
+                        nDevices = Integer.parseInt(args[++i]);
+                        break;
+                    case "--fixes":
+                        fixesPerDevice = Integer.parseInt(args[++i]);
+                        break;
+                    case "--batch":
+                        batchSize = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        }catch (RuntimeException e){
+            System.err.println("Usage: LoadGenerator [--host h] [--port p] [--devices n] [--fixes perDevice] " +
+                    "[--batch fixesPerFrame]");
+            System.exit(1);
+        }
+        LoadGenerator generator = new LoadGenerator(fixesPerDevice, batchSize);
+
+        long startNanos = System.nanoTime();
+        generator.run(new InetSocketAddress(host, port), nDevices);
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+
+        System.out.println(String.format("%d devices (%d failed), %d fixes acked in %d ms (%.0f fixes/s, %.1f MB/s)",
+                nDevices, generator.devicesFailed, generator.fixesAcked, elapsedMillis,
+                generator.fixesAcked * 1000.0 / Math.max(1, elapsedMillis),
+                generator.bytesSent / 1048576.0 * 1000.0 / Math.max(1, elapsedMillis)));
+    }
+
+}
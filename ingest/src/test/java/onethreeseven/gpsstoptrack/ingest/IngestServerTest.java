@@ -0,0 +1,351 @@
+package onethreeseven.gpsstoptrack.ingest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+import onethreeseven.gpsstoptrack.BinaryTrailReader;
+import onethreeseven.gpsstoptrack.Fix;
+import onethreeseven.gpsstoptrack.SegmentedTrailEncoder;
+import onethreeseven.gpsstoptrack.TrailEncoder;
+import onethreeseven.gpsstoptrack.TrailFixSource;
+import onethreeseven.gpsstoptrack.TrailFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Talks to a real {@link IngestServer} over a local socket: fixes are stored and acked with the running
+ * total (also when frames arrive a byte at a time), acked fixes can be read while the device is still
+ * connected, and devices breaking the protocol are dropped.
+ */
+public class IngestServerTest {
+
+    private static final long START_TIME = 1490000000000L;
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private IngestServer server;
+    private Thread acceptThread;
+
+    @Before
+    public void setUp() throws IOException {
+        server = start(tmp.getRoot(), TrailFormat.JOURNAL);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        acceptThread.join(TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void fixesAreStoredAndAckedWithTheRunningTotal() throws IOException {
+        Socket socket = connect(server);
+        try{
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+            IngestProtocol.putHello(frames, "phone-01", 5);
+            putFixes(frames, 0, 3);
+            send(socket, frames);
+            assertEquals(3, readAcksUntil(in, 3));
+
+            putFixes(frames, 3, 8);
+            send(socket, frames);
+            assertEquals(8, readAcksUntil(in, 8));
+        }finally {
+            socket.close();
+        }
+        waitForNoConnections(server);
+
+        File trail = onlyTrailOf(new File(tmp.getRoot(), "phone-01"));
+        assertEquals(TrailFormat.JOURNAL, TrailFormat.of(trail));
+        assertFixes(trail, 8);
+    }
+
+    @Test
+    public void framesSplitAcrossReadsAreReassembled() throws IOException {
+        Socket socket = connect(server);
+        try{
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+            IngestProtocol.putHello(frames, "phone-02", 5);
+            putFixes(frames, 0, 4);
+            //a byte per write, so the server sees frames in pieces
+            OutputStream out = socket.getOutputStream();
+            for (int i = 0; i < frames.position(); i++) {
+                out.write(frames.array()[i]);
+                out.flush();
+            }
+            assertEquals(4, readAcksUntil(in, 4));
+        }finally {
+            socket.close();
+        }
+        waitForNoConnections(server);
+        assertFixes(onlyTrailOf(new File(tmp.getRoot(), "phone-02")), 4);
+    }
+
+    @Test
+    public void segmentedTrailIsStoredWithItsSegments() throws Exception {
+        File storageDir = tmp.newFolder();
+        IngestServer segmentedServer = start(storageDir, TrailFormat.SEGMENTED);
+        Thread segmentedAccept = acceptThread;
+        try{
+            Socket socket = connect(segmentedServer);
+            try{
+                ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+                IngestProtocol.putHello(frames, "phone-03", 5);
+                putFixes(frames, 0, 20);
+                send(socket, frames);
+                assertEquals(20, readAcksUntil(new DataInputStream(socket.getInputStream()), 20));
+            }finally {
+                socket.close();
+            }
+            waitForNoConnections(segmentedServer);
+        }finally {
+            segmentedServer.close();
+            segmentedAccept.join(TIMEOUT_MILLIS);
+        }
+        File trail = onlyTrailOf(new File(storageDir, "phone-03"));
+        assertTrue(SegmentedTrailEncoder.segmentsFileOf(trail).isFile());
+        assertFixes(trail, 20);
+    }
+
+    @Test
+    public void ackedFixesOfABinaryTrailAreReadBeforeItIsClosed() throws Exception {
+        File storageDir = tmp.newFolder();
+        IngestServer binaryServer = start(storageDir, TrailFormat.BINARY);
+        Thread binaryAccept = acceptThread;
+        try{
+            Socket socket = connect(binaryServer);
+            try{
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+                IngestProtocol.putHello(frames, "phone-04", 5);
+                putFixes(frames, 0, 20);
+                send(socket, frames);
+                assertEquals(20, readAcksUntil(in, 20));
+                //far from a full block, and no footer until the device disconnects
+                File trail = onlyTrailOf(new File(storageDir, "phone-04"));
+                assertUnclosed(trail);
+                assertFixes(trail, 20);
+
+                putFixes(frames, 20, 35);
+                send(socket, frames);
+                assertEquals(35, readAcksUntil(in, 35));
+                assertUnclosed(trail);
+                assertFixes(trail, 35);
+            }finally {
+                socket.close();
+            }
+            waitForNoConnections(binaryServer);
+        }finally {
+            binaryServer.close();
+            binaryAccept.join(TIMEOUT_MILLIS);
+        }
+        File trail = onlyTrailOf(new File(storageDir, "phone-04"));
+        BinaryTrailReader reader = new BinaryTrailReader(trail);
+        try{
+            assertTrue(reader.hasFooter());
+        }finally {
+            reader.close();
+        }
+        assertFixes(trail, 35);
+    }
+
+    @Test
+    public void fixesBeforeHelloAreRefused() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        putFixes(frames, 0, 2);
+        assertDropped(frames);
+    }
+
+    @Test
+    public void helloTwiceIsRefused() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        IngestProtocol.putHello(frames, "phone-04", 5);
+        IngestProtocol.putHello(frames, "phone-04", 5);
+        assertDropped(frames);
+    }
+
+    @Test
+    public void badDeviceIdIsRefused() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        IngestProtocol.putHello(frames, "../phone", 5);
+        assertDropped(frames);
+        assertEquals(0, tmp.getRoot().list().length);
+    }
+
+    @Test
+    public void badFrameLengthsAreRefused() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        frames.putInt(0).put(IngestProtocol.FIXES);
+        assertDropped(frames);
+
+        frames.clear();
+        IngestProtocol.putHello(frames, "phone-05", 5);
+        frames.putInt(IngestProtocol.MAX_FRAME_BYTES).put(IngestProtocol.FIXES);
+        assertDropped(frames);
+    }
+
+    @Test
+    public void partEntriesAreRefused() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        IngestProtocol.putHello(frames, "phone-06", 5);
+        frames.putInt(1 + IngestProtocol.ENTRY_BYTES + 1).put(IngestProtocol.FIXES);
+        frames.put(new byte[IngestProtocol.ENTRY_BYTES + 1]);
+        assertDropped(frames);
+    }
+
+    @Test
+    public void unknownFrameTypeIsRefused() throws IOException {
+        ByteBuffer frames = ByteBuffer.allocate(IngestProtocol.MAX_FRAME_BYTES);
+        IngestProtocol.putHello(frames, "phone-07", 5);
+        frames.putInt(1).put(IngestProtocol.ACK);
+        assertDropped(frames);
+    }
+
+    //private methods
+
+    private IngestServer start(File storageDir, TrailFormat format) throws IOException {
+        final IngestServer started = new IngestServer(0, 2, storageDir, format);
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                started.acceptLoop();
+            }
+        }, "ingest-accept");
+        acceptThread.start();
+        return started;
+    }
+
+    private static Socket connect(IngestServer server) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("localhost", server.getPort()), TIMEOUT_MILLIS);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    /**
+     * Send the frames put so far, and clear them.
+     */
+    private static void send(Socket socket, ByteBuffer frames) throws IOException {
+        socket.getOutputStream().write(frames.array(), 0, frames.position());
+        socket.getOutputStream().flush();
+        frames.clear();
+    }
+
+    private static void putFixes(ByteBuffer frames, int from, int to){
+        IngestProtocol.putFixesHeader(frames, to - from);
+        for (int i = from; i < to; i++) {
+            IngestProtocol.putEntry(frames, -37.8 + i * 1e-4, 144.9, START_TIME + i * 1000L, i >= 10,
+                    TrailEncoder.NO_PREDICTION, Double.NaN, Double.NaN);
+        }
+    }
+
+    /**
+     * Read acks until one acks the given number of fixes, checking they never go backwards or past it.
+     */
+    private static long readAcksUntil(DataInputStream in, long fixes) throws IOException {
+        long acked = 0;
+        while (acked < fixes){
+            assertEquals(1 + 8, in.readInt());
+            assertEquals(IngestProtocol.ACK, in.readByte());
+            long ack = in.readLong();
+            assertTrue("Ack went from " + acked + " to " + ack, ack >= acked && ack <= fixes);
+            acked = ack;
+        }
+        return acked;
+    }
+
+    /**
+     * Send the frames and check the server closes the connection without acking any fixes.
+     */
+    private void assertDropped(ByteBuffer frames) throws IOException {
+        Socket socket = connect(server);
+        try{
+            send(socket, frames);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            try{
+                while (true){
+                    assertEquals(1 + 8, in.readInt());
+                    assertEquals(IngestProtocol.ACK, in.readByte());
+                    //a hello may be acked before the bad frame is read
+                    assertEquals(0, in.readLong());
+                }
+            }catch (EOFException | SocketException e){
+                //closed (or reset) by the server
+            }
+        }finally {
+            socket.close();
+        }
+        waitForNoConnections(server);
+    }
+
+    private static void waitForNoConnections(IngestServer server){
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.getOpenConnections() > 0){
+            assertTrue("Timed out waiting for the server to close the connection",
+                    System.currentTimeMillis() < deadline);
+            Thread.yield();
+        }
+    }
+
+    private static File onlyTrailOf(File deviceDir){
+        File[] trails = deviceDir.listFiles();
+        if(trails == null){
+            fail("No directory for " + deviceDir.getName());
+        }
+        File trail = null;
+        for (File file : trails) {
+            if(TrailFormat.of(file) != null){
+                assertTrue("More than one trail in " + deviceDir, trail == null);
+                trail = file;
+            }
+        }
+        assertTrue("No trail in " + deviceDir, trail != null);
+        return trail;
+    }
+
+    private static void assertUnclosed(File trail) throws IOException {
+        BinaryTrailReader reader = new BinaryTrailReader(trail);
+        try{
+            assertTrue(!reader.hasFooter());
+        }finally {
+            reader.close();
+        }
+    }
+
+    private static void assertFixes(File trail, int nFixes) throws IOException {
+        TrailFixSource source = new TrailFixSource(trail);
+        try{
+            Fix fix = new Fix();
+            int i = 0;
+            while (source.next(fix)){
+                assertEquals(-37.8 + i * 1e-4, fix.getLat(), 1e-6);
+                assertEquals(START_TIME + i * 1000L, fix.getTime());
+                i++;
+            }
+            assertEquals(nFixes, i);
+        }finally {
+            source.close();
+        }
+    }
+
+}